@@ -0,0 +1,67 @@
+package us.kbase.userandjobstate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import us.kbase.userandjobstate.benchmark.BenchmarkMongo;
+import us.kbase.userandjobstate.benchmark.JobGenerator;
+import us.kbase.userandjobstate.jobstate.Job;
+import us.kbase.userandjobstate.jobstate.JobState;
+import us.kbase.userandjobstate.test.FakeJob;
+
+/** Benchmarks for converting {@link Job}s into the structures returned by
+ * the API. This class is in the server package since the conversion methods
+ * are package private.
+ *
+ * The jobs are generated with a fixed seed and read from the database during
+ * setup, so the benchmarks themselves do not touch the database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JobConversionBenchmark {
+
+	private static final String DB_NAME = "jobconversion_benchmark";
+	private static final int JOB_COUNT = 500;
+
+	private List<Job> jobs;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final BenchmarkMongo mongo = new BenchmarkMongo();
+		try {
+			final JobState js = mongo.getJobState(DB_NAME);
+			jobs = new ArrayList<Job>();
+			for (final FakeJob fj: new JobGenerator(
+					JobGenerator.DEFAULT_SEED, 20, 5).populate(js, JOB_COUNT)) {
+				jobs.add(js.getJob(fj.user, fj.getID()));
+			}
+		} finally {
+			mongo.destroy();
+		}
+	}
+
+	@Benchmark
+	public void jobToJobInfo2(final Blackhole bh) {
+		for (final Job j: jobs) {
+			bh.consume(UserAndJobStateServer.jobToJobInfo2(j));
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package us.kbase.userandjobstate.benchmark;
+
+import static us.kbase.userandjobstate.UserAndJobStateServer.JOB_COLLECTION;
+import static us.kbase.userandjobstate.UserAndJobStateServer.SCHEMA_VERS_COLLECTION;
+import static us.kbase.userandjobstate.UserAndJobStateServer.USER_COLLECTION;
+
+import java.nio.file.Paths;
+
+import com.mongodb.MongoClient;
+
+import us.kbase.common.schemamanager.SchemaManager;
+import us.kbase.common.test.TestCommon;
+import us.kbase.common.test.controllers.mongo.MongoController;
+import us.kbase.userandjobstate.jobstate.JobState;
+import us.kbase.userandjobstate.userstate.UserState;
+
+/** Starts a temporary mongod for benchmarks in the same way as the test
+ * suites, using the mongod executable and temporary directory specified in
+ * the test configuration file.
+ */
+public class BenchmarkMongo {
+
+	private final MongoController mongo;
+	private final MongoClient client;
+
+	/** Start mongod and connect to it.
+	 * @throws Exception if mongod could not be started.
+	 */
+	public BenchmarkMongo() throws Exception {
+		TestCommon.stfuLoggers();
+		mongo = new MongoController(
+				TestCommon.getMongoExe(),
+				Paths.get(TestCommon.getTempDir()),
+				TestCommon.useWiredTigerEngine());
+		System.out.println("Using Mongo temp dir " + mongo.getTempDir());
+		client = new MongoClient("localhost:" + mongo.getServerPort());
+	}
+
+	/** Get the client connected to mongod.
+	 * @return the client.
+	 */
+	public MongoClient getClient() {
+		return client;
+	}
+
+	/** Get a job state instance backed by an empty database.
+	 * @param dbName the name of the database.
+	 * @return the job state instance.
+	 * @throws Exception if the job state could not be created.
+	 */
+	public JobState getJobState(final String dbName) throws Exception {
+		TestCommon.destroyDB(client.getDB(dbName));
+		return JobState.getBuilder(
+				client.getDatabase(dbName).getCollection(JOB_COLLECTION),
+				new SchemaManager(client.getDatabase(dbName).getCollection(
+						SCHEMA_VERS_COLLECTION)))
+				.build();
+	}
+
+	/** Get a user state instance backed by an empty database.
+	 * @param dbName the name of the database.
+	 * @return the user state instance.
+	 * @throws Exception if the user state could not be created.
+	 */
+	public UserState getUserState(final String dbName) throws Exception {
+		TestCommon.destroyDB(client.getDB(dbName));
+		return new UserState(
+				client.getDatabase(dbName).getCollection(USER_COLLECTION),
+				new SchemaManager(client.getDatabase(dbName).getCollection(
+						SCHEMA_VERS_COLLECTION)));
+	}
+
+	/** Disconnect from and shut down mongod. */
+	public void destroy() throws Exception {
+		client.close();
+		mongo.destroy(TestCommon.getDeleteTempFiles());
+	}
+}
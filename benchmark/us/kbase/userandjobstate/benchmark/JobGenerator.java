@@ -0,0 +1,184 @@
+package us.kbase.userandjobstate.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import us.kbase.userandjobstate.authorization.DefaultUJSAuthorizer;
+import us.kbase.userandjobstate.authorization.UJSAuthorizer;
+import us.kbase.userandjobstate.jobstate.Job;
+import us.kbase.userandjobstate.jobstate.JobResult;
+import us.kbase.userandjobstate.jobstate.JobResults;
+import us.kbase.userandjobstate.jobstate.JobState;
+import us.kbase.userandjobstate.test.FakeJob;
+import us.kbase.workspace.database.WorkspaceUserMetadata;
+
+/** Generates reproducible job data for benchmarks. Given the same seed, the
+ * generator always produces the same sequence of users, services,
+ * descriptions, metadata, and results, and so the same database contents
+ * (other than job IDs and dates).
+ */
+public class JobGenerator {
+
+	public static final long DEFAULT_SEED = 20190401;
+
+	private static final String CHARS =
+			"abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+	private static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+	private final Random rand;
+	private final int userCount;
+	private final int serviceCount;
+
+	/** Create a generator.
+	 * @param seed the random seed.
+	 * @param userCount the number of distinct users to generate.
+	 * @param serviceCount the number of distinct services to generate.
+	 */
+	public JobGenerator(
+			final long seed,
+			final int userCount,
+			final int serviceCount) {
+		rand = new Random(seed);
+		this.userCount = userCount;
+		this.serviceCount = serviceCount;
+	}
+
+	/** Get the name of the nth user.
+	 * @param n the user number.
+	 * @return the user name.
+	 */
+	public static String user(final int n) {
+		return "user" + n;
+	}
+
+	/** Get the name of the nth service.
+	 * @param n the service number.
+	 * @return the service name.
+	 */
+	public static String service(final int n) {
+		return "service" + n;
+	}
+
+	public String randomUser() {
+		return user(rand.nextInt(userCount));
+	}
+
+	public String randomService() {
+		return service(rand.nextInt(serviceCount));
+	}
+
+	public String status() {
+		return "status " + string(5, 50);
+	}
+
+	public String description() {
+		return string(20, 500);
+	}
+
+	public Date estimatedCompletion() {
+		return new Date(System.currentTimeMillis() + DAY_MS +
+				rand.nextInt((int) DAY_MS));
+	}
+
+	public Map<String, String> metadata() {
+		final Map<String, String> meta = new HashMap<String, String>();
+		final int count = rand.nextInt(6);
+		for (int i = 0; i < count; i++) {
+			meta.put("key" + i, string(1, 50));
+		}
+		return meta;
+	}
+
+	public JobResults results() {
+		final List<JobResult> res = new LinkedList<JobResult>();
+		final List<String> wsids = new LinkedList<String>();
+		final List<String> nodes = new LinkedList<String>();
+		final int count = rand.nextInt(5);
+		for (int i = 0; i < count; i++) {
+			final String id = "" + rand.nextInt(100000);
+			res.add(new JobResult("Workspace", "https://kbase.us/services/ws",
+					id + "/1/1", string(0, 100)));
+			wsids.add(id);
+			nodes.add(string(36, 37));
+		}
+		return new JobResults(res, "https://kbase.us/services/ws", wsids,
+				"https://kbase.us/services/shock-api", nodes);
+	}
+
+	private String string(final int minLen, final int maxLen) {
+		final int len = minLen + rand.nextInt(maxLen - minLen);
+		final StringBuilder sb = new StringBuilder(len);
+		for (int i = 0; i < len; i++) {
+			sb.append(CHARS.charAt(rand.nextInt(CHARS.length())));
+		}
+		return sb.toString();
+	}
+
+	/** Create a job owned by a user in the given stage.
+	 * @param js the job state instance in which to create the job.
+	 * @param user the owner of the job.
+	 * @param stage the stage of the job - one of the stage constants in
+	 * {@link Job}.
+	 * @return the job as stored in the database.
+	 * @throws Exception if an exception occurs.
+	 */
+	public FakeJob createJob(
+			final JobState js,
+			final String user,
+			final String stage)
+			throws Exception {
+		final String id = js.createJob(user, new DefaultUJSAuthorizer(),
+				UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				UJSAuthorizer.DEFAULT_AUTH_PARAM,
+				new WorkspaceUserMetadata(metadata()));
+		if (!stage.equals(Job.CREATED)) {
+			final String service = randomService();
+			js.startJob(user, id, service, status(), description(),
+					1 + rand.nextInt(100), estimatedCompletion());
+			js.updateJob(user, id, service, status(), 1, null);
+			if (stage.equals(Job.COMPLETE)) {
+				js.completeJob(user, id, service, status(), null, results());
+			} else if (stage.equals(Job.ERROR)) {
+				js.completeJob(user, id, service, status(), string(10, 1000),
+						null);
+			} else if (stage.equals(Job.CANCELED)) {
+				js.cancelJob(user, id, status());
+			}
+		}
+		return new FakeJob(js.getJob(user, id));
+	}
+
+	/** Populate a database with jobs. Each job is owned by a random user,
+	 * is in a random stage, and is shared with another random user with a
+	 * probability of 0.2.
+	 * @param js the job state instance in which to create the jobs.
+	 * @param count the number of jobs to create.
+	 * @return the jobs as stored in the database.
+	 * @throws Exception if an exception occurs.
+	 */
+	public List<FakeJob> populate(final JobState js, final int count)
+			throws Exception {
+		final List<String> stages = Arrays.asList(Job.CREATED, Job.STARTED,
+				Job.COMPLETE, Job.ERROR, Job.CANCELED);
+		final List<FakeJob> jobs = new ArrayList<FakeJob>();
+		for (int i = 0; i < count; i++) {
+			final String user = randomUser();
+			final FakeJob j = createJob(js, user,
+					stages.get(rand.nextInt(stages.size())));
+			if (rand.nextInt(5) == 0) {
+				final String other = randomUser();
+				if (!other.equals(user)) {
+					js.shareJob(user, j.getID(), Arrays.asList(other));
+				}
+			}
+			jobs.add(j);
+		}
+		return jobs;
+	}
+}
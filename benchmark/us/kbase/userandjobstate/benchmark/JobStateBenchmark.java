@@ -0,0 +1,181 @@
+package us.kbase.userandjobstate.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import us.kbase.userandjobstate.jobstate.Job;
+import us.kbase.userandjobstate.jobstate.JobResults;
+import us.kbase.userandjobstate.jobstate.JobState;
+import us.kbase.userandjobstate.test.FakeJob;
+
+/** Benchmarks for the {@link JobState} methods called by the server.
+ *
+ * Each trial runs against a freshly started mongod populated with
+ * {@link #JOB_COUNT} jobs generated with a fixed seed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JobStateBenchmark {
+
+	private static final String DB_NAME = "jobstate_benchmark";
+	private static final int JOB_COUNT = 2000;
+	private static final int USER_COUNT = 20;
+	private static final int SERVICE_COUNT = 5;
+
+	@State(Scope.Benchmark)
+	public static class DB {
+
+		private BenchmarkMongo mongo;
+		JobState js;
+		JobGenerator gen;
+		List<FakeJob> jobs;
+		List<FakeJob> started;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			mongo = new BenchmarkMongo();
+			js = mongo.getJobState(DB_NAME);
+			gen = new JobGenerator(
+					JobGenerator.DEFAULT_SEED, USER_COUNT, SERVICE_COUNT);
+			jobs = gen.populate(js, JOB_COUNT);
+			started = new ArrayList<FakeJob>();
+			for (final FakeJob j: jobs) {
+				if (j.stage.equals(Job.STARTED)) {
+					started.add(j);
+				}
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			mongo.destroy();
+		}
+	}
+
+	/* The per invocation fixtures below create a job in the state required
+	 * by the benchmarked method. Per invocation setup has a cost of its own,
+	 * but database operations take on the order of a millisecond, so the
+	 * overhead is negligible.
+	 */
+
+	@State(Scope.Thread)
+	public static class CreatedJob {
+
+		String user;
+		String id;
+
+		@Setup(Level.Invocation)
+		public void setUp(final DB db) throws Exception {
+			user = db.gen.randomUser();
+			id = db.js.createJob(user);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class StartedJob {
+
+		String user;
+		String id;
+		String service;
+		String status;
+		JobResults results;
+
+		@Setup(Level.Invocation)
+		public void setUp(final DB db) throws Exception {
+			final FakeJob j = db.gen.createJob(
+					db.js, db.gen.randomUser(), Job.STARTED);
+			user = j.user;
+			id = j.getID();
+			service = j.service;
+			status = db.gen.status();
+			results = db.gen.results();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int pos = 0;
+
+		FakeJob next(final List<FakeJob> jobs) {
+			pos = (pos + 1) % jobs.size();
+			return jobs.get(pos);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ListFilter {
+
+		@Param({"true", "false"})
+		boolean running;
+		@Param({"true", "false"})
+		boolean complete;
+		@Param({"true", "false"})
+		boolean canceled;
+		@Param({"true", "false"})
+		boolean error;
+		@Param({"true", "false"})
+		boolean shared;
+	}
+
+	@Benchmark
+	public String createJob(final DB db) throws Exception {
+		return db.js.createJob(db.gen.randomUser());
+	}
+
+	@Benchmark
+	public void startJob(final DB db, final CreatedJob j) throws Exception {
+		db.js.startJob(j.user, j.id, JobGenerator.service(0), "started",
+				"benchmark job", 100, null);
+	}
+
+	@Benchmark
+	public void updateJob(final DB db, final Cursor c) throws Exception {
+		// started jobs are never completed by the benchmarks and so may be
+		// updated indefinitely
+		final FakeJob j = c.next(db.started);
+		db.js.updateJob(j.user, j.getID(), j.service, "updated", 1,
+				null);
+	}
+
+	@Benchmark
+	public void completeJob(final DB db, final StartedJob j)
+			throws Exception {
+		db.js.completeJob(j.user, j.id, j.service, j.status, null, j.results);
+	}
+
+	@Benchmark
+	public Job getJob(final DB db, final Cursor c) throws Exception {
+		final FakeJob j = c.next(db.jobs);
+		return db.js.getJob(j.user, j.getID());
+	}
+
+	@Benchmark
+	public List<Job> listJobs(
+			final DB db,
+			final Cursor c,
+			final ListFilter f)
+			throws Exception {
+		final FakeJob j = c.next(db.jobs);
+		return db.js.listJobs(j.user, null, f.running, f.complete,
+				f.canceled, f.error, f.shared);
+	}
+}
@@ -0,0 +1,128 @@
+package us.kbase.userandjobstate.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import us.kbase.userandjobstate.userstate.UserState;
+
+/** Benchmarks for the {@link UserState} methods called by the server.
+ *
+ * Each trial runs against a freshly started mongod populated with
+ * {@link #KEY_COUNT} keys per user and service, half of which are authed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserStateBenchmark {
+
+	private static final String DB_NAME = "userstate_benchmark";
+	private static final int USER_COUNT = 20;
+	private static final int SERVICE_COUNT = 5;
+	private static final int KEY_COUNT = 20;
+
+	@Param({"100", "10000"})
+	int valueSize;
+
+	private BenchmarkMongo mongo;
+	private UserState us;
+	private Map<String, Object> value;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		mongo = new BenchmarkMongo();
+		us = mongo.getUserState(DB_NAME);
+		final Random rand = new Random(JobGenerator.DEFAULT_SEED);
+		final StringBuilder sb = new StringBuilder(valueSize);
+		for (int i = 0; i < valueSize; i++) {
+			sb.append((char) ('a' + rand.nextInt(26)));
+		}
+		value = new HashMap<String, Object>();
+		value.put("value", sb.toString());
+		value.put("number", rand.nextInt());
+		for (int u = 0; u < USER_COUNT; u++) {
+			for (int s = 0; s < SERVICE_COUNT; s++) {
+				for (int k = 0; k < KEY_COUNT; k++) {
+					us.setState(JobGenerator.user(u), JobGenerator.service(s),
+							k % 2 == 0, key(k), value);
+				}
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		mongo.destroy();
+	}
+
+	private static String key(final int n) {
+		return "key" + n;
+	}
+
+	// even keys are authed
+	private static String authedKey(final int n) {
+		return key(2 * (n % (KEY_COUNT / 2)));
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int pos = 0;
+
+		int next() {
+			// avoid negative indexes on overflow
+			pos = (pos + 1) & Integer.MAX_VALUE;
+			return pos;
+		}
+	}
+
+	@Benchmark
+	public void setState(final Cursor c) throws Exception {
+		final int n = c.next();
+		us.setState(JobGenerator.user(n % USER_COUNT),
+				JobGenerator.service(n % SERVICE_COUNT), true,
+				authedKey(n), value);
+	}
+
+	@Benchmark
+	public Object getState(final Cursor c) throws Exception {
+		final int n = c.next();
+		return us.getState(JobGenerator.user(n % USER_COUNT),
+				JobGenerator.service(n % SERVICE_COUNT), true, authedKey(n));
+	}
+
+	// the server path, which returns the stored JSON without deserializing it
+	@Benchmark
+	public byte[] getStateJSON(final Cursor c) throws Exception {
+		final int n = c.next();
+		return us.getState(JobGenerator.user(n % USER_COUNT),
+				JobGenerator.service(n % SERVICE_COUNT), true, authedKey(n),
+				true).getJSON();
+	}
+
+	@Benchmark
+	public Set<String> listState(final Cursor c) throws Exception {
+		final int n = c.next();
+		return us.listState(JobGenerator.user(n % USER_COUNT),
+				JobGenerator.service(n % SERVICE_COUNT), n % 2 == 0);
+	}
+}
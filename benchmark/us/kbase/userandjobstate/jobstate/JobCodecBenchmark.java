@@ -0,0 +1,75 @@
+package us.kbase.userandjobstate.jobstate;
+
+import static us.kbase.userandjobstate.UserAndJobStateServer.JOB_COLLECTION;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.RawBsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import us.kbase.userandjobstate.benchmark.BenchmarkMongo;
+import us.kbase.userandjobstate.benchmark.JobGenerator;
+
+/** Benchmarks for decoding job documents into {@link Job}s and
+ * {@link JobSummary}s. This class is in the jobstate package since
+ * {@link JobCodec} is package private.
+ *
+ * The job documents are generated with a fixed seed and read from the
+ * database as raw BSON during setup, so the benchmarks themselves do not
+ * touch the database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JobCodecBenchmark {
+
+	private static final String DB_NAME = "jobcodec_benchmark";
+	private static final int JOB_COUNT = 500;
+
+	private List<RawBsonDocument> docs;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final BenchmarkMongo mongo = new BenchmarkMongo();
+		try {
+			final JobState js = mongo.getJobState(DB_NAME);
+			new JobGenerator(JobGenerator.DEFAULT_SEED, 20, 5)
+					.populate(js, JOB_COUNT);
+			docs = mongo.getClient().getDatabase(DB_NAME)
+					.getCollection(JOB_COLLECTION, RawBsonDocument.class)
+					.find().into(new ArrayList<RawBsonDocument>());
+		} finally {
+			mongo.destroy();
+		}
+	}
+
+	@Benchmark
+	public void decodeJob(final Blackhole bh) {
+		for (final RawBsonDocument d: docs) {
+			bh.consume(JobCodec.JOB.decode(d));
+		}
+	}
+
+	@Benchmark
+	public void decodeJobSummary(final Blackhole bh) {
+		for (final RawBsonDocument d: docs) {
+			bh.consume(JobCodec.SUMMARY.decode(d));
+		}
+	}
+}
@@ -5,12 +5,18 @@ import us.kbase.common.schemamanager.exceptions.IncompatibleSchemaException;
 import us.kbase.common.schemamanager.exceptions.SchemaManagerCommunicationException;
 import us.kbase.common.schemamanager.exceptions.UpdateInProgressException;
 
-import com.mongodb.BasicDBObject;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.DBObject;
-import com.mongodb.DuplicateKeyException;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.bson.Document;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOptions;
 
 /** Checks schema versions and throws errors if the schema version doesn't
  * match the code version. Allows storing and checking schemas for multiple
@@ -35,7 +41,7 @@ public class SchemaManager {
 	private final static String UPDATE = "inupdate";
 	private final static String SCHEMA_VER = "schemaver";
 	
-	private final DBCollection schemaCol;
+	private final MongoCollection<Document> schemaCol;
 	
 	/** Create a schema manager using the specified collection as its
 	 * database.
@@ -43,7 +49,7 @@ public class SchemaManager {
 	 * @throws InvalidSchemaRecordException if the schema database already has
 	 * more than one schema record per schema type.
 	 */
-	public SchemaManager(final DBCollection schemaCol)
+	public SchemaManager(final MongoCollection<Document> schemaCol)
 			throws InvalidSchemaRecordException {
 		if (schemaCol == null) {
 			throw new NullPointerException("schemaCol");
@@ -78,12 +84,18 @@ public class SchemaManager {
 		if (currentVer < 1) {
 			throw new IllegalArgumentException("currentVer must be > 0");
 		}
-		final DBObject cfg = new BasicDBObject(SCHEMA_KEY, schemaType);
+		final Document cfg = new Document(SCHEMA_KEY, schemaType);
 		cfg.put(UPDATE, false);
 		cfg.put(SCHEMA_VER, currentVer);
 		try {
-			schemaCol.insert(cfg);
-		} catch (DuplicateKeyException dk) {
+			schemaCol.insertOne(cfg);
+		} catch (MongoWriteException mwe) {
+			if (!ErrorCategory.DUPLICATE_KEY.equals(
+					mwe.getError().getCategory())) {
+				throw new SchemaManagerCommunicationException(
+						"There was a problem communicating with the database",
+						mwe);
+			}
 			//ok, the version doc is already there, this isn't the first
 			//startup
 			final VerUpdate vu = getVersionAndUpdateState(schemaType, true);
@@ -107,8 +119,9 @@ public class SchemaManager {
 	private VerUpdate getVersionAndUpdateState(
 			final String schemaType,
 			final boolean exceptIfNoRecord) {
-		final DBCursor cur = schemaCol.find(new BasicDBObject(
-				SCHEMA_KEY, schemaType));
+		final List<Document> cur = schemaCol.find(
+				new Document(SCHEMA_KEY, schemaType))
+				.into(new LinkedList<Document>());
 		if (cur.size() > 1) { //this should be impossible
 			throw new IllegalStateException(
 					"Multiple schema documents found in the database " +
@@ -122,10 +135,10 @@ public class SchemaManager {
 			}
 			return new VerUpdate(-1, false);
 		}
-		final DBObject storedCfg = cur.next();
+		final Document storedCfg = cur.get(0);
 		return new VerUpdate(
-				(Integer) storedCfg.get(SCHEMA_VER),
-				(Boolean)storedCfg.get(UPDATE));
+				storedCfg.getInteger(SCHEMA_VER),
+				storedCfg.getBoolean(UPDATE));
 	}
 	
 	private static class VerUpdate {
@@ -138,16 +151,19 @@ public class SchemaManager {
 		}
 	}
 
-	private void ensureIndexes(DBCollection schemaCol)
+	private void ensureIndexes(MongoCollection<Document> schemaCol)
 			throws InvalidSchemaRecordException {
-		final DBObject keys = new BasicDBObject(SCHEMA_KEY, 1);
-		final DBObject uniq = new BasicDBObject("unique", 1);
 		try {
-			schemaCol.createIndex(keys, uniq);
-		} catch (DuplicateKeyException dke) {
+			schemaCol.createIndex(new Document(SCHEMA_KEY, 1),
+					new IndexOptions().unique(true));
+		} catch (MongoCommandException mce) {
+			if (!ErrorCategory.DUPLICATE_KEY.equals(
+					ErrorCategory.fromErrorCode(mce.getErrorCode()))) {
+				throw mce;
+			}
 			throw new InvalidSchemaRecordException(
 					"Multiple schema records exist in the database: " +
-					dke.getLocalizedMessage(), dke);
+					mce.getLocalizedMessage(), mce);
 		}
 	}
 	
@@ -194,11 +210,11 @@ public class SchemaManager {
 		if (version == -1) {
 			version = getDBVersion(schemaType);
 		}
-		final DBObject cfg = new BasicDBObject(UPDATE, inupdate);
+		final Document cfg = new Document(UPDATE, inupdate);
 		cfg.put(SCHEMA_VER, version);
 		try {
-			schemaCol.update(new BasicDBObject(SCHEMA_KEY, schemaType),
-					new BasicDBObject("$set", cfg), true, false);
+			schemaCol.updateOne(new Document(SCHEMA_KEY, schemaType),
+					new Document("$set", cfg), new UpdateOptions().upsert(true));
 		} catch (MongoException me) {
 			throw new SchemaManagerCommunicationException(
 					"There was a problem communicating with the database", me);
@@ -9,6 +9,7 @@ import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
 
 import java.nio.file.Paths;
 
+import org.bson.Document;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -21,11 +22,10 @@ import us.kbase.common.schemamanager.exceptions.UpdateInProgressException;
 import us.kbase.common.test.TestCommon;
 import us.kbase.common.test.controllers.mongo.MongoController;
 
-import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
 
 public class SchemaManagerTest {
 
@@ -34,6 +34,7 @@ public class SchemaManagerTest {
 	private static final String DB_NAME = "SchemaManagerTests";
 	
 	private static DB db;
+	private static MongoDatabase mdb;
 
 	private static MongoController mongo;
 	
@@ -44,7 +45,10 @@ public class SchemaManagerTest {
 				TestCommon.getMongoExe(),
 				Paths.get(TestCommon.getTempDir()));
 		System.out.println("Using Mongo temp dir " + mongo.getTempDir());
-		db = new MongoClient("localhost:" + mongo.getServerPort()).getDB(DB_NAME);
+		final MongoClient mc = new MongoClient(
+				"localhost:" + mongo.getServerPort());
+		db = mc.getDB(DB_NAME);
+		mdb = mc.getDatabase(DB_NAME);
 	}
 	
 	@AfterClass
@@ -72,7 +76,7 @@ public class SchemaManagerTest {
 	@Test
 	public void testEmptyDB() throws Exception {
 		final String sc = "myschema";
-		SchemaManager sm = new SchemaManager(db.getCollection("foo"));
+		SchemaManager sm = new SchemaManager(mdb.getCollection("foo"));
 		assertThat("empty db has version", sm.getDBVersion(sc), is(-1));
 		assertThat("empty db in update", sm.inUpdate(sc), is(false));
 		
@@ -81,7 +85,7 @@ public class SchemaManagerTest {
 	@Test
 	public void testGetSet() throws Exception {
 		final String sc = "myschema";
-		SchemaManager sm = new SchemaManager(db.getCollection("foo"));
+		SchemaManager sm = new SchemaManager(mdb.getCollection("foo"));
 		sm.setRecord(sc, 1, false);
 		assertThat("incorrect version", sm.getDBVersion(sc), is(1));
 		assertThat("incorrect in update", sm.inUpdate(sc), is(false));
@@ -107,15 +111,15 @@ public class SchemaManagerTest {
 	@Test
 	public void testTwoSchemaRecords() throws Exception {
 		final String dbn = "noindexes";
-		DBCollection dbc = db.getCollection(dbn);
-		DBObject dbo1 = new BasicDBObject("config", "myschema");
+		MongoCollection<Document> dbc = mdb.getCollection(dbn);
+		Document dbo1 = new Document("config", "myschema");
 		dbo1.put("inupdate", false);
 		dbo1.put("schemaver", 1);
-		dbc.insert(dbo1);
-		DBObject dbo2 = new BasicDBObject("config", "myschema");
+		dbc.insertOne(dbo1);
+		Document dbo2 = new Document("config", "myschema");
 		dbo2.put("inupdate", true);
 		dbo2.put("schemaver", 3);
-		dbc.insert(dbo2);
+		dbc.insertOne(dbo2);
 		try {
 			new SchemaManager(dbc);
 			fail("created manager with bad schema docs");
@@ -134,7 +138,7 @@ public class SchemaManagerTest {
 	@Test
 	public void testCheckSchema() throws Exception {
 		final String sc = "myschema";
-		SchemaManager sm = new SchemaManager(db.getCollection("foo"));
+		SchemaManager sm = new SchemaManager(mdb.getCollection("foo"));
 		assertThat("empty db has version", sm.getDBVersion(sc), is(-1));
 		assertThat("empty db in update", sm.inUpdate(sc), is(false));
 		
@@ -4,6 +4,7 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import us.kbase.common.mongo.GetMongoDB;
+import us.kbase.userandjobstate.jobstate.JobUpdateBuffer;
 
 public class AppEventListener implements ServletContextListener {
 	
@@ -14,6 +15,8 @@ public class AppEventListener implements ServletContextListener {
 	
 	@Override
 	public void contextDestroyed(ServletContextEvent arg0) {
+		// write any buffered job updates before the connections close
+		JobUpdateBuffer.closeAll();
 		GetMongoDB.closeAllConnections();
 	}
 }
\ No newline at end of file
@@ -29,6 +29,25 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  *         authorization parameter must be supplied and there is an upper
  *         limit to the number of paramters allowed. In the case of the
  *         kbaseworkspace strategy, these limits are 1 and 10, respectively.
+ * int limit - the maximum number of jobs to return, no more than 10000.
+ *         For list_jobs2, omit or set to 0 to return all jobs. For
+ *         list_jobs3, defaults to 1000.
+ * string sort - sort the jobs by the time of their last update. Either
+ *         'asc' (oldest first) or 'desc' (newest first). Defaults to 'desc'
+ *         if a limit or resume token is provided, otherwise the jobs are not
+ *         sorted.
+ * string resume - an opaque token returned by list_jobs3 that resumes
+ *         the listing after the last job returned by that call. The sort
+ *         order and the other parameters should be the same as in that call.
+ * boolean summary - list_jobs3 only. If true, return job summaries
+ *         rather than the full job information. Summaries are much cheaper
+ *         to retrieve, and should be preferred when the job results and
+ *         metadata are not needed.
+ * boolean include_archive - if true, also list jobs that have been
+ *         moved to the archive. Completed, canceled, and errored jobs may be
+ *         moved to the archive some time after they finish, depending on
+ *         the server configuration. Archived jobs are always available via
+ *         the methods that take a job ID.
  * </pre>
  * 
  */
@@ -38,7 +57,12 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
     "services",
     "filter",
     "authstrat",
-    "authparams"
+    "authparams",
+    "limit",
+    "sort",
+    "resume",
+    "summary",
+    "include_archive"
 })
 public class ListJobsParams {
 
@@ -50,6 +74,16 @@ public class ListJobsParams {
     private java.lang.String authstrat;
     @JsonProperty("authparams")
     private List<String> authparams;
+    @JsonProperty("limit")
+    private Long limit;
+    @JsonProperty("sort")
+    private java.lang.String sort;
+    @JsonProperty("resume")
+    private java.lang.String resume;
+    @JsonProperty("summary")
+    private Long summary;
+    @JsonProperty("include_archive")
+    private Long includeArchive;
     private Map<java.lang.String, Object> additionalProperties = new HashMap<java.lang.String, Object>();
 
     @JsonProperty("services")
@@ -112,6 +146,81 @@ public class ListJobsParams {
         return this;
     }
 
+    @JsonProperty("limit")
+    public Long getLimit() {
+        return limit;
+    }
+
+    @JsonProperty("limit")
+    public void setLimit(Long limit) {
+        this.limit = limit;
+    }
+
+    public ListJobsParams withLimit(Long limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    @JsonProperty("sort")
+    public java.lang.String getSort() {
+        return sort;
+    }
+
+    @JsonProperty("sort")
+    public void setSort(java.lang.String sort) {
+        this.sort = sort;
+    }
+
+    public ListJobsParams withSort(java.lang.String sort) {
+        this.sort = sort;
+        return this;
+    }
+
+    @JsonProperty("resume")
+    public java.lang.String getResume() {
+        return resume;
+    }
+
+    @JsonProperty("resume")
+    public void setResume(java.lang.String resume) {
+        this.resume = resume;
+    }
+
+    public ListJobsParams withResume(java.lang.String resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    @JsonProperty("summary")
+    public Long getSummary() {
+        return summary;
+    }
+
+    @JsonProperty("summary")
+    public void setSummary(Long summary) {
+        this.summary = summary;
+    }
+
+    public ListJobsParams withSummary(Long summary) {
+        this.summary = summary;
+        return this;
+    }
+
+    @JsonProperty("include_archive")
+    public Long getIncludeArchive() {
+        return includeArchive;
+    }
+
+    @JsonProperty("include_archive")
+    public void setIncludeArchive(Long includeArchive) {
+        this.includeArchive = includeArchive;
+    }
+
+    public ListJobsParams withIncludeArchive(Long includeArchive) {
+        this.includeArchive = includeArchive;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<java.lang.String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -124,7 +233,7 @@ public class ListJobsParams {
 
     @Override
     public java.lang.String toString() {
-        return ((((((((((("ListJobsParams"+" [services=")+ services)+", filter=")+ filter)+", authstrat=")+ authstrat)+", authparams=")+ authparams)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((((((((((((((("ListJobsParams"+" [services=")+ services)+", filter=")+ filter)+", authstrat=")+ authstrat)+", authparams=")+ authparams)+", limit=")+ limit)+", sort=")+ sort)+", resume=")+ resume)+", summary=")+ summary)+", includeArchive=")+ includeArchive)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
@@ -27,7 +27,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  *         was saved.  No more than 1000 characters.
  * list<Result> - a set of job results. This format allows for specifying
  *         results at multiple server locations and providing a free text
- *         description of the result.
+ *         description of the result. Only returned by get_results and
+ *         get_results2; omitted from job information and listings.
  * </pre>
  * 
  */
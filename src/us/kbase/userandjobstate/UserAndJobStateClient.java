@@ -303,6 +303,46 @@ public class UserAndJobStateClient {
         caller.jsonrpcCall("UserAndJobState.set_state_auth", args, retType, false, true, jsonRpcContext, this.serviceVersion);
     }
 
+    /**
+     * <p>Original spec-file function name: set_states</p>
+     * <pre>
+     * Set the state of multiple keys for a service without service
+     * authentication. No more than 1000 keys may be set at once. If any key
+     * or value is invalid, no keys are set.
+     * </pre>
+     * @param   service   instance of original type "service_name" (A service name. Alphanumerics and the underscore are allowed.)
+     * @param   states   instance of mapping from String to unspecified object
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public void setStates(String service, Map<String,UObject> states, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(service);
+        args.add(states);
+        TypeReference<Object> retType = new TypeReference<Object>() {};
+        caller.jsonrpcCall("UserAndJobState.set_states", args, retType, false, true, jsonRpcContext, this.serviceVersion);
+    }
+
+    /**
+     * <p>Original spec-file function name: set_states_auth</p>
+     * <pre>
+     * Set the state of multiple keys for a service with service
+     * authentication. No more than 1000 keys may be set at once. If any key
+     * or value is invalid, no keys are set.
+     * </pre>
+     * @param   token   instance of original type "service_token" (A globus ID token that validates that the service really is said service.)
+     * @param   states   instance of mapping from String to unspecified object
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public void setStatesAuth(String token, Map<String,UObject> states, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(token);
+        args.add(states);
+        TypeReference<Object> retType = new TypeReference<Object>() {};
+        caller.jsonrpcCall("UserAndJobState.set_states_auth", args, retType, false, true, jsonRpcContext, this.serviceVersion);
+    }
+
     /**
      * <p>Original spec-file function name: get_state</p>
      * <pre>
@@ -371,6 +411,30 @@ public class UserAndJobStateClient {
         return res;
     }
 
+    /**
+     * <p>Original spec-file function name: get_states</p>
+     * <pre>
+     * Get the state of multiple keys for a service. No more than 1000 keys
+     * may be requested at once. Keys that don't exist are omitted from the
+     * returned mapping.
+     * </pre>
+     * @param   service   instance of original type "service_name" (A service name. Alphanumerics and the underscore are allowed.)
+     * @param   keys   instance of list of String
+     * @param   auth   instance of original type "authed" (Specifies whether results returned should be from key/value pairs set with service authentication (true) or without (false).) &rarr; original type "boolean" (A boolean. 0 = false, other = true.)
+     * @return   parameter "states" of mapping from String to unspecified object
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public Map<String,UObject> getStates(String service, List<String> keys, Long auth, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(service);
+        args.add(keys);
+        args.add(auth);
+        TypeReference<List<Map<String,UObject>>> retType = new TypeReference<List<Map<String,UObject>>>() {};
+        List<Map<String,UObject>> res = caller.jsonrpcCall("UserAndJobState.get_states", args, retType, true, true, jsonRpcContext, this.serviceVersion);
+        return res.get(0);
+    }
+
     /**
      * <p>Original spec-file function name: remove_state</p>
      * <pre>
@@ -463,6 +527,27 @@ public class UserAndJobStateClient {
         return res.get(0);
     }
 
+    /**
+     * <p>Original spec-file function name: create_jobs2</p>
+     * <pre>
+     * Create multiple job status reports with the same authorization and
+     * metadata. The jobs are authorized once and created in a single
+     * database write. Returns the job ids in the order the jobs were
+     * created.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.userandjobstate.CreateJobsParams CreateJobsParams}
+     * @return   parameter "jobs" of list of original type "job_id" (A job id.)
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public List<String> createJobs2(CreateJobsParams params, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(params);
+        TypeReference<List<List<String>>> retType = new TypeReference<List<List<String>>>() {};
+        List<List<String>> res = caller.jsonrpcCall("UserAndJobState.create_jobs2", args, retType, true, true, jsonRpcContext, this.serviceVersion);
+        return res.get(0);
+    }
+
     /**
      * <p>Original spec-file function name: create_job</p>
      * <pre>
@@ -578,6 +663,30 @@ public class UserAndJobStateClient {
         caller.jsonrpcCall("UserAndJobState.update_job", args, retType, false, true, jsonRpcContext, this.serviceVersion);
     }
 
+    /**
+     * <p>Original spec-file function name: update_jobs_progress</p>
+     * <pre>
+     * Update the status and progress for multiple jobs at once. The jobs
+     * must all have been started by the service that the token identifies.
+     * No more than 1000 updates may be submitted at once. The failure of one
+     * update does not affect the others - the results are returned in the
+     * same order as the updates.
+     * </pre>
+     * @param   token   instance of original type "service_token" (A globus ID token that validates that the service really is said service.)
+     * @param   updates   instance of list of type {@link us.kbase.userandjobstate.JobProgressUpdate JobProgressUpdate}
+     * @return   parameter "results" of list of type {@link us.kbase.userandjobstate.JobUpdateResult JobUpdateResult}
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public List<JobUpdateResult> updateJobsProgress(String token, List<JobProgressUpdate> updates, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(token);
+        args.add(updates);
+        TypeReference<List<List<JobUpdateResult>>> retType = new TypeReference<List<List<JobUpdateResult>>>() {};
+        List<List<JobUpdateResult>> res = caller.jsonrpcCall("UserAndJobState.update_jobs_progress", args, retType, true, true, jsonRpcContext, this.serviceVersion);
+        return res.get(0);
+    }
+
     /**
      * <p>Original spec-file function name: get_job_description</p>
      * <pre>
@@ -694,6 +803,43 @@ public class UserAndJobStateClient {
         return res.get(0);
     }
 
+    /**
+     * <p>Original spec-file function name: get_results2</p>
+     * <pre>
+     * Get the job results, or a range of the entries in the results list.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.userandjobstate.JobRangeParams JobRangeParams}
+     * @return   parameter "res" of type {@link us.kbase.userandjobstate.Results Results}
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public Results getResults2(JobRangeParams params, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(params);
+        TypeReference<List<Results>> retType = new TypeReference<List<Results>>() {};
+        List<Results> res = caller.jsonrpcCall("UserAndJobState.get_results2", args, retType, true, true, jsonRpcContext, this.serviceVersion);
+        return res.get(0);
+    }
+
+    /**
+     * <p>Original spec-file function name: get_detailed_error2</p>
+     * <pre>
+     * Get the detailed error message, if any, or part of the message. Large
+     * messages may be retrieved in pieces.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.userandjobstate.JobRangeParams JobRangeParams}
+     * @return   parameter "error" of original type "detailed_err" (Detailed information about a job error, such as a stacktrace, that will not fit in the job_status. No more than 100K characters.)
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public String getDetailedError2(JobRangeParams params, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(params);
+        TypeReference<List<String>> retType = new TypeReference<List<String>>() {};
+        List<String> res = caller.jsonrpcCall("UserAndJobState.get_detailed_error2", args, retType, true, true, jsonRpcContext, this.serviceVersion);
+        return res.get(0);
+    }
+
     /**
      * <p>Original spec-file function name: get_job_info2</p>
      * <pre>
@@ -731,6 +877,42 @@ public class UserAndJobStateClient {
         return res.get(0);
     }
 
+    /**
+     * <p>Original spec-file function name: wait_for_job_update</p>
+     * <pre>
+     * Wait for a job to be updated, rather than repeatedly polling the job
+     * status.
+     * 
+     * job_id job - the job to wait for.
+     * timestamp last_update - the last update time of the job seen by the
+     *         caller, as returned by get_job_status or get_job_info2.
+     * int timeout - the maximum time to wait in seconds, no more than 60.
+     * 
+     * Returns as soon as the job's last update time is later than
+     * last_update, the job is deleted (in which case an error is thrown), or
+     * the timeout expires. Returns immediately if the job is already
+     * complete, or if the server is at its limit of waiting requests. In all
+     * cases the current job information is returned, and so the caller
+     * should compare the returned last update time to last_update to
+     * determine whether the job changed.
+     * </pre>
+     * @param   job   instance of original type "job_id" (A job id.)
+     * @param   lastUpdate   instance of original type "timestamp" (A time in the format YYYY-MM-DDThh:mm:ssZ, where Z is the difference in time to UTC in the format +/-HHMM, eg: 2012-12-17T23:24:06-0500 (EST time) 2013-04-03T08:56:32+0000 (UTC time))
+     * @param   timeout   instance of Long
+     * @return   parameter "info" of original type "job_info2" (Information about a job.) &rarr; tuple of size 13: parameter "job" of original type "job_id" (A job id.), parameter "users" of original type "user_info" (Who owns a job and who canceled a job (null if not canceled).) &rarr; tuple of size 2: parameter "owner" of original type "username" (Login name of a KBase user account.), parameter "canceledby" of original type "username" (Login name of a KBase user account.), parameter "service" of original type "service_name" (A service name. Alphanumerics and the underscore are allowed.), parameter "stage" of original type "job_stage" (A string that describes the stage of processing of the job. One of 'created', 'started', 'completed', 'canceled' or 'error'.), parameter "status" of original type "job_status" (A job status string supplied by the reporting service. No more than 200 characters.), parameter "times" of original type "time_info" (Job timing information.) &rarr; tuple of size 3: parameter "started" of original type "timestamp" (A time in the format YYYY-MM-DDThh:mm:ssZ, where Z is the difference in time to UTC in the format +/-HHMM, eg: 2012-12-17T23:24:06-0500 (EST time) 2013-04-03T08:56:32+0000 (UTC time)), parameter "last_update" of original type "timestamp" (A time in the format YYYY-MM-DDThh:mm:ssZ, where Z is the difference in time to UTC in the format +/-HHMM, eg: 2012-12-17T23:24:06-0500 (EST time) 2013-04-03T08:56:32+0000 (UTC time)), parameter "est_complete" of original type "timestamp" (A time in the format YYYY-MM-DDThh:mm:ssZ, where Z is the difference in time to UTC in the format +/-HHMM, eg: 2012-12-17T23:24:06-0500 (EST time) 2013-04-03T08:56:32+0000 (UTC time)), parameter "progress" of original type "progress_info" (Job progress information.) &rarr; tuple of size 3: parameter "prog" of original type "total_progress" (The total progress of a job.), parameter "max" of original type "max_progress" (The maximum possible progress of a job.), parameter "ptype" of original type "progress_type" (The type of progress that is being tracked. One of: 'none' - no numerical progress tracking 'task' - Task based tracking, e.g. 3/24 'percent' - percentage based tracking, e.g. 5/100%), parameter "complete" of original type "boolean" (A boolean. 0 = false, other = true.), parameter "error" of original type "boolean" (A boolean. 0 = false, other = true.), parameter "auth" of original type "auth_info" (Job authorization strategy information.) &rarr; tuple of size 2: parameter "strat" of original type "auth_strategy" (An authorization strategy to use for jobs. Other than the DEFAULT strategy (ACLs local to the UJS and managed by the UJS sharing functions), currently the only other strategy is the 'kbaseworkspace' strategy, which consults the workspace service for authorization information.), parameter "param" of original type "auth_param" (An authorization parameter. The contents of this parameter differ by auth_strategy, but for the workspace strategy it is the workspace id (an integer) as a string.), parameter "meta" of original type "usermeta" (User provided metadata about a job. Arbitrary key-value pairs provided by the user.) &rarr; mapping from String to String, parameter "desc" of original type "job_description" (A job description string supplied by the reporting service. No more than 1000 characters.), parameter "res" of type {@link us.kbase.userandjobstate.Results Results}
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public Tuple13<String, Tuple2<String, String>, String, String, String, Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>, Map<String,String>, String, Results> waitForJobUpdate(String job, String lastUpdate, Long timeout, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(job);
+        args.add(lastUpdate);
+        args.add(timeout);
+        TypeReference<List<Tuple13<String, Tuple2<String, String>, String, String, String, Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>, Map<String,String>, String, Results>>> retType = new TypeReference<List<Tuple13<String, Tuple2<String, String>, String, String, String, Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>, Map<String,String>, String, Results>>>() {};
+        List<Tuple13<String, Tuple2<String, String>, String, String, String, Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>, Map<String,String>, String, Results>> res = caller.jsonrpcCall("UserAndJobState.wait_for_job_update", args, retType, true, true, jsonRpcContext, this.serviceVersion);
+        return res.get(0);
+    }
+
     /**
      * <p>Original spec-file function name: list_jobs2</p>
      * <pre>
@@ -749,6 +931,24 @@ public class UserAndJobStateClient {
         return res.get(0);
     }
 
+    /**
+     * <p>Original spec-file function name: list_jobs3</p>
+     * <pre>
+     * List jobs one page at a time.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.userandjobstate.ListJobsParams ListJobsParams}
+     * @return   parameter "results" of type {@link us.kbase.userandjobstate.ListJobsResults ListJobsResults}
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public ListJobsResults listJobs3(ListJobsParams params, RpcContext... jsonRpcContext) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(params);
+        TypeReference<List<ListJobsResults>> retType = new TypeReference<List<ListJobsResults>>() {};
+        List<ListJobsResults> res = caller.jsonrpcCall("UserAndJobState.list_jobs3", args, retType, true, true, jsonRpcContext, this.serviceVersion);
+        return res.get(0);
+    }
+
     /**
      * <p>Original spec-file function name: list_jobs</p>
      * <pre>
@@ -25,14 +25,27 @@ import static us.kbase.userandjobstate.jobstate.JobResults.MAX_LEN_ID;
 import static us.kbase.userandjobstate.jobstate.JobResults.MAX_LEN_URL;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
@@ -40,13 +53,13 @@ import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.DateTimeFormatterBuilder;
 import org.slf4j.LoggerFactory;
 
-import com.mongodb.DB;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCredential;
 import com.mongodb.MongoException;
 import com.mongodb.MongoTimeoutException;
 import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoDatabase;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
@@ -57,18 +70,45 @@ import us.kbase.common.schemamanager.SchemaManager;
 import us.kbase.common.schemamanager.exceptions.InvalidSchemaRecordException;
 import us.kbase.common.schemamanager.exceptions.SchemaException;
 import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.JsonTokenStream;
+import us.kbase.common.service.JsonServerSyslog.RpcInfo;
+import us.kbase.common.service.Tuple8;
 import us.kbase.common.service.UnauthorizedException;
 import us.kbase.userandjobstate.authorization.AuthorizationStrategy;
 import us.kbase.userandjobstate.authorization.DefaultUJSAuthorizer;
 import us.kbase.userandjobstate.authorization.UJSAuthorizer;
 import us.kbase.userandjobstate.authorization.exceptions.UJSAuthorizationException;
+import us.kbase.userandjobstate.exceptions.CommunicationException;
 import us.kbase.userandjobstate.jobstate.Job;
+import us.kbase.userandjobstate.jobstate.JobArchiver;
+import us.kbase.userandjobstate.jobstate.JobEventFeed;
+import us.kbase.userandjobstate.jobstate.JobEventFeed.FeedEvent;
+import us.kbase.userandjobstate.jobstate.JobEventFeed.Subscription;
+import us.kbase.userandjobstate.jobstate.JobEventLog;
+import us.kbase.userandjobstate.jobstate.JobListing;
+import us.kbase.userandjobstate.jobstate.JobPurger;
 import us.kbase.userandjobstate.jobstate.JobResult;
 import us.kbase.userandjobstate.jobstate.JobResults;
 import us.kbase.userandjobstate.jobstate.JobState;
+import us.kbase.userandjobstate.jobstate.JobStream;
+import us.kbase.userandjobstate.jobstate.JobSummary;
+import us.kbase.userandjobstate.jobstate.JobUpdate;
+import us.kbase.userandjobstate.jobstate.JobUpdateBuffer;
+import us.kbase.userandjobstate.jobstate.JobUpdateNotifier;
+import us.kbase.userandjobstate.kbase.RpcBatchHandler;
+import us.kbase.userandjobstate.kbase.RpcBatchHandler.PeekedRequest;
+import us.kbase.userandjobstate.kbase.RpcCompression;
+import us.kbase.userandjobstate.kbase.RpcCompression.CompressingResponse;
+import us.kbase.userandjobstate.kbase.ServiceTokenCache;
+import us.kbase.userandjobstate.kbase.StreamingList;
+import us.kbase.userandjobstate.kbase.StreamingList.StreamingResponse;
 import us.kbase.userandjobstate.kbase.WorkspaceAuthorizationFactory;
+import us.kbase.userandjobstate.kbase.WorkspacePermissionCache;
+import us.kbase.userandjobstate.metrics.Metrics;
+import us.kbase.userandjobstate.metrics.MongoCommandTimer;
 import us.kbase.userandjobstate.userstate.UserState;
 import us.kbase.userandjobstate.userstate.UserState.KeyState;
+import us.kbase.userandjobstate.userstate.UserStateCache;
 import us.kbase.workspace.database.WorkspaceUserMetadata;
 //END_HEADER
 
@@ -154,6 +194,11 @@ public class UserAndJobStateServer extends JsonServerServlet {
 	//auth params:
 	public static final String USER = "mongodb-user";
 	public static final String PWD = "mongodb-pwd";
+	//connection pool params:
+	private static final String MAX_POOL = "mongodb-max-pool-size";
+	private static final String MIN_POOL = "mongodb-min-pool-size";
+	private static final int DEFAULT_MAX_POOL = 100;
+	private static final int DEFAULT_MIN_POOL = 0;
 	
 	//auth servers
 	private static final String KBASE_AUTH_URL = "auth-service-url";
@@ -161,19 +206,112 @@ public class UserAndJobStateServer extends JsonServerServlet {
 	private static final String GLOBUS_AUTH_URL = "globus-url";
 	
 	private static final String WORKSPACE_URL = "workspace-url";
+	
+	//service token cache
+	private static final String TOKEN_CACHE_SIZE = "service-token-cache-size";
+	private static final String TOKEN_CACHE_EXP =
+			"service-token-cache-expiration-sec";
+	private static final int DEFAULT_TOKEN_CACHE_SIZE = 1000;
+	private static final int DEFAULT_TOKEN_CACHE_EXP = 300;
+	
+	//workspace permission cache
+	private static final String WS_CACHE_SIZE =
+			"workspace-permission-cache-size";
+	private static final String WS_CACHE_EXP =
+			"workspace-permission-cache-expiration-sec";
+	private static final int DEFAULT_WS_CACHE_SIZE = 10000;
+	private static final int DEFAULT_WS_CACHE_EXP = 30;
+	
+	//user state value cache
+	private static final String USER_CACHE_MB = "user-state-cache-size-mb";
+	private static final String USER_CACHE_TRUST =
+			"user-state-cache-trust-ms";
+	private static final int DEFAULT_USER_CACHE_MB = 100;
+	
+	//long polling for job updates
+	private static final String JOB_WAITERS = "job-update-max-waiters";
+	private static final int MAX_JOB_WAIT_SEC = 60;
+	
+	//write behind buffer for job progress updates
+	private static final String JOB_BUFFER_MS = "job-update-buffer-ms";
+	private static final String JOB_BUFFER_MAX = "job-update-buffer-max-jobs";
+	private static final int DEFAULT_JOB_BUFFER_MAX = 1000;
+	
+	//deletion of old jobs
+	private static final String JOB_RETAIN_CREATED =
+			"job-retention-created-days";
+	private static final String JOB_RETAIN_COMPLETE =
+			"job-retention-complete-days";
+	private static final String JOB_RETAIN_ERROR = "job-retention-error-days";
+	private static final String JOB_RETAIN_CANCELED =
+			"job-retention-canceled-days";
+	private static final String JOB_PURGE_INTERVAL = "job-purge-interval-min";
+	private static final String JOB_PURGE_BATCH = "job-purge-batch-size";
+	private static final String JOB_PURGE_PAUSE = "job-purge-batch-pause-ms";
+	private static final int DEFAULT_JOB_PURGE_INTERVAL = 60;
+	private static final int DEFAULT_JOB_PURGE_BATCH = 1000;
+	private static final int DEFAULT_JOB_PURGE_PAUSE = 1000;
+	
+	//archiving of finished jobs
+	private static final String JOB_ARCHIVE_DAYS = "job-archive-days";
+	private static final String JOB_ARCHIVE_INTERVAL =
+			"job-archive-interval-min";
+	private static final String JOB_ARCHIVE_BATCH = "job-archive-batch-size";
+	private static final String JOB_ARCHIVE_PAUSE =
+			"job-archive-batch-pause-ms";
+	private static final int DEFAULT_JOB_ARCHIVE_INTERVAL = 60;
+	private static final int DEFAULT_JOB_ARCHIVE_BATCH = 1000;
+	private static final int DEFAULT_JOB_ARCHIVE_PAUSE = 1000;
+	
+	//server sent event feed of job changes
+	private static final String JOB_FEED_CONNECTIONS =
+			"job-feed-max-connections";
+	private static final String JOB_FEED_PATH = "/jobfeed";
+	private static final long JOB_EVENT_LOG_SIZE = 10 * 1024 * 1024;
+	private static final long JOB_FEED_HEARTBEAT_MS = 20 * 1000;
+	private static final String AUTH_COOKIE = "kbase_session";
+	
+	//JSON-RPC batch requests
+	private static final String RPC_BATCH_THREADS = "rpc-batch-threads";
+	private static final int DEFAULT_RPC_BATCH_THREADS = 10;
+	
+	//compression of large responses
+	private static final String COMPRESSION_MIN =
+			"response-compression-min-bytes";
+	private static final String COMPRESSION_LEVEL =
+			"response-compression-level";
+	private static final int DEFAULT_COMPRESSION_MIN = 8192;
+	private static final int DEFAULT_COMPRESSION_LEVEL = 6;
 			
 	private static Map<String, String> ujConfig = null;
 	
+	// the RPC method names, so that unknown methods can't grow the metrics
+	private static final Set<String> RPC_NAMES = getRPCNames();
+	private static final String UNKNOWN_RPC = "unknown";
+	
 	public static final String USER_COLLECTION = "userstate";
 	public static final String JOB_COLLECTION = "jobstate";
+	public static final String JOB_ARCHIVE_COLLECTION = "jobstate_archive";
+	public static final String JOB_PAYLOAD_COLLECTION = "jobpayload";
 	public static final String SCHEMA_VERS_COLLECTION = "schemavers";
 	
 	private final static int MAX_LEN_SERVTYPE = 100;
 	private final static int MAX_LEN_DESC = 1000;
 	
+	private final static int DEFAULT_PAGE_SIZE = 1000;
+	private final static int MAX_PAGE_SIZE = 10000;
+	private final static String SORT_ASC = "asc";
+	private final static String SORT_DESC = "desc";
+	
 	private final UserState us;
 	private final JobState js;
+	private final JobEventFeed feed;
+	private final JobPurger purger;
+	private final JobArchiver archiver;
+	private final RpcBatchHandler batch;
+	private final RpcCompression compression;
 	private final ConfigurableAuthService auth;
+	private final ServiceTokenCache tokenCache;
 	private final WorkspaceAuthorizationFactory authfac;
 	
 	private final UJSAuthorizer nows = new UJSAuthorizer() {
@@ -240,21 +378,40 @@ public class UserAndJobStateServer extends JsonServerServlet {
 	private final static DateTimeFormatter DATE_FORMATTER =
 			DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ssZ").withZoneUTC();
 	
-	private DB getMongoDB(
+	/* returns a single client for all database access, so that all
+	 * collections share the same connection pool.
+	 */
+	private MongoClient getMongoClient(
 			final String host,
 			final String dbs,
 			final String user,
 			final String pwd) {
-		//TODO CODE update to non-deprecated API
+		final Integer maxPool = getIntParam(
+				ujConfig, MAX_POOL, DEFAULT_MAX_POOL, 1);
+		final Integer minPool = getIntParam(
+				ujConfig, MIN_POOL, DEFAULT_MIN_POOL, 0);
+		if (maxPool == null || minPool == null) {
+			return null;
+		}
+		if (minPool > maxPool) {
+			fail(String.format("Param %s must not be greater than param %s",
+					MIN_POOL, MAX_POOL));
+			return null;
+		}
+		final MongoClientOptions opts = MongoClientOptions.builder()
+				.connectionsPerHost(maxPool)
+				.minConnectionsPerHost(minPool)
+				.addCommandListener(
+						new MongoCommandTimer(Metrics.getInstance()))
+				.build();
 		try {
 			if (user != null) {
 				final MongoCredential creds = MongoCredential.createCredential(
 						user, dbs, pwd.toCharArray());
 				// unclear if and when it's safe to clear the password
-				return new MongoClient(new ServerAddress(host), creds,
-						MongoClientOptions.builder().build()).getDB(dbs);
+				return new MongoClient(new ServerAddress(host), creds, opts);
 			} else {
-				return new MongoClient(new ServerAddress(host)).getDB(dbs);
+				return new MongoClient(new ServerAddress(host), opts);
 			}
 		} catch (MongoException e) {
 			fail("Failed to connect to MongoDB: " + e.getMessage());
@@ -262,7 +419,9 @@ public class UserAndJobStateServer extends JsonServerServlet {
 		}
 	}
 	
-	private SchemaManager getSchemaManager(final DB db, final String host) {
+	private SchemaManager getSchemaManager(
+			final MongoDatabase db,
+			final String host) {
 		if (db == null) {
 			return null;
 		}
@@ -279,10 +438,18 @@ public class UserAndJobStateServer extends JsonServerServlet {
 		return null;
 	}
 	
-	private UserState getUserState(final DB db, final SchemaManager sm,
+	private UserState getUserState(final MongoDatabase db, final SchemaManager sm,
 			final String host) {
+		final Integer cacheMB = getIntParam(ujConfig, USER_CACHE_MB,
+				DEFAULT_USER_CACHE_MB, 0);
+		final Integer trustMS = getIntParam(ujConfig, USER_CACHE_TRUST, 0, 0);
+		if (cacheMB == null || trustMS == null) {
+			return null;
+		}
 		try {
-			return new UserState(db.getCollection(USER_COLLECTION), sm);
+			return new UserState(db.getCollection(USER_COLLECTION), sm,
+					cacheMB < 1 ? null : new UserStateCache(
+							cacheMB * 1024L * 1024L, trustMS));
 		} catch (MongoTimeoutException e) {
 			fail("Couldn't connect to mongo host " + host + ": " +
 					e.getLocalizedMessage());
@@ -293,10 +460,33 @@ public class UserAndJobStateServer extends JsonServerServlet {
 		return null;
 	}
 	
-	private JobState getJobState(final DB db, final SchemaManager sm,
-			final String host) {
+	private JobState getJobState(final MongoDatabase db, final SchemaManager sm,
+			final String host, final boolean logEvents) {
+		final Integer waiters = getIntParam(ujConfig, JOB_WAITERS,
+				JobUpdateNotifier.DEFAULT_MAX_WAITERS, 0);
+		final Integer bufferMS = getIntParam(ujConfig, JOB_BUFFER_MS, 0, 0);
+		final Integer bufferMax = getIntParam(ujConfig, JOB_BUFFER_MAX,
+				DEFAULT_JOB_BUFFER_MAX, 1);
+		if (waiters == null || bufferMS == null || bufferMax == null) {
+			return null;
+		}
 		try {
-			return new JobState(db.getCollection(JOB_COLLECTION), sm);
+			final JobEventLog log = logEvents ?
+					new JobEventLog(db, JOB_EVENT_LOG_SIZE) : null;
+			// always read the archive so archived jobs remain visible if
+			// archiving is turned off
+			return JobState.getBuilder(db.getCollection(JOB_COLLECTION), sm)
+					.withUpdateNotifier(new JobUpdateNotifier(waiters))
+					.withEventLog(log)
+					.withUpdateBuffer(bufferMS < 1 ? null :
+						new JobUpdateBuffer(bufferMS, bufferMax))
+					.withArchive(db.getCollection(JOB_ARCHIVE_COLLECTION))
+					.withPayloadCollection(
+							db.getCollection(JOB_PAYLOAD_COLLECTION))
+					.build();
+		} catch (CommunicationException e) {
+			fail("Couldn't create the job event log: " +
+					e.getLocalizedMessage());
 		} catch (MongoTimeoutException e) {
 			fail("Couldn't connect to mongo host " + host + ": " +
 					e.getLocalizedMessage());
@@ -306,6 +496,94 @@ public class UserAndJobStateServer extends JsonServerServlet {
 		}
 		return null;
 	}
+	private JobPurger getJobPurger(final JobState js) {
+		final Map<String, Integer> days = new LinkedHashMap<String, Integer>();
+		boolean failed = false;
+		for (final String[] p: Arrays.asList(
+				new String[] {Job.CREATED, JOB_RETAIN_CREATED},
+				new String[] {Job.COMPLETE, JOB_RETAIN_COMPLETE},
+				new String[] {Job.ERROR, JOB_RETAIN_ERROR},
+				new String[] {Job.CANCELED, JOB_RETAIN_CANCELED})) {
+			final Integer d = getIntParam(ujConfig, p[1], 0, 0);
+			if (d == null) {
+				failed = true;
+			} else if (d > 0) {
+				days.put(p[0], d);
+			}
+		}
+		final Integer interval = getIntParam(ujConfig, JOB_PURGE_INTERVAL,
+				DEFAULT_JOB_PURGE_INTERVAL, 1);
+		final Integer batch = getIntParam(ujConfig, JOB_PURGE_BATCH,
+				DEFAULT_JOB_PURGE_BATCH, 1);
+		final Integer pause = getIntParam(ujConfig, JOB_PURGE_PAUSE,
+				DEFAULT_JOB_PURGE_PAUSE, 0);
+		if (failed || interval == null || batch == null || pause == null ||
+				days.isEmpty()) {
+			return null;
+		}
+		final JobPurger p = new JobPurger(js, days, batch, pause);
+		p.start(interval * 60 * 1000L);
+		logInfo("Purging jobs older than the retention period in days: " +
+				days);
+		return p;
+	}
+	
+	private JobArchiver getJobArchiver(final JobState js) {
+		final Integer days = getIntParam(ujConfig, JOB_ARCHIVE_DAYS, 0, 0);
+		final Integer interval = getIntParam(ujConfig, JOB_ARCHIVE_INTERVAL,
+				DEFAULT_JOB_ARCHIVE_INTERVAL, 1);
+		final Integer batch = getIntParam(ujConfig, JOB_ARCHIVE_BATCH,
+				DEFAULT_JOB_ARCHIVE_BATCH, 1);
+		final Integer pause = getIntParam(ujConfig, JOB_ARCHIVE_PAUSE,
+				DEFAULT_JOB_ARCHIVE_PAUSE, 0);
+		if (days == null || interval == null || batch == null ||
+				pause == null || days < 1) {
+			return null;
+		}
+		final JobArchiver a = new JobArchiver(js, days, batch, pause);
+		a.start(interval * 60 * 1000L);
+		logInfo("Archiving finished jobs " + days +
+				" days after their last update");
+		return a;
+	}
+	
+	private RpcBatchHandler getRpcBatchHandler() {
+		final Integer threads = getIntParam(ujConfig, RPC_BATCH_THREADS,
+				DEFAULT_RPC_BATCH_THREADS, 0);
+		if (threads == null || threads < 1) {
+			return null;
+		}
+		// long polls would hold the threads shared by all batches
+		return new RpcBatchHandler(threads, this::processCall,
+				Arrays.asList("UserAndJobState.wait_for_job_update"));
+	}
+	
+	private RpcCompression getRpcCompression() {
+		final Integer min = getIntParam(ujConfig, COMPRESSION_MIN,
+				DEFAULT_COMPRESSION_MIN, 0);
+		final Integer level = getIntParam(ujConfig, COMPRESSION_LEVEL,
+				DEFAULT_COMPRESSION_LEVEL, 1);
+		if (min == null || level == null || min < 1) {
+			return null;
+		}
+		if (level > 9) {
+			fail(String.format("Value %s provided for param %s must be at " +
+					"most 9", level, COMPRESSION_LEVEL));
+			return null;
+		}
+		return new RpcCompression(min, level);
+	}
+	
+	private JobEventFeed getJobEventFeed(
+			final JobState js,
+			final int maxConnections) {
+		try {
+			return new JobEventFeed(js, maxConnections);
+		} catch (CommunicationException e) {
+			fail("Couldn't start the job feed: " + e.getLocalizedMessage());
+		}
+		return null;
+	}
 	//TODO ZLATER write manual
 	//TODO ZZLATER admin methods
 	
@@ -322,7 +600,7 @@ public class UserAndJobStateServer extends JsonServerServlet {
 					"Service token cannot be null or the empty string");
 		}
 		try {
-			return auth.validateToken(serviceToken).getUserName();
+			return tokenCache.getUserName(serviceToken);
 		} catch (AuthException e) {
 			throw new AuthException("Couldn't validate the server token. " +
 					"The authentication server said: " + e.getMessage(), e);
@@ -353,7 +631,8 @@ public class UserAndJobStateServer extends JsonServerServlet {
 			.withE14(makeResults(j.getResults()));
 	}
 
-	private Tuple13<String, Tuple2<String, String>, String, String, String,
+	// package private for benchmarks
+	static Tuple13<String, Tuple2<String, String>, String, String, String,
 			Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long,
 			Long, Tuple2<String, String>, Map<String, String>, String, Results>
 			jobToJobInfo2(final Job j) {
@@ -392,6 +671,151 @@ public class UserAndJobStateServer extends JsonServerServlet {
 			.withE13(makeResults(j.getResults()));
 	}
 	
+	private List<Tuple13<String, Tuple2<String, String>, String, String,
+			String, Tuple3<String, String, String>, Tuple3<Long, Long, String>,
+			Long, Long, Tuple2<String, String>, Map<String, String>, String,
+			Results>>
+			jobsToJobInfo2(final List<Job> jobs) {
+		final List<Tuple13<String, Tuple2<String, String>, String, String,
+				String, Tuple3<String, String, String>,
+				Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>,
+				Map<String, String>, String, Results>> ret =
+				new LinkedList<Tuple13<String, Tuple2<String, String>, String,
+						String, String, Tuple3<String, String, String>,
+						Tuple3<Long, Long, String>, Long, Long,
+						Tuple2<String, String>, Map<String, String>, String,
+						Results>>();
+		for (final Job j: jobs) {
+			ret.add(jobToJobInfo2(j));
+		}
+		return ret;
+	}
+	
+	private Tuple8<String, Tuple2<String, String>, String, String, String,
+			Tuple3<String, String, String>, Tuple3<Long, Long, String>,
+			String>
+			jobToJobSummary(final JobSummary j) {
+		return new Tuple8<String, Tuple2<String, String>, String, String,
+				String, Tuple3<String, String, String>,
+				Tuple3<Long, Long, String>, String>()
+			.withE1(j.getID())
+			.withE2(new Tuple2<String, String>()
+					.withE1(j.getUser())
+					.withE2(j.getCanceledBy())
+			)
+			.withE3(j.getService())
+			.withE4(j.getStage())
+			.withE5(j.getStatus())
+			.withE6(new Tuple3<String, String, String>()
+					.withE1(formatDate(j.getStarted()))
+					.withE2(formatDate(j.getLastUpdated()))
+					.withE3(formatDate(j.getEstimatedCompletion()))
+			)
+			.withE7(new Tuple3<Long, Long, String>()
+					.withE1(j.getProgress() == null ? null :
+						new Long(j.getProgress()))
+					.withE2(j.getMaxProgress() == null ? null :
+						new Long(j.getMaxProgress()))
+					.withE3(j.getProgType())
+			)
+			.withE8(j.getDescription());
+	}
+	
+	private List<Tuple8<String, Tuple2<String, String>, String, String,
+			String, Tuple3<String, String, String>, Tuple3<Long, Long, String>,
+			String>>
+			jobsToJobSummaries(final List<JobSummary> jobs) {
+		final List<Tuple8<String, Tuple2<String, String>, String, String,
+				String, Tuple3<String, String, String>,
+				Tuple3<Long, Long, String>, String>> ret =
+				new LinkedList<Tuple8<String, Tuple2<String, String>, String,
+						String, String, Tuple3<String, String, String>,
+						Tuple3<Long, Long, String>, String>>();
+		for (final JobSummary j: jobs) {
+			ret.add(jobToJobSummary(j));
+		}
+		return ret;
+	}
+	
+	/* Abstracts over JobState.listJobs(), listJobSummaries(), and
+	 * streamJobs() so the parameter handling can be shared.
+	 */
+	private interface JobLister<R> {
+		
+		R list(
+				String user,
+				List<String> services,
+				boolean running,
+				boolean complete,
+				boolean canceled,
+				boolean error,
+				boolean shared,
+				UJSAuthorizer auth,
+				AuthorizationStrategy strat,
+				List<String> authParams,
+				int limit,
+				Boolean ascending,
+				String resume,
+				boolean includeArchive)
+				throws CommunicationException, UJSAuthorizationException;
+	}
+	
+	private <R> R listJobs(
+			final JobLister<R> lister,
+			final ListJobsParams params,
+			final AuthToken token,
+			final boolean paged)
+			throws CommunicationException, UJSAuthorizationException,
+			UnauthorizedException, IOException {
+		final boolean[] rces = parseFilter(params.getFilter());
+		int limit = 0;
+		if (params.getLimit() != null) {
+			if (params.getLimit() < 0 || params.getLimit() > MAX_PAGE_SIZE) {
+				throw new IllegalArgumentException(String.format(
+						"limit must be between 0 and %s", MAX_PAGE_SIZE));
+			}
+			limit = (int) params.getLimit().longValue();
+		}
+		if (paged && limit == 0) {
+			limit = DEFAULT_PAGE_SIZE;
+		}
+		final String resume = nullIfWhitespace(params.getResume());
+		final Boolean ascending = parseSort(params.getSort(),
+				limit > 0 || resume != null);
+		final boolean archive = longToBool(params.getIncludeArchive());
+		final String as = params.getAuthstrat();
+		if (as == null || as.isEmpty() ||
+				as.equals(UJSAuthorizer.DEFAULT_AUTH_STRAT.getStrat())) {
+			return lister.list(token.getUserName(), params.getServices(),
+					rces[0], rces[1], rces[2], rces[3], rces[4],
+					new DefaultUJSAuthorizer(),
+					UJSAuthorizer.DEFAULT_AUTH_STRAT,
+					Arrays.asList(UJSAuthorizer.DEFAULT_AUTH_PARAM),
+					limit, ascending, resume, archive);
+		} else {
+			return lister.list(token.getUserName(), params.getServices(),
+					rces[0], rces[1], rces[2], rces[3], rces[4],
+					getAuthorizer(token),
+					new AuthorizationStrategy(params.getAuthstrat()),
+					params.getAuthparams(),
+					limit, ascending, resume, archive);
+		}
+	}
+	
+	private static Boolean parseSort(final String sort, final boolean paged) {
+		if (sort == null || sort.trim().isEmpty()) {
+			return paged ? false : null;
+		}
+		if (sort.trim().equals(SORT_ASC)) {
+			return true;
+		}
+		if (sort.trim().equals(SORT_DESC)) {
+			return false;
+		}
+		throw new IllegalArgumentException(String.format(
+				"sort must be either %s or %s", SORT_ASC, SORT_DESC));
+	}
+	
 	private static Long boolToLong(final Boolean b) {
 		if (b == null) {
 			return null;
@@ -399,6 +823,37 @@ public class UserAndJobStateServer extends JsonServerServlet {
 		return b ? 1L : 0L;
 	}
 	
+	private static boolean longToBool(final Long l) {
+		return l != null && l != 0;
+	}
+	
+	// null is treated as 0
+	private static int getRangeParam(final Long value, final String name) {
+		if (value == null) {
+			return 0;
+		}
+		if (value < 0 || value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format(
+					"%s must be between 0 and %s", name, Integer.MAX_VALUE));
+		}
+		return (int) value.longValue();
+	}
+	
+	// UObjects are serialized directly by the user state, so there's no need
+	// to convert them
+	private static Map<String, Object> toObjectMap(
+			final Map<String, UObject> states) {
+		return states == null ? null : new HashMap<String, Object>(states);
+	}
+	
+	// pass the stored JSON through to the response without deserializing it
+	private static UObject toUObject(final KeyState ks) throws IOException {
+		if (!ks.exists()) {
+			return new UObject(null);
+		}
+		return new UObject(new JsonTokenStream(ks.getJSON()));
+	}
+	
 	private static Results makeResults(final JobResults res) {
 		if (res == null) {
 			return null;
@@ -451,6 +906,18 @@ public class UserAndJobStateServer extends JsonServerServlet {
 				res.getShocknodes());
 	}
 		
+	private static Integer toProgress(final Long prog) {
+		if (prog == null) {
+			return null;
+		}
+		if (prog.longValue() > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"Max progress can be no greater than "
+					+ Integer.MAX_VALUE);
+		}
+		return (int) prog.longValue();
+	}
+	
 	private Date parseDate(final String date) {
 		if (date == null) {
 			return null;
@@ -485,7 +952,7 @@ public class UserAndJobStateServer extends JsonServerServlet {
 		return ret;
 	}
 	
-	private String formatDate(final Date date) {
+	private static String formatDate(final Date date) {
 		return date == null ? null : DATE_FORMATTER.print(new DateTime(date));
 	}
 	
@@ -503,7 +970,16 @@ public class UserAndJobStateServer extends JsonServerServlet {
 						"A user name cannot be null or the empty string");
 			}
 		}
-		final Map<String, Boolean> userok = auth.isValidUserName(users, token);
+		final long start = System.nanoTime();
+		boolean error = true;
+		final Map<String, Boolean> userok;
+		try {
+			userok = auth.isValidUserName(users, token);
+			error = false;
+		} finally {
+			Metrics.getInstance().recordCall(Metrics.AUTH,
+					"validate_user_names", System.nanoTime() - start, error);
+		}
 		for (String u: userok.keySet()) {
 			if (!userok.get(u)) {
 				throw new IllegalArgumentException(String.format(
@@ -557,14 +1033,75 @@ public class UserAndJobStateServer extends JsonServerServlet {
 	}
 	
 
+	private ServiceTokenCache setUpTokenCache(
+			final ConfigurableAuthService cauth) {
+		final Integer size = getIntParam(
+				ujConfig, TOKEN_CACHE_SIZE, DEFAULT_TOKEN_CACHE_SIZE, 0);
+		final Integer exp = getIntParam(
+				ujConfig, TOKEN_CACHE_EXP, DEFAULT_TOKEN_CACHE_EXP, 1);
+		if (size == null || exp == null) {
+			return null;
+		}
+		return new ServiceTokenCache(
+				t -> validateToken(cauth, t), size, exp);
+	}
+	
+	private static String validateToken(
+			final ConfigurableAuthService cauth,
+			final String token)
+			throws IOException, AuthException {
+		final long start = System.nanoTime();
+		boolean error = true;
+		try {
+			final String user = cauth.validateToken(token).getUserName();
+			error = false;
+			return user;
+		} finally {
+			Metrics.getInstance().recordCall(Metrics.AUTH, "validate_token",
+					System.nanoTime() - start, error);
+		}
+	}
+	
+	private Integer getIntParam(
+			final Map<String, String> config,
+			final String param,
+			final int defaultValue,
+			final int min) {
+		if (!hasParam(config, param)) {
+			return defaultValue;
+		}
+		final int val;
+		try {
+			val = Integer.parseInt(config.get(param).trim());
+		} catch (NumberFormatException e) {
+			fail(String.format("Value %s provided for param %s is not an " +
+					"integer", config.get(param), param));
+			return null;
+		}
+		if (val < min) {
+			fail(String.format("Value %s provided for param %s must be at " +
+					"least %s", val, param, min));
+			return null;
+		}
+		return val;
+	}
+	
 	private WorkspaceAuthorizationFactory setUpWorkspaceAuth() {
 		WorkspaceAuthorizationFactory authfac;
 		final String wsStr = ujConfig.get(WORKSPACE_URL);
 		if (wsStr != null && !wsStr.isEmpty()) {
+			final Integer size = getIntParam(
+					ujConfig, WS_CACHE_SIZE, DEFAULT_WS_CACHE_SIZE, 0);
+			final Integer exp = getIntParam(
+					ujConfig, WS_CACHE_EXP, DEFAULT_WS_CACHE_EXP, 1);
+			if (size == null || exp == null) {
+				return null;
+			}
 			final URL wsURL;
 			try {
 				wsURL = new URL(wsStr);
-				authfac = new WorkspaceAuthorizationFactory(wsURL);
+				authfac = new WorkspaceAuthorizationFactory(wsURL,
+						new WorkspacePermissionCache(size, exp));
 			} catch (JsonClientException | IOException e) {
 				authfac = null;
 				fail("Error attempting to set up Workspace service " +
@@ -603,6 +1140,278 @@ public class UserAndJobStateServer extends JsonServerServlet {
 	public static void clearConfigForTests() {
 		ujConfig = null;
 	}
+	
+	/* Streams changes to the jobs the user owns or that are shared with the
+	 * user as server sent events. The stream doesn't support Last-Event-ID,
+	 * so on reconnecting a client should list the user's jobs again to pick
+	 * up any changes missed while disconnected.
+	 * Since the servlet API in use is synchronous, each open stream occupies a
+	 * server thread, and the number of streams is limited by config.
+	 */
+	@Override
+	protected void doGet(
+			final HttpServletRequest request,
+			final HttpServletResponse response)
+			throws ServletException, IOException {
+		if (!JOB_FEED_PATH.equals(request.getPathInfo())) {
+			super.doGet(request, response);
+			return;
+		}
+		JsonServerServlet.setupResponseHeaders(request, response);
+		if (js == null) {
+			response.sendError(500,
+					"The server did not start correctly. Check the logs.");
+			return;
+		}
+		if (feed == null) {
+			response.sendError(404, "The job feed is not enabled");
+			return;
+		}
+		final String token = getFeedToken(request);
+		if (token == null) {
+			response.sendError(401, "No authorization token provided");
+			return;
+		}
+		final String user;
+		try {
+			user = validateToken(auth, token);
+		} catch (AuthException e) {
+			response.sendError(401, "Invalid token: " + e.getMessage());
+			return;
+		}
+		final Subscription sub = feed.subscribe(user);
+		if (sub == null) {
+			response.sendError(503, "Too many job feed connections");
+			return;
+		}
+		try {
+			response.setContentType("text/event-stream");
+			response.setCharacterEncoding("UTF-8");
+			response.setHeader("Cache-Control", "no-cache");
+			// stop proxies buffering the stream
+			response.setHeader("X-Accel-Buffering", "no");
+			final OutputStream out = response.getOutputStream();
+			writeEvent(out, ": job feed for user " + user + "\n\n");
+			while (true) {
+				final FeedEvent e = sub.next(JOB_FEED_HEARTBEAT_MS);
+				if (e == null) {
+					writeEvent(out, ": keepalive\n\n");
+				} else if (e.isRemoved()) {
+					writeEvent(out, "event: removed\ndata: " +
+							UObject.getMapper().writeValueAsString(
+									e.getJobID()) + "\n\n");
+				} else {
+					writeEvent(out, "event: job\ndata: " +
+							UObject.getMapper().writeValueAsString(
+									jobToJobInfo2(e.getJob())) + "\n\n");
+				}
+			}
+		} catch (InterruptedException | IllegalStateException e) {
+			// server shutting down or the client fell behind, the client
+			// can reconnect
+		} catch (IOException e) {
+			// client disconnected
+		} finally {
+			sub.close();
+		}
+	}
+	
+	private static void writeEvent(final OutputStream out, final String event)
+			throws IOException {
+		out.write(event.getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+	
+	/* EventSource clients in browsers can't set headers, so also accept the
+	 * token from the KBase session cookie.
+	 */
+	private static String getFeedToken(final HttpServletRequest request) {
+		final String header = request.getHeader("Authorization");
+		if (header != null && !header.trim().isEmpty()) {
+			return header.trim();
+		}
+		if (request.getCookies() != null) {
+			for (final Cookie c: request.getCookies()) {
+				if (AUTH_COOKIE.equals(c.getName()) && c.getValue() != null &&
+						!c.getValue().trim().isEmpty()) {
+					return c.getValue().trim();
+				}
+			}
+		}
+		return null;
+	}
+	
+	private static Set<String> getRPCNames() {
+		final Set<String> names = new HashSet<String>();
+		for (final Method m: UserAndJobStateServer.class.getMethods()) {
+			final JsonServerMethod a = m.getAnnotation(JsonServerMethod.class);
+			if (a != null) {
+				names.add(a.rpc().substring(a.rpc().lastIndexOf('.') + 1));
+			}
+		}
+		return Collections.unmodifiableSet(names);
+	}
+	
+	/* Request bodies may be compressed with gzip or deflate, and responses
+	 * are compressed if the client accepts it and they're large enough.
+	 */
+	@Override
+	protected void doPost(
+			final HttpServletRequest request,
+			final HttpServletResponse response)
+			throws ServletException, IOException {
+		final HttpServletRequest req = RpcCompression.decompress(request);
+		if (req == null) {
+			JsonServerServlet.setupResponseHeaders(request, response);
+			response.sendError(415, "Unsupported Content-Encoding: " +
+					request.getHeader("Content-Encoding"));
+			return;
+		}
+		final CompressingResponse res = compression == null ? null :
+			compression.compress(request, response);
+		if (res == null) {
+			processPost(req, response);
+		} else {
+			/* finish even on failure so the compressor's native memory is
+			 * freed. A failed streaming listing still throws afterwards, so
+			 * the connection is dropped, see processCall()
+			 */
+			try {
+				processPost(req, res);
+			} finally {
+				res.finish();
+			}
+		}
+	}
+	
+	/* A body containing a JSON array is a batch of calls, which are run
+	 * concurrently and returned as an array of responses. The token is
+	 * checked before any calls are run, so a bad token fails the whole batch.
+	 * Each call still authenticates the token as a single call would.
+	 */
+	private void processPost(
+			final HttpServletRequest request,
+			final HttpServletResponse response)
+			throws ServletException, IOException {
+		if (batch == null) {
+			processCall(request, response);
+			return;
+		}
+		final PeekedRequest req = RpcBatchHandler.peek(request);
+		if (!req.isBatch()) {
+			processCall(req, response);
+			return;
+		}
+		JsonServerServlet.setupResponseHeaders(request, response);
+		final String token = request.getHeader("Authorization");
+		if (token != null && !token.trim().isEmpty()) {
+			try {
+				validateToken(auth, token.trim());
+			} catch (AuthException | IOException e) {
+				batch.sendError(response, RpcBatchHandler.SERVER_ERROR,
+						"Token validation failed: " + e.getMessage());
+				return;
+			}
+		}
+		batch.process(req, response);
+	}
+	
+	/* Records the latency and failures of every RPC. The method name is
+	 * recorded in the thread's RpcInfo by the superclass while it processes
+	 * the call.
+	 * A call that returns a streaming list and fails partway through writing
+	 * it throws an exception, so that the container drops the connection
+	 * rather than ending the partial response normally.
+	 */
+	private void processCall(
+			final HttpServletRequest request,
+			final HttpServletResponse response)
+			throws ServletException, IOException {
+		final RpcInfo info = JsonServerSyslog.getCurrentRpcInfo();
+		info.setMethod(null);
+		final StatusRecordingResponse res =
+				new StatusRecordingResponse(response);
+		final Metrics m = Metrics.getInstance();
+		m.rpcStarted();
+		final long start = System.nanoTime();
+		boolean error = true;
+		try (final StreamingResponse sres = new StreamingResponse(res)) {
+			super.doPost(request, sres);
+			if (sres.getAbortCause() != null) {
+				logErr("Aborted the response to " + info.getMethod() +
+						" after a failure while streaming the result: " +
+						sres.getAbortCause().getLocalizedMessage());
+				throw new IOException("The response was aborted",
+						sres.getAbortCause());
+			}
+			error = res.status >= 400;
+		} finally {
+			final String method = info.getMethod();
+			m.rpcFinished(method != null && RPC_NAMES.contains(method) ?
+					method : UNKNOWN_RPC, System.nanoTime() - start, error);
+		}
+	}
+	
+	private static class StatusRecordingResponse
+			extends HttpServletResponseWrapper {
+		
+		private int status = 200;
+		
+		private StatusRecordingResponse(final HttpServletResponse response) {
+			super(response);
+		}
+		
+		@Override
+		public void setStatus(final int sc) {
+			status = sc;
+			super.setStatus(sc);
+		}
+		
+		@SuppressWarnings("deprecation")
+		@Override
+		public void setStatus(final int sc, final String sm) {
+			status = sc;
+			super.setStatus(sc, sm);
+		}
+		
+		@Override
+		public void sendError(final int sc) throws IOException {
+			status = sc;
+			super.sendError(sc);
+		}
+		
+		@Override
+		public void sendError(final int sc, final String msg)
+				throws IOException {
+			status = sc;
+			super.sendError(sc, msg);
+		}
+	}
+	
+	@Override
+	public void destroy() {
+		if (feed != null) {
+			feed.close();
+		}
+		if (purger != null) {
+			purger.close();
+		}
+		if (archiver != null) {
+			archiver.close();
+		}
+		if (batch != null) {
+			batch.close();
+		}
+		if (authfac != null) {
+			try {
+				authfac.close();
+			} catch (IOException e) {
+				logErr("Error closing the workspace client: " +
+						e.getLocalizedMessage());
+			}
+		}
+		super.destroy();
+	}
     //END_CLASS_HEADER
 
     public UserAndJobStateServer() throws Exception {
@@ -651,15 +1460,30 @@ public class UserAndJobStateServer extends JsonServerServlet {
 			fail("Server startup failed - all calls will error out.");
 			us = null;
 			js = null;
+			feed = null;
+			purger = null;
+			archiver = null;
+			batch = null;
+			compression = null;
 			auth = null;
+			tokenCache = null;
 			authfac = null;
 		} else {
 			final String user = nullIfWhitespace(ujConfig.get(USER));
 			final String pwd = nullIfWhitespace(ujConfig.get(PWD));
 			final String authAllowInsecure = ujConfig.get(INSECURE_AUTH_URL);
 			String params = "";
-			for (String s: Arrays.asList(HOST, DB, USER, KBASE_AUTH_URL,
-					GLOBUS_AUTH_URL)) {
+			for (String s: Arrays.asList(HOST, DB, USER, MAX_POOL, MIN_POOL,
+					KBASE_AUTH_URL, GLOBUS_AUTH_URL, TOKEN_CACHE_SIZE,
+					TOKEN_CACHE_EXP,
+					WORKSPACE_URL, WS_CACHE_SIZE, WS_CACHE_EXP,
+					USER_CACHE_MB, USER_CACHE_TRUST, JOB_WAITERS,
+					JOB_FEED_CONNECTIONS, JOB_BUFFER_MS, JOB_BUFFER_MAX,
+					JOB_RETAIN_CREATED, JOB_RETAIN_COMPLETE, JOB_RETAIN_ERROR,
+					JOB_RETAIN_CANCELED, JOB_PURGE_INTERVAL, JOB_PURGE_BATCH,
+					JOB_PURGE_PAUSE, JOB_ARCHIVE_DAYS, JOB_ARCHIVE_INTERVAL,
+					JOB_ARCHIVE_BATCH, JOB_ARCHIVE_PAUSE, RPC_BATCH_THREADS,
+					COMPRESSION_MIN, COMPRESSION_LEVEL)) {
 				if (ujConfig.containsKey(s)) {
 					params += s + "=" + ujConfig.get(s) + "\n";
 				}
@@ -673,20 +1497,39 @@ public class UserAndJobStateServer extends JsonServerServlet {
 			System.out.println("Starting server using connection parameters:\n"
 					+ params);
 			logInfo("Starting server using connection parameters:\n" + params);
-			final DB ujsDB = getMongoDB(host, dbs, user, pwd);
+			final MongoClient mc = getMongoClient(host, dbs, user, pwd);
+			final MongoDatabase ujsDB = mc == null ? null : mc.getDatabase(dbs);
 			final SchemaManager sm = getSchemaManager(ujsDB, host);
 			final ConfigurableAuthService cauth = setUpAuthClient(ujConfig);
-			if (ujsDB == null || sm == null || cauth == null) {
+			final ServiceTokenCache tc = cauth == null ? null :
+				setUpTokenCache(cauth);
+			if (ujsDB == null || sm == null || cauth == null || tc == null) {
 				us = null;
 				js = null;
+				feed = null;
+				purger = null;
+				archiver = null;
+				batch = null;
+				compression = null;
 				auth = null;
+				tokenCache = null;
 				authfac = null;
 			} else {
 				//TODO ZZLATER TEST add server startup tests.
 				us = getUserState(ujsDB, sm, host);
-				js = getJobState(ujsDB, sm, host);
+				final Integer feedConns = getIntParam(
+						ujConfig, JOB_FEED_CONNECTIONS, 0, 0);
+				js = feedConns == null ? null : getJobState(
+						ujsDB, sm, host, feedConns > 0);
+				feed = js == null || feedConns < 1 ? null :
+					getJobEventFeed(js, feedConns);
+				purger = js == null ? null : getJobPurger(js);
+				archiver = js == null ? null : getJobArchiver(js);
+				batch = getRpcBatchHandler();
+				compression = getRpcCompression();
 				authfac = setUpWorkspaceAuth();
 				auth = cauth;
+				tokenCache = tc;
 			}
 		}
         //END_CONSTRUCTOR
@@ -720,8 +1563,7 @@ public class UserAndJobStateServer extends JsonServerServlet {
     @JsonServerMethod(rpc = "UserAndJobState.set_state", async=true)
     public void setState(String service, String key, UObject value, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
         //BEGIN set_state
-		us.setState(authPart.getUserName(), service, false, key,
-				value == null ? null : value.asClassInstance(Object.class));
+		us.setState(authPart.getUserName(), service, false, key, value);
         //END set_state
     }
 
@@ -738,10 +1580,46 @@ public class UserAndJobStateServer extends JsonServerServlet {
     public void setStateAuth(String token, String key, UObject value, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
         //BEGIN set_state_auth
 		us.setState(authPart.getUserName(), getServiceUserName(token), true, key,
-				value == null ? null : value.asClassInstance(Object.class));
+				value);
         //END set_state_auth
     }
 
+    /**
+     * <p>Original spec-file function name: set_states</p>
+     * <pre>
+     * Set the state of multiple keys for a service without service
+     * authentication. No more than 1000 keys may be set at once. If any key
+     * or value is invalid, no keys are set.
+     * </pre>
+     * @param   service   instance of original type "service_name" (A service name. Alphanumerics and the underscore are allowed.)
+     * @param   states   instance of mapping from String to unspecified object
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.set_states", async=true)
+    public void setStates(String service, Map<String,UObject> states, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        //BEGIN set_states
+		us.setStates(authPart.getUserName(), service, false,
+				toObjectMap(states));
+        //END set_states
+    }
+
+    /**
+     * <p>Original spec-file function name: set_states_auth</p>
+     * <pre>
+     * Set the state of multiple keys for a service with service
+     * authentication. No more than 1000 keys may be set at once. If any key
+     * or value is invalid, no keys are set.
+     * </pre>
+     * @param   token   instance of original type "service_token" (A globus ID token that validates that the service really is said service.)
+     * @param   states   instance of mapping from String to unspecified object
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.set_states_auth", async=true)
+    public void setStatesAuth(String token, Map<String,UObject> states, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        //BEGIN set_states_auth
+		us.setStates(authPart.getUserName(), getServiceUserName(token), true,
+				toObjectMap(states));
+        //END set_states_auth
+    }
+
     /**
      * <p>Original spec-file function name: get_state</p>
      * <pre>
@@ -756,8 +1634,8 @@ public class UserAndJobStateServer extends JsonServerServlet {
     public UObject getState(String service, String key, Long auth, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
         UObject returnVal = null;
         //BEGIN get_state
-		returnVal = new UObject(us.getState(authPart.getUserName(), service,
-				auth != 0, key));
+		returnVal = toUObject(us.getState(authPart.getUserName(), service,
+				auth != 0, key, true));
         //END get_state
         return returnVal;
     }
@@ -802,7 +1680,7 @@ public class UserAndJobStateServer extends JsonServerServlet {
 		final KeyState ks = us.getState(authPart.getUserName(), service,
 				auth != 0, key, false);
 		return1 = boolToLong(ks.exists());
-		return2 = new UObject(ks.getValue());
+		return2 = toUObject(ks);
         //END get_has_state
         Tuple2<Long, UObject> returnVal = new Tuple2<Long, UObject>();
         returnVal.setE1(return1);
@@ -810,6 +1688,31 @@ public class UserAndJobStateServer extends JsonServerServlet {
         return returnVal;
     }
 
+    /**
+     * <p>Original spec-file function name: get_states</p>
+     * <pre>
+     * Get the state of multiple keys for a service. No more than 1000 keys
+     * may be requested at once. Keys that don't exist are omitted from the
+     * returned mapping.
+     * </pre>
+     * @param   service   instance of original type "service_name" (A service name. Alphanumerics and the underscore are allowed.)
+     * @param   keys   instance of list of String
+     * @param   auth   instance of original type "authed" (Specifies whether results returned should be from key/value pairs set with service authentication (true) or without (false).) &rarr; original type "boolean" (A boolean. 0 = false, other = true.)
+     * @return   parameter "states" of mapping from String to unspecified object
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.get_states", async=true)
+    public Map<String,UObject> getStates(String service, List<String> keys, Long auth, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        Map<String,UObject> returnVal = null;
+        //BEGIN get_states
+		returnVal = new HashMap<String, UObject>();
+		for (final Map.Entry<String, KeyState> e: us.getStates(
+				authPart.getUserName(), service, auth != 0, keys).entrySet()) {
+			returnVal.put(e.getKey(), toUObject(e.getValue()));
+		}
+        //END get_states
+        return returnVal;
+    }
+
     /**
      * <p>Original spec-file function name: remove_state</p>
      * <pre>
@@ -908,6 +1811,52 @@ public class UserAndJobStateServer extends JsonServerServlet {
         return returnVal;
     }
 
+    /**
+     * <p>Original spec-file function name: create_jobs2</p>
+     * <pre>
+     * Create multiple job status reports with the same authorization and
+     * metadata. The jobs are authorized once and created in a single
+     * database write. Returns the job ids in the order the jobs were
+     * created.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.userandjobstate.CreateJobsParams CreateJobsParams}
+     * @return   parameter "jobs" of list of original type "job_id" (A job id.)
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.create_jobs2", async=true)
+    public List<String> createJobs2(CreateJobsParams params, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        List<String> returnVal = null;
+        //BEGIN create_jobs2
+		if (params.getCount() == null) {
+			throw new IllegalArgumentException("count cannot be null");
+		}
+		if (params.getCount() < 1) {
+			throw new IllegalArgumentException(
+					"At least one job must be created");
+		}
+		if (params.getCount() > JobState.MAX_JOB_CREATES) {
+			throw new IllegalArgumentException(String.format(
+					"No more than %s jobs may be created at once",
+					JobState.MAX_JOB_CREATES));
+		}
+		final int count = (int) params.getCount().longValue();
+		final WorkspaceUserMetadata meta =
+				new WorkspaceUserMetadata(params.getMeta());
+		final String user = authPart.getUserName();
+		final String as = params.getAuthstrat();
+		if (as == null || as.isEmpty() ||
+				as.equals(UJSAuthorizer.DEFAULT_AUTH_STRAT.getStrat())) {
+			returnVal = js.createJobs(user, new DefaultUJSAuthorizer(),
+					UJSAuthorizer.DEFAULT_AUTH_STRAT,
+					UJSAuthorizer.DEFAULT_AUTH_PARAM, meta, count);
+		} else {
+			returnVal = js.createJobs(user, getAuthorizer(authPart),
+					new AuthorizationStrategy(as), params.getAuthparam(), meta,
+					count);
+		}
+        //END create_jobs2
+        return returnVal;
+    }
+
     /**
      * <p>Original spec-file function name: create_job</p>
      * <pre>
@@ -1043,17 +1992,8 @@ public class UserAndJobStateServer extends JsonServerServlet {
     @JsonServerMethod(rpc = "UserAndJobState.update_job_progress", async=true)
     public void updateJobProgress(String job, String token, String status, Long prog, String estComplete, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
         //BEGIN update_job_progress
-		Integer progval = null;
-		if (prog != null) {
-			if (prog.longValue() > Integer.MAX_VALUE) {
-			throw new IllegalArgumentException(
-					"Max progress can be no greater than "
-					+ Integer.MAX_VALUE);
-			}
-			progval = (int) prog.longValue();
-		}
 		js.updateJob(authPart.getUserName(), job,
-				getServiceUserName(token), status, progval,
+				getServiceUserName(token), status, toProgress(prog),
 				parseDate(estComplete));
         //END update_job_progress
     }
@@ -1076,6 +2016,68 @@ public class UserAndJobStateServer extends JsonServerServlet {
         //END update_job
     }
 
+    /**
+     * <p>Original spec-file function name: update_jobs_progress</p>
+     * <pre>
+     * Update the status and progress for multiple jobs at once. The jobs
+     * must all have been started by the service that the token identifies.
+     * No more than 1000 updates may be submitted at once. The failure of one
+     * update does not affect the others - the results are returned in the
+     * same order as the updates.
+     * </pre>
+     * @param   token   instance of original type "service_token" (A globus ID token that validates that the service really is said service.)
+     * @param   updates   instance of list of type {@link us.kbase.userandjobstate.JobProgressUpdate JobProgressUpdate}
+     * @return   parameter "results" of list of type {@link us.kbase.userandjobstate.JobUpdateResult JobUpdateResult}
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.update_jobs_progress", async=true)
+    public List<JobUpdateResult> updateJobsProgress(String token, List<JobProgressUpdate> updates, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        List<JobUpdateResult> returnVal = null;
+        //BEGIN update_jobs_progress
+		if (updates == null || updates.isEmpty()) {
+			throw new IllegalArgumentException("No job updates provided");
+		}
+		if (updates.size() > JobState.MAX_JOB_UPDATES) {
+			throw new IllegalArgumentException(String.format(
+					"No more than %s job updates may be submitted at once",
+					JobState.MAX_JOB_UPDATES));
+		}
+		final String service = getServiceUserName(token);
+		// errors from parsing the updates are reported per job
+		final Exception[] errors = new Exception[updates.size()];
+		final List<JobUpdate> jus = new ArrayList<JobUpdate>();
+		for (int i = 0; i < updates.size(); i++) {
+			final JobProgressUpdate u = updates.get(i);
+			try {
+				if (u == null) {
+					throw new IllegalArgumentException(
+							"job update cannot be null");
+				}
+				checkAddlArgs(u.getAdditionalProperties(),
+						JobProgressUpdate.class);
+				jus.add(new JobUpdate(u.getJob(), u.getStatus(),
+						toProgress(u.getProg()),
+						parseDate(u.getEstComplete())));
+			} catch (IllegalArgumentException e) {
+				errors[i] = e;
+			}
+		}
+		final Iterator<Exception> jserrs = jus.isEmpty() ?
+				Collections.<Exception>emptyIterator() :
+				js.updateJobs(authPart.getUserName(), service, jus).iterator();
+		returnVal = new LinkedList<JobUpdateResult>();
+		for (int i = 0; i < updates.size(); i++) {
+			final Exception err = errors[i] != null ? errors[i] :
+				jserrs.next();
+			returnVal.add(new JobUpdateResult()
+					.withJob(updates.get(i) == null ? null :
+						updates.get(i).getJob())
+					.withUpdated(boolToLong(err == null))
+					.withError(err == null ? null : err.getMessage()));
+		}
+        //END update_jobs_progress
+        return returnVal;
+    }
+
     /**
      * <p>Original spec-file function name: get_job_description</p>
      * <pre>
@@ -1198,8 +2200,8 @@ public class UserAndJobStateServer extends JsonServerServlet {
     public Results getResults(String job, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
         Results returnVal = null;
         //BEGIN get_results
-		returnVal = makeResults(js.getJob(authPart.getUserName(), job,
-				getAuthorizer(authPart)).getResults());
+		returnVal = makeResults(js.getResults(authPart.getUserName(), job,
+				getAuthorizer(authPart), 0, 0));
         //END get_results
         return returnVal;
     }
@@ -1216,12 +2218,53 @@ public class UserAndJobStateServer extends JsonServerServlet {
     public String getDetailedError(String job, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
         String returnVal = null;
         //BEGIN get_detailed_error
-		returnVal =  js.getJob(authPart.getUserName(), job,
-				getAuthorizer(authPart)).getErrorMsg();
+		returnVal = js.getDetailedError(authPart.getUserName(), job,
+				getAuthorizer(authPart), 0, 0);
         //END get_detailed_error
         return returnVal;
     }
 
+    /**
+     * <p>Original spec-file function name: get_results2</p>
+     * <pre>
+     * Get the job results, or a range of the entries in the results list.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.userandjobstate.JobRangeParams JobRangeParams}
+     * @return   parameter "res" of type {@link us.kbase.userandjobstate.Results Results}
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.get_results2", async=true)
+    public Results getResults2(JobRangeParams params, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        Results returnVal = null;
+        //BEGIN get_results2
+		returnVal = makeResults(js.getResults(authPart.getUserName(),
+				params.getJob(), getAuthorizer(authPart),
+				getRangeParam(params.getOffset(), "offset"),
+				getRangeParam(params.getLength(), "length")));
+        //END get_results2
+        return returnVal;
+    }
+
+    /**
+     * <p>Original spec-file function name: get_detailed_error2</p>
+     * <pre>
+     * Get the detailed error message, if any, or part of the message. Large
+     * messages may be retrieved in pieces.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.userandjobstate.JobRangeParams JobRangeParams}
+     * @return   parameter "error" of original type "detailed_err" (Detailed information about a job error, such as a stacktrace, that will not fit in the job_status. No more than 100K characters.)
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.get_detailed_error2", async=true)
+    public String getDetailedError2(JobRangeParams params, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        String returnVal = null;
+        //BEGIN get_detailed_error2
+		returnVal = js.getDetailedError(authPart.getUserName(),
+				params.getJob(), getAuthorizer(authPart),
+				getRangeParam(params.getOffset(), "offset"),
+				getRangeParam(params.getLength(), "length"));
+        //END get_detailed_error2
+        return returnVal;
+    }
+
     /**
      * <p>Original spec-file function name: get_job_info2</p>
      * <pre>
@@ -1259,6 +2302,49 @@ public class UserAndJobStateServer extends JsonServerServlet {
         return returnVal;
     }
 
+    /**
+     * <p>Original spec-file function name: wait_for_job_update</p>
+     * <pre>
+     * Wait for a job to be updated, rather than repeatedly polling the job
+     * status.
+     * 
+     * job_id job - the job to wait for.
+     * timestamp last_update - the last update time of the job seen by the
+     *         caller, as returned by get_job_status or get_job_info2.
+     * int timeout - the maximum time to wait in seconds, no more than 60.
+     * 
+     * Returns as soon as the job's last update time is later than
+     * last_update, the job is deleted (in which case an error is thrown), or
+     * the timeout expires. Returns immediately if the job is already
+     * complete, or if the server is at its limit of waiting requests. In all
+     * cases the current job information is returned, and so the caller
+     * should compare the returned last update time to last_update to
+     * determine whether the job changed.
+     * </pre>
+     * @param   job   instance of original type "job_id" (A job id.)
+     * @param   lastUpdate   instance of original type "timestamp" (A time in the format YYYY-MM-DDThh:mm:ssZ, where Z is the difference in time to UTC in the format +/-HHMM, eg: 2012-12-17T23:24:06-0500 (EST time) 2013-04-03T08:56:32+0000 (UTC time))
+     * @param   timeout   instance of Long
+     * @return   parameter "info" of original type "job_info2" (Information about a job.) &rarr; tuple of size 13: parameter "job" of original type "job_id" (A job id.), parameter "users" of original type "user_info" (Who owns a job and who canceled a job (null if not canceled).) &rarr; tuple of size 2: parameter "owner" of original type "username" (Login name of a KBase user account.), parameter "canceledby" of original type "username" (Login name of a KBase user account.), parameter "service" of original type "service_name" (A service name. Alphanumerics and the underscore are allowed.), parameter "stage" of original type "job_stage" (A string that describes the stage of processing of the job. One of 'created', 'started', 'completed', 'canceled' or 'error'.), parameter "status" of original type "job_status" (A job status string supplied by the reporting service. No more than 200 characters.), parameter "times" of original type "time_info" (Job timing information.) &rarr; tuple of size 3: parameter "started" of original type "timestamp" (A time in the format YYYY-MM-DDThh:mm:ssZ, where Z is the difference in time to UTC in the format +/-HHMM, eg: 2012-12-17T23:24:06-0500 (EST time) 2013-04-03T08:56:32+0000 (UTC time)), parameter "last_update" of original type "timestamp" (A time in the format YYYY-MM-DDThh:mm:ssZ, where Z is the difference in time to UTC in the format +/-HHMM, eg: 2012-12-17T23:24:06-0500 (EST time) 2013-04-03T08:56:32+0000 (UTC time)), parameter "est_complete" of original type "timestamp" (A time in the format YYYY-MM-DDThh:mm:ssZ, where Z is the difference in time to UTC in the format +/-HHMM, eg: 2012-12-17T23:24:06-0500 (EST time) 2013-04-03T08:56:32+0000 (UTC time)), parameter "progress" of original type "progress_info" (Job progress information.) &rarr; tuple of size 3: parameter "prog" of original type "total_progress" (The total progress of a job.), parameter "max" of original type "max_progress" (The maximum possible progress of a job.), parameter "ptype" of original type "progress_type" (The type of progress that is being tracked. One of: 'none' - no numerical progress tracking 'task' - Task based tracking, e.g. 3/24 'percent' - percentage based tracking, e.g. 5/100%), parameter "complete" of original type "boolean" (A boolean. 0 = false, other = true.), parameter "error" of original type "boolean" (A boolean. 0 = false, other = true.), parameter "auth" of original type "auth_info" (Job authorization strategy information.) &rarr; tuple of size 2: parameter "strat" of original type "auth_strategy" (An authorization strategy to use for jobs. Other than the DEFAULT strategy (ACLs local to the UJS and managed by the UJS sharing functions), currently the only other strategy is the 'kbaseworkspace' strategy, which consults the workspace service for authorization information.), parameter "param" of original type "auth_param" (An authorization parameter. The contents of this parameter differ by auth_strategy, but for the workspace strategy it is the workspace id (an integer) as a string.), parameter "meta" of original type "usermeta" (User provided metadata about a job. Arbitrary key-value pairs provided by the user.) &rarr; mapping from String to String, parameter "desc" of original type "job_description" (A job description string supplied by the reporting service. No more than 1000 characters.), parameter "res" of type {@link us.kbase.userandjobstate.Results Results}
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.wait_for_job_update", async=true)
+    public Tuple13<String, Tuple2<String, String>, String, String, String, Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>, Map<String,String>, String, Results> waitForJobUpdate(String job, String lastUpdate, Long timeout, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        Tuple13<String, Tuple2<String, String>, String, String, String, Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>, Map<String,String>, String, Results> returnVal = null;
+        //BEGIN wait_for_job_update
+		if (timeout == null || timeout < 0 || timeout > MAX_JOB_WAIT_SEC) {
+			throw new IllegalArgumentException(String.format(
+					"timeout must be between 0 and %s seconds",
+					MAX_JOB_WAIT_SEC));
+		}
+		if (lastUpdate == null) {
+			throw new IllegalArgumentException("last_update cannot be null");
+		}
+		returnVal = jobToJobInfo2(js.waitForJobUpdate(authPart.getUserName(),
+				job, getAuthorizer(authPart), parseDate(lastUpdate),
+				timeout * 1000));
+        //END wait_for_job_update
+        return returnVal;
+    }
+
     /**
      * <p>Original spec-file function name: list_jobs2</p>
      * <pre>
@@ -1271,33 +2357,62 @@ public class UserAndJobStateServer extends JsonServerServlet {
     public List<Tuple13<String, Tuple2<String, String>, String, String, String, Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>, Map<String,String>, String, Results>> listJobs2(ListJobsParams params, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
         List<Tuple13<String, Tuple2<String, String>, String, String, String, Tuple3<String, String, String>, Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>, Map<String,String>, String, Results>> returnVal = null;
         //BEGIN list_jobs2
-		final boolean[] rces = parseFilter(params.getFilter());
-		final List<String> services = params.getServices();
-		final List<Job> jobs;
-		final String as = params.getAuthstrat();
-		if (as == null || as.isEmpty() ||
-				as.equals(UJSAuthorizer.DEFAULT_AUTH_STRAT.getStrat())) {
-			jobs = js.listJobs(authPart.getUserName(), services,
-				rces[0], rces[1], rces[2], rces[3], rces[4]);
-		} else {
-			jobs = js.listJobs(authPart.getUserName(), services,
-					rces[0], rces[1], rces[2], rces[3], rces[4],
-					getAuthorizer(authPart),
-					new AuthorizationStrategy(params.getAuthstrat()),
-					params.getAuthparams());
+		if (longToBool(params.getSummary())) {
+			throw new IllegalArgumentException(
+					"Job summaries are only supported by list_jobs3");
 		}
-		returnVal = new LinkedList<Tuple13<String, Tuple2<String, String>,
+		/* stream the jobs to the client rather than building the entire
+		 * listing in memory, since it may be very large. The first batch of
+		 * jobs is read before returning, so that a failure to query the
+		 * database is returned as an error before the response is started.
+		 */
+		final JobStream<Job> jobs = listJobs(
+				js::streamJobs, params, authPart, false);
+		try {
+			jobs.hasNext();
+		} catch (MongoException me) {
+			jobs.close();
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		returnVal = new StreamingList<Tuple13<String, Tuple2<String, String>,
 				String, String, String, Tuple3<String, String, String>,
 				Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>,
-				Map<String, String>,
-				String, Results>>();
-		for (final Job j: jobs) {
-			returnVal.add(jobToJobInfo2(j));
-		}
+				Map<String, String>, String, Results>>(
+						jobs, j -> jobToJobInfo2(j), jobs);
         //END list_jobs2
         return returnVal;
     }
 
+    /**
+     * <p>Original spec-file function name: list_jobs3</p>
+     * <pre>
+     * List jobs one page at a time.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.userandjobstate.ListJobsParams ListJobsParams}
+     * @return   parameter "results" of type {@link us.kbase.userandjobstate.ListJobsResults ListJobsResults}
+     */
+    @JsonServerMethod(rpc = "UserAndJobState.list_jobs3", async=true)
+    public ListJobsResults listJobs3(ListJobsParams params, AuthToken authPart, RpcContext jsonRpcContext) throws Exception {
+        ListJobsResults returnVal = null;
+        //BEGIN list_jobs3
+		if (longToBool(params.getSummary())) {
+			final JobListing<JobSummary> jl = listJobs(
+					js::listJobSummaries, params, authPart, true);
+			returnVal = new ListJobsResults()
+					.withSummaries(jobsToJobSummaries(jl.getJobs()))
+					.withNext(jl.getNext());
+		} else {
+			final JobListing<Job> jl = listJobs(
+					js::listJobs, params, authPart, true);
+			returnVal = new ListJobsResults()
+					.withJobs(jobsToJobInfo2(jl.getJobs()))
+					.withNext(jl.getNext());
+		}
+        //END list_jobs3
+        return returnVal;
+    }
+
     /**
      * <p>Original spec-file function name: list_jobs</p>
      * <pre>
@@ -1469,6 +2584,69 @@ public class UserAndJobStateServer extends JsonServerServlet {
 		returnVal.put("message", "");
 		returnVal.put("version", VER);
 		returnVal.put("git_url", GIT);
+		returnVal.put("metrics", Metrics.getInstance().getSummary());
+		if (tokenCache != null) {
+			final Map<String, Object> tc = new LinkedHashMap<String, Object>();
+			tc.put("size", tokenCache.size());
+			tc.put("hits", tokenCache.getHitCount());
+			tc.put("misses", tokenCache.getMissCount());
+			returnVal.put("service_token_cache", tc);
+		}
+		if (authfac != null) {
+			final WorkspacePermissionCache wpc = authfac.getPermissionCache();
+			final Map<String, Object> wc = new LinkedHashMap<String, Object>();
+			wc.put("size", wpc.size());
+			wc.put("hits", wpc.getHitCount());
+			wc.put("misses", wpc.getMissCount());
+			returnVal.put("workspace_permission_cache", wc);
+		}
+		if (us != null && us.getCache() != null) {
+			final UserStateCache usc = us.getCache();
+			final Map<String, Object> uc = new LinkedHashMap<String, Object>();
+			uc.put("size", usc.size());
+			uc.put("hits", usc.getHitCount());
+			uc.put("misses", usc.getMissCount());
+			returnVal.put("user_state_cache", uc);
+		}
+		if (js != null) {
+			final JobUpdateNotifier jun = js.getUpdateNotifier();
+			final Map<String, Object> w = new LinkedHashMap<String, Object>();
+			w.put("waiting", jun.getWaiterCount());
+			w.put("max", jun.getMaxWaiters());
+			returnVal.put("job_update_waiters", w);
+		}
+		if (js != null && js.getUpdateBuffer() != null) {
+			final JobUpdateBuffer jub = js.getUpdateBuffer();
+			final Map<String, Object> b = new LinkedHashMap<String, Object>();
+			b.put("pending", jub.getPendingCount());
+			b.put("max", jub.getMaxPending());
+			b.put("interval_ms", jub.getFlushIntervalMS());
+			returnVal.put("job_update_buffer", b);
+		}
+		if (purger != null) {
+			final Map<String, Object> p = new LinkedHashMap<String, Object>();
+			p.put("running", purger.isRunning());
+			p.put("retention_days", purger.getRetentionDays());
+			p.put("deleted", purger.getDeletedCounts());
+			p.put("last_run", formatDate(purger.getLastRun()));
+			p.put("last_run_deleted", purger.getLastRunDeletedCount());
+			returnVal.put("job_purger", p);
+		}
+		if (archiver != null) {
+			final Map<String, Object> a = new LinkedHashMap<String, Object>();
+			a.put("running", archiver.isRunning());
+			a.put("after_days", archiver.getAfterDays());
+			a.put("archived", archiver.getArchivedCount());
+			a.put("last_run", formatDate(archiver.getLastRun()));
+			a.put("last_run_archived", archiver.getLastRunArchivedCount());
+			returnVal.put("job_archiver", a);
+		}
+		if (feed != null) {
+			final Map<String, Object> f = new LinkedHashMap<String, Object>();
+			f.put("connections", feed.getSubscriberCount());
+			f.put("max", feed.getMaxSubscribers());
+			returnVal.put("job_feed", f);
+		}
 		@SuppressWarnings("unused")
 		String v = version;
 		@SuppressWarnings("unused")
@@ -0,0 +1,112 @@
+package us.kbase.userandjobstate.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bson.types.Binary;
+
+/** Compresses large values stored in the database with the deflate
+ * algorithm.
+ *
+ * A compressed value is stored in place of the original value as a document
+ * with a single binary {@link #DEFLATED} field. Uncompressed values are never
+ * stored in that form, so documents written before compression was added,
+ * and values too small to be worth compressing, are read as is.
+ */
+public class FieldCompression {
+
+	/** The name of the field holding a compressed value. */
+	public static final String DEFLATED = "deflated";
+
+	/** Values smaller than this number of bytes are never compressed. */
+	public static final int THRESHOLD = 4096;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private FieldCompression() {}
+
+	/** Compress a value if it is at least {@link #THRESHOLD} bytes.
+	 * @param data the value to compress.
+	 * @return the compressed value, or null if the value is too small or
+	 * doesn't get smaller when compressed.
+	 */
+	public static byte[] deflate(final byte[] data) {
+		if (data == null) {
+			throw new NullPointerException("data");
+		}
+		if (data.length < THRESHOLD) {
+			return null;
+		}
+		// favor speed, since values are compressed on the request thread
+		final Deflater def = new Deflater(Deflater.BEST_SPEED);
+		try {
+			def.setInput(data);
+			def.finish();
+			final ByteArrayOutputStream out =
+					new ByteArrayOutputStream(data.length / 4);
+			final byte[] buf = new byte[BUFFER_SIZE];
+			while (!def.finished()) {
+				out.write(buf, 0, def.deflate(buf));
+				if (out.size() >= data.length) {
+					return null;
+				}
+			}
+			return out.toByteArray();
+		} finally {
+			def.end();
+		}
+	}
+
+	/** Decompress a value compressed with {@link #deflate(byte[])}.
+	 * @param data the compressed value.
+	 * @return the original value.
+	 */
+	public static byte[] inflate(final byte[] data) {
+		if (data == null) {
+			throw new NullPointerException("data");
+		}
+		final Inflater inf = new Inflater();
+		try {
+			inf.setInput(data);
+			final ByteArrayOutputStream out =
+					new ByteArrayOutputStream(data.length * 4);
+			final byte[] buf = new byte[BUFFER_SIZE];
+			while (!inf.finished()) {
+				final int len = inf.inflate(buf);
+				if (len == 0 && (inf.needsInput() || inf.needsDictionary())) {
+					throw new RuntimeException(
+							"A stored compressed value is truncated");
+				}
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new RuntimeException(
+					"Unable to decompress a stored value", e);
+		} finally {
+			inf.end();
+		}
+	}
+
+	/** Get the compressed value from a field read from the database.
+	 * Both the document and legacy DBObject APIs are supported.
+	 * @param field the contents of the field.
+	 * @return the compressed value, or null if the field is not compressed.
+	 */
+	public static byte[] getDeflated(final Object field) {
+		if (!(field instanceof Map)) {
+			return null;
+		}
+		final Object data = ((Map<?, ?>) field).get(DEFLATED);
+		if (data instanceof Binary) {
+			return ((Binary) data).getData();
+		}
+		if (data instanceof byte[]) {
+			return (byte[]) data;
+		}
+		return null;
+	}
+}
@@ -1,6 +1,5 @@
 package us.kbase.userandjobstate.jobstate;
 
-import static us.kbase.userandjobstate.jobstate.JobState.PROG_NONE;
 import static us.kbase.userandjobstate.jobstate.JobState.META_KEY;
 import static us.kbase.userandjobstate.jobstate.JobState.META_VALUE;
 
@@ -14,29 +13,13 @@ import org.bson.types.ObjectId;
 
 import us.kbase.userandjobstate.authorization.AuthorizationStrategy;
 
-public class Job {
+/** A job. The error message of a job is not included since it may be very
+ * large - use {@link JobState#getDetailedError} to retrieve it. Similarly,
+ * if the job's results are stored in a payload collection, the results
+ * don't include the result list - use {@link JobState#getResults}.
+ */
+public class Job extends JobSummary {
 	
-	public static final String CREATED = "created";
-	public static final String STARTED = "started";
-	public static final String COMPLETE = "complete";
-	public static final String ERROR = "error";
-	public static final String CANCELED = "canceled";
-	
-	private ObjectId _id;
-	private String user;
-	private String service;
-	private String desc;
-	private String progtype;
-	private Integer prog;
-	private Integer maxprog;
-	private String status;
-	private Date started;
-	private Date updated;
-	private Date estcompl;
-	private Boolean complete;
-	private Boolean error;
-	private String canceledby;
-	private String errormsg;
 	private JobResults results;
 	private List<String> shared;
 	private String authstrat;
@@ -61,27 +44,13 @@ public class Job {
 			final Boolean complete,
 			final Boolean error,
 			final String canceledby,
-			final String errormsg,
 			final JobResults results,
 			final List<String> shared,
 			final String authstrat,
 			final String authparam,
 			final List<Map<String, String>> meta) {
-		this._id = _id;
-		this.user = user;
-		this.service = service;
-		this.desc = desc;
-		this.progtype = progtype;
-		this.prog = prog;
-		this.maxprog = maxprog;
-		this.status = status;
-		this.started = started;
-		this.updated = updated;
-		this.estcompl = estcompl;
-		this.complete = complete;
-		this.error = error;
-		this.canceledby = canceledby;
-		this.errormsg = errormsg;
+		super(_id, user, service, desc, progtype, prog, maxprog, status,
+				started, updated, estcompl, complete, error, canceledby);
 		this.results = results;
 		this.shared = shared;
 		this.authstrat = authstrat;
@@ -89,95 +58,6 @@ public class Job {
 		this.meta = meta;
 	}
 
-	public String getID() {
-		return _id.toString();
-	}
-	
-	public String getStage() {
-		if (canceledby != null) {
-			return CANCELED;
-		}
-		if (service == null) {
-			return CREATED;
-		}
-		if (!complete) {
-			return STARTED;
-		}
-		if (!error) {
-			return COMPLETE;
-		}
-		return ERROR;
-	}
-	
-	public String getUser() {
-		return user;
-	}
-
-	public String getService() {
-		return service;
-	}
-
-	public String getDescription() {
-		return desc;
-	}
-
-	public String getProgType() {
-		return progtype;
-	}
-
-	public Integer getProgress() {
-		if (getProgType() == null || getProgType().equals(PROG_NONE)) {
-			return null;
-		}
-		if (isComplete() || getMaxProgress() < prog) {
-			return getMaxProgress();
-		}
-		return prog;
-	}
-
-	public Integer getMaxProgress() {
-		if (getProgType() == null || getProgType().equals(PROG_NONE)) {
-			return null;
-		}
-		return maxprog;
-	}
-
-	public String getStatus() {
-		return status;
-	}
-
-	public Date getStarted() {
-		return started;
-	}
-	
-	public Date getEstimatedCompletion() {
-		return estcompl;
-	}
-	
-	public Date getLastUpdated() {
-		return updated;
-	}
-
-	public Boolean isComplete() {
-		return complete;
-	}
-	
-	public boolean isCanceled() {
-		return canceledby != null;
-	}
-	
-	public String getCanceledBy() {
-		return canceledby;
-	}
-
-	public Boolean hasError() {
-		return error;
-	}
-	
-	public String getErrorMsg() {
-		return errormsg;
-	}
-
 	public JobResults getResults() {
 		return results;
 	}
@@ -235,8 +115,6 @@ public class Job {
 		builder.append(complete);
 		builder.append(", error=");
 		builder.append(error);
-		builder.append(", errormsg=");
-		builder.append(errormsg);
 		builder.append(", results=");
 		builder.append(results);
 		builder.append(", shared=");
@@ -0,0 +1,182 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.io.Closeable;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import us.kbase.userandjobstate.exceptions.CommunicationException;
+
+/** Moves completed, errored, and canceled jobs that have not been updated for
+ * longer than a given period from the job collection to the job archive,
+ * keeping the job collection and its indexes small. Archived jobs can still
+ * be retrieved by ID, but are only listed on request.
+ *
+ * Like the {@link JobPurger}, jobs are moved in batches with a pause between
+ * each batch, and it is safe to run an archiver on every server instance.
+ */
+public class JobArchiver implements Closeable {
+
+	private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+	private static final long MAX_START_DELAY_MS = 60 * 1000L;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final JobState js;
+	private final int afterDays;
+	private final int batchSize;
+	private final long batchPauseMS;
+	private final LongAdder archived = new LongAdder();
+	private ScheduledExecutorService timer = null;
+	private volatile boolean running = false;
+	private volatile Date lastRun = null;
+	private volatile long lastRunArchived = 0;
+
+	/** Create an archiver.
+	 * @param js the job state instance to archive. It must have an archive.
+	 * @param afterDays the number of days after a job was last updated that
+	 * it is archived.
+	 * @param batchSize the maximum number of jobs to archive at once.
+	 * @param batchPauseMS the time to wait between batches in milliseconds.
+	 */
+	public JobArchiver(
+			final JobState js,
+			final int afterDays,
+			final int batchSize,
+			final long batchPauseMS) {
+		if (js == null) {
+			throw new NullPointerException("js");
+		}
+		if (!js.hasArchive()) {
+			throw new IllegalArgumentException(
+					"The job state instance has no archive");
+		}
+		if (afterDays < 1) {
+			throw new IllegalArgumentException("afterDays must be at least 1");
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		if (batchPauseMS < 0) {
+			throw new IllegalArgumentException(
+					"batchPauseMS cannot be negative");
+		}
+		this.js = js;
+		this.afterDays = afterDays;
+		this.batchSize = batchSize;
+		this.batchPauseMS = batchPauseMS;
+	}
+
+	/** Start archiving jobs periodically in a background thread.
+	 * @param intervalMS the time between the end of one run and the start of
+	 * the next in milliseconds.
+	 */
+	public synchronized void start(final long intervalMS) {
+		if (intervalMS < 1) {
+			throw new IllegalArgumentException("intervalMS must be at least 1");
+		}
+		if (timer != null) {
+			throw new IllegalStateException("The archiver is already started");
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread t = new Thread(r, "job archiver");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleWithFixedDelay(() -> {
+			try {
+				archive();
+			} catch (CommunicationException | RuntimeException e) {
+				log.error("Archiving old jobs failed, will retry in " +
+						intervalMS + " ms", e);
+			} catch (InterruptedException e) {
+				// closed
+			}
+		}, Math.min(intervalMS, MAX_START_DELAY_MS), intervalMS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/** Archive all finished jobs that were last updated before the archive
+	 * period.
+	 * @return the number of jobs archived.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 * @throws InterruptedException if the thread is interrupted while pausing
+	 * between batches.
+	 */
+	public long archive() throws CommunicationException, InterruptedException {
+		running = true;
+		long total = 0;
+		try {
+			final Date before = new Date(
+					System.currentTimeMillis() - afterDays * DAY_MS);
+			int count;
+			do {
+				count = js.archiveJobs(before, batchSize);
+				archived.add(count);
+				total += count;
+				if (count > 0) {
+					log.info(String.format(
+							"Archived %s jobs last updated before %s, %s " +
+							"jobs archived in this run", count, before, total));
+				}
+				if (count == batchSize && batchPauseMS > 0) {
+					Thread.sleep(batchPauseMS);
+				}
+			} while (count == batchSize);
+		} finally {
+			lastRunArchived = total;
+			lastRun = new Date();
+			running = false;
+		}
+		return total;
+	}
+
+	/** Get the number of days after the last update that jobs are archived.
+	 * @return the archive period in days.
+	 */
+	public int getAfterDays() {
+		return afterDays;
+	}
+
+	/** Get the number of jobs archived since the archiver was created.
+	 * @return the number of jobs archived.
+	 */
+	public long getArchivedCount() {
+		return archived.sum();
+	}
+
+	/** Get the time the most recent run finished.
+	 * @return the time, or null if no run has finished.
+	 */
+	public Date getLastRun() {
+		return lastRun;
+	}
+
+	/** Get the number of jobs archived by the most recent run.
+	 * @return the number of jobs.
+	 */
+	public long getLastRunArchivedCount() {
+		return lastRunArchived;
+	}
+
+	/** Returns true if a run is in progress.
+	 * @return whether the archiver is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/** Stop archiving jobs. A run in progress is interrupted. */
+	@Override
+	public synchronized void close() {
+		if (timer != null) {
+			timer.shutdownNow();
+		}
+	}
+}
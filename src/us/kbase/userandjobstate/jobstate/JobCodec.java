@@ -0,0 +1,243 @@
+package us.kbase.userandjobstate.jobstate;
+
+import static us.kbase.userandjobstate.jobstate.JobState.AUTH_PARAM;
+import static us.kbase.userandjobstate.jobstate.JobState.AUTH_STRAT;
+import static us.kbase.userandjobstate.jobstate.JobState.METADATA;
+import static us.kbase.userandjobstate.jobstate.JobState.META_KEY;
+import static us.kbase.userandjobstate.jobstate.JobState.META_VALUE;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.types.ObjectId;
+
+/** Decodes job documents directly from BSON into {@link Job}s or
+ * {@link JobSummary}s, avoiding building an intermediate document.
+ *
+ * Jobs are only ever written to the database as documents, so this is a
+ * decoder only, applied to the raw documents read from the database.
+ *
+ * @param <T> the type of job to decode.
+ */
+class JobCodec<T extends JobSummary> implements Decoder<T> {
+
+	/** A codec for full jobs. */
+	static final JobCodec<Job> JOB = new JobCodec<Job>(f -> f.toJob());
+
+	/** A codec for job summaries. Any fields not required for the summary
+	 * are skipped.
+	 */
+	static final JobCodec<JobSummary> SUMMARY = new JobCodec<JobSummary>(
+			f -> f.toJobSummary());
+
+	private static final DecoderContext CONTEXT =
+			DecoderContext.builder().build();
+
+	private final Function<Fields, T> builder;
+
+	private JobCodec(final Function<Fields, T> builder) {
+		this.builder = builder;
+	}
+
+	/** Decode a raw job document read from the database.
+	 * @param doc the document.
+	 * @return the job.
+	 */
+	T decode(final RawBsonDocument doc) {
+		try (final BsonBinaryReader reader =
+				new BsonBinaryReader(doc.getByteBuffer().asNIO())) {
+			return decode(reader, CONTEXT);
+		}
+	}
+
+	@Override
+	public T decode(
+			final BsonReader reader,
+			final DecoderContext decoderContext) {
+		final Fields f = new Fields();
+		reader.readStartDocument();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			final String name = reader.readName();
+			if (reader.getCurrentBsonType() == BsonType.NULL) {
+				reader.readNull();
+				continue;
+			}
+			switch (name) {
+				case "_id": f._id = reader.readObjectId(); break;
+				case "user": f.user = reader.readString(); break;
+				case "service": f.service = reader.readString(); break;
+				case "desc": f.desc = reader.readString(); break;
+				case "progtype": f.progtype = reader.readString(); break;
+				case "prog": f.prog = readInt(reader); break;
+				case "maxprog": f.maxprog = readInt(reader); break;
+				case "status": f.status = reader.readString(); break;
+				case "started": f.started = readDate(reader); break;
+				case "updated": f.updated = readDate(reader); break;
+				case "estcompl": f.estcompl = readDate(reader); break;
+				case "complete": f.complete = reader.readBoolean(); break;
+				case "error": f.error = reader.readBoolean(); break;
+				case "canceledby": f.canceledby = reader.readString(); break;
+				case "results": f.results = readResults(reader); break;
+				case "shared": f.shared = readStrings(reader); break;
+				case AUTH_STRAT: f.authstrat = reader.readString(); break;
+				case AUTH_PARAM: f.authparam = reader.readString(); break;
+				case METADATA: f.meta = readMeta(reader); break;
+				default: reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return builder.apply(f);
+	}
+
+	private static class Fields {
+
+		private ObjectId _id;
+		private String user;
+		private String service;
+		private String desc;
+		private String progtype;
+		private Integer prog;
+		private Integer maxprog;
+		private String status;
+		private Date started;
+		private Date updated;
+		private Date estcompl;
+		private Boolean complete;
+		private Boolean error;
+		private String canceledby;
+		private JobResults results;
+		private List<String> shared;
+		private String authstrat;
+		private String authparam;
+		private List<Map<String, String>> meta;
+
+		private JobSummary toJobSummary() {
+			return new JobSummary(_id, user, service, desc, progtype, prog,
+					maxprog, status, started, updated, estcompl, complete,
+					error, canceledby);
+		}
+
+		private Job toJob() {
+			return new Job(_id, user, service, desc, progtype, prog, maxprog,
+					status, started, updated, estcompl, complete, error,
+					canceledby, results, shared, authstrat, authparam, meta);
+		}
+	}
+
+	private static Integer readInt(final BsonReader reader) {
+		// $inc may widen the type if the value gets large enough
+		switch (reader.getCurrentBsonType()) {
+			case INT64: return (int) reader.readInt64();
+			case DOUBLE: return (int) reader.readDouble();
+			default: return reader.readInt32();
+		}
+	}
+
+	private static Date readDate(final BsonReader reader) {
+		return new Date(reader.readDateTime());
+	}
+
+	private static String readNullableString(final BsonReader reader) {
+		if (reader.getCurrentBsonType() == BsonType.NULL) {
+			reader.readNull();
+			return null;
+		}
+		return reader.readString();
+	}
+
+	private static List<String> readStrings(final BsonReader reader) {
+		final List<String> ret = new LinkedList<String>();
+		reader.readStartArray();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			ret.add(readNullableString(reader));
+		}
+		reader.readEndArray();
+		return ret;
+	}
+
+	private static List<Map<String, String>> readMeta(
+			final BsonReader reader) {
+		final List<Map<String, String>> ret =
+				new LinkedList<Map<String, String>>();
+		reader.readStartArray();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			final Map<String, String> m = new LinkedHashMap<String, String>(2);
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				final String name = reader.readName();
+				if (META_KEY.equals(name) || META_VALUE.equals(name)) {
+					m.put(name, readNullableString(reader));
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.readEndDocument();
+			ret.add(m);
+		}
+		reader.readEndArray();
+		return ret;
+	}
+
+	private static JobResults readResults(final BsonReader reader) {
+		List<JobResult> results = null;
+		String workspaceurl = null;
+		List<String> workspaceids = null;
+		String shockurl = null;
+		List<String> shocknodes = null;
+		reader.readStartDocument();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			final String name = reader.readName();
+			if (reader.getCurrentBsonType() == BsonType.NULL) {
+				reader.readNull();
+				continue;
+			}
+			switch (name) {
+				case "results": results = readResultList(reader); break;
+				case "workspaceurl": workspaceurl = reader.readString(); break;
+				case "workspaceids": workspaceids = readStrings(reader); break;
+				case "shockurl": shockurl = reader.readString(); break;
+				case "shocknodes": shocknodes = readStrings(reader); break;
+				default: reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return new JobResults(results, workspaceurl, workspaceids, shockurl,
+				shocknodes);
+	}
+
+	private static List<JobResult> readResultList(final BsonReader reader) {
+		final List<JobResult> ret = new LinkedList<JobResult>();
+		reader.readStartArray();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			String servtype = null;
+			String url = null;
+			String id = null;
+			String desc = null;
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				final String name = reader.readName();
+				switch (name) {
+					case "servtype": servtype = readNullableString(reader); break;
+					case "url": url = readNullableString(reader); break;
+					case "id": id = readNullableString(reader); break;
+					case "desc": desc = readNullableString(reader); break;
+					default: reader.skipValue();
+				}
+			}
+			reader.readEndDocument();
+			ret.add(new JobResult(servtype, url, id, desc));
+		}
+		reader.readEndArray();
+		return ret;
+	}
+}
@@ -0,0 +1,260 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCursor;
+
+import us.kbase.userandjobstate.exceptions.CommunicationException;
+import us.kbase.userandjobstate.jobstate.JobEventLog.JobEvent;
+import us.kbase.userandjobstate.jobstate.exceptions.NoSuchJobException;
+
+/** Follows a {@link JobEventLog} and sends changes to the jobs each
+ * subscribed user owns or has been shared to that user's subscriptions.
+ *
+ * A single thread tails the log, and each job is read from the database once
+ * per change regardless of the number of subscribers.
+ */
+public class JobEventFeed implements Closeable {
+
+	/** The maximum number of undelivered events for a subscription. */
+	public static final int MAX_QUEUED_EVENTS = 1000;
+
+	private static final long RETRY_MS = 1000;
+
+	private final JobState js;
+	private final JobEventLog log;
+	private final int maxSubscribers;
+	private final Set<Subscription> subs = ConcurrentHashMap.newKeySet();
+	private final Thread tailer;
+	private volatile boolean running = true;
+
+	/** Create the feed and start following the event log. Only events
+	 * added to the log after the feed is created are sent to subscribers.
+	 * @param js the job state instance from which to read changed jobs. The
+	 * instance must have an event log.
+	 * @param maxSubscribers the maximum number of simultaneous subscriptions.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public JobEventFeed(final JobState js, final int maxSubscribers)
+			throws CommunicationException {
+		if (js == null) {
+			throw new NullPointerException("js");
+		}
+		if (js.getEventLog() == null) {
+			throw new IllegalArgumentException(
+					"The job state instance has no event log");
+		}
+		if (maxSubscribers < 1) {
+			throw new IllegalArgumentException(
+					"maxSubscribers must be at least 1");
+		}
+		this.js = js;
+		this.log = js.getEventLog();
+		this.maxSubscribers = maxSubscribers;
+		final ObjectId start = log.getLatestEventID();
+		tailer = new Thread(() -> tail(start), "job event feed");
+		tailer.setDaemon(true);
+		tailer.start();
+	}
+
+	/** A change to a job visible to a subscribed user. */
+	public static class FeedEvent {
+
+		private final String jobID;
+		private final Job job;
+
+		private FeedEvent(final String jobID, final Job job) {
+			this.jobID = jobID;
+			this.job = job;
+		}
+
+		/** Get the ID of the job that changed.
+		 * @return the job ID.
+		 */
+		public String getJobID() {
+			return jobID;
+		}
+
+		/** Get the job after the change.
+		 * @return the job, or null if the job was deleted or is no longer
+		 * visible to the user.
+		 */
+		public Job getJob() {
+			return job;
+		}
+
+		/** Returns true if the job was deleted or is no longer visible to the
+		 * user.
+		 * @return whether the job was removed from the user's view.
+		 */
+		public boolean isRemoved() {
+			return job == null;
+		}
+	}
+
+	/** A subscription to the changes to a user's jobs. */
+	public class Subscription implements Closeable {
+
+		private final String user;
+		private final BlockingQueue<FeedEvent> queue =
+				new LinkedBlockingQueue<FeedEvent>(MAX_QUEUED_EVENTS);
+		private volatile boolean overflowed = false;
+
+		private Subscription(final String user) {
+			this.user = user;
+		}
+
+		/** Get the user whose jobs are followed by this subscription.
+		 * @return the user.
+		 */
+		public String getUser() {
+			return user;
+		}
+
+		private void offer(final FeedEvent e) {
+			if (!queue.offer(e)) {
+				overflowed = true;
+			}
+		}
+
+		/** Get the next change to the user's jobs.
+		 * @param timeoutMS the maximum time to wait for a change in
+		 * milliseconds.
+		 * @return the change, or null if there was no change before the
+		 * timeout expired.
+		 * @throws InterruptedException if the thread is interrupted.
+		 * @throws IllegalStateException if the subscriber fell so far behind
+		 * the feed that events were discarded. The subscription should be
+		 * closed, and the subscriber should reread all the user's jobs.
+		 */
+		public FeedEvent next(final long timeoutMS)
+				throws InterruptedException {
+			if (overflowed) {
+				throw new IllegalStateException(
+						"The subscriber fell too far behind the job feed");
+			}
+			return queue.poll(timeoutMS, TimeUnit.MILLISECONDS);
+		}
+
+		/** Stop following changes. */
+		@Override
+		public void close() {
+			subs.remove(this);
+		}
+	}
+
+	/** Subscribe to the changes to the jobs a user owns or that have been
+	 * shared with the user.
+	 * @param user the user.
+	 * @return the subscription, or null if the maximum number of subscriptions
+	 * are already open or the feed is closed.
+	 */
+	public Subscription subscribe(final String user) {
+		if (user == null || user.isEmpty()) {
+			throw new IllegalArgumentException(
+					"user cannot be null or the empty string");
+		}
+		synchronized (subs) {
+			if (!running || subs.size() >= maxSubscribers) {
+				return null;
+			}
+			final Subscription s = new Subscription(user);
+			subs.add(s);
+			return s;
+		}
+	}
+
+	/** Get the maximum number of simultaneous subscriptions.
+	 * @return the maximum number of subscriptions.
+	 */
+	public int getMaxSubscribers() {
+		return maxSubscribers;
+	}
+
+	/** Get the number of open subscriptions.
+	 * @return the number of subscriptions.
+	 */
+	public int getSubscriberCount() {
+		return subs.size();
+	}
+
+	/** Stop following the event log. Open subscriptions receive no further
+	 * events.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		tailer.interrupt();
+	}
+
+	private void tail(final ObjectId start) {
+		ObjectId last = start;
+		while (running) {
+			/* Event IDs are generated by the inserting server instance, and so
+			 * may not be strictly ordered across instances. As such an event
+			 * from another instance within the same second as the last event
+			 * may be missed when the cursor is reopened, but that only
+			 * happens if the database connection fails or the feed falls
+			 * behind the entire log.
+			 */
+			try (final MongoCursor<JobEvent> c = log.tail(last)) {
+				while (running) {
+					final JobEvent e = c.tryNext();
+					if (e != null) {
+						last = e.getID();
+						dispatch(e);
+					} else if (c.getServerCursor() == null) {
+						// the log was empty or the cursor fell off the end of
+						// the capped collection
+						break;
+					}
+				}
+			} catch (CommunicationException | MongoException e) {
+				// try again after the pause
+			}
+			if (running) {
+				try {
+					Thread.sleep(RETRY_MS);
+				} catch (InterruptedException e) {
+					// closed
+				}
+			}
+		}
+	}
+
+	private void dispatch(final JobEvent e) {
+		if (subs.isEmpty()) {
+			return;
+		}
+		Job j = null;
+		if (!e.isDeleted()) {
+			try {
+				j = js.getJob(new ObjectId(e.getJobID()));
+			} catch (NoSuchJobException nsje) {
+				// deleted since the event, the delete event will follow
+			} catch (CommunicationException ce) {
+				return;
+			}
+		}
+		for (final Subscription s: subs) {
+			if (j != null && isVisible(j, s.user)) {
+				s.offer(new FeedEvent(e.getJobID(), j));
+			} else if (e.getRemovedUsers().contains(s.user)) {
+				s.offer(new FeedEvent(e.getJobID(), null));
+			}
+		}
+	}
+
+	private static boolean isVisible(final Job j, final String user) {
+		return j.getUser().equals(user) || j.getShared().contains(user);
+	}
+}
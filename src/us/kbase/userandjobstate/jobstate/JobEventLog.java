@@ -0,0 +1,210 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+
+import us.kbase.userandjobstate.exceptions.CommunicationException;
+
+/** A log of changes to jobs stored in a capped collection, so that any
+ * number of server instances can follow changes made by all the other
+ * instances by tailing the collection. Works with standalone mongod
+ * instances as well as replica sets.
+ *
+ * Since the collection is capped, old events are discarded as new events
+ * are added - the log is only intended for following changes as they occur.
+ */
+public class JobEventLog {
+
+	public static final String COLLECTION = "jobevents";
+
+	private static final String MONGO_ID = "_id";
+	private static final String JOB = "job";
+	private static final String DELETED = "del";
+	private static final String REMOVED = "rm";
+
+	private final MongoCollection<Document> events;
+
+	/** Create the event log, creating the capped collection if necessary.
+	 * @param db the database in which to store events.
+	 * @param sizeBytes the size of the capped collection in bytes. Ignored
+	 * if the collection already exists.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public JobEventLog(final MongoDatabase db, final long sizeBytes)
+			throws CommunicationException {
+		if (db == null) {
+			throw new NullPointerException("db");
+		}
+		if (sizeBytes < 4096) {
+			throw new IllegalArgumentException(
+					"sizeBytes must be at least 4096");
+		}
+		try {
+			if (!db.listCollectionNames().into(new LinkedList<String>())
+					.contains(COLLECTION)) {
+				db.createCollection(COLLECTION, new CreateCollectionOptions()
+						.capped(true).sizeInBytes(sizeBytes));
+			}
+		} catch (MongoException me) {
+			// may have been created by another server instance
+			if (!db.listCollectionNames().into(new LinkedList<String>())
+					.contains(COLLECTION)) {
+				throw new CommunicationException(
+						"There was a problem communicating with the database",
+						me);
+			}
+		}
+		events = db.getCollection(COLLECTION);
+	}
+
+	/** An event in the log. */
+	public static class JobEvent {
+
+		private final ObjectId id;
+		private final String jobID;
+		private final boolean deleted;
+		private final List<String> removedUsers;
+
+		private JobEvent(final Document d) {
+			id = d.getObjectId(MONGO_ID);
+			jobID = d.getObjectId(JOB).toString();
+			deleted = d.getBoolean(DELETED, false);
+			@SuppressWarnings("unchecked")
+			final List<String> rm = (List<String>) d.get(REMOVED);
+			removedUsers = rm == null ? Collections.<String>emptyList() :
+				Collections.unmodifiableList(rm);
+		}
+
+		/** Get the ID of the event.
+		 * @return the event ID.
+		 */
+		public ObjectId getID() {
+			return id;
+		}
+
+		/** Get the ID of the job that changed.
+		 * @return the job ID.
+		 */
+		public String getJobID() {
+			return jobID;
+		}
+
+		/** Returns true if the job was deleted.
+		 * @return whether the job was deleted.
+		 */
+		public boolean isDeleted() {
+			return deleted;
+		}
+
+		/** Get the users that could see the job before the change but may no
+		 * longer be able to see it.
+		 * @return the users.
+		 */
+		public List<String> getRemovedUsers() {
+			return removedUsers;
+		}
+	}
+
+	/** Record a change to one or more jobs.
+	 * @param jobs the IDs of the jobs that changed.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	void jobsChanged(final Collection<ObjectId> jobs)
+			throws CommunicationException {
+		final List<Document> docs = new ArrayList<Document>();
+		for (final ObjectId j: jobs) {
+			docs.add(new Document(JOB, j));
+		}
+		insert(docs);
+	}
+
+	/** Record that some users may no longer be able to see a job.
+	 * @param job the ID of the job.
+	 * @param removedUsers the users that may no longer be able to see the
+	 * job.
+	 * @param deleted true if the job was deleted.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	void usersRemoved(
+			final ObjectId job,
+			final Collection<String> removedUsers,
+			final boolean deleted)
+			throws CommunicationException {
+		insert(Collections.singletonList(new Document(JOB, job)
+				.append(DELETED, deleted)
+				.append(REMOVED, new ArrayList<String>(removedUsers))));
+	}
+
+	private void insert(final List<Document> docs)
+			throws CommunicationException {
+		if (docs.isEmpty()) {
+			return;
+		}
+		try {
+			events.insertMany(docs);
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+
+	/** Get the ID of the most recent event in the log.
+	 * @return the event ID, or null if the log is empty.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public ObjectId getLatestEventID() throws CommunicationException {
+		try {
+			final Document d = events.find()
+					.sort(new Document("$natural", -1))
+					.projection(new Document(MONGO_ID, 1))
+					.first();
+			return d == null ? null : d.getObjectId(MONGO_ID);
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+
+	/** Open a tailable cursor on the log. The cursor blocks for a short time
+	 * waiting for new events when it reaches the end of the log, and dies if
+	 * the log is empty or the position of the cursor is overwritten, in which
+	 * case a new cursor must be opened.
+	 * @param after the ID of the event after which to start reading, or null
+	 * to read from the start of the log.
+	 * @return the cursor. The caller is responsible for closing the cursor.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public MongoCursor<JobEvent> tail(final ObjectId after)
+			throws CommunicationException {
+		final Document query = after == null ? new Document() :
+			new Document(MONGO_ID, new Document("$gt", after));
+		try {
+			return events.find(query)
+					.cursorType(CursorType.TailableAwait)
+					.noCursorTimeout(true)
+					.map(d -> new JobEvent(d))
+					.iterator();
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.util.Collections;
+import java.util.List;
+
+/** One page of a job listing.
+ *
+ * @param <T> the type of the jobs in the listing - either full jobs or job
+ * summaries.
+ */
+public class JobListing<T extends JobSummary> {
+
+	private final List<T> jobs;
+	private final String next;
+
+	JobListing(final List<T> jobs, final String next) {
+		this.jobs = Collections.unmodifiableList(jobs);
+		this.next = next;
+	}
+
+	/** Get the jobs in this page of the listing.
+	 * @return the jobs.
+	 */
+	public List<T> getJobs() {
+		return jobs;
+	}
+
+	/** Get an opaque token that can be used to resume the listing after the
+	 * last job in this page.
+	 * @return the resume token, or null if there are no more jobs.
+	 */
+	public String getNext() {
+		return next;
+	}
+}
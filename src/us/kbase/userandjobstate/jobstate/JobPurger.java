@@ -0,0 +1,210 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import us.kbase.userandjobstate.exceptions.CommunicationException;
+
+/** Deletes jobs that have not been updated for longer than a retention period
+ * from the database. Separate retention periods may be set for jobs that
+ * have never been started and for completed, errored, and canceled jobs.
+ * Jobs that are in progress are never deleted.
+ *
+ * Jobs are deleted in batches with a pause between each batch so that a
+ * large backlog of old jobs doesn't monopolize the database. Deleting a job
+ * that has already been deleted does nothing, so it is safe, although
+ * wasteful, to run a purger on every server instance.
+ */
+public class JobPurger implements Closeable {
+
+	private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+	private static final long MAX_START_DELAY_MS = 60 * 1000L;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final JobState js;
+	private final Map<String, Integer> retentionDays;
+	private final int batchSize;
+	private final long batchPauseMS;
+	private final Map<String, LongAdder> deleted =
+			new ConcurrentHashMap<String, LongAdder>();
+	private ScheduledExecutorService timer = null;
+	private volatile boolean running = false;
+	private volatile Date lastRun = null;
+	private volatile long lastRunDeleted = 0;
+
+	/** Create a purger.
+	 * @param js the job state instance to purge.
+	 * @param retentionDays the number of days after the last update that a
+	 * job is retained, mapped by the job stage - one of {@link Job#CREATED},
+	 * {@link Job#COMPLETE}, {@link Job#ERROR}, or {@link Job#CANCELED}. Jobs
+	 * in stages that are not included are retained forever.
+	 * @param batchSize the maximum number of jobs to delete at once.
+	 * @param batchPauseMS the time to wait between batches in milliseconds.
+	 */
+	public JobPurger(
+			final JobState js,
+			final Map<String, Integer> retentionDays,
+			final int batchSize,
+			final long batchPauseMS) {
+		if (js == null) {
+			throw new NullPointerException("js");
+		}
+		if (retentionDays == null) {
+			throw new NullPointerException("retentionDays");
+		}
+		for (final String stage: retentionDays.keySet()) {
+			if (!Job.CREATED.equals(stage) && !Job.COMPLETE.equals(stage) &&
+					!Job.ERROR.equals(stage) && !Job.CANCELED.equals(stage)) {
+				throw new IllegalArgumentException(
+						"Jobs in stage " + stage + " cannot be purged");
+			}
+			final Integer days = retentionDays.get(stage);
+			if (days == null || days < 1) {
+				throw new IllegalArgumentException(
+						"Retention period for stage " + stage +
+						" must be at least 1 day");
+			}
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		if (batchPauseMS < 0) {
+			throw new IllegalArgumentException(
+					"batchPauseMS cannot be negative");
+		}
+		this.js = js;
+		this.retentionDays = Collections.unmodifiableMap(
+				new LinkedHashMap<String, Integer>(retentionDays));
+		this.batchSize = batchSize;
+		this.batchPauseMS = batchPauseMS;
+		for (final String stage: this.retentionDays.keySet()) {
+			deleted.put(stage, new LongAdder());
+		}
+	}
+
+	/** Start purging jobs periodically in a background thread.
+	 * @param intervalMS the time between the end of one purge and the start of
+	 * the next in milliseconds.
+	 */
+	public synchronized void start(final long intervalMS) {
+		if (intervalMS < 1) {
+			throw new IllegalArgumentException("intervalMS must be at least 1");
+		}
+		if (timer != null) {
+			throw new IllegalStateException("The purger is already started");
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread t = new Thread(r, "job purger");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleWithFixedDelay(() -> {
+			try {
+				purge();
+			} catch (CommunicationException | RuntimeException e) {
+				log.error("Purging old jobs failed, will retry in " +
+						intervalMS + " ms", e);
+			} catch (InterruptedException e) {
+				// closed
+			}
+		}, Math.min(intervalMS, MAX_START_DELAY_MS), intervalMS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/** Delete all jobs that have exceeded their retention period.
+	 * @return the number of jobs deleted.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 * @throws InterruptedException if the thread is interrupted while pausing
+	 * between batches.
+	 */
+	public long purge() throws CommunicationException, InterruptedException {
+		running = true;
+		long total = 0;
+		try {
+			for (final String stage: retentionDays.keySet()) {
+				final Date before = new Date(System.currentTimeMillis() -
+						retentionDays.get(stage) * DAY_MS);
+				int count;
+				do {
+					count = js.purgeJobs(stage, before, batchSize);
+					deleted.get(stage).add(count);
+					total += count;
+					if (count > 0) {
+						log.info(String.format(
+								"Purged %s jobs in stage %s last updated " +
+								"before %s, %s jobs purged in this run",
+								count, stage, before, total));
+					}
+					if (count == batchSize && batchPauseMS > 0) {
+						Thread.sleep(batchPauseMS);
+					}
+				} while (count == batchSize);
+			}
+		} finally {
+			lastRunDeleted = total;
+			lastRun = new Date();
+			running = false;
+		}
+		return total;
+	}
+
+	/** Get the number of days after the last update that jobs are retained.
+	 * @return the retention periods in days mapped by job stage.
+	 */
+	public Map<String, Integer> getRetentionDays() {
+		return retentionDays;
+	}
+
+	/** Get the number of jobs deleted since the purger was created.
+	 * @return the number of jobs deleted mapped by job stage.
+	 */
+	public Map<String, Long> getDeletedCounts() {
+		final Map<String, Long> ret = new LinkedHashMap<String, Long>();
+		for (final String stage: retentionDays.keySet()) {
+			ret.put(stage, deleted.get(stage).sum());
+		}
+		return ret;
+	}
+
+	/** Get the time the most recent purge finished.
+	 * @return the time, or null if no purge has finished.
+	 */
+	public Date getLastRun() {
+		return lastRun;
+	}
+
+	/** Get the number of jobs deleted by the most recent purge.
+	 * @return the number of jobs.
+	 */
+	public long getLastRunDeletedCount() {
+		return lastRunDeleted;
+	}
+
+	/** Returns true if a purge is in progress.
+	 * @return whether the purger is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/** Stop purging jobs. A purge in progress is interrupted. */
+	@Override
+	public synchronized void close() {
+		if (timer != null) {
+			timer.shutdownNow();
+		}
+	}
+}
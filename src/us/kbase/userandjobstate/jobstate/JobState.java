@@ -2,19 +2,41 @@ package us.kbase.userandjobstate.jobstate;
 
 import static us.kbase.common.utils.StringUtils.checkString;
 import static us.kbase.common.utils.StringUtils.checkMaxLen;
+import static us.kbase.userandjobstate.compression.FieldCompression.DEFLATED;
+import static us.kbase.userandjobstate.compression.FieldCompression.deflate;
+import static us.kbase.userandjobstate.compression.FieldCompression.getDeflated;
+import static us.kbase.userandjobstate.compression.FieldCompression.inflate;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
 import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import us.kbase.common.schemamanager.SchemaManager;
 import us.kbase.common.schemamanager.exceptions.SchemaException;
@@ -23,26 +45,41 @@ import us.kbase.userandjobstate.authorization.DefaultUJSAuthorizer;
 import us.kbase.userandjobstate.authorization.UJSAuthorizer;
 import us.kbase.userandjobstate.authorization.exceptions.UJSAuthorizationException;
 import us.kbase.userandjobstate.exceptions.CommunicationException;
+import us.kbase.userandjobstate.jobstate.JobUpdateBuffer.PendingUpdate;
 import us.kbase.userandjobstate.jobstate.exceptions.NoSuchJobException;
 import us.kbase.workspace.database.WorkspaceUserMetadata;
 
-import com.mongodb.BasicDBObject;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.DBObject;
 import com.mongodb.MongoException;
-import com.mongodb.WriteResult;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 
 public class JobState {
 
-//	private final static int JOB_EXPIRES = 180 * 24 * 60 * 60; // 180 days
-	
 	private final static int MAX_LEN_USER = 100;
 	private final static int MAX_LEN_SERVICE = 100;
 	private final static int MAX_LEN_STATUS = 200;
 	private final static int MAX_LEN_DESC = 1000;
 	private final static int MAX_LEN_ERR = 100000;
 	
+	public final static int MAX_JOB_UPDATES = 1000;
+	public final static int MAX_JOB_CREATES = 1000;
+	
+	private final static Set<String> PURGEABLE_STAGES = new HashSet<String>(
+			Arrays.asList(Job.CREATED, Job.COMPLETE, Job.ERROR, Job.CANCELED));
+	private final static List<String> FINISHED_STAGES =
+			Arrays.asList(Job.COMPLETE, Job.ERROR, Job.CANCELED);
+	
 	private final static String CREATED = "created";
 	private final static String USER = "user";
 	private final static String SERVICE = "service";
@@ -53,6 +90,11 @@ public class JobState {
 	private final static String ERROR = "error";
 	// only present if job was canceled
 	private final static String CANCELEDBY = "canceledby";
+	/* denormalized stage of the job - one of the Job.CREATED, STARTED, etc.
+	 * constants. Maintained by every state transition so that listing
+	 * jobs can be done with a single indexed $in query.
+	 */
+	public static final String STAGE = "stage";
 	private final static String ERROR_MSG = "errormsg";
 	private final static String DESCRIPTION = "desc";
 	private final static String PROG_TYPE = "progtype";
@@ -71,46 +113,296 @@ public class JobState {
 	
 	private final static String MONGO_ID = "_id";
 	
+	// the fields required to build a JobSummary
+	private final static Document SUMMARY_FIELDS = new Document();
+	static {
+		for (final String field: Arrays.asList(USER, SERVICE, DESCRIPTION,
+				PROG_TYPE, PROG, MAXPROG, STATUS, STARTED, UPDATED, EST_COMP,
+				COMPLETE, ERROR, CANCELEDBY)) {
+			SUMMARY_FIELDS.put(field, 1);
+		}
+	}
+	
+	// encodes results to BSON for compression
+	private final static DocumentCodec RESULTS_CODEC = new DocumentCodec();
+	
+	// the fields read to build a Job. Error messages are only read on request
+	private final static Document JOB_FIELDS = new Document(ERROR_MSG, 0);
+	
+	// the fields kept when a job is archived
+	private final static Set<String> ARCHIVE_FIELDS = new HashSet<String>();
+	static {
+		ARCHIVE_FIELDS.addAll(SUMMARY_FIELDS.keySet());
+		ARCHIVE_FIELDS.addAll(Arrays.asList(MONGO_ID, STAGE, ERROR_MSG,
+				RESULT, SHARED, AUTH_STRAT, AUTH_PARAM, METADATA));
+	}
+	
 	public static final String META_KEY = "k";
 	public static final String META_VALUE = "v";
 	
 	public static final String SCHEMA_TYPE = "jobstate";
-	public final static int SCHEMA_VER = 2;
+	public final static int SCHEMA_VER = 3;
 	
-	private final DBCollection jobcol;
+	private final MongoCollection<Document> jobcol;
+	private final MongoCollection<Document> archcol;
+	/* views of jobcol and archcol that return undecoded documents, which are
+	 * decoded directly into jobs by a JobCodec. Jobs are always written as
+	 * Documents.
+	 */
+	private final MongoCollection<RawBsonDocument> rawjobs;
+	private final MongoCollection<RawBsonDocument> rawarch;
+	private final MongoCollection<Document> payloadcol;
+	private final JobUpdateNotifier notifier;
+	private final JobEventLog eventLog;
+	private final JobUpdateBuffer buffer;
+	private final Logger log = LoggerFactory.getLogger(getClass());
 	
-	public JobState(final DBCollection jobcol, final SchemaManager sm)
+	private JobState(final Builder b)
 			throws SchemaException {
-		if (jobcol == null) {
-			throw new NullPointerException("jobcol");
+		jobcol = b.jobcol;
+		notifier = b.notifier;
+		eventLog = b.eventLog;
+		rawjobs = jobcol.withDocumentClass(RawBsonDocument.class);
+		ensureIndexes(jobcol);
+		archcol = b.archive;
+		if (archcol == null) {
+			rawarch = null;
+		} else {
+			rawarch = archcol.withDocumentClass(RawBsonDocument.class);
+			ensureIndexes(archcol);
+		}
+		payloadcol = b.payload;
+		b.sm.checkSchema(SCHEMA_TYPE, SCHEMA_VER);
+		buffer = b.buffer;
+		if (buffer != null) {
+			buffer.start(updates -> writeBufferedUpdates(updates));
+		}
+	}
+	
+	/** Get a builder for a job state instance.
+	 * @param jobcol the collection in which jobs are stored.
+	 * @param sm the schema manager.
+	 * @return the builder.
+	 */
+	public static Builder getBuilder(
+			final MongoCollection<Document> jobcol,
+			final SchemaManager sm) {
+		return new Builder(jobcol, sm);
+	}
+	
+	/** A builder for a {@link JobState} instance. Every option other than
+	 * the job collection and schema manager is optional.
+	 */
+	public static class Builder {
+		
+		private final MongoCollection<Document> jobcol;
+		private final SchemaManager sm;
+		private JobUpdateNotifier notifier = null;
+		private JobEventLog eventLog = null;
+		private JobUpdateBuffer buffer = null;
+		private MongoCollection<Document> archive = null;
+		private MongoCollection<Document> payload = null;
+		
+		private Builder(
+				final MongoCollection<Document> jobcol,
+				final SchemaManager sm) {
+			if (jobcol == null) {
+				throw new NullPointerException("jobcol");
+			}
+			if (sm == null) {
+				throw new NullPointerException("sm");
+			}
+			this.jobcol = jobcol;
+			this.sm = sm;
+		}
+		
+		/** Set the notifier that wakes threads waiting for job updates in
+		 * {@link JobState#waitForJobUpdate(String, String, UJSAuthorizer,
+		 * Date, long)}. Every state change made through the job state
+		 * instance is sent to the notifier. By default a notifier allowing
+		 * {@link JobUpdateNotifier#DEFAULT_MAX_WAITERS} waiters is used.
+		 * @param notifier the notifier.
+		 * @return this builder.
+		 */
+		public Builder withUpdateNotifier(final JobUpdateNotifier notifier) {
+			if (notifier == null) {
+				throw new NullPointerException("notifier");
+			}
+			this.notifier = notifier;
+			return this;
+		}
+		
+		/** Set the log in which to record every change made through the job
+		 * state instance. By default changes are not recorded.
+		 * @param eventLog the event log, or null to not record changes.
+		 * @return this builder.
+		 */
+		public Builder withEventLog(final JobEventLog eventLog) {
+			this.eventLog = eventLog;
+			return this;
+		}
+		
+		/** Set the buffer in which to hold updates made with
+		 * {@link JobState#updateJob(String, String, String, String, Integer,
+		 * Date)}. Pending updates to a job are written before the job is
+		 * read, completed, canceled, or deleted. Job listings may not reflect
+		 * pending updates. By default updates are written immediately.
+		 * @param buffer the update buffer, or null to write updates
+		 * immediately.
+		 * @return this builder.
+		 */
+		public Builder withUpdateBuffer(final JobUpdateBuffer buffer) {
+			this.buffer = buffer;
+			return this;
+		}
+		
+		/** Set the collection to which finished jobs are moved by
+		 * {@link JobState#archiveJobs(Date, int)}. Jobs that are not found in
+		 * the job collection are looked up in the archive, but job listings
+		 * only include archived jobs on request. By default jobs are not
+		 * archived.
+		 * @param archive the archive collection, or null to not archive jobs.
+		 * @return this builder.
+		 */
+		public Builder withArchive(final MongoCollection<Document> archive) {
+			this.archive = archive;
+			return this;
+		}
+		
+		/** Set the collection in which the error messages and results of
+		 * completed jobs are stored, keyed by the job ID. Keeping them out of
+		 * the job documents means the potentially very large error messages
+		 * and results are not read when the job is otherwise read or
+		 * modified. The job document keeps the results without the result
+		 * list, so jobs that are read or listed include the result
+		 * locations, but the payload collection is only read by
+		 * {@link JobState#getResults} and {@link JobState#getDetailedError}.
+		 * Jobs whose error messages and results were stored in the job
+		 * document are still readable. By default they are stored in the
+		 * job documents.
+		 * @param payload the payload collection, or null to store error
+		 * messages and results in the job documents.
+		 * @return this builder.
+		 */
+		public Builder withPayloadCollection(
+				final MongoCollection<Document> payload) {
+			this.payload = payload;
+			return this;
+		}
+		
+		/** Build the job state instance.
+		 * @return the job state instance.
+		 * @throws SchemaException if the database schema is incorrect.
+		 */
+		public JobState build() throws SchemaException {
+			if (notifier == null) {
+				notifier = new JobUpdateNotifier(
+						JobUpdateNotifier.DEFAULT_MAX_WAITERS);
+			}
+			return new JobState(this);
+		}
+	}
+	
+	/** Get the notifier that wakes threads waiting for job updates.
+	 * @return the notifier.
+	 */
+	public JobUpdateNotifier getUpdateNotifier() {
+		return notifier;
+	}
+	
+	/** Get the log in which changes to jobs are recorded.
+	 * @return the event log, or null if changes are not recorded.
+	 */
+	public JobEventLog getEventLog() {
+		return eventLog;
+	}
+	
+	/** Get the buffer in which job updates are held.
+	 * @return the buffer, or null if updates are written immediately.
+	 */
+	public JobUpdateBuffer getUpdateBuffer() {
+		return buffer;
+	}
+	
+	/** Returns true if finished jobs may be moved to an archive.
+	 * @return whether this instance has a job archive.
+	 */
+	public boolean hasArchive() {
+		return archcol != null;
+	}
+	
+	private void flushPending(final ObjectId jobID)
+			throws CommunicationException {
+		if (buffer != null) {
+			buffer.flush(Arrays.asList(jobID));
+		}
+	}
+	
+	private void jobChanged(final ObjectId jobID) {
+		jobsChanged(Arrays.asList(jobID));
+	}
+	
+	private void jobsChanged(final List<ObjectId> jobIDs) {
+		for (final ObjectId id: jobIDs) {
+			notifier.notifyUpdated(id.toString());
+		}
+		if (eventLog != null) {
+			try {
+				eventLog.jobsChanged(jobIDs);
+			} catch (CommunicationException | RuntimeException e) {
+				logEventFailure(jobIDs, e);
+			}
+		}
+	}
+	
+	private void usersRemoved(
+			final ObjectId jobID,
+			final Collection<String> users,
+			final boolean deleted) {
+		if (eventLog != null) {
+			try {
+				eventLog.usersRemoved(jobID, users, deleted);
+			} catch (CommunicationException | RuntimeException e) {
+				logEventFailure(Arrays.asList(jobID), e);
+			}
 		}
-		this.jobcol = jobcol;
-		ensureIndexes();
-		sm.checkSchema(SCHEMA_TYPE, SCHEMA_VER);
+	}
+	
+	/* Events are recorded after the change is made, so a failure is logged
+	 * rather than thrown - otherwise a caller retrying the apparently failed
+	 * call would apply the change twice. Servers following the event log miss
+	 * the change, but waiters on this server are still notified.
+	 */
+	private void logEventFailure(
+			final Collection<ObjectId> jobIDs,
+			final Exception e) {
+		log.error("Recording changes to jobs " + jobIDs +
+				" in the event log failed", e);
 	}
 
-	private void ensureIndexes() {
-		ensureUserIndex(USER);
-		ensureUserIndex(SHARED);
-		ensureAuthIndex();
-//		final DBObject ttlidx = new BasicDBObject(CREATED, 1);
-//		final DBObject opts = new BasicDBObject("expireAfterSeconds",
-//				JOB_EXPIRES);
-//		jobcol.ensureIndex(ttlidx, opts);
+	private static void ensureIndexes(final MongoCollection<Document> col) {
+		ensureUserIndex(col, USER);
+		ensureUserIndex(col, SHARED);
+		ensureAuthIndex(col);
+		// for purging and archiving old jobs
+		col.createIndex(new Document(STAGE, 1).append(UPDATED, 1));
 	}
 
-	private void ensureUserIndex(final String userField) {
-		final DBObject idx = new BasicDBObject();
+	private static void ensureUserIndex(
+			final MongoCollection<Document> col,
+			final String userField) {
+		final Document idx = new Document();
 		idx.put(userField, 1);
+		idx.put(STAGE, 1);
 		idx.put(SERVICE, 1);
-		idx.put(COMPLETE, 1);
-		jobcol.createIndex(idx);
+		idx.put(UPDATED, 1);
+		col.createIndex(idx);
 	}
-	private void ensureAuthIndex() {
-		final DBObject idx = new BasicDBObject();
+	private static void ensureAuthIndex(final MongoCollection<Document> col) {
+		final Document idx = new Document();
 		idx.put(AUTH_STRAT, 1);
 		idx.put(AUTH_PARAM, 1);
-		jobcol.createIndex(idx);
+		col.createIndex(idx);
 	}
 	public String createJob(final String user)
 			throws CommunicationException {
@@ -138,22 +430,92 @@ public class JobState {
 		if (meta == null) {
 			throw new NullPointerException("meta");
 		}
-		final DBObject job = new BasicDBObject(USER, user);
+		final Document job = newJob(user, strat, authParam,
+				metaToMongoArray(meta), new Date());
+		try {
+			jobcol.insertOne(job);
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		jobChanged(job.getObjectId(MONGO_ID));
+		return job.getObjectId(MONGO_ID).toString();
+	}
+	
+	/** Create multiple jobs with the same authorization and metadata. The
+	 * jobs are authorized once and inserted in a single write.
+	 * @param user the user creating the jobs.
+	 * @param auth the authorizer for the jobs.
+	 * @param strat the authorization strategy for the jobs.
+	 * @param authParam the authorization parameter for the jobs.
+	 * @param meta the metadata for the jobs.
+	 * @param count the number of jobs to create.
+	 * @return the IDs of the jobs, in the order they were created.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 * @throws UJSAuthorizationException if the user may not create jobs with
+	 * the authorization strategy and parameter.
+	 */
+	public List<String> createJobs(
+			final String user,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final String authParam,
+			final WorkspaceUserMetadata meta,
+			final int count)
+			throws CommunicationException, UJSAuthorizationException {
+		checkString(user, "user", MAX_LEN_USER);
+		if (count < 1) {
+			throw new IllegalArgumentException(
+					"At least one job must be created");
+		}
+		if (count > MAX_JOB_CREATES) {
+			throw new IllegalArgumentException(String.format(
+					"No more than %s jobs may be created at once",
+					MAX_JOB_CREATES));
+		}
+		auth.authorizeCreate(strat, authParam);
+		if (meta == null) {
+			throw new NullPointerException("meta");
+		}
+		final List<Map<String, String>> mongometa = metaToMongoArray(meta);
 		final Date date = new Date();
+		final List<Document> jobs = new ArrayList<Document>();
+		for (int i = 0; i < count; i++) {
+			jobs.add(newJob(user, strat, authParam, mongometa, date));
+		}
+		try {
+			jobcol.insertMany(jobs);
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+		final List<String> ret = new ArrayList<String>();
+		for (final Document job: jobs) {
+			ids.add(job.getObjectId(MONGO_ID));
+			ret.add(job.getObjectId(MONGO_ID).toString());
+		}
+		jobsChanged(ids);
+		return ret;
+	}
+	
+	private static Document newJob(
+			final String user,
+			final AuthorizationStrategy strat,
+			final String authParam,
+			final List<Map<String, String>> meta,
+			final Date date) {
+		final Document job = new Document(USER, user);
 		job.put(AUTH_STRAT, strat.getStrat());
 		job.put(AUTH_PARAM, authParam);
-		job.put(METADATA, metaToMongoArray(meta));
+		job.put(METADATA, meta);
 		job.put(CREATED, date);
 		job.put(UPDATED, date);
+		job.put(STAGE, Job.CREATED);
 		job.put(EST_COMP, null);
 		job.put(SERVICE, null);
-		try {
-			jobcol.insert(job);
-		} catch (MongoException me) {
-			throw new CommunicationException(
-					"There was a problem communicating with the database", me);
-		}
-		return ((ObjectId) job.get(MONGO_ID)).toString();
+		return job;
 	}
 	
 	private static List<Map<String, String>> metaToMongoArray(
@@ -191,11 +553,23 @@ public class JobState {
 			final String jobID,
 			final UJSAuthorizer auth)
 			throws CommunicationException, NoSuchJobException {
+		return getReadableJob(user, jobID, auth);
+	}
+	
+	private Job getReadableJob(
+			final String user,
+			final String jobID,
+			final UJSAuthorizer auth)
+			throws CommunicationException, NoSuchJobException {
 		checkString(user, "user", MAX_LEN_USER);
 		final ObjectId oi = checkJobID(jobID);
 		final Job j;
 		try {
-			j =  getJob(oi);
+			// jobs with the default strategy are only returned if readable
+			j = getJobDocument(oi, new Document("$or", Arrays.asList(
+					externalAuth(new Document()),
+					new Document(USER, user),
+					new Document(SHARED, user))));
 			auth.authorizeRead(user, j);
 		} catch (NoSuchJobException | UJSAuthorizationException e) {
 			throw new NoSuchJobException(String.format(
@@ -204,14 +578,20 @@ public class JobState {
 		return j;
 	}
 	
-	private Job getJob(final ObjectId jobID)
+	// package private for the event feed
+	Job getJob(final ObjectId jobID)
 			throws CommunicationException, NoSuchJobException {
-		final Job j;
-		try {
-			j = toJob(jobcol.findOne(new BasicDBObject(MONGO_ID, jobID)));
-		} catch (MongoException me) {
-			throw new CommunicationException(
-					"There was a problem communicating with the database", me);
+		return getJobDocument(jobID, new Document());
+	}
+	
+	// the job must also match the filter
+	private Job getJobDocument(final ObjectId jobID, final Document filter)
+			throws CommunicationException, NoSuchJobException {
+		flushPending(jobID);
+		final Document query = new Document(filter).append(MONGO_ID, jobID);
+		Job j = findJob(rawjobs, query);
+		if (j == null && rawarch != null) {
+			j = findJob(rawarch, query);
 		}
 		if (j == null) {
 			throw new NoSuchJobException(String.format(
@@ -220,40 +600,62 @@ public class JobState {
 		return j;
 	}
 	
-	private Job toJob(final DBObject dbo) {
-		if (dbo == null) {
-			return null;
+	/** Wait for a job to be updated. Returns when the job is updated or
+	 * deleted, or the timeout expires, whichever comes first.
+	 * 
+	 * The job is returned immediately if it has been updated since
+	 * lastUpdate, if it is complete, or if the maximum number of threads are
+	 * already waiting for updates. Since job timestamps are exposed with a
+	 * resolution of one second, the job is considered updated if its last
+	 * update time, truncated to the second, is after lastUpdate.
+	 * 
+	 * Only updates made via this instance's notifier wake the waiting thread
+	 * early. Updates made by other server instances are seen when the timeout
+	 * expires.
+	 * @param user the user requesting the job.
+	 * @param jobID the ID of the job.
+	 * @param auth the authorizer for the job.
+	 * @param lastUpdate the last update time of the job seen by the caller.
+	 * If null, the job is returned immediately.
+	 * @param timeoutMS the maximum time to wait in milliseconds.
+	 * @return the job.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 * @throws NoSuchJobException if the job does not exist, is not readable by
+	 * the user, or is deleted while waiting.
+	 * @throws InterruptedException if the thread is interrupted while
+	 * waiting.
+	 */
+	public Job waitForJobUpdate(
+			final String user,
+			final String jobID,
+			final UJSAuthorizer auth,
+			final Date lastUpdate,
+			final long timeoutMS)
+			throws CommunicationException, NoSuchJobException,
+				InterruptedException {
+		if (timeoutMS < 0) {
+			throw new IllegalArgumentException("timeout cannot be negative");
 		}
-		@SuppressWarnings("unchecked")
-		final List<String> shared = (List<String>) dbo.get(SHARED);
-		@SuppressWarnings("unchecked")
-		final List<DBObject> meta = (List<DBObject>) dbo.get(METADATA);
-		return new Job(
-				(ObjectId) dbo.get(MONGO_ID),
-				(String) dbo.get(USER),
-				(String) dbo.get(SERVICE),
-				(String) dbo.get(DESCRIPTION),
-				(String) dbo.get(PROG_TYPE),
-				(Integer) dbo.get(PROG),
-				(Integer) dbo.get(MAXPROG),
-				(String) dbo.get(STATUS),
-				(Date) dbo.get(STARTED),
-				(Date) dbo.get(UPDATED),
-				(Date) dbo.get(EST_COMP),
-				(Boolean) dbo.get(COMPLETE),
-				(Boolean) dbo.get(ERROR),
-				(String) dbo.get(CANCELEDBY),
-				(String) dbo.get(ERROR_MSG),
-				toJobResults((DBObject) dbo.get(RESULT)),
-				shared == null ? null : shared.stream().collect(Collectors.toList()),
-				(String) dbo.get(AUTH_STRAT),
-				(String) dbo.get(AUTH_PARAM),
-				meta.stream().map(
-						m -> m.keySet().stream().collect(Collectors.toMap(
-								k -> k, k -> (String) m.get(k))))
-						.collect(Collectors.toList()));
+		final ObjectId oi = checkJobID(jobID);
+		// register before reading the job so an update in between isn't missed
+		final JobUpdateNotifier.Waiter w = lastUpdate == null ||
+				timeoutMS == 0 ? null : notifier.register(oi.toString());
+		try {
+			final Job j = getJob(user, jobID, auth);
+			// complete is null for unstarted jobs
+			if (w == null || Boolean.TRUE.equals(j.isComplete()) ||
+					j.getLastUpdated().getTime() / 1000 >
+							lastUpdate.getTime() / 1000) {
+				return j;
+			}
+			notifier.await(w, timeoutMS);
+		} finally {
+			notifier.release(w);
+		}
+		return getJob(user, jobID, auth);
 	}
-
+	
 	public void startJob(final String user, final String jobID,
 			final String service, final String status,
 			final String description, final Date estComplete)
@@ -286,6 +688,35 @@ public class JobState {
 			throws CommunicationException, NoSuchJobException {
 		checkString(user, "user", MAX_LEN_USER);
 		final ObjectId oi = checkJobID(jobID);
+		final Document update = buildJobStart(service, status, description,
+				progType, maxProg, estComplete, new Date());
+		final Document query = new Document(USER, user);
+		query.put(MONGO_ID, oi);
+		query.put(SERVICE, null);
+		
+		final UpdateResult wr;
+		try {
+			wr = jobcol.updateOne(query, new Document("$set", update));
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		if (wr.getMatchedCount() != 1) {
+			throw new NoSuchJobException(String.format(
+					"There is no unstarted job %s for user %s", jobID, user));
+		}
+		jobChanged(oi);
+	}
+	
+	// checks the start parameters and builds the fields set when a job starts
+	private Document buildJobStart(
+			final String service,
+			final String status,
+			final String description,
+			final String progType,
+			final Integer maxProg,
+			final Date estComplete,
+			final Date now) {
 		//this is coming from an auth token so doesn't need much checking
 		//although if this is every really used as a lib (unlikely) will need better QA
 		checkString(service, "service", MAX_LEN_SERVICE);
@@ -296,14 +727,11 @@ public class JobState {
 			throw new IllegalArgumentException(
 					"The maximum progress for the job must be > 0"); 
 		}
-		final DBObject query = new BasicDBObject(USER, user);
-		query.put(MONGO_ID, oi);
-		query.put(SERVICE, null);
-		final DBObject update = new BasicDBObject(SERVICE, service);
+		final Document update = new Document(SERVICE, service);
+		update.put(STAGE, Job.STARTED);
 		update.put(STATUS, status);
 		update.put(DESCRIPTION, description);
 		update.put(PROG_TYPE, progType);
-		final Date now = new Date();
 		update.put(STARTED, now);
 		update.put(UPDATED, now);
 		update.put(EST_COMP, estComplete);
@@ -329,18 +757,7 @@ public class JobState {
 		}
 		update.put(PROG, prog);
 		update.put(MAXPROG, maxprog);
-		
-		final WriteResult wr;
-		try {
-			wr = jobcol.update(query, new BasicDBObject("$set", update));
-		} catch (MongoException me) {
-			throw new CommunicationException(
-					"There was a problem communicating with the database", me);
-		}
-		if (wr.getN() != 1) {
-			throw new NoSuchJobException(String.format(
-					"There is no unstarted job %s for user %s", jobID, user));
-		}
+		return update;
 	}
 	
 	private void checkEstComplete(final Date estComplete) {
@@ -382,15 +799,22 @@ public class JobState {
 			final String progType, final Integer maxProg,
 			final Date estComplete)
 			throws CommunicationException {
-		final String jobid = createJob(user);
+		checkString(user, "user", MAX_LEN_USER);
+		final Date now = new Date();
+		// the job is inserted already started
+		final Document job = newJob(user, UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				UJSAuthorizer.DEFAULT_AUTH_PARAM,
+				metaToMongoArray(new WorkspaceUserMetadata()), now);
+		job.putAll(buildJobStart(service, status, description, progType,
+				maxProg, estComplete, now));
 		try {
-			startJob(user, jobid, service, status, description, progType,
-					maxProg, estComplete);
-		} catch (NoSuchJobException nsje) {
-			throw new RuntimeException(
-					"Just created a job and it's already deleted", nsje);
+			jobcol.insertOne(job);
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
 		}
-		return jobid;
+		jobChanged(job.getObjectId(MONGO_ID));
+		return job.getObjectId(MONGO_ID).toString();
 	}
 	
 	public void updateJob(final String user, final String jobID,
@@ -398,36 +822,213 @@ public class JobState {
 			final Date estComplete)
 			throws CommunicationException, NoSuchJobException {
 		checkMaxLen(status, "status", MAX_LEN_STATUS);
-		final DBObject query = buildStartedJobQuery(user, jobID, service);
-		final DBObject set = new BasicDBObject(STATUS, status);
-		set.put(UPDATED, new Date());
-		if (estComplete != null) {
-			checkEstComplete(estComplete);
-			set.put(EST_COMP, estComplete);
-		}
-		final DBObject update = new BasicDBObject("$set", set);
-		if (progress != null) {
-			if (progress < 0) {
-				throw new IllegalArgumentException(
-						"progress cannot be negative");
+		final Document query = buildStartedJobQuery(user, jobID, service);
+		checkJobUpdate(progress, estComplete);
+		final Date now = new Date();
+		final Document update = buildJobUpdate(
+				status, progress, estComplete, now);
+		final ObjectId id = query.getObjectId(MONGO_ID);
+		if (buffer != null) {
+			// only the write is buffered, so the caller still gets an error
+			// for a job it can't update
+			checkStartedJob(query);
+			if (buffer.add(new PendingUpdate(id, user, service, status,
+					progress, estComplete, now))) {
+				return;
 			}
-			update.put("$inc", new BasicDBObject(PROG, progress));
+			// the buffer is closed or holds an update from a different source
+			flushPending(id);
 		}
 		
-		final WriteResult wr;
+		final UpdateResult wr;
 		try {
-			wr = jobcol.update(query, update);
+			wr = jobcol.updateOne(query, update);
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
-		if (wr.getN() != 1) {
+		if (wr.getMatchedCount() != 1) {
 			throw new NoSuchJobException(String.format(
 					"There is no uncompleted job %s for user %s started by service %s",
 					jobID, user, service));
 		}
+		jobChanged(id);
+	}
+	
+	private void writeBufferedUpdates(final Collection<PendingUpdate> updates)
+			throws CommunicationException {
+		final List<ObjectId> ids = new LinkedList<ObjectId>();
+		final List<WriteModel<Document>> bulk =
+				new LinkedList<WriteModel<Document>>();
+		for (final PendingUpdate u: updates) {
+			bulk.add(new UpdateOneModel<Document>(
+					startedJobQuery(u.user, u.jobID, u.service),
+					buildJobUpdate(u.status, u.progress, u.estComplete,
+							u.updated)));
+			ids.add(u.jobID);
+		}
+		final BulkWriteResult res;
+		try {
+			res = jobcol.bulkWrite(bulk, new BulkWriteOptions().ordered(false));
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		/* jobs are checked when an update is buffered, but may be completed
+		 * or deleted by another server instance before the update is written
+		 */
+		if (res.getMatchedCount() < bulk.size()) {
+			log.warn(String.format("Dropped %s of %s buffered job updates " +
+					"for jobs that are no longer uncompleted",
+					bulk.size() - res.getMatchedCount(), bulk.size()));
+		}
+		jobsChanged(ids);
+	}
+	
+	// updates are checked when they're made, not when buffered updates are
+	// written, by which time the estimated completion may have passed
+	private void checkJobUpdate(
+			final Integer progress,
+			final Date estComplete) {
+		checkEstComplete(estComplete);
+		if (progress != null && progress < 0) {
+			throw new IllegalArgumentException("progress cannot be negative");
+		}
+	}
+	
+	private static Document buildJobUpdate(
+			final String status,
+			final Integer progress,
+			final Date estComplete,
+			final Date now) {
+		final Document set = new Document(STATUS, status);
+		set.put(UPDATED, now);
+		if (estComplete != null) {
+			set.put(EST_COMP, estComplete);
+		}
+		final Document update = new Document("$set", set);
+		if (progress != null) {
+			update.put("$inc", new Document(PROG, progress));
+		}
+		return update;
 	}
 	
+	/** Update the status and progress of multiple jobs in a single database
+	 * operation. Each update is equivalent to a call to
+	 * {@link #updateJob(String, String, String, String, Integer, Date)}, but
+	 * the failure of one update does not affect the others.
+	 * @param user the owner of the jobs.
+	 * @param service the service that started the jobs.
+	 * @param updates the updates to apply.
+	 * @return a list, in the same order as the updates, containing null for
+	 * each successful update or the reason that the update failed.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public List<Exception> updateJobs(
+			final String user,
+			final String service,
+			final List<JobUpdate> updates)
+			throws CommunicationException {
+		checkString(user, "user", MAX_LEN_USER);
+		checkString(service, "service", MAX_LEN_SERVICE);
+		if (updates == null || updates.isEmpty()) {
+			throw new IllegalArgumentException("No job updates provided");
+		}
+		if (updates.size() > MAX_JOB_UPDATES) {
+			throw new IllegalArgumentException(String.format(
+					"No more than %s job updates may be submitted at once",
+					MAX_JOB_UPDATES));
+		}
+		final List<Exception> results = new ArrayList<Exception>();
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+		final List<WriteModel<Document>> bulk =
+				new LinkedList<WriteModel<Document>>();
+		final Date now = new Date();
+		for (final JobUpdate u: updates) {
+			try {
+				if (u == null) {
+					throw new IllegalArgumentException(
+							"job update cannot be null");
+				}
+				checkMaxLen(u.getStatus(), "status", MAX_LEN_STATUS);
+				final Document query = buildStartedJobQuery(
+						user, u.getJobID(), service);
+				checkJobUpdate(u.getProgress(), u.getEstimatedCompletion());
+				bulk.add(new UpdateOneModel<Document>(query, buildJobUpdate(
+						u.getStatus(), u.getProgress(),
+						u.getEstimatedCompletion(), now)));
+				ids.add(query.getObjectId(MONGO_ID));
+				results.add(null);
+			} catch (IllegalArgumentException e) {
+				ids.add(null);
+				results.add(e);
+			}
+		}
+		if (bulk.isEmpty()) {
+			return results;
+		}
+		if (buffer != null) {
+			// keep the updates in order
+			buffer.flush(ids);
+		}
+		final BulkWriteResult bwr;
+		try {
+			bwr = jobcol.bulkWrite(bulk, new BulkWriteOptions().ordered(false));
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		if (bwr.getMatchedCount() < bulk.size()) {
+			/* the bulk write result doesn't say which updates failed to
+			 * match, so look for the jobs that could be updated. A job that
+			 * was completed between the update and this query will be
+			 * reported as failed.
+			 */
+			final Set<ObjectId> updatable = getUpdatableJobs(
+					user, service, ids);
+			for (int i = 0; i < results.size(); i++) {
+				if (results.get(i) == null &&
+						!updatable.contains(ids.get(i))) {
+					results.set(i, new NoSuchJobException(String.format(
+							"There is no uncompleted job %s for user %s started by service %s",
+							updates.get(i).getJobID(), user, service)));
+				}
+			}
+		}
+		final List<ObjectId> changed = new LinkedList<ObjectId>();
+		for (int i = 0; i < results.size(); i++) {
+			if (results.get(i) == null) {
+				changed.add(ids.get(i));
+			}
+		}
+		jobsChanged(changed);
+		return results;
+	}
+	
+	private Set<ObjectId> getUpdatableJobs(
+			final String user,
+			final String service,
+			final List<ObjectId> ids)
+			throws CommunicationException {
+		final Document query = new Document(USER, user)
+				.append(MONGO_ID, new Document("$in", ids.stream()
+						.filter(id -> id != null)
+						.collect(Collectors.toSet())))
+				.append(SERVICE, service)
+				.append(COMPLETE, false);
+		final Set<ObjectId> found = new HashSet<ObjectId>();
+		try {
+			for (final Document d: jobcol.find(query)
+					.projection(new Document(MONGO_ID, 1))) {
+				found.add(d.getObjectId(MONGO_ID));
+			}
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		return found;
+	}
 	
 	public void completeJob(final String user, final String jobID,
 			final String service, final String status, final String error,
@@ -435,44 +1036,102 @@ public class JobState {
 			throws CommunicationException, NoSuchJobException {
 		checkMaxLen(status, "status", MAX_LEN_STATUS);
 		checkMaxLen(error, "error", MAX_LEN_ERR);
-		final DBObject query = buildStartedJobQuery(user, jobID, service);
-		final DBObject set = new BasicDBObject(UPDATED, new Date());
+		final Document query = buildStartedJobQuery(user, jobID, service);
+		flushPending(query.getObjectId(MONGO_ID));
+		final ObjectId id = query.getObjectId(MONGO_ID);
+		final Document set = new Document(UPDATED, new Date());
 		set.put(COMPLETE, true);
 		set.put(ERROR, error != null);
-		set.put(ERROR_MSG, error);
+		set.put(STAGE, error == null ? Job.COMPLETE : Job.ERROR);
 		set.put(STATUS, status);
 		//if anyone is stupid enough to store 16mb of results will need to
 		//check size first, or at least catch error and report.
-		set.put(RESULT, resultsToDBObject(results));
+		final Document resdoc = resultsToDocument(results);
+		if (payloadcol == null) {
+			set.put(ERROR_MSG, error);
+			set.put(RESULT, resdoc);
+		} else {
+			set.put(RESULT, summarizeResults(resdoc));
+			writePayload(query, error, resdoc);
+		}
 		
-		final WriteResult wr;
+		final UpdateResult wr;
 		try {
-			wr = jobcol.update(query, new BasicDBObject("$set", set));
+			wr = jobcol.updateOne(query, new Document("$set", set));
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
-		if (wr.getN() != 1) {
+		if (wr.getMatchedCount() != 1) {
 			throw new NoSuchJobException(String.format(
 					"There is no uncompleted job %s for user %s started by service %s",
 					jobID, user, service));
 		}
+		jobChanged(id);
+	}
+	
+	/* Job listings and job info include the results stored in the job
+	 * document, so that reading a job never touches the payload collection.
+	 * The result list, which may be very large, is only stored in the payload.
+	 */
+	private static Document summarizeResults(final Document resdoc) {
+		if (resdoc == null) {
+			return null;
+		}
+		final Document ret = new Document(resdoc);
+		ret.remove("results");
+		return ret;
+	}
+	
+	/* Writes the error and results of a job that is about to be completed to
+	 * the payload collection. The payload is written before the job is marked
+	 * complete, so a completed job always has its payload. If the job is
+	 * never marked complete, for example because the server fails in between,
+	 * the job remains uncompleted and the payload is replaced or removed when
+	 * the completion is retried. The job is checked first so that a failed
+	 * completion can't overwrite the payload of an already completed job.
+	 * Completions are expected to be made by a single caller per job; if
+	 * two completions of the same job race, the payload may be that of the
+	 * completion that failed.
+	 */
+	private void writePayload(
+			final Document startedJobQuery,
+			final String error,
+			final Document resdoc)
+			throws CommunicationException, NoSuchJobException {
+		checkStartedJob(startedJobQuery);
+		final ObjectId id = startedJobQuery.getObjectId(MONGO_ID);
+		try {
+			if (error == null && resdoc == null) {
+				// remove any payload left by an earlier failed completion
+				payloadcol.deleteOne(new Document(MONGO_ID, id));
+			} else {
+				payloadcol.replaceOne(new Document(MONGO_ID, id),
+						new Document(MONGO_ID, id)
+								.append(ERROR_MSG, compressErrorMsg(error))
+								.append(RESULT, compressResults(resdoc)),
+						new ReplaceOptions().upsert(true));
+			}
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
 	}
 	
-	private static DBObject resultsToDBObject(final JobResults res) {
+	private static Document resultsToDocument(final JobResults res) {
 		if (res == null) {
 			return null;
 		}
-		final DBObject ret = new BasicDBObject();
+		final Document ret = new Document();
 		ret.put("shocknodes", res.getShocknodes());
 		ret.put("shockurl", res.getShockurl());
 		ret.put("workspaceids", res.getWorkspaceids());
 		ret.put("workspaceurl", res.getWorkspaceurl());
 		if (res.getResults() != null) {
-			final List<DBObject> results = new LinkedList<DBObject>();
+			final List<Document> results = new LinkedList<Document>();
 			ret.put("results", results);
 			for (final JobResult jr: res.getResults()) {
-				final DBObject oneres = new BasicDBObject();
+				final Document oneres = new Document();
 				results.add(oneres);
 				oneres.put("servtype", jr.getServtype());
 				oneres.put("url", jr.getUrl());
@@ -483,46 +1142,265 @@ public class JobState {
 		return ret;
 	}
 	
-	private JobResults toJobResults(final DBObject dbo) {
-		if (dbo == null) {
+	/* Large error messages and results are compressed in the payload
+	 * collection. Payloads written by older versions are never compressed.
+	 */
+	private static Object compressErrorMsg(final String error) {
+		if (error == null) {
 			return null;
 		}
-		@SuppressWarnings("unchecked")
-		final List<DBObject> dbresults = (List<DBObject>) dbo.get("results");
-		final List<JobResult> results;
-		if (dbresults != null) {
-			results = new LinkedList<>();
-			for (final DBObject d: dbresults) {
-				results.add(new JobResult(
-						(String) d.get("servtype"),
-						(String) d.get("url"),
-						(String) d.get("id"),
-						(String) d.get("desc")));
-			}
-		} else {
-			results = null;
+		final byte[] deflated = deflate(error.getBytes(StandardCharsets.UTF_8));
+		return deflated == null ? error : new Document(DEFLATED, deflated);
+	}
+	
+	private static String getErrorMsg(final Document payload) {
+		final Object err = payload.get(ERROR_MSG);
+		final byte[] deflated = getDeflated(err);
+		if (deflated == null) {
+			return (String) err;
 		}
-		@SuppressWarnings("unchecked")
-		final List<String> shocknodes = (List<String>) dbo.get("shocknodes");
-		@SuppressWarnings("unchecked")
-		final List<String> workspaceids = (List<String>) dbo.get("workspaceids");
-		return new JobResults(
-				results,
-				(String) dbo.get("workspaceurl"),
-				workspaceids == null ? null : workspaceids.stream().collect(Collectors.toList()),
-				(String) dbo.get("shockurl"),
-				shocknodes == null ? null : shocknodes.stream().collect(Collectors.toList()));
+		return new String(inflate(deflated), StandardCharsets.UTF_8);
 	}
-
-	private DBObject buildStartedJobQuery(
-			final String user,
-			final String jobID,
-			final String service) {
-		checkString(user, "user", MAX_LEN_USER);
+	
+	private static Object compressResults(final Document results) {
+		if (results == null) {
+			return null;
+		}
+		final BasicOutputBuffer out = new BasicOutputBuffer();
+		RESULTS_CODEC.encode(new BsonBinaryWriter(out), results,
+				EncoderContext.builder().build());
+		final byte[] deflated = deflate(out.toByteArray());
+		return deflated == null ? results : new Document(DEFLATED, deflated);
+	}
+	
+	private static Document getResultsDocument(final Document payload) {
+		final Object res = payload.get(RESULT);
+		final byte[] deflated = getDeflated(res);
+		if (deflated == null) {
+			return (Document) res;
+		}
+		return RESULTS_CODEC.decode(
+				new BsonBinaryReader(ByteBuffer.wrap(inflate(deflated))),
+				DecoderContext.builder().build());
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static JobResults documentToResults(final Document res) {
+		if (res == null) {
+			return null;
+		}
+		List<JobResult> results = null;
+		final List<Document> resdocs = (List<Document>) res.get("results");
+		if (resdocs != null) {
+			results = new LinkedList<JobResult>();
+			for (final Document oneres: resdocs) {
+				results.add(new JobResult(
+						oneres.getString("servtype"),
+						oneres.getString("url"),
+						oneres.getString("id"),
+						oneres.getString("desc")));
+			}
+		}
+		return new JobResults(results,
+				res.getString("workspaceurl"),
+				(List<String>) res.get("workspaceids"),
+				res.getString("shockurl"),
+				(List<String>) res.get("shocknodes"));
+	}
+	
+	/** Get the error message of a job, or part of the message. Since error
+	 * messages may be very large, they are not included when retrieving a
+	 * job.
+	 * @param user the user requesting the error message.
+	 * @param jobID the ID of the job.
+	 * @param auth the authorizer for the job.
+	 * @param offset the number of characters to skip from the start of the
+	 * message.
+	 * @param length the maximum number of characters to return, or 0 to
+	 * return the rest of the message.
+	 * @return the error message, or null if the job has no error.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 * @throws NoSuchJobException if the job does not exist or is not readable
+	 * by the user.
+	 */
+	public String getDetailedError(
+			final String user,
+			final String jobID,
+			final UJSAuthorizer auth,
+			final int offset,
+			final int length)
+			throws CommunicationException, NoSuchJobException {
+		checkOffsetAndLength(offset, length);
+		final Job j = getReadableJob(user, jobID, auth);
+		if (!Boolean.TRUE.equals(j.hasError())) {
+			return null;
+		}
+		final Document query = new Document(MONGO_ID, j._id);
+		final Document fields = new Document(ERROR_MSG, 1);
+		Document d = null;
+		try {
+			if (payloadcol != null) {
+				d = payloadcol.find(query).projection(fields).first();
+			}
+			// the error may have been stored in the job document
+			if (d == null || d.get(ERROR_MSG) == null) {
+				d = jobcol.find(query).projection(fields).first();
+			}
+			if (d == null && archcol != null) {
+				d = archcol.find(query).projection(fields).first();
+			}
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		final String err = d == null ? null : getErrorMsg(d);
+		if (err == null) {
+			return null;
+		}
+		final int cps = err.codePointCount(0, err.length());
+		if (offset >= cps) {
+			return "";
+		}
+		final int start = err.offsetByCodePoints(0, offset);
+		if (length == 0 || length >= cps - offset) {
+			return err.substring(start);
+		}
+		return err.substring(start, err.offsetByCodePoints(start, length));
+	}
+	
+	/** Get the results of a job, or a range of the result list. The other
+	 * fields of the results are always returned in full.
+	 * @param user the user requesting the results.
+	 * @param jobID the ID of the job.
+	 * @param auth the authorizer for the job.
+	 * @param offset the number of entries to skip from the start of the
+	 * result list.
+	 * @param length the maximum number of entries in the result list to
+	 * return, or 0 to return the rest of the list.
+	 * @return the results, or null if the job has no results.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 * @throws NoSuchJobException if the job does not exist or is not readable
+	 * by the user.
+	 */
+	public JobResults getResults(
+			final String user,
+			final String jobID,
+			final UJSAuthorizer auth,
+			final int offset,
+			final int length)
+			throws CommunicationException, NoSuchJobException {
+		checkOffsetAndLength(offset, length);
+		final Job j = getReadableJob(user, jobID, auth);
+		// the job document only holds a summary of results in the payload
+		if (payloadcol != null && Boolean.TRUE.equals(j.isComplete())) {
+			final Document fields = new Document(ERROR_MSG, 0);
+			if (offset > 0 || length > 0) {
+				fields.append(RESULT + ".results", new Document("$slice",
+						Arrays.asList(offset,
+								length > 0 ? length : Integer.MAX_VALUE)));
+			}
+			final Document d;
+			try {
+				d = payloadcol.find(new Document(MONGO_ID, j._id))
+						.projection(fields).first();
+			} catch (MongoException me) {
+				throw new CommunicationException(
+						"There was a problem communicating with the database",
+						me);
+			}
+			if (d != null) {
+				if (getDeflated(d.get(RESULT)) == null) {
+					return documentToResults(d.get(RESULT, Document.class));
+				}
+				// compressed results can't be sliced by the database
+				return sliceResults(documentToResults(getResultsDocument(d)),
+						offset, length);
+			}
+		}
+		// the results were stored in the job document, if there are any
+		return sliceResults(j.getResults(), offset, length);
+	}
+	
+	private static JobResults sliceResults(
+			final JobResults res,
+			final int offset,
+			final int length) {
+		if (res == null || res.getResults() == null ||
+				(offset == 0 && length == 0)) {
+			return res;
+		}
+		final List<JobResult> all = res.getResults();
+		final int start = Math.min(offset, all.size());
+		final int end = length == 0 ? all.size() :
+				(int) Math.min((long) start + length, all.size());
+		return new JobResults(all.subList(start, end), res.getWorkspaceurl(),
+				res.getWorkspaceids(), res.getShockurl(), res.getShocknodes());
+	}
+	
+	private static void checkOffsetAndLength(
+			final int offset,
+			final int length) {
+		if (offset < 0) {
+			throw new IllegalArgumentException("offset cannot be negative");
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("length cannot be negative");
+		}
+	}
+	
+	// does nothing if there is no payload collection
+	private void deletePayloads(final Collection<ObjectId> jobIDs)
+			throws CommunicationException {
+		if (payloadcol == null || jobIDs.isEmpty()) {
+			return;
+		}
+		try {
+			payloadcol.deleteMany(new Document(MONGO_ID,
+					new Document("$in", jobIDs)));
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+	
+	private Document buildStartedJobQuery(
+			final String user,
+			final String jobID,
+			final String service) {
+		checkString(user, "user", MAX_LEN_USER);
 		final ObjectId id = checkJobID(jobID);
 		checkString(service, "service", MAX_LEN_SERVICE);
-		final DBObject query = new BasicDBObject(USER, user);
-		query.put(MONGO_ID, id);
+		return startedJobQuery(user, id, service);
+	}
+	
+	// throws an exception if no job matches the started job query
+	private void checkStartedJob(final Document startedJobQuery)
+			throws CommunicationException, NoSuchJobException {
+		final Document job;
+		try {
+			job = jobcol.find(startedJobQuery).projection(
+					new Document(MONGO_ID, 1)).first();
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		if (job == null) {
+			throw new NoSuchJobException(String.format(
+					"There is no uncompleted job %s for user %s started by service %s",
+					startedJobQuery.getObjectId(MONGO_ID),
+					startedJobQuery.getString(USER),
+					startedJobQuery.getString(SERVICE)));
+		}
+	}
+	
+	private static Document startedJobQuery(
+			final String user,
+			final ObjectId jobID,
+			final String service) {
+		final Document query = new Document(USER, user);
+		query.put(MONGO_ID, jobID);
 		query.put(SERVICE, service);
 		query.put(COMPLETE, false);
 		return query;
@@ -548,41 +1426,80 @@ public class JobState {
 		final NoSuchJobException nsje = new NoSuchJobException(String.format(
 				"There is no job %s that may be canceled by user %s",
 				jobID, user));
-		final Job j;
-		try {
-			j = toJob(jobcol.findOne(new BasicDBObject(MONGO_ID, oi)
-					.append(COMPLETE, new BasicDBObject("$ne", true))));
-		} catch (MongoException me) {
-			throw new CommunicationException(
-					"There was a problem communicating with the database", me);
-		}
-		if (j == null) {
-			throw nsje;
-		}
-		try {
-			auth.authorizeCancel(user, j);
-		} catch (UJSAuthorizationException e) {
-			throw nsje;
-		}
-		final DBObject query = new BasicDBObject(MONGO_ID, oi);
-		query.put(COMPLETE, new BasicDBObject("$ne", true));
+		flushPending(oi);
+		final Document query = new Document(MONGO_ID, oi);
+		query.put(COMPLETE, new Document("$ne", true));
 		
-		final DBObject set = new BasicDBObject(STATUS, status);
+		final Document set = new Document(STATUS, status);
 		set.put(UPDATED, new Date());
 		set.put(CANCELEDBY, user);
+		set.put(STAGE, Job.CANCELED);
 		set.put(COMPLETE, true);
 		set.put(ERROR, false);
-		final WriteResult wr;
+		final Document update = new Document("$set", set);
+		UpdateResult wr;
 		try {
-			wr = jobcol.update(query, new BasicDBObject("$set", set));
+			wr = jobcol.updateOne(defaultAuth(query, user), update);
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
-		// this should only happen if there's a race condition and the job
-		// is completed/deleted between fetching the job and updating the job
-		if (wr.getN() != 1) {
-			throw nsje;
+		if (wr.getMatchedCount() != 1) {
+			final Job j = findJob(rawjobs, externalAuth(query));
+			if (j == null) {
+				throw nsje;
+			}
+			try {
+				auth.authorizeCancel(user, j);
+			} catch (UJSAuthorizationException e) {
+				throw nsje;
+			}
+			try {
+				wr = jobcol.updateOne(externalAuth(query), update);
+			} catch (MongoException me) {
+				throw new CommunicationException(
+						"There was a problem communicating with the database",
+						me);
+			}
+			// this should only happen if there's a race condition and the
+			// job is completed/deleted between fetching and updating the job
+			if (wr.getMatchedCount() != 1) {
+				throw nsje;
+			}
+		}
+		jobChanged(oi);
+	}
+	
+	/* Jobs with the default authorization strategy are authorized by the
+	 * query, so they can be checked and changed in a single operation. Jobs
+	 * with other strategies must be fetched and authorized by the authorizer
+	 * before they're changed.
+	 */
+	private static Document defaultAuth(
+			final Document query,
+			final String owner) {
+		return new Document(query)
+				.append(AUTH_STRAT, UJSAuthorizer.DEFAULT_AUTH_STRAT.getStrat())
+				.append(USER, owner);
+	}
+	
+	private static Document externalAuth(final Document query) {
+		return new Document(query).append(AUTH_STRAT, new Document("$ne",
+				UJSAuthorizer.DEFAULT_AUTH_STRAT.getStrat()));
+	}
+	
+	// returns null if there is no such job
+	private static Job findJob(
+			final MongoCollection<RawBsonDocument> col,
+			final Document query)
+			throws CommunicationException {
+		try {
+			final RawBsonDocument d = col.find(query).projection(JOB_FIELDS)
+					.first();
+			return d == null ? null : JobCodec.JOB.decode(d);
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
 		}
 	}
 	
@@ -610,18 +1527,57 @@ public class JobState {
 				jobID, user +
 				(service == null ? "" : " and service " + service)));
 		
-		final BasicDBObject query = new BasicDBObject(MONGO_ID, id);
-		final Job j;
+		flushPending(id);
+		final Document query = new Document(MONGO_ID, id);
+		if (service == null) {
+			query.append(COMPLETE, true);
+		} else {
+			query.append(SERVICE, service);
+		}
+		final Set<String> users = new HashSet<String>();
+		final FindOneAndDeleteOptions opts = new FindOneAndDeleteOptions()
+				.projection(new Document(USER, 1).append(SHARED, 1));
+		Document d;
 		try {
-			if (service == null) {
-				j = toJob(jobcol.findOne(query.append(COMPLETE, true)));
-			} else {
-				j = toJob(jobcol.findOne(query.append(SERVICE, service)));
+			d = jobcol.findOneAndDelete(defaultAuth(query, user), opts);
+			if (d == null && archcol != null) {
+				d = archcol.findOneAndDelete(defaultAuth(query, user), opts);
 			}
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
+		if (d != null) {
+			users.add(d.getString(USER));
+			@SuppressWarnings("unchecked")
+			final List<String> shared = (List<String>) d.get(SHARED);
+			if (shared != null) {
+				users.addAll(shared);
+			}
+		} else {
+			final Job j = deleteExternallyAuthorizedJob(
+					user, externalAuth(query), auth, err);
+			users.add(j.getUser());
+			users.addAll(j.getShared());
+		}
+		deletePayloads(Arrays.asList(id));
+		// wake any waiters so they can find out the job is gone
+		notifier.notifyUpdated(id.toString());
+		usersRemoved(id, users, true);
+	}
+	
+	private Job deleteExternallyAuthorizedJob(
+			final String user,
+			final Document query,
+			final UJSAuthorizer auth,
+			final NoSuchJobException err)
+			throws CommunicationException, NoSuchJobException {
+		Job j = findJob(rawjobs, query);
+		MongoCollection<Document> col = jobcol;
+		if (j == null && rawarch != null) {
+			j = findJob(rawarch, query);
+			col = archcol;
+		}
 		if (j == null) {
 			throw err;
 		}
@@ -630,32 +1586,211 @@ public class JobState {
 		} catch (UJSAuthorizationException e) {
 			throw err;
 		}
-		
-		final WriteResult wr;
+		final DeleteResult wr;
 		try {
-			wr = jobcol.remove(query);
+			wr = col.deleteOne(query);
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
 		// this can only happen if the job was deleted between fetching and now
-		if (wr.getN() != 1) {
+		if (wr.getDeletedCount() != 1) {
 			throw err;
 		}
+		return j;
+	}
+	
+	/** Delete a batch of jobs in a stage that were last updated before a
+	 * date. Jobs that have never been started were last updated when they
+	 * were created. Archived jobs are deleted once there are no more
+	 * matching jobs in the job collection.
+	 * @param stage the stage of the jobs to delete. One of
+	 * {@link Job#CREATED}, {@link Job#COMPLETE}, {@link Job#ERROR}, or
+	 * {@link Job#CANCELED}.
+	 * @param before delete jobs last updated before this date.
+	 * @param limit the maximum number of jobs to delete.
+	 * @return the number of jobs deleted.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public int purgeJobs(final String stage, final Date before, final int limit)
+			throws CommunicationException {
+		if (!PURGEABLE_STAGES.contains(stage)) {
+			throw new IllegalArgumentException(
+					"Jobs in stage " + stage + " cannot be purged");
+		}
+		if (before == null) {
+			throw new NullPointerException("before");
+		}
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit must be at least 1");
+		}
+		final Document query = new Document(STAGE, stage)
+				.append(UPDATED, new Document("$lt", before));
+		final Map<ObjectId, Document> found =
+				new HashMap<ObjectId, Document>();
+		try {
+			found.putAll(purgeJobs(jobcol, query, limit));
+			if (archcol != null && found.size() < limit) {
+				found.putAll(purgeJobs(archcol, query, limit - found.size()));
+			}
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		deletePayloads(found.keySet());
+		for (final Entry<ObjectId, Document> e: found.entrySet()) {
+			notifier.notifyUpdated(e.getKey().toString());
+			if (eventLog != null) {
+				@SuppressWarnings("unchecked")
+				final List<String> shared =
+						(List<String>) e.getValue().get(SHARED);
+				final Set<String> users = new HashSet<String>();
+				if (shared != null) {
+					users.addAll(shared);
+				}
+				users.add(e.getValue().getString(USER));
+				usersRemoved(e.getKey(), users, true);
+			}
+		}
+		return found.size();
+	}
+	
+	// returns the owner and shared users of the deleted jobs by job ID
+	private static Map<ObjectId, Document> purgeJobs(
+			final MongoCollection<Document> col,
+			final Document query,
+			final int limit) {
+		final Map<ObjectId, Document> found =
+				new HashMap<ObjectId, Document>();
+		for (final Document d: col.find(query)
+				.projection(new Document(USER, 1).append(SHARED, 1))
+				.limit(limit)) {
+			found.put(d.getObjectId(MONGO_ID), d);
+		}
+		if (found.isEmpty()) {
+			return found;
+		}
+		// repeat the query in case a job changed since it was found
+		final DeleteResult dr = col.deleteMany(new Document(query)
+				.append(MONGO_ID, new Document("$in", found.keySet())));
+		if (dr.getDeletedCount() != found.size()) {
+			for (final Document d: col.find(new Document(MONGO_ID,
+					new Document("$in", found.keySet())))
+					.projection(new Document(MONGO_ID, 1))) {
+				found.remove(d.getObjectId(MONGO_ID));
+			}
+		}
+		return found;
+	}
+	
+	/** Move a batch of completed, errored, and canceled jobs that were last
+	 * updated before a date to the archive. Only the fields needed to
+	 * reconstruct the job are copied to the archive.
+	 * 
+	 * Each job is copied to the archive before it is removed from the job
+	 * collection, and is only removed if it has not changed since it was
+	 * copied. Otherwise the copy is removed from the archive and the job will
+	 * be archived in a later batch. Archiving is invisible to users and so
+	 * no notifications are sent.
+	 * @param before archive jobs last updated before this date.
+	 * @param limit the maximum number of jobs to archive.
+	 * @return the number of jobs archived.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public int archiveJobs(final Date before, final int limit)
+			throws CommunicationException {
+		if (archcol == null) {
+			throw new IllegalStateException("No job archive is configured");
+		}
+		if (before == null) {
+			throw new NullPointerException("before");
+		}
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit must be at least 1");
+		}
+		final List<Document> found = new LinkedList<Document>();
+		try {
+			jobcol.find(new Document(STAGE, new Document("$in", FINISHED_STAGES))
+					.append(UPDATED, new Document("$lt", before)))
+					.limit(limit).into(found);
+			if (found.isEmpty()) {
+				return 0;
+			}
+			final List<WriteModel<Document>> copies =
+					new LinkedList<WriteModel<Document>>();
+			for (final Document d: found) {
+				copies.add(new ReplaceOneModel<Document>(
+						new Document(MONGO_ID, d.get(MONGO_ID)),
+						toArchiveDocument(d),
+						new ReplaceOptions().upsert(true)));
+			}
+			archcol.bulkWrite(copies, new BulkWriteOptions().ordered(false));
+			/* every change to a job sets the update time other than sharing,
+			 * so a job only matches if it hasn't changed since it was copied
+			 */
+			final List<WriteModel<Document>> deletes =
+					new LinkedList<WriteModel<Document>>();
+			final List<Object> ids = new LinkedList<Object>();
+			for (final Document d: found) {
+				ids.add(d.get(MONGO_ID));
+				deletes.add(new DeleteOneModel<Document>(
+						new Document(MONGO_ID, d.get(MONGO_ID))
+								.append(UPDATED, d.get(UPDATED))
+								.append(SHARED, d.get(SHARED))));
+			}
+			final int archived = jobcol.bulkWrite(deletes,
+					new BulkWriteOptions().ordered(false)).getDeletedCount();
+			if (archived < found.size()) {
+				final List<Object> changed = new LinkedList<Object>();
+				for (final Document d: jobcol.find(new Document(MONGO_ID,
+						new Document("$in", ids)))
+						.projection(new Document(MONGO_ID, 1))) {
+					changed.add(d.get(MONGO_ID));
+				}
+				if (!changed.isEmpty()) {
+					archcol.deleteMany(new Document(MONGO_ID,
+							new Document("$in", changed)));
+				}
+				/* jobs deleted by users while being archived can't be told
+				 * apart from archived jobs and are left in the archive,
+				 * where they can be deleted again.
+				 */
+				if (archived + changed.size() < found.size()) {
+					log.warn(String.format("%s jobs were deleted while " +
+							"being archived and may remain in the archive",
+							found.size() - archived - changed.size()));
+				}
+			}
+			return archived;
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+	
+	// drops null fields and fields that aren't needed to build a job
+	private static Document toArchiveDocument(final Document job) {
+		final Document ret = new Document();
+		for (final Entry<String, Object> e: job.entrySet()) {
+			if (e.getValue() != null && ARCHIVE_FIELDS.contains(e.getKey())) {
+				ret.put(e.getKey(), e.getValue());
+			}
+		}
+		return ret;
 	}
 	
 	public Set<String> listServices(final String user)
 			throws CommunicationException {
 		checkString(user, "user");
-		final DBObject query = new BasicDBObject("$or", Arrays.asList(
-				new BasicDBObject(USER, user),
-				new BasicDBObject(SHARED, user)));
-		query.put(SERVICE, new BasicDBObject("$ne", null));
+		final Document query = new Document("$or", Arrays.asList(
+				new Document(USER, user),
+				new Document(SHARED, user)));
+		query.put(SERVICE, new Document("$ne", null));
 		final Set<String> services = new HashSet<String>();
 		try {
-			@SuppressWarnings("unchecked")
-			final List<String> servs = jobcol.distinct(SERVICE, query);
-			services.addAll(servs);
+			jobcol.distinct(SERVICE, query, String.class).into(services);
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
@@ -696,6 +1831,273 @@ public class JobState {
 			final AuthorizationStrategy strat,
 			final List<String> authParams)
 			throws CommunicationException, UJSAuthorizationException {
+		return listJobs(user, services, running, complete, canceled, error,
+				shared, auth, strat, authParams, 0, null, null).getJobs();
+	}
+	
+	/** List jobs, optionally one page at a time. Pages are delimited by the
+	 * (last updated date, job ID) of the jobs, and so are stable even if jobs
+	 * are added to the listing between calls.
+	 * @param limit the maximum number of jobs to return. 0 for no limit.
+	 * @param ascending true to sort the jobs by the last update date, oldest
+	 * first, false to sort newest first, or null to not sort the jobs. Null is
+	 * not allowed if a limit or resume token is provided.
+	 * @param resume a token from a previous listing, returned by
+	 * {@link JobListing#getNext()}, from which to resume the listing. The
+	 * sort order must be the same as that of the previous listing.
+	 */
+	public JobListing<Job> listJobs(
+			final String user,
+			final List<String> services,
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error,
+			final boolean shared,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final List<String> authParams,
+			final int limit,
+			final Boolean ascending,
+			final String resume)
+			throws CommunicationException, UJSAuthorizationException {
+		return listJobs(user, services, running, complete, canceled, error,
+				shared, auth, strat, authParams, limit, ascending, resume,
+				false);
+	}
+	
+	/** List jobs, optionally one page at a time and optionally including
+	 * archived jobs. Identical to
+	 * {@link #listJobs(String, List, boolean, boolean, boolean, boolean,
+	 * boolean, UJSAuthorizer, AuthorizationStrategy, List, int, Boolean,
+	 * String)} except for the includeArchive argument.
+	 * @param includeArchive true to include archived jobs in the listing.
+	 * Ignored if there is no archive.
+	 */
+	public JobListing<Job> listJobs(
+			final String user,
+			final List<String> services,
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error,
+			final boolean shared,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final List<String> authParams,
+			final int limit,
+			final Boolean ascending,
+			final String resume,
+			final boolean includeArchive)
+			throws CommunicationException, UJSAuthorizationException {
+		return listJobs(user, services, running, complete, canceled, error,
+				shared, auth, strat, authParams, limit, ascending, resume,
+				JobCodec.JOB, includeArchive, JOB_FIELDS);
+	}
+	
+	/** List job summaries, optionally one page at a time. Identical to
+	 * {@link #listJobs(String, List, boolean, boolean, boolean, boolean,
+	 * boolean, UJSAuthorizer, AuthorizationStrategy, List, int, Boolean,
+	 * String)} except that only the fields required for a
+	 * {@link JobSummary} are retrieved from the database.
+	 */
+	public JobListing<JobSummary> listJobSummaries(
+			final String user,
+			final List<String> services,
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error,
+			final boolean shared,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final List<String> authParams,
+			final int limit,
+			final Boolean ascending,
+			final String resume)
+			throws CommunicationException, UJSAuthorizationException {
+		return listJobSummaries(user, services, running, complete, canceled,
+				error, shared, auth, strat, authParams, limit, ascending,
+				resume, false);
+	}
+	
+	/** List job summaries, optionally one page at a time and optionally
+	 * including archived jobs.
+	 * @param includeArchive true to include archived jobs in the listing.
+	 * Ignored if there is no archive.
+	 */
+	public JobListing<JobSummary> listJobSummaries(
+			final String user,
+			final List<String> services,
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error,
+			final boolean shared,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final List<String> authParams,
+			final int limit,
+			final Boolean ascending,
+			final String resume,
+			final boolean includeArchive)
+			throws CommunicationException, UJSAuthorizationException {
+		return listJobs(user, services, running, complete, canceled, error,
+				shared, auth, strat, authParams, limit, ascending, resume,
+				JobCodec.SUMMARY, includeArchive, SUMMARY_FIELDS);
+	}
+	
+	/** Stream jobs from the database rather than loading them into memory
+	 * all at once. Takes the same arguments as
+	 * {@link #listJobs(String, List, boolean, boolean, boolean, boolean,
+	 * boolean, UJSAuthorizer, AuthorizationStrategy, List, int, Boolean,
+	 * String)}, but since no resume token is returned, the limit is a simple
+	 * cap on the number of jobs returned.
+	 * 
+	 * The database is not queried until the stream is first read. The stream
+	 * must be closed when no longer needed.
+	 */
+	public JobStream<Job> streamJobs(
+			final String user,
+			final List<String> services,
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error,
+			final boolean shared,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final List<String> authParams,
+			final int limit,
+			final Boolean ascending,
+			final String resume)
+			throws CommunicationException, UJSAuthorizationException {
+		return streamJobs(user, services, running, complete, canceled, error,
+				shared, auth, strat, authParams, limit, ascending, resume,
+				false);
+	}
+	
+	/** Stream jobs from the database, optionally including archived jobs.
+	 * @param includeArchive true to include archived jobs in the stream.
+	 * Ignored if there is no archive.
+	 */
+	public JobStream<Job> streamJobs(
+			final String user,
+			final List<String> services,
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error,
+			final boolean shared,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final List<String> authParams,
+			final int limit,
+			final Boolean ascending,
+			final String resume,
+			final boolean includeArchive)
+			throws CommunicationException, UJSAuthorizationException {
+		final List<FindIterable<RawBsonDocument>> found = findJobs(user,
+				services, running, complete, canceled, error, shared, auth,
+				strat, authParams, limit, ascending, resume, includeArchive,
+				JOB_FIELDS);
+		for (final FindIterable<RawBsonDocument> f: found) {
+			if (limit > 0) {
+				f.limit(limit);
+			}
+		}
+		return new JobStream<Job>(decode(found, JobCodec.JOB),
+				getOrder(ascending), limit);
+	}
+	
+	private <T extends JobSummary> JobListing<T> listJobs(
+			final String user,
+			final List<String> services,
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error,
+			final boolean shared,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final List<String> authParams,
+			final int limit,
+			final Boolean ascending,
+			final String resume,
+			final JobCodec<T> codec,
+			final boolean includeArchive,
+			final Bson fields)
+			throws CommunicationException, UJSAuthorizationException {
+		final List<FindIterable<RawBsonDocument>> found = findJobs(user,
+				services, running, complete, canceled, error, shared, auth,
+				strat, authParams, limit, ascending, resume, includeArchive,
+				fields);
+		for (final FindIterable<RawBsonDocument> f: found) {
+			if (limit > 0) {
+				// fetch one extra job to find out if there's another page
+				f.limit(limit + 1);
+			}
+		}
+		final List<T> ret = new LinkedList<T>();
+		String next = null;
+		try (final JobStream<T> cur = new JobStream<T>(
+				decode(found, codec), getOrder(ascending), 0)) {
+			while (cur.hasNext()) {
+				final T j = cur.next();
+				if (limit > 0 && ret.size() == limit) {
+					next = makeResumeToken(ret.get(limit - 1), ascending);
+					break;
+				}
+				ret.add(j);
+			}
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		return new JobListing<T>(ret, next);
+	}
+	
+	private static <T extends JobSummary> List<MongoIterable<T>> decode(
+			final List<FindIterable<RawBsonDocument>> found,
+			final JobCodec<T> codec) {
+		final List<MongoIterable<T>> ret = new LinkedList<MongoIterable<T>>();
+		for (final FindIterable<RawBsonDocument> f: found) {
+			ret.add(f.map(d -> codec.decode(d)));
+		}
+		return ret;
+	}
+	
+	// the order of jobs sorted by the last update date, or null if unsorted
+	private static Comparator<JobSummary> getOrder(final Boolean ascending) {
+		if (ascending == null) {
+			return null;
+		}
+		final Comparator<JobSummary> order =
+				Comparator.comparing((JobSummary j) -> j.getLastUpdated())
+						.thenComparing(j -> j.getID());
+		return ascending ? order : order.reversed();
+	}
+	
+	// returns sorted but unlimited iterables for the job collection and, if
+	// requested, the archive. The database is not queried until the
+	// iterables are iterated.
+	private List<FindIterable<RawBsonDocument>> findJobs(
+			final String user,
+			final List<String> services,
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error,
+			final boolean shared,
+			final UJSAuthorizer auth,
+			final AuthorizationStrategy strat,
+			final List<String> authParams,
+			final int limit,
+			final Boolean ascending,
+			final String resume,
+			final boolean includeArchive,
+			final Bson fields)
+			throws CommunicationException, UJSAuthorizationException {
 		/* Currently when specifying a non default auth strat all the
 		 * authparams need to be readable in order to query jobs. Alternately
 		 * this method could allow listing all owned jobs for the auth strat
@@ -712,100 +2114,155 @@ public class JobState {
 		 */
 		checkString(user, "user");
 		auth.authorizeRead(strat, user, authParams);
-		final BasicDBObject query = startQuery(running, complete, canceled, error);
+		final Document query = startQuery(running, complete, canceled, error);
 		if (strat.equals(UJSAuthorizer.DEFAULT_AUTH_STRAT)) {
 			if (shared) {
-				// clean this up later
-				final List<BasicDBObject> shr = Arrays.asList(new BasicDBObject(USER, user),
-						new BasicDBObject(SHARED, user));
-				@SuppressWarnings("unchecked")
-				final List<BasicDBObject> bdor = (List<BasicDBObject>) query.remove("$or");
-				if (bdor == null) {
-					query.put("$or", shr);
-				} else {
-					query.put("$and", Arrays.asList(new BasicDBObject("$or", bdor),
-							new BasicDBObject("$or", shr)));
-				}
+				// each $or clause is served by its own (user|shared, stage,
+				// service, updated) index
+				query.put("$or", Arrays.asList(new Document(USER, user),
+						new Document(SHARED, user)));
 			} else {
 				query.put(USER, user);
 			}
 		} else {
 			query.append(AUTH_STRAT, strat.getStrat())
-					.append(AUTH_PARAM, new BasicDBObject("$in", authParams));
+					.append(AUTH_PARAM, new Document("$in", authParams));
 		}
 		if (services != null && !services.isEmpty()) {
 			for (final String s: services) {
 				checkString(s, "service", MAX_LEN_SERVICE);
 			}
-			query.put(SERVICE, new BasicDBObject("$in", services));
+			query.put(SERVICE, new Document("$in", services));
 		} else {
-			query.put(SERVICE, new BasicDBObject("$ne", null));
+			query.put(SERVICE, new Document("$ne", null));
 		}
-		final List<Job> jobs = new LinkedList<Job>();
-		try {
-			final DBCursor cur = jobcol.find(query);
-			for (final DBObject dbo: cur) {
-				jobs.add(toJob(dbo));
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit cannot be negative");
+		}
+		if (ascending == null && (limit > 0 || resume != null)) {
+			throw new IllegalArgumentException(
+					"A sort order is required when paging through jobs");
+		}
+		if (resume != null) {
+			addResumeQuery(query, resume, ascending);
+		}
+		final List<FindIterable<RawBsonDocument>> ret =
+				new LinkedList<FindIterable<RawBsonDocument>>();
+		for (final MongoCollection<RawBsonDocument> c: Arrays.asList(
+				rawjobs, includeArchive ? rawarch : null)) {
+			if (c == null) {
+				continue;
 			}
-		} catch (MongoException me) {
-			throw new CommunicationException(
-					"There was a problem communicating with the database", me);
+			final FindIterable<RawBsonDocument> found = c.find(query);
+			if (fields != null) {
+				found.projection(fields);
+			}
+			if (ascending != null) {
+				final int dir = ascending ? 1 : -1;
+				found.sort(new Document(UPDATED, dir).append(MONGO_ID, dir));
+			}
+			ret.add(found);
+		}
+		return ret;
+	}
+	
+	private static final String RESUME_SEP = ":";
+	private static final String RESUME_ASC = "a";
+	private static final String RESUME_DESC = "d";
+	
+	private static String makeResumeToken(
+			final JobSummary lastJob,
+			final boolean ascending) {
+		final String token = (ascending ? RESUME_ASC : RESUME_DESC) +
+				RESUME_SEP + lastJob.getLastUpdated().getTime() +
+				RESUME_SEP + lastJob.getID();
+		return Base64.getUrlEncoder().encodeToString(
+				token.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static void addResumeQuery(
+			final Document query,
+			final String resume,
+			final boolean ascending) {
+		final IllegalArgumentException err = new IllegalArgumentException(
+				"Invalid resume token: " + resume);
+		final String[] parts;
+		try {
+			parts = new String(Base64.getUrlDecoder().decode(resume),
+					StandardCharsets.UTF_8).split(RESUME_SEP);
+		} catch (IllegalArgumentException e) {
+			throw err;
+		}
+		if (parts.length != 3) {
+			throw err;
+		}
+		if (!parts[0].equals(ascending ? RESUME_ASC : RESUME_DESC)) {
+			throw new IllegalArgumentException(
+					"The sort order does not match the resume token");
+		}
+		final Date updated;
+		final ObjectId id;
+		try {
+			updated = new Date(Long.parseLong(parts[1]));
+			id = new ObjectId(parts[2]);
+		} catch (IllegalArgumentException e) {
+			throw err;
+		}
+		final String op = ascending ? "$gt" : "$lt";
+		final Document after = new Document("$or", Arrays.asList(
+				new Document(UPDATED, new Document(op, updated)),
+				new Document(UPDATED, updated)
+						.append(MONGO_ID, new Document(op, id))));
+		// the query may already have an $or clause for shared jobs
+		@SuppressWarnings("unchecked")
+		final List<Bson> and = (List<Bson>) query.remove("$and");
+		final List<Bson> clauses = new LinkedList<Bson>();
+		if (and != null) {
+			clauses.addAll(and);
 		}
-		return jobs;
+		clauses.add(after);
+		query.put("$and", clauses);
 	}
 
-	private BasicDBObject startQuery(
+	private Document startQuery(
 			final boolean running,
 			final boolean complete,
 			final boolean canceled,
 			final boolean error) {
-		/* TODO ZZLATER should have a indexed state variable in the job db doc 
-		 * that is either created, running, complete, error, or canceled.
-		 * remove error flag.
-		 * requires DB update, but would make this much simpler.
-		 * This is fucking dumb. Live with it for now.
-		 */
-		final BasicDBObject query = new BasicDBObject();
-		final BasicDBObject exists = new BasicDBObject("$exists", true);
-		final BasicDBObject notExists = new BasicDBObject("$exists", false);
-		if (running && !complete && !canceled && !error) {
-			query.put(COMPLETE, false);
-		} else if (!running && complete && !canceled && !error) {
-			query.append(COMPLETE, true).append(ERROR, false).append(CANCELEDBY, notExists);
-		} else if (!running && !complete && canceled && !error) {
-			query.append(CANCELEDBY, exists);
-		} else if (!running && !complete && !canceled && error) {
-			query.put(ERROR, true);
-		} else if (running && complete && !canceled && !error) {
-			query.append(ERROR, false).append(CANCELEDBY, notExists);
-		} else if (running && !complete && canceled && !error) {
-			query.append("$or", Arrays.asList(new BasicDBObject(COMPLETE, false),
-					new BasicDBObject(CANCELEDBY, exists)));
-		} else if (running && !complete && !canceled && error) {
-			query.append("$or", Arrays.asList(new BasicDBObject(COMPLETE, false),
-					new BasicDBObject(ERROR, true)));
-		} else if (running && complete && canceled && !error) {
-			query.append(ERROR, false);
-		} else if (running && complete && !canceled && error) {
-			query.append(CANCELEDBY, notExists);
-		} else if (running && !complete && canceled && error) {
-			query.append("$or", Arrays.asList(
-					new BasicDBObject(COMPLETE, false),
-					new BasicDBObject(ERROR, true),
-					new BasicDBObject(CANCELEDBY, exists)));
-		} else if (!running && complete && canceled && !error) {
-			query.append(COMPLETE, true).append(ERROR, false);
-		} else if (!running && complete && !canceled && error) {
-			query.append(COMPLETE, true).append(CANCELEDBY, notExists);
-		} else if (!running && complete && canceled && error) {
-			query.put(COMPLETE, true);
-		} else if (!running && !complete && canceled && error) {
-			query.append("$or", Arrays.asList(new BasicDBObject(ERROR, true),
-					new BasicDBObject(CANCELEDBY, exists)));
+		final Document query = new Document();
+		final List<String> stages = getStages(running, complete, canceled, error);
+		if (stages.size() == 1) {
+			query.put(STAGE, stages.get(0));
+		} else if (!stages.isEmpty()) {
+			query.put(STAGE, new Document("$in", stages));
 		} // otherwise leave the query alone
 		return query;
 	}
 	
+	/* Returns the stages matching the filter, or an empty list if all
+	 * stages should be returned.
+	 */
+	private static List<String> getStages(
+			final boolean running,
+			final boolean complete,
+			final boolean canceled,
+			final boolean error) {
+		final List<String> stages = new LinkedList<String>();
+		if (running) {
+			stages.add(Job.STARTED);
+		}
+		if (complete) {
+			stages.add(Job.COMPLETE);
+		}
+		if (canceled) {
+			stages.add(Job.CANCELED);
+		}
+		if (error) {
+			stages.add(Job.ERROR);
+		}
+		return stages;
+	}
+	
 	//note sharing with an already shared user or sharing with the owner has
 	//no effect
 	public void shareJob(final String owner, final String jobID,
@@ -818,22 +2275,35 @@ public class JobState {
 				us.add(u);
 			}
 		}
-		final WriteResult wr;
+		final UpdateResult wr;
 		try {
-			wr = jobcol.update(
-					new BasicDBObject(MONGO_ID, id).append(USER, owner)
+			wr = updateJobOrArchive(
+					new Document(MONGO_ID, id).append(USER, owner)
 							.append(AUTH_STRAT, UJSAuthorizer.DEFAULT_AUTH_STRAT.getStrat()),
-					new BasicDBObject("$addToSet", new BasicDBObject(SHARED,
-							new BasicDBObject("$each", us))));
+					new Document("$addToSet", new Document(SHARED,
+							new Document("$each", us))));
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
-		if (wr.getN() != 1) {
+		if (wr.getMatchedCount() != 1) {
 			throw new NoSuchJobException(String.format(
 					"There is no job %s with default authorization owned by " +
 					"user %s", jobID, owner));
 		}
+		jobChanged(id);
+	}
+
+	// updates the job in the job collection, or in the archive if the job
+	// has been archived
+	private UpdateResult updateJobOrArchive(
+			final Document query,
+			final Document update) {
+		final UpdateResult wr = jobcol.updateOne(query, update);
+		if (wr.getMatchedCount() == 0 && archcol != null) {
+			return archcol.updateOne(query, update);
+		}
+		return wr;
 	}
 
 	private ObjectId checkShareParams(final String user, final String jobID,
@@ -861,36 +2331,32 @@ public class JobState {
 				"There is no job %s with default authorization visible to " +
 				"user %s", jobID, user));
 		final ObjectId id = checkShareParams(user, jobID, users, "user");
-		final Job j;
-		try {
-			j = getJob(id);
-		} catch (NoSuchJobException nsje) {
-			throw e;
-		}
-		if (!j.getAuthorizationStrategy().equals(
-				UJSAuthorizer.DEFAULT_AUTH_STRAT)) {
-			throw e;
-		}
-		if (j.getUser().equals(user)) {
-			//it's the owner, can do whatever
-		} else if (j.getShared().contains(user)) {
-			if (!users.equals(Arrays.asList(user))) {
-				throw new IllegalArgumentException(String.format(
-						"User %s may only stop sharing job %s for themselves",
-						user, jobID));
-			}
-			//shared user removing themselves, no prob
-		} else {
-			throw e;
-		}
+		final Document query = new Document(MONGO_ID, id).append(AUTH_STRAT,
+				UJSAuthorizer.DEFAULT_AUTH_STRAT.getStrat());
+		final Document shared = new Document(query).append(SHARED, user);
+		//the owner can do whatever, shared users can only remove themselves
+		final boolean self = users.equals(Arrays.asList(user));
 		try {
-			jobcol.update(
-					new BasicDBObject(MONGO_ID, id).append(USER, j.getUser())
-							.append(AUTH_STRAT, UJSAuthorizer.DEFAULT_AUTH_STRAT.getStrat()),
-					new BasicDBObject("$pullAll", new BasicDBObject(SHARED, users)));
+			final UpdateResult wr = updateJobOrArchive(self ?
+					new Document(query).append("$or", Arrays.asList(
+							new Document(USER, user),
+							new Document(SHARED, user))) :
+					new Document(query).append(USER, user),
+					new Document("$pullAll", new Document(SHARED, users)));
+			if (wr.getMatchedCount() != 1) {
+				if (!self && (jobcol.countDocuments(shared) > 0 ||
+						(archcol != null &&
+								archcol.countDocuments(shared) > 0))) {
+					throw new IllegalArgumentException(String.format(
+							"User %s may only stop sharing job %s for themselves",
+							user, jobID));
+				}
+				throw e;
+			}
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
+		usersRemoved(id, users, false);
 	}
 }
@@ -0,0 +1,154 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+
+/** A stream of jobs read from the database one at a time. Iterating through
+ * the stream may throw a {@link com.mongodb.MongoException} if there is a
+ * problem communicating with the database.
+ *
+ * A stream may read from more than one query, for example when jobs are
+ * listed from both the job collection and the job archive. If the queries are
+ * sorted, the jobs are merged into a single sorted stream, otherwise the
+ * queries are read one after the other. When merging, a job returned by more
+ * than one query, such as a job read while it was being moved to the
+ * archive, is only returned once.
+ *
+ * @param <T> the type of the jobs in the stream.
+ */
+public class JobStream<T extends JobSummary> implements Iterator<T>,
+		Closeable {
+
+	private final List<MongoIterable<T>> queries;
+	private final Comparator<? super T> order;
+	private final int limit;
+	private List<Source<T>> sources = null;
+	private int returned = 0;
+	private String lastID = null;
+	private boolean closed = false;
+
+	// a cursor and the next job read from it, if any
+	private static class Source<T> {
+
+		private final MongoCursor<T> cursor;
+		private T head = null;
+
+		private Source(final MongoCursor<T> cursor) {
+			this.cursor = cursor;
+		}
+
+		private T peek() {
+			if (head == null && cursor.hasNext()) {
+				head = cursor.next();
+			}
+			return head;
+		}
+
+		private T take() {
+			final T ret = peek();
+			head = null;
+			return ret;
+		}
+	}
+
+	JobStream(final MongoIterable<T> query) {
+		this(Arrays.asList(query), null, 0);
+	}
+
+	/** Create a stream.
+	 * @param queries the queries from which to read jobs.
+	 * @param order the order in which the queries are sorted, or null if the
+	 * queries are not sorted.
+	 * @param limit the maximum number of jobs to return, or 0 for no limit.
+	 */
+	JobStream(
+			final List<MongoIterable<T>> queries,
+			final Comparator<? super T> order,
+			final int limit) {
+		this.queries = queries;
+		this.order = order;
+		this.limit = limit;
+	}
+
+	// the database is queried on the first read
+	private List<Source<T>> getSources() {
+		if (closed) {
+			throw new IllegalStateException("The stream is closed");
+		}
+		if (sources == null) {
+			sources = new LinkedList<Source<T>>();
+			for (final MongoIterable<T> q: queries) {
+				sources.add(new Source<T>(q.iterator()));
+			}
+		}
+		return sources;
+	}
+
+	// returns the source of the next job, or null if there are no more jobs
+	private Source<T> nextSource() {
+		final List<Source<T>> srcs = getSources();
+		if (limit > 0 && returned >= limit) {
+			return null;
+		}
+		while (true) {
+			Source<T> next = null;
+			for (final Source<T> s: srcs) {
+				if (s.peek() != null) {
+					if (order == null) {
+						return s;
+					}
+					if (next == null ||
+							order.compare(s.peek(), next.peek()) < 0) {
+						next = s;
+					}
+				}
+			}
+			// copies of the same job sort together, so only the last job
+			// returned needs checking
+			if (next == null || !next.peek().getID().equals(lastID)) {
+				return next;
+			}
+			next.take();
+		}
+	}
+	
+	private T take(final Source<T> s) {
+		returned++;
+		final T ret = s.take();
+		lastID = ret.getID();
+		return ret;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return nextSource() != null;
+	}
+
+	@Override
+	public T next() {
+		final Source<T> s = nextSource();
+		if (s == null) {
+			throw new NoSuchElementException();
+		}
+		return take(s);
+	}
+
+	/** Close the stream and release the underlying database cursors. */
+	@Override
+	public void close() {
+		closed = true;
+		if (sources != null) {
+			for (final Source<T> s: sources) {
+				s.cursor.close();
+			}
+		}
+	}
+}
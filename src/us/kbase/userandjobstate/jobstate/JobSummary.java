@@ -0,0 +1,188 @@
+package us.kbase.userandjobstate.jobstate;
+
+import static us.kbase.userandjobstate.jobstate.JobState.PROG_NONE;
+
+import java.util.Date;
+
+import org.bson.types.ObjectId;
+
+/** A summary of the state of a job, omitting the potentially large fields
+ * (the error message, results, metadata, and share list) that aren't needed
+ * to display a listing of jobs.
+ */
+public class JobSummary {
+	
+	public static final String CREATED = "created";
+	public static final String STARTED = "started";
+	public static final String COMPLETE = "complete";
+	public static final String ERROR = "error";
+	public static final String CANCELED = "canceled";
+	
+	ObjectId _id;
+	String user;
+	String service;
+	String desc;
+	String progtype;
+	Integer prog;
+	Integer maxprog;
+	String status;
+	Date started;
+	Date updated;
+	Date estcompl;
+	Boolean complete;
+	Boolean error;
+	String canceledby;
+	
+	JobSummary() {}
+	
+	JobSummary(
+			final ObjectId _id,
+			final String user,
+			final String service,
+			final String desc,
+			final String progtype,
+			final Integer prog,
+			final Integer maxprog,
+			final String status,
+			final Date started,
+			final Date updated,
+			final Date estcompl,
+			final Boolean complete,
+			final Boolean error,
+			final String canceledby) {
+		this._id = _id;
+		this.user = user;
+		this.service = service;
+		this.desc = desc;
+		this.progtype = progtype;
+		this.prog = prog;
+		this.maxprog = maxprog;
+		this.status = status;
+		this.started = started;
+		this.updated = updated;
+		this.estcompl = estcompl;
+		this.complete = complete;
+		this.error = error;
+		this.canceledby = canceledby;
+	}
+
+	public String getID() {
+		return _id.toString();
+	}
+	
+	public String getStage() {
+		if (canceledby != null) {
+			return CANCELED;
+		}
+		if (service == null) {
+			return CREATED;
+		}
+		if (!complete) {
+			return STARTED;
+		}
+		if (!error) {
+			return COMPLETE;
+		}
+		return ERROR;
+	}
+	
+	public String getUser() {
+		return user;
+	}
+
+	public String getService() {
+		return service;
+	}
+
+	public String getDescription() {
+		return desc;
+	}
+
+	public String getProgType() {
+		return progtype;
+	}
+
+	public Integer getProgress() {
+		if (getProgType() == null || getProgType().equals(PROG_NONE)) {
+			return null;
+		}
+		if (isComplete() || getMaxProgress() < prog) {
+			return getMaxProgress();
+		}
+		return prog;
+	}
+
+	public Integer getMaxProgress() {
+		if (getProgType() == null || getProgType().equals(PROG_NONE)) {
+			return null;
+		}
+		return maxprog;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public Date getStarted() {
+		return started;
+	}
+	
+	public Date getEstimatedCompletion() {
+		return estcompl;
+	}
+	
+	public Date getLastUpdated() {
+		return updated;
+	}
+
+	public Boolean isComplete() {
+		return complete;
+	}
+	
+	public boolean isCanceled() {
+		return canceledby != null;
+	}
+	
+	public String getCanceledBy() {
+		return canceledby;
+	}
+
+	public Boolean hasError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("UJSJobSummary [_id=");
+		builder.append(_id);
+		builder.append(", user=");
+		builder.append(user);
+		builder.append(", service=");
+		builder.append(service);
+		builder.append(", desc=");
+		builder.append(desc);
+		builder.append(", progtype=");
+		builder.append(progtype);
+		builder.append(", prog=");
+		builder.append(prog);
+		builder.append(", maxprog=");
+		builder.append(maxprog);
+		builder.append(", status=");
+		builder.append(status);
+		builder.append(", started=");
+		builder.append(started);
+		builder.append(", updated=");
+		builder.append(updated);
+		builder.append(", estcompl=");
+		builder.append(estcompl);
+		builder.append(", complete=");
+		builder.append(complete);
+		builder.append(", error=");
+		builder.append(error);
+		builder.append(", canceledby=");
+		builder.append(canceledby);
+		builder.append("]");
+		return builder.toString();
+	}
+}
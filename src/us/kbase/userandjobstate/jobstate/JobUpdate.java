@@ -0,0 +1,64 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.util.Date;
+
+/** An update to the status and progress of a started job.
+ */
+public class JobUpdate {
+
+	private final String jobID;
+	private final String status;
+	private final Integer progress;
+	private final Date estComplete;
+
+	/** Create an update.
+	 * @param jobID the ID of the job to update.
+	 * @param status the new status of the job.
+	 * @param progress the progress the job has made since the last update,
+	 * or null to leave the progress unchanged.
+	 * @param estComplete the estimated completion date of the job, or null
+	 * to leave the date unchanged.
+	 */
+	public JobUpdate(
+			final String jobID,
+			final String status,
+			final Integer progress,
+			final Date estComplete) {
+		// checked by JobState
+		this.jobID = jobID;
+		this.status = status;
+		this.progress = progress;
+		this.estComplete = estComplete;
+	}
+
+	public String getJobID() {
+		return jobID;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public Integer getProgress() {
+		return progress;
+	}
+
+	public Date getEstimatedCompletion() {
+		return estComplete;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("JobUpdate [jobID=");
+		builder.append(jobID);
+		builder.append(", status=");
+		builder.append(status);
+		builder.append(", progress=");
+		builder.append(progress);
+		builder.append(", estComplete=");
+		builder.append(estComplete);
+		builder.append("]");
+		return builder.toString();
+	}
+}
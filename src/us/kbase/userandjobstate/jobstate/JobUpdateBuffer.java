@@ -0,0 +1,289 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import us.kbase.userandjobstate.exceptions.CommunicationException;
+
+/** Holds job status and progress updates in memory and writes them to the
+ * database in bulk, either periodically or when the number of jobs with
+ * pending updates reaches a limit. Multiple updates to the same job between
+ * writes are merged - progress increments are summed and the latest status
+ * and estimated completion time are kept - so that chatty services cost
+ * one database write per job per interval.
+ *
+ * The {@link JobState} checks that a job may be updated before buffering an
+ * update, so only the write is deferred. An update to a job that is
+ * completed or deleted by another server instance before the buffer is
+ * written is dropped and logged.
+ *
+ * A buffer may only be used by one {@link JobState} instance. Call
+ * {@link #closeAll()} on shutdown to write any pending updates.
+ */
+public class JobUpdateBuffer implements Closeable {
+
+	private static final Set<JobUpdateBuffer> BUFFERS =
+			ConcurrentHashMap.newKeySet();
+
+	/** Writes pending updates to the database. */
+	interface Flusher {
+
+		void flush(Collection<PendingUpdate> updates)
+				throws CommunicationException;
+	}
+
+	/** The merged, unwritten updates for a job. */
+	static class PendingUpdate {
+
+		final ObjectId jobID;
+		final String user;
+		final String service;
+		final String status;
+		final Integer progress;
+		final Date estComplete;
+		final Date updated;
+
+		PendingUpdate(
+				final ObjectId jobID,
+				final String user,
+				final String service,
+				final String status,
+				final Integer progress,
+				final Date estComplete,
+				final Date updated) {
+			this.jobID = jobID;
+			this.user = user;
+			this.service = service;
+			this.status = status;
+			this.progress = progress;
+			this.estComplete = estComplete;
+			this.updated = updated;
+		}
+
+		private boolean sameSource(final PendingUpdate u) {
+			return user.equals(u.user) && service.equals(u.service);
+		}
+
+		// merge a later update into this one
+		private PendingUpdate then(final PendingUpdate later) {
+			final Integer prog;
+			if (progress == null) {
+				prog = later.progress;
+			} else if (later.progress == null) {
+				prog = progress;
+			} else {
+				prog = progress + later.progress;
+			}
+			return new PendingUpdate(jobID, user, service, later.status, prog,
+					later.estComplete == null ? estComplete :
+						later.estComplete,
+					later.updated);
+		}
+	}
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final long flushIntervalMS;
+	private final int maxPending;
+	private final ConcurrentHashMap<ObjectId, PendingUpdate> pending =
+			new ConcurrentHashMap<ObjectId, PendingUpdate>();
+	// held while writing so readers can't see the database between a
+	// pending update being removed from the buffer and being written
+	private final Object flushLock = new Object();
+	private Flusher flusher = null;
+	private ScheduledExecutorService timer = null;
+	private volatile boolean closed = false;
+
+	/** Create a buffer.
+	 * @param flushIntervalMS the interval between writes of pending updates
+	 * in milliseconds.
+	 * @param maxPending the number of jobs with pending updates at which the
+	 * updates are written immediately.
+	 */
+	public JobUpdateBuffer(final long flushIntervalMS, final int maxPending) {
+		if (flushIntervalMS < 1) {
+			throw new IllegalArgumentException(
+					"flushIntervalMS must be at least 1");
+		}
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("maxPending must be at least 1");
+		}
+		this.flushIntervalMS = flushIntervalMS;
+		this.maxPending = maxPending;
+	}
+
+	/** Start periodically writing pending updates.
+	 * @param flusher the writer for pending updates.
+	 */
+	synchronized void start(final Flusher flusher) {
+		if (closed) {
+			throw new IllegalStateException("The buffer is closed");
+		}
+		if (this.flusher != null) {
+			throw new IllegalStateException("The buffer is already in use");
+		}
+		this.flusher = flusher;
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread t = new Thread(r, "job update buffer");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleWithFixedDelay(() -> {
+			try {
+				flushAll();
+			} catch (CommunicationException | RuntimeException e) {
+				// the updates are back in the buffer
+				log.error("Writing buffered job updates failed, will retry " +
+						"in " + flushIntervalMS + " ms", e);
+			}
+		}, flushIntervalMS, flushIntervalMS, TimeUnit.MILLISECONDS);
+		BUFFERS.add(this);
+	}
+
+	/** Get the interval between writes of pending updates.
+	 * @return the interval in milliseconds.
+	 */
+	public long getFlushIntervalMS() {
+		return flushIntervalMS;
+	}
+
+	/** Get the number of jobs with pending updates at which the updates are
+	 * written immediately.
+	 * @return the maximum number of jobs with pending updates.
+	 */
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	/** Get the number of jobs with pending updates.
+	 * @return the number of jobs.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/** Add an update to the buffer.
+	 * @param update the update.
+	 * @return false if the update was not buffered because the buffer is
+	 * closed or because there is a pending update for the job from a
+	 * different user or service. In that case the caller must write the
+	 * update itself after flushing any pending update for the job.
+	 * @throws CommunicationException if the buffer was full and writing the
+	 * pending updates failed. The update is buffered regardless.
+	 */
+	boolean add(final PendingUpdate update) throws CommunicationException {
+		if (closed) {
+			return false;
+		}
+		final boolean[] added = {true};
+		pending.compute(update.jobID, (k, cur) -> {
+			if (cur == null) {
+				return update;
+			}
+			if (!cur.sameSource(update)) {
+				added[0] = false;
+				return cur;
+			}
+			return cur.then(update);
+		});
+		if (added[0] && pending.size() >= maxPending) {
+			flushAll();
+		}
+		return added[0];
+	}
+
+	/** Write any pending updates for the given jobs. Returns once any write
+	 * already in progress is complete.
+	 * @param jobIDs the IDs of the jobs. Nulls are ignored.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	void flush(final Collection<ObjectId> jobIDs)
+			throws CommunicationException {
+		synchronized (flushLock) {
+			final List<PendingUpdate> updates = new LinkedList<PendingUpdate>();
+			for (final ObjectId id: jobIDs) {
+				final PendingUpdate u = id == null ? null : pending.remove(id);
+				if (u != null) {
+					updates.add(u);
+				}
+			}
+			write(updates);
+		}
+	}
+
+	/** Write all pending updates.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public void flushAll() throws CommunicationException {
+		synchronized (flushLock) {
+			final List<PendingUpdate> updates = new LinkedList<PendingUpdate>();
+			for (final ObjectId id: pending.keySet()) {
+				final PendingUpdate u = pending.remove(id);
+				if (u != null) {
+					updates.add(u);
+				}
+			}
+			write(updates);
+		}
+	}
+
+	private void write(final List<PendingUpdate> updates)
+			throws CommunicationException {
+		if (updates.isEmpty() || flusher == null) {
+			return;
+		}
+		try {
+			flusher.flush(updates);
+		} catch (CommunicationException | RuntimeException e) {
+			for (final PendingUpdate u: updates) {
+				// any update made since is later than the failed update. In
+				// the unlikely event it's from a different source, keep it.
+				pending.merge(u.jobID, u, (later, failed) ->
+						failed.sameSource(later) ? failed.then(later) : later);
+			}
+			throw e;
+		}
+	}
+
+	/** Write all pending updates and stop buffering. Further updates are
+	 * written directly by the job state instance. Pending updates that can't
+	 * be written because of a database error are lost.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			if (timer != null) {
+				timer.shutdown();
+			}
+			BUFFERS.remove(this);
+		}
+		try {
+			flushAll();
+		} catch (CommunicationException e) {
+			// nothing to be done, the server is shutting down
+		}
+	}
+
+	/** Close all the buffers in use in this JVM, writing any pending updates.
+	 */
+	public static void closeAll() {
+		for (final JobUpdateBuffer b: BUFFERS) {
+			b.close();
+		}
+	}
+}
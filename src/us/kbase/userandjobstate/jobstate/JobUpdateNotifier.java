@@ -0,0 +1,152 @@
+package us.kbase.userandjobstate.jobstate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Wakes threads waiting for a job to be updated. Notifications are in
+ * memory only and are therefore not seen by waiters in other server
+ * instances sharing the same database - callers must always check the job
+ * in the database after a wait returns, whether or not the wait timed out.
+ *
+ * A waiter must {@link #register(String)} before checking the job in the
+ * database, and then {@link #await(Waiter, long)} the returned waiter, so
+ * that an update that occurs between the check and the wait is not missed.
+ */
+public class JobUpdateNotifier {
+
+	/** The default maximum number of waiters, a quarter of the default
+	 * server thread pool size of 20.
+	 */
+	public static final int DEFAULT_MAX_WAITERS = 5;
+
+	private final ConcurrentHashMap<String, Signal> signals =
+			new ConcurrentHashMap<String, Signal>();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final int maxWaiters;
+
+	/** Create a notifier.
+	 * @param maxWaiters the maximum number of threads that may wait for
+	 * updates at once. Since each waiter occupies a server thread for the
+	 * length of its wait, this should be well below the size of the server's
+	 * thread pool - no more than a quarter is recommended.
+	 */
+	public JobUpdateNotifier(final int maxWaiters) {
+		if (maxWaiters < 0) {
+			throw new IllegalArgumentException(
+					"maxWaiters cannot be negative");
+		}
+		this.maxWaiters = maxWaiters;
+	}
+
+	// shared by all the waiters for a job until the job is updated
+	private static class Signal {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+		// guarded by the signals map, see register() and release()
+		private int waiters = 0;
+	}
+
+	/** A registration to wait for an update to a job. */
+	public static class Waiter {
+
+		private final String jobID;
+		private final Signal signal;
+		private boolean released = false;
+
+		private Waiter(final String jobID, final Signal signal) {
+			this.jobID = jobID;
+			this.signal = signal;
+		}
+
+		/** Returns the ID of the job for which this waiter is registered.
+		 * @return the job ID.
+		 */
+		public String getJobID() {
+			return jobID;
+		}
+	}
+
+	/** Get the maximum number of simultaneous waiters.
+	 * @return the maximum number of waiters.
+	 */
+	public int getMaxWaiters() {
+		return maxWaiters;
+	}
+
+	/** Get the number of threads currently registered to wait for updates.
+	 * @return the number of waiters.
+	 */
+	public int getWaiterCount() {
+		return waiting.get();
+	}
+
+	/** Register to wait for an update to a job.
+	 * @param jobID the ID of the job.
+	 * @return the waiter, or null if the maximum number of waiters are
+	 * already registered.
+	 */
+	public Waiter register(final String jobID) {
+		if (jobID == null) {
+			throw new NullPointerException("jobID");
+		}
+		if (waiting.incrementAndGet() > maxWaiters) {
+			waiting.decrementAndGet();
+			return null;
+		}
+		final Signal s = signals.compute(jobID, (k, cur) -> {
+			final Signal ret = cur == null ? new Signal() : cur;
+			ret.waiters++;
+			return ret;
+		});
+		return new Waiter(jobID, s);
+	}
+
+	/** Wait for the job to be updated and release the waiter. A waiter may
+	 * only be awaited once.
+	 * @param waiter the waiter returned by {@link #register(String)}.
+	 * @param timeoutMS the maximum time to wait in milliseconds.
+	 * @return true if the job was updated, false if the wait timed out.
+	 * @throws InterruptedException if the thread is interrupted.
+	 */
+	public boolean await(final Waiter waiter, final long timeoutMS)
+			throws InterruptedException {
+		if (waiter == null) {
+			throw new NullPointerException("waiter");
+		}
+		if (waiter.released) {
+			throw new IllegalStateException("Waiter was already released");
+		}
+		try {
+			return waiter.signal.latch.await(timeoutMS, TimeUnit.MILLISECONDS);
+		} finally {
+			release(waiter);
+		}
+	}
+
+	/** Release a waiter without waiting. Has no effect if the waiter has
+	 * already been released.
+	 * @param waiter the waiter returned by {@link #register(String)}.
+	 */
+	public void release(final Waiter waiter) {
+		if (waiter == null || waiter.released) {
+			return;
+		}
+		waiter.released = true;
+		waiting.decrementAndGet();
+		// if the signal has fired it's already been removed from the map
+		signals.computeIfPresent(waiter.jobID, (k, cur) ->
+				cur == waiter.signal && --cur.waiters < 1 ? null : cur);
+	}
+
+	/** Notify any waiters that a job has been updated.
+	 * @param jobID the ID of the updated job.
+	 */
+	public void notifyUpdated(final String jobID) {
+		final Signal s = signals.remove(jobID);
+		if (s != null) {
+			s.latch.countDown();
+		}
+	}
+}
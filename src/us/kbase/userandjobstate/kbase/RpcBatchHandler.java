@@ -0,0 +1,508 @@
+package us.kbase.userandjobstate.kbase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/** Processes JSON-RPC batch requests, where the body of a POST is a JSON
+ * array of calls rather than a single call.
+ *
+ * Each call in the batch is passed, as if it were a request of its own, to
+ * the same processor that handles single calls. The calls run concurrently on
+ * a fixed size thread pool shared by all batches, and the responses are
+ * returned as a JSON array in the order of the calls. A call that fails
+ * produces an error response in its place in the array but does not affect
+ * the other calls.
+ *
+ * Methods that may block for a long time, such as long polls, can be excluded
+ * from batches so that they can't hold the shared threads. A call to an
+ * excluded method produces an error response.
+ */
+public class RpcBatchHandler implements Closeable {
+
+	/** The maximum number of calls in a batch. */
+	public static final int MAX_CALLS = 100;
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final String APP_JSON = "application/json";
+
+	// JSON-RPC error codes
+	public static final int PARSE_ERROR = -32700;
+	public static final int INVALID_REQUEST = -32600;
+	public static final int INTERNAL_ERROR = -32603;
+	// the code the JSON-RPC server uses for authentication failures
+	public static final int SERVER_ERROR = -32400;
+
+	/** Processes a single JSON-RPC call. */
+	public interface CallProcessor {
+
+		/** Process a call.
+		 * @param request the request containing the call.
+		 * @param response the response to which the result is written.
+		 * @throws ServletException if the call cannot be processed.
+		 * @throws IOException if an IO error occurs.
+		 */
+		void process(HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException;
+	}
+
+	private final CallProcessor processor;
+	private final Set<String> excludedMethods;
+	private final ExecutorService executor;
+
+	/** Create a batch handler.
+	 * @param threads the number of threads with which to process calls.
+	 * @param processor the processor for the individual calls.
+	 * @param excludedMethods the full names, including the module, of methods
+	 * that may not be called in a batch.
+	 */
+	public RpcBatchHandler(
+			final int threads,
+			final CallProcessor processor,
+			final Collection<String> excludedMethods) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		if (processor == null) {
+			throw new NullPointerException("processor");
+		}
+		if (excludedMethods == null) {
+			throw new NullPointerException("excludedMethods");
+		}
+		this.processor = processor;
+		this.excludedMethods = new HashSet<String>(excludedMethods);
+		final AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, r -> {
+			final Thread t = new Thread(r,
+					"rpc batch " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/** Wrap a request so that whether it contains a batch can be checked
+	 * without consuming the request body.
+	 * @param request the request to wrap.
+	 * @return the wrapped request.
+	 * @throws IOException if the request body can't be read.
+	 */
+	public static PeekedRequest peek(final HttpServletRequest request)
+			throws IOException {
+		return new PeekedRequest(request);
+	}
+
+	/** A request whose body has been checked for a batch of calls. The body
+	 * is still readable in full.
+	 */
+	public static class PeekedRequest extends HttpServletRequestWrapper {
+
+		private final PushbackInputStream body;
+		private final boolean batch;
+
+		private PeekedRequest(final HttpServletRequest request)
+				throws IOException {
+			super(request);
+			body = new PushbackInputStream(request.getInputStream(), 1);
+			int b;
+			do {
+				b = body.read();
+			} while (b == ' ' || b == '\t' || b == '\r' || b == '\n');
+			if (b != -1) {
+				body.unread(b);
+			}
+			batch = b == '[';
+		}
+
+		/** Returns true if the request body is a JSON array.
+		 * @return whether the request is a batch.
+		 */
+		public boolean isBatch() {
+			return batch;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() {
+			return new WrappedInputStream(body);
+		}
+
+		@Override
+		public BufferedReader getReader() {
+			return new BufferedReader(
+					new InputStreamReader(body, StandardCharsets.UTF_8));
+		}
+	}
+
+	/** Process a batch of calls and write the array of responses.
+	 * @param request the request containing the batch.
+	 * @param response the response to which the results are written.
+	 * @throws IOException if an IO error occurs.
+	 */
+	public void process(
+			final PeekedRequest request,
+			final HttpServletResponse response)
+			throws IOException {
+		final JsonNode calls;
+		try {
+			calls = MAPPER.readTree(request.getInputStream());
+		} catch (JsonProcessingException e) {
+			sendError(response, PARSE_ERROR,
+					"Parse error: " + e.getOriginalMessage());
+			return;
+		}
+		if (calls == null || !calls.isArray() || calls.size() == 0) {
+			sendError(response, INVALID_REQUEST,
+					"Invalid request: a batch must contain at least one call");
+			return;
+		}
+		if (calls.size() > MAX_CALLS) {
+			sendError(response, INVALID_REQUEST, String.format(
+					"Invalid request: a batch may contain no more than %s " +
+					"calls", MAX_CALLS));
+			return;
+		}
+		final List<Future<JsonNode>> results =
+				new LinkedList<Future<JsonNode>>();
+		for (final JsonNode call: calls) {
+			results.add(executor.submit(
+					() -> processCall(request, response, call)));
+		}
+		final ArrayNode ret = MAPPER.createArrayNode();
+		int i = 0;
+		for (final Future<JsonNode> r: results) {
+			final JsonNode call = calls.get(i++);
+			try {
+				ret.add(r.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				r.cancel(true);
+				ret.add(error(call, INTERNAL_ERROR,
+						"The server was interrupted while processing the call"));
+			} catch (ExecutionException e) {
+				ret.add(error(call, INTERNAL_ERROR,
+						"Internal error: " + e.getCause().getMessage()));
+			}
+		}
+		writeResponse(response, ret);
+	}
+
+	private JsonNode processCall(
+			final HttpServletRequest request,
+			final HttpServletResponse response,
+			final JsonNode call)
+			throws ServletException, IOException {
+		if (!call.isObject()) {
+			return error(call, INVALID_REQUEST,
+					"Invalid request: a call must be a JSON object");
+		}
+		final JsonNode method = call.get("method");
+		if (method != null && excludedMethods.contains(method.asText())) {
+			return error(call, INVALID_REQUEST, String.format(
+					"Invalid request: %s may not be called in a batch",
+					method.asText()));
+		}
+		final CallResponse res = new CallResponse(response);
+		processor.process(
+				new CallRequest(request, MAPPER.writeValueAsBytes(call)), res);
+		final byte[] body = res.getBody();
+		if (body.length > 0) {
+			try {
+				return MAPPER.readTree(body);
+			} catch (JsonProcessingException e) {
+				// fall through to the error
+			}
+		}
+		return error(call, INTERNAL_ERROR, String.format(
+				"The call failed with HTTP status %s%s", res.status,
+				res.message == null ? "" : ": " + res.message));
+	}
+
+	/** Send an error for a batch that can't be processed.
+	 * @param response the response to which the error is written.
+	 * @param code the JSON-RPC error code.
+	 * @param message the error message.
+	 * @throws IOException if an IO error occurs.
+	 */
+	public void sendError(
+			final HttpServletResponse response,
+			final int code,
+			final String message)
+			throws IOException {
+		response.setStatus(500);
+		writeResponse(response, error(null, code, message));
+	}
+
+	private static void writeResponse(
+			final HttpServletResponse response,
+			final JsonNode body)
+			throws IOException {
+		response.setContentType(APP_JSON);
+		final ServletOutputStream out = response.getOutputStream();
+		MAPPER.writeValue(out, body);
+		out.flush();
+	}
+
+	// matches the error format of the JSON-RPC server for single calls
+	private static JsonNode error(
+			final JsonNode call,
+			final int code,
+			final String message) {
+		final ObjectNode ret = MAPPER.createObjectNode();
+		if (call != null && call.has("jsonrpc")) {
+			ret.put("jsonrpc", "2.0");
+		} else {
+			ret.put("version", "1.1");
+		}
+		final ObjectNode err = ret.putObject("error");
+		err.put("name", "JSONRPCError");
+		err.put("code", code);
+		err.put("message", message);
+		err.putNull("error");
+		if (call != null && call.isObject() && call.has("id")) {
+			ret.set("id", call.get("id"));
+		} else {
+			ret.putNull("id");
+		}
+		return ret;
+	}
+
+	/** Stop processing calls. Calls in progress are interrupted. */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private static class WrappedInputStream extends ServletInputStream {
+
+		private final InputStream in;
+
+		private WrappedInputStream(final InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+				throws IOException {
+			return in.read(b, off, len);
+		}
+	}
+
+	/* A single call from a batch. Everything but the body comes from the
+	 * batch request, so the call has the same token and client address.
+	 */
+	private static class CallRequest extends HttpServletRequestWrapper {
+
+		private final byte[] body;
+
+		private CallRequest(
+				final HttpServletRequest request,
+				final byte[] body) {
+			super(request);
+			this.body = body;
+		}
+
+		@Override
+		public int getContentLength() {
+			return body.length;
+		}
+
+		@Override
+		public String getHeader(final String name) {
+			if ("Content-Length".equalsIgnoreCase(name)) {
+				return Integer.toString(body.length);
+			}
+			return super.getHeader(name);
+		}
+
+		@Override
+		public ServletInputStream getInputStream() {
+			return new WrappedInputStream(new ByteArrayInputStream(body));
+		}
+
+		@Override
+		public BufferedReader getReader() {
+			return new BufferedReader(new InputStreamReader(
+					new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+		}
+	}
+
+	/* Buffers the response to a single call. Since the calls in a batch run
+	 * concurrently, nothing is ever written to the batch response, and
+	 * headers set by the call are dropped.
+	 */
+	private static class CallResponse extends HttpServletResponseWrapper {
+
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private PrintWriter writer = null;
+		private int status = 200;
+		private String message = null;
+
+		private CallResponse(final HttpServletResponse response) {
+			super(response);
+		}
+
+		private byte[] getBody() {
+			if (writer != null) {
+				writer.flush();
+			}
+			return body.toByteArray();
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			return new ServletOutputStream() {
+
+				@Override
+				public void write(final int b) {
+					body.write(b);
+				}
+
+				@Override
+				public void write(final byte[] b, final int off, final int len) {
+					body.write(b, off, len);
+				}
+			};
+		}
+
+		@Override
+		public PrintWriter getWriter() {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(
+						body, StandardCharsets.UTF_8));
+			}
+			return writer;
+		}
+
+		@Override
+		public String getCharacterEncoding() {
+			return StandardCharsets.UTF_8.name();
+		}
+
+		@Override
+		public void setStatus(final int sc) {
+			status = sc;
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public void setStatus(final int sc, final String sm) {
+			status = sc;
+			message = sm;
+		}
+
+		@Override
+		public void sendError(final int sc) {
+			status = sc;
+		}
+
+		@Override
+		public void sendError(final int sc, final String msg) {
+			status = sc;
+			message = msg;
+		}
+
+		@Override
+		public void sendRedirect(final String location) {
+			status = 302;
+			message = "Redirected to " + location;
+		}
+
+		@Override
+		public boolean isCommitted() {
+			return false;
+		}
+
+		@Override
+		public void reset() {
+			resetBuffer();
+			status = 200;
+			message = null;
+		}
+
+		@Override
+		public void resetBuffer() {
+			if (writer != null) {
+				writer.flush();
+			}
+			body.reset();
+		}
+
+		@Override
+		public void flushBuffer() {}
+
+		@Override
+		public void setBufferSize(final int size) {}
+
+		@Override
+		public void setContentType(final String type) {}
+
+		@Override
+		public void setContentLength(final int len) {}
+
+		@Override
+		public void setCharacterEncoding(final String charset) {}
+
+		@Override
+		public void setLocale(final Locale loc) {}
+
+		@Override
+		public void addCookie(final Cookie cookie) {}
+
+		@Override
+		public void setHeader(final String name, final String value) {}
+
+		@Override
+		public void addHeader(final String name, final String value) {}
+
+		@Override
+		public void setIntHeader(final String name, final int value) {}
+
+		@Override
+		public void addIntHeader(final String name, final int value) {}
+
+		@Override
+		public void setDateHeader(final String name, final long date) {}
+
+		@Override
+		public void addDateHeader(final String name, final long date) {}
+	}
+}
@@ -0,0 +1,424 @@
+package us.kbase.userandjobstate.kbase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/** Compresses JSON-RPC responses and decompresses request bodies.
+ *
+ * A response is compressed with gzip or deflate if the client accepts either
+ * in the Accept-Encoding header and the response is at least a minimum size.
+ * The response is buffered until it reaches the minimum size, after which it
+ * is compressed as it is written. list_jobs2 writes its jobs to the response
+ * one at a time as they are read from the database (see
+ * {@link StreamingList}), so a large listing is compressed as it is sent
+ * rather than held in memory. Other methods build their entire result before
+ * it is written.
+ *
+ * If a listing fails part way through, the rest of the response is discarded
+ * and the compressed output is finished only to free the compressor. The
+ * server then throws an exception so that the container drops the connection
+ * and the client sees an incomplete response.
+ *
+ * Request bodies with a gzip or deflate Content-Encoding are decompressed as
+ * they are read.
+ */
+public class RpcCompression {
+
+	/** The maximum size of a decompressed request body. */
+	public static final long MAX_INFLATED_BYTES = 250L * 1024 * 1024;
+
+	private static final String GZIP = "gzip";
+	private static final String DEFLATE = "deflate";
+
+	private final int minBytes;
+	private final int level;
+
+	/** Create a response compressor.
+	 * @param minBytes responses smaller than this number of bytes are not
+	 * compressed.
+	 * @param level the compression level, from 1 to 9.
+	 */
+	public RpcCompression(final int minBytes, final int level) {
+		if (minBytes < 1) {
+			throw new IllegalArgumentException("minBytes must be at least 1");
+		}
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException(String.format(
+					"level must be from %s to %s", Deflater.BEST_SPEED,
+					Deflater.BEST_COMPRESSION));
+		}
+		this.minBytes = minBytes;
+		this.level = level;
+	}
+
+	/** Get the minimum size of a compressed response.
+	 * @return the minimum size in bytes.
+	 */
+	public int getMinBytes() {
+		return minBytes;
+	}
+
+	/** Get the compression level.
+	 * @return the compression level.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/** Wrap a request so that a compressed body is decompressed when read.
+	 * @param request the request.
+	 * @return the request if the body is not compressed, a wrapped request if
+	 * it is compressed with a supported encoding, or null if the encoding is
+	 * not supported.
+	 */
+	public static HttpServletRequest decompress(
+			final HttpServletRequest request) {
+		final String enc = request.getHeader("Content-Encoding");
+		if (enc == null || enc.trim().isEmpty() ||
+				enc.trim().equalsIgnoreCase("identity")) {
+			return request;
+		}
+		final String e = enc.trim().toLowerCase();
+		if (e.equals(GZIP) || e.equals("x-" + GZIP) || e.equals(DEFLATE)) {
+			return new DecompressingRequest(request, !e.equals(DEFLATE));
+		}
+		return null;
+	}
+
+	/** Wrap a response so that it is compressed if the client accepts a
+	 * compressed response. {@link CompressingResponse#finish()} must be
+	 * called once the response is written.
+	 * @param request the request.
+	 * @param response the response to the request.
+	 * @return the wrapped response, or null if the client does not accept a
+	 * compressed response.
+	 */
+	public CompressingResponse compress(
+			final HttpServletRequest request,
+			final HttpServletResponse response) {
+		final String enc = getAcceptedEncoding(
+				request.getHeader("Accept-Encoding"));
+		return enc == null ? null : new CompressingResponse(response, enc);
+	}
+
+	// prefers gzip, since some clients mishandle deflate
+	private static String getAcceptedEncoding(final String header) {
+		if (header == null) {
+			return null;
+		}
+		boolean deflate = false;
+		for (final String part: header.split(",")) {
+			final String[] p = part.split(";");
+			final String name = p[0].trim().toLowerCase();
+			if (p.length > 1 && p[1].trim().replace(" ", "").matches(
+					"q=0(\\.0*)?")) {
+				continue;
+			}
+			if (name.equals(GZIP) || name.equals("x-" + GZIP) ||
+					name.equals("*")) {
+				return GZIP;
+			}
+			deflate = deflate || name.equals(DEFLATE);
+		}
+		return deflate ? DEFLATE : null;
+	}
+
+	/** A response that is compressed once it reaches the minimum size. */
+	public class CompressingResponse extends HttpServletResponseWrapper {
+
+		private final String encoding;
+		private final CompressingStream out = new CompressingStream();
+		private PrintWriter writer = null;
+
+		private CompressingResponse(
+				final HttpServletResponse response,
+				final String encoding) {
+			super(response);
+			this.encoding = encoding;
+			response.addHeader("Vary", "Accept-Encoding");
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			return out;
+		}
+
+		@Override
+		public PrintWriter getWriter() {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(out,
+						getCharacterEncoding() == null ?
+								StandardCharsets.UTF_8.name() :
+								getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		// the length of the compressed response isn't known in advance
+		@Override
+		public void setContentLength(final int len) {}
+
+		@Override
+		public void setHeader(final String name, final String value) {
+			if (!"Content-Length".equalsIgnoreCase(name)) {
+				super.setHeader(name, value);
+			}
+		}
+
+		@Override
+		public void addHeader(final String name, final String value) {
+			if (!"Content-Length".equalsIgnoreCase(name)) {
+				super.addHeader(name, value);
+			}
+		}
+
+		@Override
+		public void setIntHeader(final String name, final int value) {
+			if (!"Content-Length".equalsIgnoreCase(name)) {
+				super.setIntHeader(name, value);
+			}
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			}
+			out.flush();
+		}
+
+		@Override
+		public void reset() {
+			out.reset();
+			super.reset();
+			((HttpServletResponse) getResponse()).addHeader(
+					"Vary", "Accept-Encoding");
+		}
+
+		@Override
+		public void resetBuffer() {
+			out.reset();
+			super.resetBuffer();
+		}
+
+		/** Write any buffered output and finish compressing the response.
+		 * @throws IOException if an IO error occurs.
+		 */
+		public void finish() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			}
+			out.close();
+		}
+
+		private class CompressingStream extends ServletOutputStream {
+
+			private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			private OutputStream compressed = null;
+			private boolean closed = false;
+
+			@Override
+			public void write(final int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len)
+					throws IOException {
+				if (closed) {
+					throw new IOException("The stream is closed");
+				}
+				if (compressed != null) {
+					compressed.write(b, off, len);
+					return;
+				}
+				buffer.write(b, off, len);
+				if (buffer.size() >= minBytes) {
+					startCompression();
+				}
+			}
+
+			private void startCompression() throws IOException {
+				final HttpServletResponse res =
+						(HttpServletResponse) getResponse();
+				res.setHeader("Content-Encoding", encoding);
+				final OutputStream os = res.getOutputStream();
+				if (encoding.equals(GZIP)) {
+					compressed = new GZIPOutputStream(os) {
+						{
+							def.setLevel(level);
+						}
+					};
+				} else {
+					compressed = new DeflaterOutputStream(
+							os, new Deflater(level)) {
+						@Override
+						public void close() throws IOException {
+							try {
+								super.close();
+							} finally {
+								def.end();
+							}
+						}
+					};
+				}
+				buffer.writeTo(compressed);
+				buffer = null;
+			}
+
+			// responses are only flushed once compression has started, since
+			// until then it isn't known whether they will be compressed
+			@Override
+			public void flush() throws IOException {
+				if (compressed != null) {
+					compressed.flush();
+				}
+			}
+
+			private void reset() {
+				if (compressed != null) {
+					throw new IllegalStateException(
+							"The response is already committed");
+				}
+				buffer.reset();
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				if (compressed != null) {
+					compressed.close();
+				} else if (buffer.size() > 0) {
+					final ServletOutputStream os =
+							getResponse().getOutputStream();
+					buffer.writeTo(os);
+					os.close();
+				}
+			}
+		}
+	}
+
+	private static class DecompressingRequest extends HttpServletRequestWrapper {
+
+		private final boolean gzip;
+		private ServletInputStream in = null;
+
+		private DecompressingRequest(
+				final HttpServletRequest request,
+				final boolean gzip) {
+			super(request);
+			this.gzip = gzip;
+		}
+
+		@Override
+		public int getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public String getHeader(final String name) {
+			if ("Content-Length".equalsIgnoreCase(name) ||
+					"Content-Encoding".equalsIgnoreCase(name)) {
+				return null;
+			}
+			return super.getHeader(name);
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			if (in == null) {
+				final InputStream raw = super.getInputStream();
+				final InputStream inflated = new LimitedInputStream(gzip ?
+						new GZIPInputStream(raw) : new InflaterInputStream(raw));
+				in = new ServletInputStream() {
+
+					@Override
+					public int read() throws IOException {
+						return inflated.read();
+					}
+
+					@Override
+					public int read(final byte[] b, final int off, final int len)
+							throws IOException {
+						return inflated.read(b, off, len);
+					}
+
+					@Override
+					public void close() throws IOException {
+						inflated.close();
+					}
+				};
+			}
+			return in;
+		}
+
+		@Override
+		public BufferedReader getReader() throws IOException {
+			return new BufferedReader(new InputStreamReader(getInputStream(),
+					getCharacterEncoding() == null ?
+							StandardCharsets.UTF_8.name() :
+							getCharacterEncoding()));
+		}
+	}
+
+	// guards against small request bodies that inflate to huge sizes
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private long count = 0;
+
+		private LimitedInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b != -1) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+				throws IOException {
+			final int read = super.read(b, off, len);
+			if (read > 0) {
+				count(read);
+			}
+			return read;
+		}
+
+		private void count(final int read) throws IOException {
+			count += read;
+			if (count > MAX_INFLATED_BYTES) {
+				throw new IOException(String.format(
+						"The decompressed request body exceeds %s bytes",
+						MAX_INFLATED_BYTES));
+			}
+		}
+	}
+}
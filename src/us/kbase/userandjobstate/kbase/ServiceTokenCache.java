@@ -0,0 +1,129 @@
+package us.kbase.userandjobstate.kbase;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import us.kbase.auth.AuthException;
+
+/** A size bounded cache mapping service tokens to user names, so that
+ * services reporting job progress don't require a call to the
+ * authentication server on every request. Entries expire a fixed time after
+ * the token was validated. Concurrent validations of the same token share
+ * a single call to the authentication server. Invalid tokens are not cached.
+ */
+public class ServiceTokenCache {
+
+	/** Validates a token with the authentication server. */
+	public interface TokenValidator {
+
+		/** Validate a token.
+		 * @param token the token to validate.
+		 * @return the name of the user that owns the token.
+		 * @throws AuthException if the token is invalid.
+		 * @throws IOException if an IO error occurs.
+		 */
+		String validate(String token) throws AuthException, IOException;
+	}
+
+	private final LoadingCache<String, String> cache;
+
+	/** Create the cache.
+	 * @param validator the token validator.
+	 * @param maxSize the maximum number of tokens to cache. 0 disables
+	 * caching.
+	 * @param expirationSec the number of seconds after validation that a
+	 * token expires from the cache.
+	 */
+	public ServiceTokenCache(
+			final TokenValidator validator,
+			final int maxSize,
+			final int expirationSec) {
+		if (validator == null) {
+			throw new NullPointerException("validator");
+		}
+		if (maxSize < 0) {
+			throw new IllegalArgumentException(
+					"maxSize cannot be negative");
+		}
+		if (expirationSec < 1) {
+			throw new IllegalArgumentException(
+					"expirationSec must be at least 1");
+		}
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(expirationSec, TimeUnit.SECONDS)
+				.recordStats()
+				.build(new CacheLoader<String, String>() {
+
+					@Override
+					public String load(final String token)
+							throws AuthException, IOException {
+						return validator.validate(token);
+					}
+				});
+	}
+
+	/** Get the name of the user that owns a token, validating the token with
+	 * the authentication server if it is not in the cache.
+	 * @param token the token.
+	 * @return the user name.
+	 * @throws AuthException if the token is invalid.
+	 * @throws IOException if an IO error occurs.
+	 */
+	public String getUserName(final String token)
+			throws AuthException, IOException {
+		if (token == null || token.isEmpty()) {
+			throw new IllegalArgumentException(
+					"token cannot be null or the empty string");
+		}
+		try {
+			return cache.get(token);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof AuthException) {
+				throw (AuthException) e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause().getMessage(),
+					e.getCause());
+		} catch (UncheckedExecutionException | ExecutionError e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/** Get the number of lookups that were served from the cache.
+	 * @return the number of cache hits.
+	 */
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	/** Get the number of lookups that required a call to the authentication
+	 * server, including failed validations.
+	 * @return the number of cache misses.
+	 */
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	/** Get the approximate number of tokens in the cache.
+	 * @return the cache size.
+	 */
+	public long size() {
+		return cache.size();
+	}
+}
@@ -0,0 +1,237 @@
+package us.kbase.userandjobstate.kbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/** A single use list that converts and serializes its items one at a time as
+ * they are read from a source, so that a large result need never be held in
+ * memory in its entirety. Intended to be returned from a JSON-RPC method,
+ * where it is serialized directly to the response by Jackson.
+ *
+ * The list may only be iterated once, and does not support random access or
+ * size(). The source is closed once the list has been serialized, or when
+ * the {@link StreamingResponse} for the call is closed if the list is never
+ * serialized.
+ *
+ * By the time the list is serialized the response status has been sent, so
+ * a failure to read from the source can't be reported as a JSON-RPC error.
+ * Instead, the call's StreamingResponse is aborted, which discards the rest
+ * of the response, so the client receives incomplete JSON rather than a
+ * listing that appears to be complete. Callers should read the first item
+ * from the source before returning the list, so that a failure to open the
+ * source is returned as an error.
+ *
+ * @param <T> the type of the items in the list.
+ */
+@JsonSerialize(using = StreamingList.StreamingListSerializer.class)
+public class StreamingList<T> extends AbstractList<T> implements Closeable {
+
+	// the response for the call being processed by the current thread
+	private static final ThreadLocal<StreamingResponse> RESPONSE =
+			new ThreadLocal<StreamingResponse>();
+
+	private final Iterator<T> items;
+	private final Closeable source;
+	private final StreamingResponse response;
+	private boolean used = false;
+
+	/** Create the list.
+	 * @param source the source of the items.
+	 * @param converter a function to convert the source items to list items.
+	 * @param toClose a resource that will be closed when the list has been
+	 * serialized or closed, usually the source.
+	 */
+	public <S> StreamingList(
+			final Iterator<S> source,
+			final Function<? super S, ? extends T> converter,
+			final Closeable toClose) {
+		this.items = new Iterator<T>() {
+
+			@Override
+			public boolean hasNext() {
+				return source.hasNext();
+			}
+
+			@Override
+			public T next() {
+				return converter.apply(source.next());
+			}
+		};
+		this.source = toClose;
+		response = RESPONSE.get();
+		if (response != null) {
+			response.lists.add(this);
+		}
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		if (used) {
+			throw new IllegalStateException(
+					"A streaming list may only be iterated once");
+		}
+		used = true;
+		return items;
+	}
+
+	@Override
+	public T get(final int index) {
+		throw new UnsupportedOperationException(
+				"A streaming list does not support random access");
+	}
+
+	@Override
+	public int size() {
+		throw new UnsupportedOperationException(
+				"A streaming list does not know its size");
+	}
+
+	@Override
+	public String toString() {
+		// the default implementation would consume the list
+		return "StreamingList [used=" + used + "]";
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+	/** Writes each item of a streaming list to the JSON generator as it is
+	 * read from the list's source, then closes the source. If reading or
+	 * writing an item fails, the response is aborted.
+	 */
+	public static class StreamingListSerializer
+			extends JsonSerializer<StreamingList<?>> {
+
+		@Override
+		public void serialize(
+				final StreamingList<?> list,
+				final JsonGenerator jgen,
+				final SerializerProvider provider)
+				throws IOException {
+			try {
+				jgen.writeStartArray();
+				final Iterator<?> it = list.iterator();
+				while (it.hasNext()) {
+					provider.defaultSerializeValue(it.next(), jgen);
+				}
+				jgen.writeEndArray();
+			} catch (IOException | RuntimeException e) {
+				// don't let the generator close the open arrays and objects
+				jgen.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+				if (list.response != null) {
+					list.response.abort(e);
+				}
+				throw e;
+			} finally {
+				list.close();
+			}
+		}
+	}
+
+	/** A response to a single JSON-RPC call that may contain a streaming
+	 * list. Streaming lists created by the thread that creates the response
+	 * are associated with the response until it is closed.
+	 *
+	 * If serializing a list fails, the response is aborted and any further
+	 * output, including the error the JSON-RPC server writes, is discarded.
+	 * The response is never closed once aborted, and the caller should then
+	 * throw an exception so that the server drops the connection.
+	 */
+	public static class StreamingResponse extends HttpServletResponseWrapper
+			implements Closeable {
+
+		private final List<StreamingList<?>> lists =
+				new LinkedList<StreamingList<?>>();
+		private ServletOutputStream out = null;
+		private Exception abortCause = null;
+
+		/** Create the response and associate it with the current thread.
+		 * @param response the response to wrap.
+		 */
+		public StreamingResponse(final HttpServletResponse response) {
+			super(response);
+			RESPONSE.set(this);
+		}
+
+		private void abort(final Exception cause) {
+			abortCause = cause;
+		}
+
+		/** Get the exception that caused the response to be aborted.
+		 * @return the exception, or null if the response was not aborted.
+		 */
+		public Exception getAbortCause() {
+			return abortCause;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (out == null) {
+				final ServletOutputStream os = super.getOutputStream();
+				out = new ServletOutputStream() {
+
+					@Override
+					public void write(final int b) throws IOException {
+						if (abortCause == null) {
+							os.write(b);
+						}
+					}
+
+					@Override
+					public void write(
+							final byte[] b,
+							final int off,
+							final int len)
+							throws IOException {
+						if (abortCause == null) {
+							os.write(b, off, len);
+						}
+					}
+
+					@Override
+					public void flush() throws IOException {
+						if (abortCause == null) {
+							os.flush();
+						}
+					}
+
+					@Override
+					public void close() throws IOException {
+						if (abortCause == null) {
+							os.close();
+						}
+					}
+				};
+			}
+			return out;
+		}
+
+		/** Close any streaming lists that were never serialized and
+		 * disassociate the response from the current thread.
+		 * @throws IOException if a list could not be closed.
+		 */
+		@Override
+		public void close() throws IOException {
+			RESPONSE.remove();
+			for (final StreamingList<?> l: lists) {
+				l.close();
+			}
+		}
+	}
+}
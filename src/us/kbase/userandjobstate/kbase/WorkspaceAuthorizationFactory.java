@@ -1,11 +1,11 @@
 package us.kbase.userandjobstate.kbase;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -19,49 +19,62 @@ import us.kbase.userandjobstate.authorization.AuthorizationStrategy;
 import us.kbase.userandjobstate.authorization.UJSAuthorizer;
 import us.kbase.userandjobstate.authorization.exceptions.UJSAuthorizationException;
 import us.kbase.userandjobstate.jobstate.Job;
-import us.kbase.workspace.GetPermissionsMassParams;
 import us.kbase.workspace.WorkspaceClient;
-import us.kbase.workspace.WorkspaceIdentity;
 
 /** A factory for a UJS authorizer that uses the workspace as an authorization
  * source.
  * @author gaprice@lbl.gov
  *
  */
-public class WorkspaceAuthorizationFactory {
+public class WorkspaceAuthorizationFactory implements Closeable {
 	
-	//TODO ZZLATER add static cache
 	//TODO ZZLATER should add retries to the auth client
 
 	public static final AuthorizationStrategy WS_AUTH =
 			new AuthorizationStrategy("kbaseworkspace");
 	
-	private final URL wsURL;
-	private final boolean insecure;
+	private final WorkspacePermissionsClient client;
+	private final WorkspacePermissionCache cache;
 	
-	/** Construct the factory.
+	/** Construct the factory. Workspace permissions are not cached.
 	 * @param workspaceURL the url of the workspace to contact.
 	 * @throws JsonClientException if a workspace client exception occurs.
 	 * @throws IOException if an IO exception occurs.
 	 */
 	public WorkspaceAuthorizationFactory(final URL workspaceURL)
 			throws IOException, JsonClientException {
+		this(workspaceURL, new WorkspacePermissionCache(0, 1));
+	}
+	
+	/** Construct the factory.
+	 * @param workspaceURL the url of the workspace to contact.
+	 * @param cache a cache for workspace permissions, shared between all the
+	 * authorizers built by this factory.
+	 * @throws JsonClientException if a workspace client exception occurs.
+	 * @throws IOException if an IO exception occurs.
+	 */
+	public WorkspaceAuthorizationFactory(
+			final URL workspaceURL,
+			final WorkspacePermissionCache cache)
+			throws IOException, JsonClientException {
 		if (workspaceURL == null) {
 			throw new NullPointerException("workspaceURL");
 		}
+		if (cache == null) {
+			throw new NullPointerException("cache");
+		}
+		this.cache = cache;
 		final Logger l = LoggerFactory.getLogger(getClass());
 		
-		wsURL = workspaceURL;
-		if (!wsURL.getProtocol().equals("https")) {
-			insecure = true;
-			LoggerFactory.getLogger(getClass()).warn("The workspace url " +
-				wsURL + " is not secure. Use an https:// url if possible.");
-		} else {
-			insecure = false;
+		if (!workspaceURL.getProtocol().equals("https")) {
+			l.warn("The workspace url " + workspaceURL +
+					" is not secure. Use an https:// url if possible.");
 		}
 		 //test the url is ok and log
 		l.info("Connected to Workspace Service v" +
-				new WorkspaceClient(wsURL).ver() + " at " + wsURL);
+				new WorkspaceClient(workspaceURL).ver() + " at " +
+				workspaceURL);
+		client = new WorkspacePermissionsClient(workspaceURL);
 	}
 	
 	/** Get an authorizer using the given token.
@@ -75,7 +88,22 @@ public class WorkspaceAuthorizationFactory {
 		if (token == null) {
 			throw new NullPointerException("token");
 		}
-		return new WorkspaceAuthorizer(wsURL, token, insecure);
+		return new WorkspaceAuthorizer(client, token, cache);
+	}
+	
+	/** Get the workspace permission cache used by this factory.
+	 * @return the cache.
+	 */
+	public WorkspacePermissionCache getPermissionCache() {
+		return cache;
+	}
+	
+	/** Close the workspace client and its pooled connections. Authorizers
+	 * built by this factory can no longer be used.
+	 */
+	@Override
+	public void close() throws IOException {
+		client.close();
 	}
 	
 	private static void checkStrat(final AuthorizationStrategy strat)
@@ -93,22 +121,23 @@ public class WorkspaceAuthorizationFactory {
 		private static final List<String> CAN_WRITE =
 				Collections.unmodifiableList(Arrays.asList("w", "a"));
 		private static final String ADMIN = "a";
-		private static final String GLOBAL_USER = "*";
+		private static final String GLOBAL_USER =
+				WorkspacePermissionCache.GLOBAL_USER;
 		private static final int MAX_WS_COUNT = 10;
 		
-		private WorkspaceClient client;
-		private String username;
+		private final WorkspacePermissionsClient client;
+		private final AuthToken token;
+		private final String username;
+		private final WorkspacePermissionCache cache;
 		
 		private WorkspaceAuthorizer(
-				final URL wsURL,
+				final WorkspacePermissionsClient client,
 				final AuthToken token,
-				final boolean insecure)
-				throws UnauthorizedException, IOException {
+				final WorkspacePermissionCache cache) {
+			this.client = client;
+			this.token = token;
+			this.cache = cache;
 			username = token.getUserName();
-			client = new WorkspaceClient(wsURL, token);
-			if (insecure) {
-				client.setIsInsecureHttpConnectionAllowed(true);
-			}
 		}
 		
 		private void checkWSUser(final String user) {
@@ -146,14 +175,14 @@ public class WorkspaceAuthorizationFactory {
 
 		private List<Map<String, String>> getPerms(final List<String> wsids)
 				throws UJSAuthorizationException {
-			final List<WorkspaceIdentity> wsis =
-					new LinkedList<WorkspaceIdentity>();
-			for (final Long id: parseWsid(wsids)) {
-				wsis.add(new WorkspaceIdentity().withId(id.longValue()));
-			}
+			return cache.getPermissions(
+					username, parseWsid(wsids), ids -> fetchPerms(ids));
+		}
+		
+		private List<Map<String, String>> fetchPerms(final List<Long> wsids)
+				throws UJSAuthorizationException {
 			try {
-				return client.getPermissionsMass(new GetPermissionsMassParams()
-					.withWorkspaces(wsis)).getPerms();
+				return client.getPermissions(token, wsids);
 			} catch (IOException | JsonClientException e) {
 				throw new UJSAuthorizationException(
 						"Error contacting the workspace service to get permissions: " +
@@ -0,0 +1,196 @@
+package us.kbase.userandjobstate.kbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import us.kbase.userandjobstate.authorization.exceptions.UJSAuthorizationException;
+
+/** A size bounded cache of workspace permissions, keyed by user and workspace
+ * ID, so that repeatedly authorizing access to the same workspace (for
+ * example, when a client polls a job) doesn't require a call to the
+ * workspace service each time. Entries expire a fixed time after they were
+ * fetched from the workspace, and so permission changes may take up to that
+ * time to be reflected in authorization decisions.
+ *
+ * Permissions that deny access are cached in the same way as those that
+ * grant access. Errors from the workspace service are not cached.
+ */
+public class WorkspacePermissionCache {
+
+	/** The key for the permissions granted to all users. */
+	public static final String GLOBAL_USER = "*";
+
+	/** Fetches permissions from the workspace service. */
+	public interface PermissionsFetcher {
+
+		/** Fetch permissions for a set of workspaces.
+		 * @param wsids the IDs of the workspaces.
+		 * @return the permissions for each workspace, in the same order as
+		 * the IDs, as a mapping of user name to permission.
+		 * @throws UJSAuthorizationException if the permissions could not be
+		 * fetched.
+		 */
+		List<Map<String, String>> fetch(List<Long> wsids)
+				throws UJSAuthorizationException;
+	}
+
+	private static class Key {
+
+		private final String user;
+		private final long wsid;
+
+		private Key(final String user, final long wsid) {
+			this.user = user;
+			this.wsid = wsid;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + user.hashCode();
+			result = prime * result + (int) (wsid ^ (wsid >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return wsid == other.wsid && user.equals(other.user);
+		}
+	}
+
+	private final Cache<Key, Map<String, String>> cache;
+
+	/** Create the cache.
+	 * @param maxSize the maximum number of user / workspace permission
+	 * entries to cache. 0 disables caching.
+	 * @param expirationSec the number of seconds after an entry is fetched
+	 * from the workspace that it expires from the cache.
+	 */
+	public WorkspacePermissionCache(
+			final int maxSize,
+			final int expirationSec) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException(
+					"maxSize cannot be negative");
+		}
+		if (expirationSec < 1) {
+			throw new IllegalArgumentException(
+					"expirationSec must be at least 1");
+		}
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(expirationSec, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/** Get a user's permissions for a set of workspaces. Only the workspaces
+	 * that are not in the cache are fetched from the workspace service.
+	 * @param user the user for which to get permissions.
+	 * @param wsids the IDs of the workspaces.
+	 * @param fetcher a fetcher for permissions that are not in the cache.
+	 * The fetcher must fetch permissions on behalf of the user.
+	 * @return the permissions for each workspace, in the same order as the
+	 * IDs. Each mapping contains, at most, the user's permission and the
+	 * permission granted to all users under the key {@link #GLOBAL_USER}.
+	 * @throws UJSAuthorizationException if the permissions could not be
+	 * fetched.
+	 */
+	public List<Map<String, String>> getPermissions(
+			final String user,
+			final List<Long> wsids,
+			final PermissionsFetcher fetcher)
+			throws UJSAuthorizationException {
+		if (user == null || user.isEmpty()) {
+			throw new IllegalArgumentException(
+					"user cannot be null or the empty string");
+		}
+		if (wsids == null) {
+			throw new NullPointerException("wsids");
+		}
+		if (fetcher == null) {
+			throw new NullPointerException("fetcher");
+		}
+		final Map<Long, Map<String, String>> perms =
+				new HashMap<Long, Map<String, String>>();
+		final LinkedHashSet<Long> missing = new LinkedHashSet<Long>();
+		for (final Long id: wsids) {
+			final Map<String, String> p = cache.getIfPresent(
+					new Key(user, id));
+			if (p == null) {
+				missing.add(id);
+			} else {
+				perms.put(id, p);
+			}
+		}
+		if (!missing.isEmpty()) {
+			final List<Long> fetchIDs = new ArrayList<Long>(missing);
+			final List<Map<String, String>> fetched =
+					fetcher.fetch(fetchIDs);
+			for (int i = 0; i < fetchIDs.size(); i++) {
+				final Map<String, String> p = reduce(user, fetched.get(i));
+				cache.put(new Key(user, fetchIDs.get(i)), p);
+				perms.put(fetchIDs.get(i), p);
+			}
+		}
+		final List<Map<String, String>> ret =
+				new ArrayList<Map<String, String>>();
+		for (final Long id: wsids) {
+			ret.add(perms.get(id));
+		}
+		return ret;
+	}
+
+	// only keep the permissions relevant to the user to save space
+	private Map<String, String> reduce(
+			final String user,
+			final Map<String, String> perms) {
+		final Map<String, String> ret = new HashMap<String, String>();
+		if (perms.containsKey(user)) {
+			ret.put(user, perms.get(user));
+		}
+		if (perms.containsKey(GLOBAL_USER)) {
+			ret.put(GLOBAL_USER, perms.get(GLOBAL_USER));
+		}
+		return Collections.unmodifiableMap(ret);
+	}
+
+	/** Get the number of workspace permission lookups that were served from
+	 * the cache.
+	 * @return the number of cache hits.
+	 */
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	/** Get the number of workspace permission lookups that were not in the
+	 * cache.
+	 * @return the number of cache misses.
+	 */
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	/** Get the approximate number of entries in the cache.
+	 * @return the cache size.
+	 */
+	public long size() {
+		return cache.size();
+	}
+}
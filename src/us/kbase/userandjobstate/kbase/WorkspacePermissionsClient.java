@@ -0,0 +1,214 @@
+package us.kbase.userandjobstate.kbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.ServerException;
+import us.kbase.userandjobstate.metrics.Metrics;
+
+/** A thread safe client for the workspace get_permissions_mass method that
+ * is shared between all users. Connections to the workspace are pooled and
+ * kept alive between calls, and the user's token is supplied with each call,
+ * so no per-user client construction or connection setup is required.
+ */
+public class WorkspacePermissionsClient implements Closeable {
+
+	/* calls beyond this number wait for a free connection for up to the
+	 * connect timeout
+	 */
+	private static final int MAX_CONNECTIONS = 100;
+
+	/** The connection timeout, matching the standard KBase client. */
+	public static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+	/** The read timeout, matching the standard KBase client. */
+	public static final int READ_TIMEOUT_MS = 30 * 60 * 1000;
+
+	private static final String GET_PERMS = "Workspace.get_permissions_mass";
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final URL wsURL;
+	private final CloseableHttpClient client;
+
+	/** Create the client.
+	 * @param workspaceURL the url of the workspace.
+	 */
+	public WorkspacePermissionsClient(final URL workspaceURL) {
+		if (workspaceURL == null) {
+			throw new NullPointerException("workspaceURL");
+		}
+		wsURL = workspaceURL;
+		final PoolingHttpClientConnectionManager cm =
+				new PoolingHttpClientConnectionManager();
+		// all connections go to the same route
+		cm.setMaxTotal(MAX_CONNECTIONS);
+		cm.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+		client = HttpClients.custom()
+				.setConnectionManager(cm)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(CONNECT_TIMEOUT_MS)
+						.setConnectionRequestTimeout(CONNECT_TIMEOUT_MS)
+						.setSocketTimeout(READ_TIMEOUT_MS)
+						.build())
+				.build();
+	}
+
+	/** Get the workspace url.
+	 * @return the url.
+	 */
+	public URL getURL() {
+		return wsURL;
+	}
+
+	/** Get the permissions for a set of workspaces.
+	 * @param token the token of the user on whose behalf the permissions are
+	 * requested.
+	 * @param wsids the ids of the workspaces.
+	 * @return the permissions for each workspace, in the same order as the
+	 * ids, as a mapping of user name to permission.
+	 * @throws IOException if an IO error occurs.
+	 * @throws JsonClientException if the workspace returns an error.
+	 */
+	public List<Map<String, String>> getPermissions(
+			final AuthToken token,
+			final List<Long> wsids)
+			throws IOException, JsonClientException {
+		if (token == null) {
+			throw new NullPointerException("token");
+		}
+		if (wsids == null) {
+			throw new NullPointerException("wsids");
+		}
+		final List<Map<String, Object>> wsis =
+				new LinkedList<Map<String, Object>>();
+		for (final Long id: wsids) {
+			final Map<String, Object> wsi = new HashMap<String, Object>();
+			wsi.put("id", id);
+			wsis.add(wsi);
+		}
+		final Map<String, Object> params = new HashMap<String, Object>();
+		params.put("workspaces", wsis);
+		final JsonNode result = call(
+				token, GET_PERMS, Arrays.<Object>asList(params));
+		final JsonNode perms = result.get(0).get("perms");
+		if (perms == null || !perms.isArray() ||
+				perms.size() != wsids.size()) {
+			throw new JsonClientException(
+					"Invalid permissions returned from the workspace");
+		}
+		final List<Map<String, String>> ret =
+				new LinkedList<Map<String, String>>();
+		for (final JsonNode p: perms) {
+			final Map<String, String> m = new HashMap<String, String>();
+			final Iterator<Map.Entry<String, JsonNode>> fields =
+					p.fields();
+			while (fields.hasNext()) {
+				final Map.Entry<String, JsonNode> f = fields.next();
+				m.put(f.getKey(), f.getValue().asText());
+			}
+			ret.add(m);
+		}
+		return ret;
+	}
+
+	private JsonNode call(
+			final AuthToken token,
+			final String method,
+			final List<Object> params)
+			throws IOException, JsonClientException {
+		final long start = System.nanoTime();
+		boolean error = true;
+		try {
+			final JsonNode ret = doCall(token, method, params);
+			error = false;
+			return ret;
+		} finally {
+			Metrics.getInstance().recordCall(Metrics.WORKSPACE, method,
+					System.nanoTime() - start, error);
+		}
+	}
+
+	private JsonNode doCall(
+			final AuthToken token,
+			final String method,
+			final List<Object> params)
+			throws IOException, JsonClientException {
+		final Map<String, Object> req = new HashMap<String, Object>();
+		req.put("version", "1.1");
+		req.put("method", method);
+		req.put("params", params);
+		req.put("id", UUID.randomUUID().toString());
+		final HttpPost post;
+		try {
+			post = new HttpPost(wsURL.toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(
+					"The workspace url is not a valid URI: " + wsURL, e);
+		}
+		post.setHeader("Authorization", token.getToken());
+		post.setEntity(new ByteArrayEntity(MAPPER.writeValueAsBytes(req),
+				ContentType.APPLICATION_JSON));
+		final JsonNode resp;
+		final int code;
+		try (final CloseableHttpResponse res = client.execute(post)) {
+			code = res.getStatusLine().getStatusCode();
+			final String body = res.getEntity() == null ? "" :
+				EntityUtils.toString(res.getEntity());
+			try {
+				resp = MAPPER.readTree(body);
+			} catch (IOException e) {
+				throw new JsonClientException(String.format(
+						"Unparseable response from the workspace, HTTP " +
+						"code %s: %s", code, body), e);
+			}
+		}
+		if (resp == null || !resp.isObject()) {
+			throw new JsonClientException(String.format(
+					"Invalid response from the workspace, HTTP code %s",
+					code));
+		}
+		final JsonNode err = resp.get("error");
+		if (err != null && !err.isNull()) {
+			throw new ServerException(
+					err.path("message").asText(),
+					err.path("code").asInt(),
+					err.path("name").asText(),
+					err.path("error").asText());
+		}
+		final JsonNode result = resp.get("result");
+		if (result == null || !result.isArray() || result.size() < 1) {
+			throw new JsonClientException(String.format(
+					"The workspace returned no result, HTTP code %s", code));
+		}
+		return result;
+	}
+
+	/** Close the client and all pooled connections. */
+	@Override
+	public void close() throws IOException {
+		client.close();
+	}
+}
@@ -0,0 +1,148 @@
+package us.kbase.userandjobstate.metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A latency histogram with fixed buckets spaced in a 1-2.5-5 sequence from
+ * 100 microseconds to 60 seconds. Recording a latency is lock free and does
+ * not allocate, so the histogram can be updated on every request.
+ */
+public class LatencyHistogram {
+
+	// inclusive upper bounds of the buckets. A final bucket holds everything
+	// larger.
+	private static final long[] BOUNDS_NS = {
+			100_000L, 250_000L, 500_000L,
+			1_000_000L, 2_500_000L, 5_000_000L,
+			10_000_000L, 25_000_000L, 50_000_000L,
+			100_000_000L, 250_000_000L, 500_000_000L,
+			1_000_000_000L, 2_500_000_000L, 5_000_000_000L,
+			10_000_000_000L, 30_000_000_000L, 60_000_000_000L};
+
+	private final LongAdder[] buckets = new LongAdder[BOUNDS_NS.length + 1];
+	private final LongAdder sumNS = new LongAdder();
+
+	/** Create an empty histogram. */
+	public LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/** Get the inclusive upper bounds of the buckets, excluding the final
+	 * unbounded bucket.
+	 * @return the bounds in seconds.
+	 */
+	public static List<Double> getBucketBoundsSeconds() {
+		final List<Double> ret = new LinkedList<Double>();
+		for (final long b: BOUNDS_NS) {
+			ret.add(b / 1e9);
+		}
+		return Collections.unmodifiableList(ret);
+	}
+
+	/** Record a latency.
+	 * @param nanos the latency in nanoseconds. Negative values are recorded
+	 * as 0.
+	 */
+	public void record(final long nanos) {
+		final long n = nanos < 0 ? 0 : nanos;
+		final int i = Arrays.binarySearch(BOUNDS_NS, n);
+		buckets[i < 0 ? -i - 1 : i].increment();
+		sumNS.add(n);
+	}
+
+	/** Get a snapshot of the histogram. Latencies recorded while the
+	 * snapshot is taken may or may not be included.
+	 * @return the snapshot.
+	 */
+	public Snapshot snapshot() {
+		final long[] counts = new long[buckets.length];
+		for (int i = 0; i < buckets.length; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return new Snapshot(counts, sumNS.sum());
+	}
+
+	/** A point in time copy of a histogram. */
+	public static class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sumNS;
+
+		private Snapshot(final long[] counts, final long sumNS) {
+			this.counts = counts;
+			long c = 0;
+			for (final long b: counts) {
+				c += b;
+			}
+			this.count = c;
+			this.sumNS = sumNS;
+		}
+
+		/** Get the number of recorded latencies.
+		 * @return the count.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/** Get the sum of the recorded latencies.
+		 * @return the sum in seconds.
+		 */
+		public double getSumSeconds() {
+			return sumNS / 1e9;
+		}
+
+		/** Get the mean of the recorded latencies.
+		 * @return the mean in seconds, or 0 if no latencies are recorded.
+		 */
+		public double getMeanSeconds() {
+			return count == 0 ? 0 : sumNS / 1e9 / count;
+		}
+
+		/** Get the number of latencies less than or equal to the upper bound
+		 * of a bucket.
+		 * @param bucket the index of the bucket, corresponding to the index of
+		 * the bound in {@link LatencyHistogram#getBucketBoundsSeconds()}.
+		 * The index one past the last bound returns the total count.
+		 * @return the cumulative count.
+		 */
+		public long getCumulativeCount(final int bucket) {
+			long c = 0;
+			for (int i = 0; i <= bucket; i++) {
+				c += counts[i];
+			}
+			return c;
+		}
+
+		/** Estimate a quantile of the recorded latencies as the upper bound of
+		 * the bucket containing the quantile. Quantiles in the final unbounded
+		 * bucket are reported as the largest bound.
+		 * @param quantile the quantile, between 0 and 1.
+		 * @return the estimate in seconds, or 0 if no latencies are recorded.
+		 */
+		public double getQuantileSeconds(final double quantile) {
+			if (quantile < 0 || quantile > 1) {
+				throw new IllegalArgumentException(
+						"quantile must be between 0 and 1");
+			}
+			if (count == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long c = 0;
+			for (int i = 0; i < BOUNDS_NS.length; i++) {
+				c += counts[i];
+				if (c >= rank) {
+					return BOUNDS_NS[i] / 1e9;
+				}
+			}
+			return BOUNDS_NS[BOUNDS_NS.length - 1] / 1e9;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package us.kbase.userandjobstate.metrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Latency and error metrics for the service's RPC methods and the calls
+ * they make to other systems - MongoDB, the authentication service, and the
+ * workspace service. Metrics are exposed in the Prometheus text format via
+ * {@link #writePrometheus(Appendable)} and summarized via
+ * {@link #getSummary()}.
+ *
+ * The server uses the single JVM wide instance from {@link #getInstance()}.
+ */
+public class Metrics {
+
+	public static final String MONGO = "mongo";
+	public static final String AUTH = "auth";
+	public static final String WORKSPACE = "workspace";
+
+	private static final String PREFIX = "ujs_";
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	private final ConcurrentHashMap<String, LatencyHistogram> rpcs =
+			new ConcurrentHashMap<String, LatencyHistogram>();
+	private final ConcurrentHashMap<String, LongAdder> rpcErrors =
+			new ConcurrentHashMap<String, LongAdder>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	// keyed by [system, operation]
+	private final ConcurrentHashMap<List<String>, LatencyHistogram> calls =
+			new ConcurrentHashMap<List<String>, LatencyHistogram>();
+	private final ConcurrentHashMap<List<String>, LongAdder> callErrors =
+			new ConcurrentHashMap<List<String>, LongAdder>();
+
+	/** Get the JVM wide metrics instance.
+	 * @return the metrics.
+	 */
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	/** Record that an RPC has started. Must be followed by a call to
+	 * {@link #rpcFinished(String, long, boolean)}.
+	 */
+	public void rpcStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	/** Record that an RPC has finished.
+	 * @param method the name of the RPC method. The caller is responsible for
+	 * ensuring the number of distinct names is bounded.
+	 * @param nanos the duration of the RPC in nanoseconds.
+	 * @param error true if the RPC failed.
+	 */
+	public void rpcFinished(
+			final String method,
+			final long nanos,
+			final boolean error) {
+		inFlight.decrementAndGet();
+		rpcs.computeIfAbsent(method, k -> new LatencyHistogram())
+				.record(nanos);
+		if (error) {
+			rpcErrors.computeIfAbsent(method, k -> new LongAdder())
+					.increment();
+		}
+	}
+
+	/** Record a call to another system.
+	 * @param system the system called, e.g. {@link #MONGO}.
+	 * @param operation the operation performed. The caller is responsible for
+	 * ensuring the number of distinct operations is bounded.
+	 * @param nanos the duration of the call in nanoseconds.
+	 * @param error true if the call failed.
+	 */
+	public void recordCall(
+			final String system,
+			final String operation,
+			final long nanos,
+			final boolean error) {
+		final List<String> key = Arrays.asList(system, operation);
+		calls.computeIfAbsent(key, k -> new LatencyHistogram()).record(nanos);
+		if (error) {
+			callErrors.computeIfAbsent(key, k -> new LongAdder()).increment();
+		}
+	}
+
+	/** Get the number of RPCs currently in progress.
+	 * @return the number of RPCs.
+	 */
+	public int getRPCsInFlight() {
+		return inFlight.get();
+	}
+
+	/** Write the metrics in the Prometheus text exposition format.
+	 * @param out the destination for the metrics.
+	 * @throws IOException if an IO error occurs.
+	 */
+	public void writePrometheus(final Appendable out) throws IOException {
+		final String rpcName = PREFIX + "rpc_duration_seconds";
+		writeHeader(out, rpcName, "histogram",
+				"Duration of JSON-RPC method calls.");
+		for (final Map.Entry<String, LatencyHistogram> e:
+				new TreeMap<String, LatencyHistogram>(rpcs).entrySet()) {
+			writeHistogram(out, rpcName, "method=\"" + escape(e.getKey()) + "\"",
+					e.getValue().snapshot());
+		}
+		final String rpcErrName = PREFIX + "rpc_errors_total";
+		writeHeader(out, rpcErrName, "counter",
+				"Number of JSON-RPC method calls that failed.");
+		for (final String method: new TreeMap<String, LatencyHistogram>(rpcs)
+				.keySet()) {
+			final LongAdder errs = rpcErrors.get(method);
+			out.append(rpcErrName).append("{method=\"")
+					.append(escape(method)).append("\"} ")
+					.append(String.valueOf(errs == null ? 0 : errs.sum()))
+					.append("\n");
+		}
+		final String inFlightName = PREFIX + "rpc_in_flight";
+		writeHeader(out, inFlightName, "gauge",
+				"Number of JSON-RPC method calls in progress.");
+		out.append(inFlightName).append(" ")
+				.append(String.valueOf(inFlight.get())).append("\n");
+
+		final Map<String, List<String>> sortedCalls = sortedCalls();
+		final String callName = PREFIX + "call_duration_seconds";
+		writeHeader(out, callName, "histogram",
+				"Duration of calls to MongoDB and other services.");
+		for (final List<String> key: sortedCalls.values()) {
+			writeHistogram(out, callName, callLabels(key),
+					calls.get(key).snapshot());
+		}
+		final String callErrName = PREFIX + "call_errors_total";
+		writeHeader(out, callErrName, "counter",
+				"Number of calls to MongoDB and other services that failed.");
+		for (final List<String> key: sortedCalls.values()) {
+			final LongAdder errs = callErrors.get(key);
+			out.append(callErrName).append("{").append(callLabels(key))
+					.append("} ")
+					.append(String.valueOf(errs == null ? 0 : errs.sum()))
+					.append("\n");
+		}
+	}
+
+	private Map<String, List<String>> sortedCalls() {
+		final Map<String, List<String>> ret =
+				new TreeMap<String, List<String>>();
+		for (final List<String> key: calls.keySet()) {
+			ret.put(key.get(0) + "." + key.get(1), key);
+		}
+		return ret;
+	}
+
+	private static String callLabels(final List<String> key) {
+		return "system=\"" + escape(key.get(0)) + "\",operation=\"" +
+				escape(key.get(1)) + "\"";
+	}
+
+	private static void writeHeader(
+			final Appendable out,
+			final String name,
+			final String type,
+			final String help)
+			throws IOException {
+		out.append("# HELP ").append(name).append(" ").append(help)
+				.append("\n");
+		out.append("# TYPE ").append(name).append(" ").append(type)
+				.append("\n");
+	}
+
+	private static void writeHistogram(
+			final Appendable out,
+			final String name,
+			final String labels,
+			final LatencyHistogram.Snapshot s)
+			throws IOException {
+		final List<Double> bounds = LatencyHistogram.getBucketBoundsSeconds();
+		for (int i = 0; i < bounds.size(); i++) {
+			out.append(name).append("_bucket{").append(labels)
+					.append(",le=\"").append(String.valueOf(bounds.get(i)))
+					.append("\"} ")
+					.append(String.valueOf(s.getCumulativeCount(i)))
+					.append("\n");
+		}
+		out.append(name).append("_bucket{").append(labels)
+				.append(",le=\"+Inf\"} ")
+				.append(String.valueOf(s.getCount())).append("\n");
+		out.append(name).append("_sum{").append(labels).append("} ")
+				.append(String.valueOf(s.getSumSeconds())).append("\n");
+		out.append(name).append("_count{").append(labels).append("} ")
+				.append(String.valueOf(s.getCount())).append("\n");
+	}
+
+	private static String escape(final String labelValue) {
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"")
+				.replace("\n", "\\n");
+	}
+
+	/** Summarize the metrics for the service status method. Latencies are in
+	 * milliseconds, and quantiles are estimated from the histogram buckets.
+	 * @return the summary.
+	 */
+	public Map<String, Object> getSummary() {
+		final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("rpcs_in_flight", inFlight.get());
+		final Map<String, Object> r = new TreeMap<String, Object>();
+		for (final Map.Entry<String, LatencyHistogram> e: rpcs.entrySet()) {
+			final LongAdder errs = rpcErrors.get(e.getKey());
+			r.put(e.getKey(), summarize(e.getValue().snapshot(),
+					errs == null ? 0 : errs.sum()));
+		}
+		ret.put("rpcs", r);
+		final Map<String, Object> c = new LinkedHashMap<String, Object>();
+		for (final Map.Entry<String, List<String>> e:
+				sortedCalls().entrySet()) {
+			final LongAdder errs = callErrors.get(e.getValue());
+			c.put(e.getKey(), summarize(calls.get(e.getValue()).snapshot(),
+					errs == null ? 0 : errs.sum()));
+		}
+		ret.put("calls", c);
+		return ret;
+	}
+
+	private static Map<String, Object> summarize(
+			final LatencyHistogram.Snapshot s,
+			final long errors) {
+		final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("count", s.getCount());
+		ret.put("errors", errors);
+		ret.put("mean_ms", s.getMeanSeconds() * 1000);
+		ret.put("p50_ms", s.getQuantileSeconds(0.5) * 1000);
+		ret.put("p95_ms", s.getQuantileSeconds(0.95) * 1000);
+		ret.put("p99_ms", s.getQuantileSeconds(0.99) * 1000);
+		return ret;
+	}
+}
@@ -0,0 +1,31 @@
+package us.kbase.userandjobstate.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Serves the JVM wide {@link Metrics} as plain text in the Prometheus text
+ * exposition format.
+ */
+public class MetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	@Override
+	protected void doGet(
+			final HttpServletRequest request,
+			final HttpServletResponse response)
+			throws ServletException, IOException {
+		response.setContentType(CONTENT_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		final PrintWriter w = response.getWriter();
+		Metrics.getInstance().writePrometheus(w);
+		w.flush();
+	}
+}
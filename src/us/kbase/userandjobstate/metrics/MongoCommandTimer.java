@@ -0,0 +1,43 @@
+package us.kbase.userandjobstate.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+/** Records the duration of every command sent to MongoDB by a client,
+ * using the elapsed times measured by the driver.
+ */
+public class MongoCommandTimer implements CommandListener {
+
+	private final Metrics metrics;
+
+	/** Create the timer.
+	 * @param metrics the metrics in which to record command durations.
+	 */
+	public MongoCommandTimer(final Metrics metrics) {
+		if (metrics == null) {
+			throw new NullPointerException("metrics");
+		}
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void commandStarted(final CommandStartedEvent event) {
+		// the elapsed time is provided on completion
+	}
+
+	@Override
+	public void commandSucceeded(final CommandSucceededEvent event) {
+		metrics.recordCall(Metrics.MONGO, event.getCommandName(),
+				event.getElapsedTime(TimeUnit.NANOSECONDS), false);
+	}
+
+	@Override
+	public void commandFailed(final CommandFailedEvent event) {
+		metrics.recordCall(Metrics.MONGO, event.getCommandName(),
+				event.getElapsedTime(TimeUnit.NANOSECONDS), true);
+	}
+}
@@ -63,7 +63,7 @@ public class FakeJob {
 		canceledby = j.getCanceledBy();
 		isCanceled = j.isCanceled();
 		error = j.hasError();
-		errormsg = j.getErrorMsg();
+		errormsg = null; // error messages are retrieved separately
 		results = j.getResults();
 		authstrat = j.getAuthorizationStrategy();
 		authparam = j.getAuthorizationParameter();
@@ -14,14 +14,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
 
 import us.kbase.common.exceptions.UnimplementedException;
 import us.kbase.common.schemamanager.SchemaManager;
@@ -50,10 +50,12 @@ public class AuthorizationTest {
 				Paths.get(TestCommon.getTempDir()));
 		System.out.println("Using Mongo temp dir " + mongo.getTempDir());
 		
-		final DB db = new MongoClient("localhost:" + mongo.getServerPort()).getDB(DB_NAME);
-		DBCollection jobcol = db.getCollection("jobstate");
-		DBCollection schemacol = db.getCollection("schema");
-		js = new JobState(jobcol, new SchemaManager(schemacol));
+		final MongoClient mc = new MongoClient("localhost:" + mongo.getServerPort());
+		MongoCollection<Document> jobcol =
+				mc.getDatabase(DB_NAME).getCollection("jobstate");
+		MongoCollection<Document> schemacol =
+				mc.getDatabase(DB_NAME).getCollection("schema");
+		js = JobState.getBuilder(jobcol, new SchemaManager(schemacol)).build();
 				
 	}
 	
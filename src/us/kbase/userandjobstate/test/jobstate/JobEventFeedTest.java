@@ -0,0 +1,293 @@
+package us.kbase.userandjobstate.test.jobstate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import us.kbase.common.schemamanager.SchemaManager;
+import us.kbase.common.test.TestCommon;
+import us.kbase.common.test.controllers.mongo.MongoController;
+import us.kbase.userandjobstate.jobstate.JobEventFeed;
+import us.kbase.userandjobstate.jobstate.JobEventFeed.FeedEvent;
+import us.kbase.userandjobstate.jobstate.JobEventFeed.Subscription;
+import us.kbase.userandjobstate.jobstate.JobEventLog;
+import us.kbase.userandjobstate.jobstate.JobState;
+
+/* The event log is a capped collection that is never cleared between tests,
+ * so each test uses its own feed, which only sees events added after it's
+ * created, and its own users.
+ */
+public class JobEventFeedTest {
+
+	private static final String DB_NAME = "JobEventFeedTest";
+
+	private static final long WAIT_MS = 10000;
+
+	private static MongoController mongo;
+	private static MongoClient mc;
+
+	private static MongoDatabase db;
+	private static MongoCollection<Document> jobcol;
+	private static JobState js;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		TestCommon.stfuLoggers();
+		mongo = new MongoController(
+				TestCommon.getMongoExe(),
+				Paths.get(TestCommon.getTempDir()));
+		System.out.println("Using Mongo temp dir " + mongo.getTempDir());
+
+		mc = new MongoClient("localhost:" + mongo.getServerPort());
+		db = mc.getDatabase(DB_NAME);
+		jobcol = db.getCollection("jobstate");
+		js = JobState.getBuilder(jobcol,
+				new SchemaManager(db.getCollection("schema")))
+				.withEventLog(new JobEventLog(db, 100000)).build();
+	}
+
+	@AfterClass
+	public static void tearDownClass() throws Exception {
+		if (mc != null) {
+			mc.close();
+		}
+		if (mongo != null) {
+			mongo.destroy(TestCommon.getDeleteTempFiles());
+		}
+	}
+
+	private void assertJobEvent(final Subscription sub, final String jobID,
+			final String stage) throws Exception {
+		final FeedEvent e = sub.next(WAIT_MS);
+		assertThat("no event", e, notNullValue());
+		assertThat("incorrect job id", e.getJobID(), is(jobID));
+		assertThat("incorrect removed", e.isRemoved(), is(false));
+		assertThat("incorrect job id", e.getJob().getID(), is(jobID));
+		assertThat("incorrect stage", e.getJob().getStage(), is(stage));
+	}
+
+	private void assertRemovedEvent(final Subscription sub, final String jobID)
+			throws Exception {
+		final FeedEvent e = sub.next(WAIT_MS);
+		assertThat("no event", e, notNullValue());
+		assertThat("incorrect job id", e.getJobID(), is(jobID));
+		assertThat("incorrect removed", e.isRemoved(), is(true));
+		assertThat("incorrect job", e.getJob(), nullValue());
+	}
+
+	private void assertNoEvent(final Subscription sub) throws Exception {
+		assertThat("unexpected event", sub.next(100), nullValue());
+	}
+
+	@Test
+	public void ownedAndSharedJobs() throws Exception {
+		final JobEventFeed feed = new JobEventFeed(js, 3);
+		try {
+			final Subscription owner = feed.subscribe("feedowner");
+			final Subscription shared = feed.subscribe("feedshared");
+			final Subscription other = feed.subscribe("feedother");
+			assertThat("incorrect user", owner.getUser(), is("feedowner"));
+			assertThat("incorrect count", feed.getSubscriberCount(), is(3));
+
+			final String id = js.createJob("feedowner");
+			assertJobEvent(owner, id, "created");
+			js.startJob("feedowner", id, "serv", "stat", "desc", null);
+			assertJobEvent(owner, id, "started");
+
+			js.shareJob("feedowner", id, Arrays.asList("feedshared"));
+			assertJobEvent(owner, id, "started");
+			assertJobEvent(shared, id, "started");
+
+			js.updateJob("feedowner", id, "serv", "stat2", null, null);
+			assertJobEvent(owner, id, "started");
+			assertJobEvent(shared, id, "started");
+
+			js.unshareJob("feedowner", id, Arrays.asList("feedshared"));
+			assertJobEvent(owner, id, "started");
+			assertRemovedEvent(shared, id);
+
+			js.completeJob("feedowner", id, "serv", "done", null, null);
+			assertJobEvent(owner, id, "complete");
+
+			js.deleteJob("feedowner", id, (String) null);
+			assertRemovedEvent(owner, id);
+
+			assertNoEvent(owner);
+			assertNoEvent(shared);
+			assertNoEvent(other);
+		} finally {
+			feed.close();
+		}
+	}
+
+	@Test
+	public void deleteSharedJob() throws Exception {
+		final JobEventFeed feed = new JobEventFeed(js, 2);
+		try {
+			final Subscription shared = feed.subscribe("delshared");
+			final String id = js.createAndStartJob(
+					"delowner", "serv", "stat", "desc", null);
+			js.shareJob("delowner", id, Arrays.asList("delshared"));
+			// the job isn't visible to the user until it's shared
+			assertJobEvent(shared, id, "started");
+			js.completeJob("delowner", id, "serv", "done", null, null);
+			assertJobEvent(shared, id, "complete");
+
+			js.deleteJob("delowner", id, (String) null);
+			assertRemovedEvent(shared, id);
+			assertNoEvent(shared);
+		} finally {
+			feed.close();
+		}
+	}
+
+	@Test
+	public void closeSubscription() throws Exception {
+		final JobEventFeed feed = new JobEventFeed(js, 2);
+		try {
+			assertThat("incorrect max", feed.getMaxSubscribers(), is(2));
+			final Subscription s1 = feed.subscribe("closeuser");
+			final Subscription s2 = feed.subscribe("closeuser");
+			assertThat("expected no subscription", feed.subscribe("closeuser"),
+					nullValue());
+			s1.close();
+			s1.close(); // no effect
+			assertThat("incorrect count", feed.getSubscriberCount(), is(1));
+
+			final String id = js.createJob("closeuser");
+			assertJobEvent(s2, id, "created");
+			assertNoEvent(s1);
+
+			final Subscription s3 = feed.subscribe("closeuser");
+			assertThat("expected subscription", s3, notNullValue());
+			s2.close();
+			s3.close();
+			assertThat("incorrect count", feed.getSubscriberCount(), is(0));
+		} finally {
+			feed.close();
+		}
+		assertThat("expected no subscription", feed.subscribe("closeuser"),
+				nullValue());
+	}
+
+	@Test
+	public void onlyNewEvents() throws Exception {
+		final String id = js.createJob("newuser");
+		final JobEventFeed feed = new JobEventFeed(js, 1);
+		try {
+			final Subscription s = feed.subscribe("newuser");
+			assertNoEvent(s);
+			js.startJob("newuser", id, "serv", "stat", "desc", null);
+			assertJobEvent(s, id, "started");
+		} finally {
+			feed.close();
+		}
+	}
+
+	@Test
+	public void eventLogExists() throws Exception {
+		// creating the log again is a no-op
+		new JobEventLog(db, 100000);
+		assertThat("missing collection", db.listCollectionNames()
+				.into(new HashSet<String>()).contains(JobEventLog.COLLECTION),
+				is(true));
+	}
+
+	@Test
+	public void failConstruct() throws Exception {
+		try {
+			new JobEventFeed(null, 1);
+			fail("created feed with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NullPointerException("js"));
+		}
+		try {
+			new JobEventFeed(JobState.getBuilder(jobcol, new SchemaManager(
+					db.getCollection("schema"))).build(), 1);
+			fail("created feed with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					"The job state instance has no event log"));
+		}
+		try {
+			new JobEventFeed(js, 0);
+			fail("created feed with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					"maxSubscribers must be at least 1"));
+		}
+		try {
+			new JobEventLog(null, 100000);
+			fail("created log with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NullPointerException("db"));
+		}
+		try {
+			new JobEventLog(db, 4095);
+			fail("created log with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					"sizeBytes must be at least 4096"));
+		}
+	}
+
+	@Test
+	public void eventLogFailure() throws Exception {
+		// changes are still made if they can't be recorded in the log
+		final String dbname = DB_NAME + "Fail";
+		final MongoDatabase faildb = mc.getDatabase(dbname);
+		final JobState fjs = JobState.getBuilder(
+				faildb.getCollection("jobstate"),
+				new SchemaManager(faildb.getCollection("schema")))
+				.withEventLog(new JobEventLog(faildb, 100000)).build();
+		faildb.runCommand(new Document("collMod", JobEventLog.COLLECTION)
+				.append("validator", new Document("job",
+						new Document("$exists", false))));
+
+		final String id = fjs.createJob("failowner");
+		fjs.startJob("failowner", id, "serv", "stat", "desc", null);
+		fjs.shareJob("failowner", id, Arrays.asList("failshared"));
+		fjs.unshareJob("failowner", id, Arrays.asList("failshared"));
+		fjs.completeJob("failowner", id, "serv", "done", null, null);
+		assertThat("incorrect stage", fjs.getJob("failowner", id).getStage(),
+				is("complete"));
+		fjs.deleteJob("failowner", id);
+		assertThat("event recorded", faildb.getCollection(
+				JobEventLog.COLLECTION).countDocuments(), is(0L));
+	}
+
+	@Test
+	public void failSubscribe() throws Exception {
+		final JobEventFeed feed = new JobEventFeed(js, 1);
+		try {
+			for (final String u: Arrays.asList(null, "")) {
+				try {
+					feed.subscribe(u);
+					fail("subscribed with bad args");
+				} catch (Exception e) {
+					assertExceptionCorrect(e, new IllegalArgumentException(
+							"user cannot be null or the empty string"));
+				}
+			}
+		} finally {
+			feed.close();
+		}
+	}
+}
@@ -11,14 +11,17 @@ import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -26,8 +29,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
 
 import us.kbase.common.exceptions.UnimplementedException;
 import us.kbase.common.schemamanager.SchemaManager;
@@ -40,9 +43,17 @@ import us.kbase.userandjobstate.authorization.DefaultUJSAuthorizer;
 import us.kbase.userandjobstate.authorization.UJSAuthorizer;
 import us.kbase.userandjobstate.authorization.exceptions.UJSAuthorizationException;
 import us.kbase.userandjobstate.jobstate.Job;
+import us.kbase.userandjobstate.jobstate.JobArchiver;
+import us.kbase.userandjobstate.jobstate.JobListing;
+import us.kbase.userandjobstate.jobstate.JobPurger;
 import us.kbase.userandjobstate.jobstate.JobResult;
 import us.kbase.userandjobstate.jobstate.JobResults;
 import us.kbase.userandjobstate.jobstate.JobState;
+import us.kbase.userandjobstate.jobstate.JobStream;
+import us.kbase.userandjobstate.jobstate.JobSummary;
+import us.kbase.userandjobstate.jobstate.JobUpdate;
+import us.kbase.userandjobstate.jobstate.JobUpdateBuffer;
+import us.kbase.userandjobstate.jobstate.JobUpdateNotifier;
 import us.kbase.userandjobstate.jobstate.exceptions.NoSuchJobException;
 import us.kbase.userandjobstate.test.FakeJob;
 import us.kbase.workspace.database.WorkspaceUserMetadata;
@@ -53,8 +64,10 @@ public class JobStateTests {
 
 	private static MongoController mongo;
 	
-	private static DBCollection jobcol;
-	private static DBCollection schemacol;
+	private static MongoCollection<Document> jobcol;
+	private static MongoCollection<Document> archcol;
+	private static MongoCollection<Document> payloadcol;
+	private static MongoCollection<Document> schemacol;
 	private static JobState js;
 	
 	@BeforeClass
@@ -65,10 +78,13 @@ public class JobStateTests {
 				Paths.get(TestCommon.getTempDir()));
 		System.out.println("Using Mongo temp dir " + mongo.getTempDir());
 		
-		final DB db = new MongoClient("localhost:" + mongo.getServerPort()).getDB(DB_NAME);
-		jobcol = db.getCollection("jobstate");
-		schemacol = db.getCollection("schema");
-		js = new JobState(jobcol, new SchemaManager(schemacol));
+		final MongoClient mc = new MongoClient("localhost:" + mongo.getServerPort());
+		jobcol = mc.getDatabase(DB_NAME).getCollection("jobstate");
+		archcol = mc.getDatabase(DB_NAME).getCollection("jobstate_archive");
+		payloadcol = mc.getDatabase(DB_NAME).getCollection("jobpayload");
+		schemacol = mc.getDatabase(DB_NAME).getCollection("schema");
+		js = JobState.getBuilder(jobcol, new SchemaManager(schemacol))
+				.build();
 				
 	}
 	
@@ -124,12 +140,45 @@ public class JobStateTests {
 		 */
 		new SchemaManager(schemacol).setRecord("jobstate", 1, false);
 		try {
-			new JobState(jobcol, new SchemaManager(schemacol));
+			JobState.getBuilder(jobcol, new SchemaManager(schemacol))
+					.build();
 			fail("created job state with bad schema");
 		} catch (IncompatibleSchemaException e) {
 			assertThat("incorrect exception message", e.getLocalizedMessage(),
 					is("Incompatible database schema for schema type " +
-							"jobstate. DB is v1, codebase is v2"));
+							"jobstate. DB is v1, codebase is v3"));
+		}
+	}
+	
+	@Test
+	public void builderDefaults() throws Exception {
+		final JobState b = JobState.getBuilder(
+				jobcol, new SchemaManager(schemacol)).build();
+		assertThat("incorrect max waiters",
+				b.getUpdateNotifier().getMaxWaiters(),
+				is(JobUpdateNotifier.DEFAULT_MAX_WAITERS));
+		assertThat("incorrect event log", b.getEventLog(), is((Object) null));
+		assertThat("incorrect buffer", b.getUpdateBuffer(), is((Object) null));
+		assertThat("incorrect archive", b.hasArchive(), is(false));
+	}
+	
+	@Test
+	public void failBuild() throws Exception {
+		final SchemaManager sm = new SchemaManager(schemacol);
+		failBuild(() -> JobState.getBuilder(null, sm),
+				new NullPointerException("jobcol"));
+		failBuild(() -> JobState.getBuilder(jobcol, null),
+				new NullPointerException("sm"));
+		failBuild(() -> JobState.getBuilder(jobcol, sm)
+				.withUpdateNotifier(null), new NullPointerException("notifier"));
+	}
+	
+	private void failBuild(final Runnable build, final Exception expected) {
+		try {
+			build.run();
+			fail("built job state with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, expected);
 		}
 	}
 	
@@ -451,6 +500,71 @@ public class JobStateTests {
 				new NullPointerException("meta"));
 	}
 	
+	@Test
+	public void createJobs() throws Exception {
+		String user = "foo";
+		AuthorizationStrategy as = new AuthorizationStrategy("DEFAULT");
+		Map<String, String> m = new HashMap<String, String>();
+		m.put("bar", "baz");
+		List<String> ids = js.createJobs(user, new DefaultUJSAuthorizer(), as,
+				"whoo", new WorkspaceUserMetadata(m), 3);
+		assertThat("correct number of jobs", ids.size(), is(3));
+		for (final String id: ids) {
+			assertThat("get job id", id, OBJ_ID_MATCH);
+			checkJob(new FakeJob(id, user, null, null, "created", null, null,
+					null, null, null, null, null, null, null, null, as, "whoo",
+					m));
+		}
+		List<String> sorted = new ArrayList<String>(ids);
+		Collections.sort(sorted);
+		assertThat("ids in creation order", ids, is(sorted));
+		
+		ids = js.createJobs(user, new DefaultUJSAuthorizer(),
+				UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				UJSAuthorizer.DEFAULT_AUTH_PARAM, new WorkspaceUserMetadata(),
+				JobState.MAX_JOB_CREATES);
+		assertThat("correct number of jobs", ids.size(),
+				is(JobState.MAX_JOB_CREATES));
+		assertThat("jobs stored", jobcol.countDocuments(),
+				is(JobState.MAX_JOB_CREATES + 3L));
+		
+		WorkspaceUserMetadata mt = new WorkspaceUserMetadata();
+		failCreateJobs(null, new DefaultUJSAuthorizer(), as, "whoo", mt, 1,
+				new IllegalArgumentException(
+						"user cannot be null or the empty string"));
+		failCreateJobs(user, new DefaultUJSAuthorizer(), as, "whoo", mt, 0,
+				new IllegalArgumentException(
+						"At least one job must be created"));
+		failCreateJobs(user, new DefaultUJSAuthorizer(), as, "whoo", mt,
+				JobState.MAX_JOB_CREATES + 1,
+				new IllegalArgumentException(
+						"No more than 1000 jobs may be created at once"));
+		failCreateJobs(user, null, as, "whoo", mt, 1,
+				new NullPointerException());
+		failCreateJobs(user, new DefaultUJSAuthorizer(),
+				new AuthorizationStrategy("foo"), "whoo", mt, 1,
+				new UnimplementedException());
+		failCreateJobs(user, new DefaultUJSAuthorizer(), as, "", mt, 1,
+				new IllegalArgumentException(
+						"authParam cannot be null or empty"));
+		failCreateJobs(user, new DefaultUJSAuthorizer(), as, "whoo", null, 1,
+				new NullPointerException("meta"));
+		assertThat("no jobs stored on failure", jobcol.countDocuments(),
+				is(JobState.MAX_JOB_CREATES + 3L));
+	}
+	
+	private static void failCreateJobs(String user, UJSAuthorizer auth,
+			AuthorizationStrategy strat, String authParam,
+			WorkspaceUserMetadata meta, int count, Exception exp)
+			throws Exception {
+		try {
+			js.createJobs(user, auth, strat, authParam, meta, count);
+			fail("created jobs with bad params");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, exp);
+		}
+	}
+	
 	@Test
 	public void startJob() throws Exception {
 		Date nearfuture = new Date(new Date().getTime() + 10000);
@@ -570,6 +684,7 @@ public class JobStateTests {
 		if (!goodID(jobid) || exception instanceof NoSuchJobException) {
 			return;
 		}
+		final long jobs = jobcol.countDocuments();
 		try {
 			js.createAndStartJob(user, service, status, desc, estCompl);
 			fail("Started job with bad args");
@@ -589,6 +704,8 @@ public class JobStateTests {
 		} catch (Exception e) {
 			assertExceptionCorrect(e, exception);
 		}
+		assertThat("no job created on failure", jobcol.countDocuments(),
+				is(jobs));
 	}
 	
 	private static boolean goodID(String jobid) {
@@ -678,7 +795,7 @@ public class JobStateTests {
 		assertThat("job complete ok", j.isComplete(), is(complete));
 		assertThat("job error ok", j.hasError(), is(error));
 		assertThat("job results ok", j.getResults(), is(results));
-		assertThat("job error ok", j.getErrorMsg(), is(errmsg));
+		assertThat("job error ok", getStoredErrorMsg(id), is(errmsg));
 		if (shared != null) {
 			assertThat("shared list ok", j.getShared(), is(shared));
 		}
@@ -972,6 +1089,422 @@ public class JobStateTests {
 		}
 	}
 	
+	@Test
+	public void updateJobs() throws Exception {
+		final Date nearfuture = new Date(new Date().getTime() + 10000);
+		final Date nearpast = new Date(new Date().getTime() - 10);
+		final String task = js.createAndStartJob("multi", "mserv", "st", "de",
+				33, null);
+		final String perc = js.createAndStartJobWithPercentProg("multi",
+				"mserv", "st2", "de2", null);
+		final String other = js.createAndStartJob("multi", "mserv2", "st3",
+				"de3", null);
+		final String done = js.createAndStartJob("multi", "mserv", "st4",
+				"de4", null);
+		js.completeJob("multi", done, "mserv", "fin", null, null);
+		
+		final List<Exception> res = js.updateJobs("multi", "mserv",
+				Arrays.asList(
+						new JobUpdate(task, "new st", 4, null),
+						new JobUpdate(perc, "new st2", 30, nearfuture),
+						// unordered, so use the same status
+						new JobUpdate(task, "new st", 2, null),
+						new JobUpdate(other, "new st4", null, null),
+						new JobUpdate(done, "new st5", null, null),
+						new JobUpdate("foo", "new st6", null, null),
+						null,
+						new JobUpdate(perc, LONG201, null, null),
+						new JobUpdate(perc, "new st7", -1, null),
+						new JobUpdate(perc, "new st8", null, nearpast)));
+		assertThat("incorrect result count", res.size(), is(10));
+		for (int i = 0; i < 3; i++) {
+			assertThat("update failed", res.get(i), is((Exception) null));
+		}
+		final String err = "There is no uncompleted job %s for user multi " +
+				"started by service mserv";
+		assertExceptionCorrect(res.get(3), new NoSuchJobException(
+				String.format(err, other)));
+		assertExceptionCorrect(res.get(4), new NoSuchJobException(
+				String.format(err, done)));
+		assertExceptionCorrect(res.get(5), new IllegalArgumentException(
+				"Job ID foo is not a legal ID"));
+		assertExceptionCorrect(res.get(6), new IllegalArgumentException(
+				"job update cannot be null"));
+		assertExceptionCorrect(res.get(7), new IllegalArgumentException(
+				"status exceeds the maximum length of 200"));
+		assertExceptionCorrect(res.get(8), new IllegalArgumentException(
+				"progress cannot be negative"));
+		assertExceptionCorrect(res.get(9), new IllegalArgumentException(
+				"The estimated completion date must be in the future"));
+		
+		checkJob(js.getJob("multi", task), task, "started", null, "multi",
+				null, "new st", "mserv", "de", "task", 6, 33, false, false,
+				null, null);
+		checkJob(js.getJob("multi", perc), perc, "started", nearfuture,
+				"multi", null, "new st2", "mserv", "de2", "percent", 30, 100,
+				false, false, null, null);
+		checkJob(js.getJob("multi", other), other, "started", null, "multi",
+				null, "st3", "mserv2", "de3", "none", null, null, false, false,
+				null, null);
+		
+		// all updates fail validation, so nothing is sent to the db
+		assertExceptionCorrect(js.updateJobs("multi", "mserv",
+				Arrays.asList(new JobUpdate(task, LONG201, null, null)))
+				.get(0), new IllegalArgumentException(
+						"status exceeds the maximum length of 200"));
+		
+		final List<JobUpdate> ok = Arrays.asList(
+				new JobUpdate(task, "s", null, null));
+		failUpdateJobs(null, "mserv", ok, new IllegalArgumentException(
+				"user cannot be null or the empty string"));
+		failUpdateJobs("multi", "", ok, new IllegalArgumentException(
+				"service cannot be null or the empty string"));
+		failUpdateJobs("multi", LONG101, ok, new IllegalArgumentException(
+				"service exceeds the maximum length of 100"));
+		failUpdateJobs("multi", "mserv", null, new IllegalArgumentException(
+				"No job updates provided"));
+		failUpdateJobs("multi", "mserv", new LinkedList<JobUpdate>(),
+				new IllegalArgumentException("No job updates provided"));
+		final List<JobUpdate> toomany = new LinkedList<JobUpdate>();
+		for (int i = 0; i < 1001; i++) {
+			toomany.add(new JobUpdate(task, "s", null, null));
+		}
+		failUpdateJobs("multi", "mserv", toomany, new IllegalArgumentException(
+				"No more than 1000 job updates may be submitted at once"));
+	}
+	
+	private void failUpdateJobs(
+			final String user,
+			final String service,
+			final List<JobUpdate> updates,
+			final Exception exception) {
+		try {
+			js.updateJobs(user, service, updates);
+			fail("updated jobs with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, exception);
+		}
+	}
+	
+	@Test
+	public void waitForJobUpdate() throws Exception {
+		final String id = js.createAndStartJob("wait", "wserv", "st", "de",
+				null);
+		final Date seen = js.getJob("wait", id).getLastUpdated();
+		
+		// already updated since the caller's time
+		Job j = js.waitForJobUpdate("wait", id, new DefaultUJSAuthorizer(),
+				new Date(seen.getTime() - 1000), 10000);
+		assertThat("incorrect status", j.getStatus(), is("st"));
+		
+		// no update, times out
+		long start = System.currentTimeMillis();
+		j = js.waitForJobUpdate("wait", id, new DefaultUJSAuthorizer(), seen,
+				300);
+		assertTrue("returned before timeout",
+				System.currentTimeMillis() - start >= 300);
+		assertThat("incorrect status", j.getStatus(), is("st"));
+		
+		// woken by an update
+		final Thread t = new Thread(() -> {
+			try {
+				Thread.sleep(1100); // timestamps have 1s resolution
+				js.updateJob("wait", id, "wserv", "st2", null, null);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		start = System.currentTimeMillis();
+		t.start();
+		j = js.waitForJobUpdate("wait", id, new DefaultUJSAuthorizer(), seen,
+				20000);
+		t.join();
+		assertTrue("timed out", System.currentTimeMillis() - start < 10000);
+		assertThat("incorrect status", j.getStatus(), is("st2"));
+		
+		// complete jobs return immediately
+		js.completeJob("wait", id, "wserv", "done", null, null);
+		start = System.currentTimeMillis();
+		j = js.waitForJobUpdate("wait", id, new DefaultUJSAuthorizer(),
+				new Date(), 10000);
+		assertTrue("waited for complete job",
+				System.currentTimeMillis() - start < 5000);
+		assertThat("incorrect status", j.getStatus(), is("done"));
+		assertThat("no waiters should be registered",
+				js.getUpdateNotifier().getWaiterCount(), is(0));
+	}
+	
+	@Test
+	public void waitForJobUpdateBadArgs() throws Exception {
+		final String id = js.createJob("wait");
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final Date d = new Date();
+		failWaitForJobUpdate(null, id, auth, d, 1, new IllegalArgumentException(
+				"user cannot be null or the empty string"));
+		failWaitForJobUpdate("wait", null, auth, d, 1,
+				new IllegalArgumentException(
+						"id cannot be null or the empty string"));
+		failWaitForJobUpdate("wait", "foo", auth, d, 1,
+				new IllegalArgumentException("Job ID foo is not a legal ID"));
+		failWaitForJobUpdate("wait", id, auth, d, -1,
+				new IllegalArgumentException("timeout cannot be negative"));
+		failWaitForJobUpdate("wait1", id, auth, d, 1,
+				new NoSuchJobException(String.format(
+						"There is no job %s viewable by user wait1", id)));
+		assertThat("no waiters should be registered",
+				js.getUpdateNotifier().getWaiterCount(), is(0));
+	}
+	
+	private void failWaitForJobUpdate(
+			final String user,
+			final String jobID,
+			final UJSAuthorizer auth,
+			final Date lastUpdate,
+			final long timeoutMS,
+			final Exception exception) {
+		try {
+			js.waitForJobUpdate(user, jobID, auth, lastUpdate, timeoutMS);
+			fail("waited for job with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, exception);
+		}
+	}
+	
+	private JobState getBufferedJobState(final JobUpdateBuffer buffer)
+			throws Exception {
+		return JobState.getBuilder(jobcol, new SchemaManager(schemacol))
+				.withUpdateNotifier(new JobUpdateNotifier(1))
+				.withUpdateBuffer(buffer).build();
+	}
+	
+	private Document getJobDoc(final String jobid) {
+		return jobcol.find(new Document("_id", new ObjectId(jobid))).first();
+	}
+	
+	// error messages aren't included in jobs
+	private String getStoredErrorMsg(final String jobid) {
+		final Document query = new Document("_id", new ObjectId(jobid));
+		Document d = jobcol.find(query).first();
+		if (d == null) {
+			d = archcol.find(query).first();
+		}
+		return d == null ? null : d.getString("errormsg");
+	}
+	
+	@Test
+	public void bufferedUpdates() throws Exception {
+		final JobUpdateBuffer buf = new JobUpdateBuffer(600000, 3);
+		final JobState bjs = getBufferedJobState(buf);
+		try {
+			final String id = bjs.createAndStartJob("buf", "bserv", "st",
+					"desc", 20, null);
+			final Date est = new Date(new Date().getTime() + 1000000);
+			bjs.updateJob("buf", id, "bserv", "st1", 2, null);
+			bjs.updateJob("buf", id, "bserv", "st2", 3, est);
+			bjs.updateJob("buf", id, "bserv", "st3", null, null);
+			assertThat("incorrect pending", buf.getPendingCount(), is(1));
+			Document d = getJobDoc(id);
+			assertThat("update written early", d.getString("status"),
+					is("st"));
+			assertThat("update written early", d.getInteger("prog"), is(0));
+			
+			// reading the job writes the merged updates first
+			final Job j = bjs.getJob("buf", id);
+			assertThat("incorrect status", j.getStatus(), is("st3"));
+			assertThat("incorrect progress", j.getProgress(), is(5));
+			assertThat("incorrect est comp", j.getEstimatedCompletion(),
+					is(est));
+			assertThat("incorrect pending", buf.getPendingCount(), is(0));
+			
+			// completing the job writes the pending update first
+			bjs.updateJob("buf", id, "bserv", "st4", 4, null);
+			bjs.completeJob("buf", id, "bserv", "done", null, null);
+			d = getJobDoc(id);
+			assertThat("incorrect status", d.getString("status"), is("done"));
+			assertThat("incorrect progress", d.getInteger("prog"), is(9));
+			assertThat("incorrect pending", buf.getPendingCount(), is(0));
+			
+			// updates to completed jobs are rejected, not buffered
+			failUpdateJob(bjs, "buf", id, "bserv", new NoSuchJobException(
+					String.format("There is no uncompleted job %s for user " +
+							"buf started by service bserv", id)));
+			assertThat("incorrect pending", buf.getPendingCount(), is(0));
+		} finally {
+			buf.close();
+		}
+	}
+	
+	@Test
+	public void bufferedUpdatesFull() throws Exception {
+		final JobUpdateBuffer buf = new JobUpdateBuffer(600000, 2);
+		final JobState bjs = getBufferedJobState(buf);
+		try {
+			final String id1 = bjs.createAndStartJob("buf", "bserv", "st",
+					"desc", 20, null);
+			final String id2 = bjs.createAndStartJob("buf", "bserv", "st",
+					"desc", 20, null);
+			bjs.updateJob("buf", id1, "bserv", "st1", 1, null);
+			bjs.updateJob("buf", id1, "bserv", "st2", 1, null);
+			assertThat("update written early", getJobDoc(id1)
+					.getString("status"), is("st"));
+			bjs.updateJob("buf", id2, "bserv", "st3", 1, null);
+			assertThat("incorrect pending", buf.getPendingCount(), is(0));
+			assertThat("incorrect status", getJobDoc(id1).getString("status"),
+					is("st2"));
+			assertThat("incorrect progress", getJobDoc(id1).getInteger("prog"),
+					is(2));
+			assertThat("incorrect status", getJobDoc(id2).getString("status"),
+					is("st3"));
+		} finally {
+			buf.close();
+		}
+	}
+	
+	@Test
+	public void bufferedUpdatesTimed() throws Exception {
+		final JobUpdateBuffer buf = new JobUpdateBuffer(100, 100);
+		final JobState bjs = getBufferedJobState(buf);
+		try {
+			final String id = bjs.createAndStartJob("buf", "bserv", "st",
+					"desc", 20, null);
+			bjs.updateJob("buf", id, "bserv", "st1", 1, null);
+			final long start = System.currentTimeMillis();
+			while (getJobDoc(id).getString("status").equals("st")) {
+				assertTrue("update not written",
+						System.currentTimeMillis() - start < 10000);
+				Thread.sleep(50);
+			}
+			assertThat("incorrect progress", getJobDoc(id).getInteger("prog"),
+					is(1));
+		} finally {
+			buf.close();
+		}
+	}
+	
+	@Test
+	public void bufferedUpdatesPassedEstComplete() throws Exception {
+		final JobUpdateBuffer buf = new JobUpdateBuffer(600000, 100);
+		final JobState bjs = getBufferedJobState(buf);
+		try {
+			final String id = bjs.createAndStartJob("buf", "bserv", "st",
+					"desc", 20, null);
+			final String id2 = bjs.createAndStartJob("buf", "bserv", "st",
+					"desc", 20, null);
+			final Date est = new Date(new Date().getTime() + 200);
+			bjs.updateJob("buf", id, "bserv", "st1", 1, est);
+			bjs.updateJob("buf", id2, "bserv", "st2", 1, null);
+			Thread.sleep(400);
+			// the estimated completion was valid when the update was made
+			buf.flushAll();
+			assertThat("incorrect pending", buf.getPendingCount(), is(0));
+			assertThat("incorrect status", getJobDoc(id).getString("status"),
+					is("st1"));
+			assertThat("incorrect est comp", getJobDoc(id).getDate("estcompl"),
+					is(est));
+			assertThat("incorrect status", getJobDoc(id2).getString("status"),
+					is("st2"));
+			bjs.completeJob("buf", id, "bserv", "done", null, null);
+			
+			// but an update with a passed estimated completion is rejected
+			try {
+				bjs.updateJob("buf", id2, "bserv", "st3", 1,
+						new Date(new Date().getTime() - 10));
+				fail("updated job with bad args");
+			} catch (Exception e) {
+				assertExceptionCorrect(e, new IllegalArgumentException(
+						"The estimated completion date must be in the future"));
+			}
+			assertThat("incorrect pending", buf.getPendingCount(), is(0));
+		} finally {
+			buf.close();
+		}
+	}
+	
+	@Test
+	public void bufferedUpdatesClose() throws Exception {
+		final JobUpdateBuffer buf = new JobUpdateBuffer(600000, 100);
+		final JobState bjs = getBufferedJobState(buf);
+		final String id = bjs.createAndStartJob("buf", "bserv", "st",
+				"desc", 20, null);
+		
+		// updates to jobs that can't be updated are rejected, not buffered
+		failUpdateJob(bjs, "buf", id, "wrongserv", new NoSuchJobException(
+				String.format("There is no uncompleted job %s for user buf " +
+						"started by service wrongserv", id)));
+		failUpdateJob(bjs, "buf1", id, "bserv", new NoSuchJobException(
+				String.format("There is no uncompleted job %s for user buf1 " +
+						"started by service bserv", id)));
+		assertThat("incorrect pending", buf.getPendingCount(), is(0));
+		
+		bjs.updateJob("buf", id, "bserv", "st1", 1, null);
+		bjs.updateJob("buf", id, "bserv", "st2", 1, null);
+		assertThat("incorrect pending", buf.getPendingCount(), is(1));
+		JobUpdateBuffer.closeAll();
+		assertThat("incorrect status", getJobDoc(id).getString("status"),
+				is("st2"));
+		assertThat("incorrect progress", getJobDoc(id).getInteger("prog"),
+				is(2));
+		
+		// updates are written immediately once the buffer is closed
+		bjs.updateJob("buf", id, "bserv", "st3", 1, null);
+		assertThat("incorrect status", getJobDoc(id).getString("status"),
+				is("st3"));
+		failUpdateJob(bjs, "buf", id, "wrongserv", new NoSuchJobException(
+				String.format("There is no uncompleted job %s for user buf " +
+						"started by service wrongserv", id)));
+		
+		try {
+			getBufferedJobState(buf);
+			fail("used closed buffer");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalStateException(
+					"The buffer is closed"));
+		}
+	}
+	
+	private void failUpdateJob(
+			final JobState bjs,
+			final String user,
+			final String jobID,
+			final String service,
+			final Exception exception) {
+		try {
+			bjs.updateJob(user, jobID, service, "st", 1, null);
+			fail("updated job with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, exception);
+		}
+	}
+	
+	@Test
+	public void bufferBadArgs() throws Exception {
+		try {
+			new JobUpdateBuffer(0, 1);
+			fail("created buffer with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					"flushIntervalMS must be at least 1"));
+		}
+		try {
+			new JobUpdateBuffer(1, 0);
+			fail("created buffer with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					"maxPending must be at least 1"));
+		}
+		final JobUpdateBuffer buf = new JobUpdateBuffer(600000, 1);
+		getBufferedJobState(buf);
+		try {
+			getBufferedJobState(buf);
+			fail("reused buffer");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalStateException(
+					"The buffer is already in use"));
+		} finally {
+			buf.close();
+		}
+	}
+	
 	@Test
 	public void completeJob() throws Exception {
 		String jobid = js.createAndStartJob("comp", "cserv1", "cstat1",
@@ -1151,6 +1684,44 @@ public class JobStateTests {
 				start2.compareTo(cancel) == -1);
 	}
 	
+	@Test
+	public void stageField() throws Exception {
+		final String user = "stage";
+		final String created = js.createJob(user);
+		checkStage(created, "created");
+		
+		final String started = js.createJob(user);
+		js.startJob(user, started, "serv1", "st", "dsc", null);
+		checkStage(started, "started");
+		js.updateJob(user, started, "serv1", "st", null, null);
+		checkStage(started, "started");
+		
+		final String complete = js.createAndStartJob(user, "serv1", "st",
+				"dsc", null);
+		js.completeJob(user, complete, "serv1", "st", null, null);
+		checkStage(complete, "complete");
+		
+		final String error = js.createAndStartJob(user, "serv1", "st",
+				"dsc", null);
+		js.completeJob(user, error, "serv1", "st", "err", null);
+		checkStage(error, "error");
+		
+		final String canceled = js.createAndStartJob(user, "serv1", "st",
+				"dsc", null);
+		js.cancelJob(user, canceled, "st");
+		checkStage(canceled, "canceled");
+		
+		final String canceledCreated = js.createJob(user);
+		js.cancelJob(user, canceledCreated, "st");
+		checkStage(canceledCreated, "canceled");
+	}
+	
+	private void checkStage(final String jobid, final String stage) {
+		final Document job = jobcol.find(
+				new Document("_id", new ObjectId(jobid))).first();
+		assertThat("incorrect stage", job.getString("stage"), is(stage));
+	}
+	
 	@Test
 	public void deleteJob() throws Exception {
 		final String user = "delete";
@@ -1360,9 +1931,10 @@ public class JobStateTests {
 		jobid = js.createAndStartJobWithPercentProg(lj, "serv1", "err-st",
 				"err-dsc", MAX_DATE);
 		js.completeJob(lj, jobid, "serv1", "err-st1", "some error", null);
+		// error messages are not included in job listings
 		FakeJob error = new FakeJob(jobid, lj, null, "serv1", "error",
 				MAX_DATE, "err-dsc", "percent", 100, 100, "err-st1", true,
-				true, "some error", null);
+				true, null, null);
 		
 		jobid = js.createAndStartJob(lj, "serv1", "can-st", "can-dsc",
 				MAX_DATE);
@@ -1500,6 +2072,227 @@ public class JobStateTests {
 						"authParam cannot be null or empty"));
 	}
 	
+	@Test
+	public void listJobsPaged() throws Exception {
+		final String user = "paged";
+		final List<String> ids = new LinkedList<String>();
+		for (int i = 0; i < 5; i++) {
+			ids.add(js.createAndStartJob(user, "pserv", "st", "dsc", null));
+			Thread.sleep(1);
+		}
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final AuthorizationStrategy def = UJSAuthorizer.DEFAULT_AUTH_STRAT;
+		final List<String> defp = Arrays.asList(
+				UJSAuthorizer.DEFAULT_AUTH_PARAM);
+		
+		// newest first
+		JobListing<Job> jl = js.listJobs(user, null, false, false, false,
+				false, false, auth, def, defp, 2, false, null);
+		assertThat("incorrect jobs", getIDs(jl), is(Arrays.asList(
+				ids.get(4), ids.get(3))));
+		jl = js.listJobs(user, null, false, false, false, false, false,
+				auth, def, defp, 2, false, jl.getNext());
+		assertThat("incorrect jobs", getIDs(jl), is(Arrays.asList(
+				ids.get(2), ids.get(1))));
+		jl = js.listJobs(user, null, false, false, false, false, false,
+				auth, def, defp, 2, false, jl.getNext());
+		assertThat("incorrect jobs", getIDs(jl), is(Arrays.asList(ids.get(0))));
+		assertThat("incorrect next", jl.getNext(), is((String) null));
+		
+		// oldest first, shared query
+		jl = js.listJobs(user, null, false, false, false, false, true,
+				auth, def, defp, 3, true, null);
+		assertThat("incorrect jobs", getIDs(jl), is(ids.subList(0, 3)));
+		final String next = jl.getNext();
+		jl = js.listJobs(user, null, false, false, false, false, true,
+				auth, def, defp, 3, true, next);
+		assertThat("incorrect jobs", getIDs(jl), is(ids.subList(3, 5)));
+		assertThat("incorrect next", jl.getNext(), is((String) null));
+		
+		// exact page size
+		jl = js.listJobs(user, null, false, false, false, false, false,
+				auth, def, defp, 5, true, null);
+		assertThat("incorrect jobs", getIDs(jl), is(ids));
+		assertThat("incorrect next", jl.getNext(), is((String) null));
+		
+		failListJobsPaged(user, -1, true, null,
+				new IllegalArgumentException("limit cannot be negative"));
+		failListJobsPaged(user, 1, null, null, new IllegalArgumentException(
+				"A sort order is required when paging through jobs"));
+		failListJobsPaged(user, 0, null, next, new IllegalArgumentException(
+				"A sort order is required when paging through jobs"));
+		failListJobsPaged(user, 1, false, next, new IllegalArgumentException(
+				"The sort order does not match the resume token"));
+		failListJobsPaged(user, 1, false, "foo", new IllegalArgumentException(
+				"Invalid resume token: foo"));
+	}
+	
+	@Test
+	public void streamJobs() throws Exception {
+		final String user = "stream";
+		final List<String> ids = new LinkedList<String>();
+		for (int i = 0; i < 3; i++) {
+			ids.add(js.createAndStartJob(user, "stserv", "st", "dsc", null));
+			Thread.sleep(1);
+		}
+		js.completeJob(user, ids.get(1), "stserv", "done", null, null);
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final AuthorizationStrategy def = UJSAuthorizer.DEFAULT_AUTH_STRAT;
+		final List<String> defp = Arrays.asList(
+				UJSAuthorizer.DEFAULT_AUTH_PARAM);
+		
+		// completing the job updated it last
+		JobStream<Job> jobs = js.streamJobs(user, null, false, false, false,
+				false, false, auth, def, defp, 0, true, null);
+		assertThat("incorrect jobs", getIDs(jobs), is(Arrays.asList(
+				ids.get(0), ids.get(2), ids.get(1))));
+		
+		jobs = js.streamJobs(user, null, false, false, false, false, false,
+				auth, def, defp, 2, false, null);
+		assertThat("incorrect jobs", getIDs(jobs), is(Arrays.asList(
+				ids.get(1), ids.get(2))));
+		
+		jobs = js.streamJobs(user, null, true, false, false, false, false,
+				auth, def, defp, 0, true, null);
+		assertThat("incorrect jobs", getIDs(jobs), is(Arrays.asList(
+				ids.get(0), ids.get(2))));
+		
+		jobs = js.streamJobs(user, null, false, true, false, false, false,
+				auth, def, defp, 0, null, null);
+		try {
+			assertThat("incorrect job", jobs.next().getID(), is(ids.get(1)));
+			jobs.next();
+			fail("got job from exhausted stream");
+		} catch (NoSuchElementException e) {
+			// expected
+		} finally {
+			jobs.close();
+		}
+		
+		try {
+			js.streamJobs(user, null, false, false, false, false, false,
+					auth, def, defp, 1, null, null);
+			fail("streamed jobs w/ bad args");
+		} catch (Exception got) {
+			assertExceptionCorrect(got, new IllegalArgumentException(
+					"A sort order is required when paging through jobs"));
+		}
+	}
+	
+	private List<String> getIDs(final JobStream<Job> jobs) {
+		final List<String> ret = new LinkedList<String>();
+		try {
+			while (jobs.hasNext()) {
+				ret.add(jobs.next().getID());
+			}
+		} finally {
+			jobs.close();
+		}
+		return ret;
+	}
+	
+	@Test
+	public void listJobSummaries() throws Exception {
+		final String user = "summ";
+		final Map<String, String> meta = new HashMap<String, String>();
+		meta.put("foo", "bar");
+		final String id1 = js.createJob(user, new DefaultUJSAuthorizer(),
+				UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				UJSAuthorizer.DEFAULT_AUTH_PARAM,
+				new WorkspaceUserMetadata(meta));
+		js.startJob(user, id1, "sserv", "sstat", "sdesc", 10, null);
+		js.updateJob(user, id1, "sserv", "sstat2", 4, null);
+		Thread.sleep(1);
+		final String id2 = js.createAndStartJob(
+				user, "sserv", "sstat", "sdesc2", null);
+		js.completeJob(user, id2, "sserv", "sstat3", "oh no",
+				new JobResults(null, "ws url", Arrays.asList("ws id 1"),
+						null, null));
+		js.shareJob(user, id2, Arrays.asList("foo"));
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final AuthorizationStrategy def = UJSAuthorizer.DEFAULT_AUTH_STRAT;
+		final List<String> defp = Arrays.asList(
+				UJSAuthorizer.DEFAULT_AUTH_PARAM);
+		
+		final JobListing<JobSummary> jl = js.listJobSummaries(user, null,
+				false, false, false, false, false, auth, def, defp, 1, true,
+				null);
+		assertThat("incorrect jobs", getIDs(jl), is(Arrays.asList(id1)));
+		checkSummary(jl.getJobs().get(0), js.getJob(user, id1));
+		final JobListing<JobSummary> jl2 = js.listJobSummaries(user, null,
+				false, false, false, false, false, auth, def, defp, 1, true,
+				jl.getNext());
+		assertThat("incorrect jobs", getIDs(jl2), is(Arrays.asList(id2)));
+		assertThat("incorrect next", jl2.getNext(), is((String) null));
+		checkSummary(jl2.getJobs().get(0), js.getJob(user, id2));
+		
+		// check filtering and the unpaged listing
+		final JobListing<JobSummary> jl3 = js.listJobSummaries(user, null,
+				true, false, false, false, false, auth, def, defp, 0, null,
+				null);
+		assertThat("incorrect jobs", getIDs(jl3), is(Arrays.asList(id1)));
+		
+		try {
+			js.listJobSummaries(user, null, false, false, false, false, false,
+					auth, def, defp, 1, null, null);
+			fail("listed jobs w/ bad args");
+		} catch (Exception got) {
+			assertExceptionCorrect(got, new IllegalArgumentException(
+					"A sort order is required when paging through jobs"));
+		}
+	}
+	
+	private void checkSummary(final JobSummary s, final Job j) {
+		assertThat("summary is a full job", s.getClass().equals(
+				JobSummary.class), is(true));
+		assertThat("incorrect id", s.getID(), is(j.getID()));
+		assertThat("incorrect user", s.getUser(), is(j.getUser()));
+		assertThat("incorrect service", s.getService(), is(j.getService()));
+		assertThat("incorrect desc", s.getDescription(),
+				is(j.getDescription()));
+		assertThat("incorrect stage", s.getStage(), is(j.getStage()));
+		assertThat("incorrect status", s.getStatus(), is(j.getStatus()));
+		assertThat("incorrect progtype", s.getProgType(),
+				is(j.getProgType()));
+		assertThat("incorrect prog", s.getProgress(), is(j.getProgress()));
+		assertThat("incorrect maxprog", s.getMaxProgress(),
+				is(j.getMaxProgress()));
+		assertThat("incorrect started", s.getStarted(), is(j.getStarted()));
+		assertThat("incorrect updated", s.getLastUpdated(),
+				is(j.getLastUpdated()));
+		assertThat("incorrect est compl", s.getEstimatedCompletion(),
+				is(j.getEstimatedCompletion()));
+		assertThat("incorrect complete", s.isComplete(), is(j.isComplete()));
+		assertThat("incorrect error", s.hasError(), is(j.hasError()));
+		assertThat("incorrect canceled by", s.getCanceledBy(),
+				is(j.getCanceledBy()));
+	}
+	
+	private List<String> getIDs(final JobListing<? extends JobSummary> jl) {
+		final List<String> ret = new LinkedList<String>();
+		for (final JobSummary j: jl.getJobs()) {
+			ret.add(j.getID());
+		}
+		return ret;
+	}
+	
+	private void failListJobsPaged(
+			final String user,
+			final int limit,
+			final Boolean ascending,
+			final String resume,
+			final Exception exp) {
+		try {
+			js.listJobs(user, null, false, false, false, false, false,
+					new DefaultUJSAuthorizer(), UJSAuthorizer.DEFAULT_AUTH_STRAT,
+					Arrays.asList(UJSAuthorizer.DEFAULT_AUTH_PARAM),
+					limit, ascending, resume);
+			fail("listed jobs w/ bad args");
+		} catch (Exception got) {
+			assertExceptionCorrect(got, exp);
+		}
+	}
+	
 	private void failListJobs(String user, List<String> services,
 			Exception exp) {
 		try {
@@ -1657,6 +2450,65 @@ public class JobStateTests {
 		js.getJob(sh, jobid); //should work
 	}
 	
+	@Test
+	public void defaultAuthorizationInQuery() throws Exception {
+		// default strategy jobs are authorized by the query that changes them,
+		// in both the job collection and the archive
+		final JobState ajs = getArchiveJobState();
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final String id = ajs.createAndStartJob("owner", "serv", "st", "d",
+				null);
+		ajs.shareJob("owner", id, Arrays.asList("sh"));
+		assertThat("incorrect user", ajs.getJob("sh", id).getUser(),
+				is("owner"));
+		failGetJob("other", id, new NoSuchJobException(String.format(
+				"There is no job %s viewable by user other", id)));
+		try {
+			ajs.cancelJob("sh", id, "cancel", auth);
+			fail("shared user canceled job");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NoSuchJobException(String.format(
+					"There is no job %s that may be canceled by user sh", id)));
+		}
+		try {
+			ajs.deleteJob("sh", id, "serv", auth);
+			fail("shared user deleted job");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NoSuchJobException(String.format(
+					"There is no deletable job %s for user sh and service serv",
+					id)));
+		}
+		ajs.cancelJob("owner", id, "cancel", auth);
+		assertThat("incorrect stage", ajs.getJob("owner", id).getStage(),
+				is(Job.CANCELED));
+		
+		assertThat("incorrect archived count", ajs.archiveJobs(
+				new Date(System.currentTimeMillis() + 60000), 10), is(1));
+		try {
+			ajs.deleteJob("sh", id, auth);
+			fail("shared user deleted job");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NoSuchJobException(String.format(
+					"There is no deletable job %s for user sh", id)));
+		}
+		try {
+			ajs.unshareJob("sh", id, Arrays.asList("owner", "sh"));
+			fail("shared user unshared job for owner");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					String.format("User sh may only stop sharing job %s " +
+							"for themselves", id)));
+		}
+		assertThat("incorrect shared", ajs.getJob("sh", id).getShared(),
+				is(Arrays.asList("sh")));
+		ajs.unshareJob("sh", id, Arrays.asList("sh"));
+		assertThat("incorrect shared", ajs.getJob("owner", id).getShared(),
+				is((List<String>) new LinkedList<String>()));
+		ajs.deleteJob("owner", id, auth);
+		assertThat("job not deleted", archcol.countDocuments(
+				new Document("_id", new ObjectId(id))), is(0L));
+	}
+	
 	private void failGetJob(String user, String jobid, Exception e) {
 		try {
 			js.getJob(user, jobid);
@@ -1702,4 +2554,839 @@ public class JobStateTests {
 			assertExceptionCorrect(exp, e);
 		}
 	}
+	
+	private String createJobInStage(final String stage, final Date updated)
+			throws Exception {
+		final String id = js.createJob("purge");
+		if (!stage.equals(Job.CREATED)) {
+			js.startJob("purge", id, "serv", "stat", "desc", null);
+		}
+		if (stage.equals(Job.COMPLETE)) {
+			js.completeJob("purge", id, "serv", "done", null, null);
+		} else if (stage.equals(Job.ERROR)) {
+			js.completeJob("purge", id, "serv", "done", "err", null);
+		} else if (stage.equals(Job.CANCELED)) {
+			js.cancelJob("purge", id, "cancel");
+		}
+		jobcol.updateOne(new Document("_id", new ObjectId(id)),
+				new Document("$set", new Document("updated", updated)));
+		return id;
+	}
+	
+	private Set<String> getJobIDs() {
+		final Set<String> ret = new HashSet<String>();
+		for (final Document d: jobcol.find()) {
+			ret.add(d.getObjectId("_id").toString());
+		}
+		return ret;
+	}
+	
+	@Test
+	public void purgeJobs() throws Exception {
+		final Date old = new Date(System.currentTimeMillis() - 100000);
+		final Date cutoff = new Date(System.currentTimeMillis() - 50000);
+		final String created = createJobInStage(Job.CREATED, old);
+		final String started = createJobInStage(Job.STARTED, old);
+		final String complete1 = createJobInStage(Job.COMPLETE, old);
+		final String complete2 = createJobInStage(Job.COMPLETE, old);
+		final String complete3 = createJobInStage(Job.COMPLETE, old);
+		final String completeNew = createJobInStage(Job.COMPLETE, new Date());
+		final String error = createJobInStage(Job.ERROR, old);
+		final String canceled = createJobInStage(Job.CANCELED, old);
+		js.shareJob("purge", canceled, Arrays.asList("foo"));
+		
+		assertThat("incorrect count", js.purgeJobs(Job.CREATED, cutoff, 10),
+				is(1));
+		assertThat("incorrect count", js.purgeJobs(Job.CREATED, cutoff, 10),
+				is(0));
+		assertThat("incorrect count", js.purgeJobs(Job.COMPLETE, cutoff, 2),
+				is(2));
+		assertThat("incorrect count", js.purgeJobs(Job.COMPLETE, cutoff, 2),
+				is(1));
+		assertThat("incorrect count", js.purgeJobs(Job.COMPLETE, cutoff, 2),
+				is(0));
+		assertThat("incorrect jobs", getJobIDs(), is((Set<String>)
+				new HashSet<String>(Arrays.asList(started, completeNew, error,
+						canceled))));
+		for (final String id: Arrays.asList(created, complete1, complete2,
+				complete3)) {
+			failGetJob("purge", id, new NoSuchJobException(String.format(
+					"There is no job %s viewable by user %s", id, "purge")));
+		}
+		
+		assertThat("incorrect count", js.purgeJobs(Job.ERROR, cutoff, 1),
+				is(1));
+		assertThat("incorrect count", js.purgeJobs(Job.CANCELED, cutoff, 1),
+				is(1));
+		assertThat("incorrect count", js.purgeJobs(Job.COMPLETE,
+				new Date(System.currentTimeMillis() + 10000), 10), is(1));
+		assertThat("incorrect jobs", getJobIDs(), is((Set<String>)
+				new HashSet<String>(Arrays.asList(started))));
+	}
+	
+	@Test
+	public void purgeJobsBadArgs() throws Exception {
+		failPurgeJobs(Job.STARTED, new Date(), 1, new IllegalArgumentException(
+				"Jobs in stage started cannot be purged"));
+		failPurgeJobs(null, new Date(), 1, new IllegalArgumentException(
+				"Jobs in stage null cannot be purged"));
+		failPurgeJobs(Job.ERROR, null, 1, new NullPointerException("before"));
+		failPurgeJobs(Job.ERROR, new Date(), 0, new IllegalArgumentException(
+				"limit must be at least 1"));
+	}
+	
+	private void failPurgeJobs(
+			final String stage,
+			final Date before,
+			final int limit,
+			final Exception e) {
+		try {
+			js.purgeJobs(stage, before, limit);
+			fail("purged jobs but expected fail");
+		} catch (Exception exp) {
+			assertExceptionCorrect(exp, e);
+		}
+	}
+	
+	@Test
+	public void purger() throws Exception {
+		final long day = 24 * 60 * 60 * 1000L;
+		final Date old = new Date(System.currentTimeMillis() - 3 * day);
+		final Date recent = new Date(System.currentTimeMillis() - day / 2);
+		createJobInStage(Job.CREATED, old);
+		final String created = createJobInStage(Job.CREATED, recent);
+		createJobInStage(Job.COMPLETE, old);
+		createJobInStage(Job.COMPLETE, old);
+		createJobInStage(Job.COMPLETE, old);
+		final String complete = createJobInStage(Job.COMPLETE, recent);
+		final String error = createJobInStage(Job.ERROR, old);
+		
+		final Map<String, Integer> days = new HashMap<String, Integer>();
+		days.put(Job.CREATED, 1);
+		days.put(Job.COMPLETE, 2);
+		final JobPurger p = new JobPurger(js, days, 2, 0);
+		assertThat("incorrect last run", p.getLastRun(), is((Date) null));
+		assertThat("incorrect running", p.isRunning(), is(false));
+		assertThat("incorrect days", p.getRetentionDays(), is(days));
+		
+		assertThat("incorrect count", p.purge(), is(4L));
+		assertThat("incorrect jobs", getJobIDs(), is((Set<String>)
+				new HashSet<String>(Arrays.asList(created, complete, error))));
+		final Map<String, Long> deleted = new HashMap<String, Long>();
+		deleted.put(Job.CREATED, 1L);
+		deleted.put(Job.COMPLETE, 3L);
+		assertThat("incorrect deleted", p.getDeletedCounts(), is(deleted));
+		assertThat("incorrect last run deleted", p.getLastRunDeletedCount(),
+				is(4L));
+		assertTrue("incorrect last run", p.getLastRun() != null);
+		assertThat("incorrect running", p.isRunning(), is(false));
+		
+		assertThat("incorrect count", p.purge(), is(0L));
+		assertThat("incorrect deleted", p.getDeletedCounts(), is(deleted));
+		assertThat("incorrect last run deleted", p.getLastRunDeletedCount(),
+				is(0L));
+		p.close();
+	}
+	
+	@Test
+	public void purgerBadArgs() throws Exception {
+		final Map<String, Integer> days = new HashMap<String, Integer>();
+		failCreatePurger(null, days, 1, 0, new NullPointerException("js"));
+		failCreatePurger(js, null, 1, 0,
+				new NullPointerException("retentionDays"));
+		failCreatePurger(js, days, 0, 0, new IllegalArgumentException(
+				"batchSize must be at least 1"));
+		failCreatePurger(js, days, 1, -1, new IllegalArgumentException(
+				"batchPauseMS cannot be negative"));
+		days.put(Job.STARTED, 1);
+		failCreatePurger(js, days, 1, 0, new IllegalArgumentException(
+				"Jobs in stage started cannot be purged"));
+		days.clear();
+		days.put(Job.CANCELED, 0);
+		failCreatePurger(js, days, 1, 0, new IllegalArgumentException(
+				"Retention period for stage canceled must be at least 1 day"));
+		days.put(Job.CANCELED, null);
+		failCreatePurger(js, days, 1, 0, new IllegalArgumentException(
+				"Retention period for stage canceled must be at least 1 day"));
+		
+		days.put(Job.CANCELED, 1);
+		final JobPurger p = new JobPurger(js, days, 1, 0);
+		try {
+			p.start(0);
+			fail("started purger with bad interval");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					"intervalMS must be at least 1"));
+		}
+		p.start(100000);
+		try {
+			p.start(100000);
+			fail("started purger twice");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalStateException(
+					"The purger is already started"));
+		}
+		p.close();
+	}
+	
+	private void failCreatePurger(
+			final JobState js,
+			final Map<String, Integer> days,
+			final int batchSize,
+			final long batchPauseMS,
+			final Exception e) {
+		try {
+			new JobPurger(js, days, batchSize, batchPauseMS);
+			fail("created purger but expected fail");
+		} catch (Exception exp) {
+			assertExceptionCorrect(exp, e);
+		}
+	}
+	
+	private JobState getArchiveJobState() throws Exception {
+		return JobState.getBuilder(jobcol, new SchemaManager(schemacol))
+				.withUpdateNotifier(new JobUpdateNotifier(1))
+				.withArchive(archcol).build();
+	}
+	
+	private Set<String> getArchivedJobIDs() {
+		final Set<String> ret = new HashSet<String>();
+		for (final Document d: archcol.find()) {
+			ret.add(d.getObjectId("_id").toString());
+		}
+		return ret;
+	}
+	
+	private List<String> toIDs(final Iterable<? extends JobSummary> jobs) {
+		final List<String> ret = new LinkedList<String>();
+		for (final JobSummary j: jobs) {
+			ret.add(j.getID());
+		}
+		return ret;
+	}
+	
+	@Test
+	public void archiveJobs() throws Exception {
+		final JobState ajs = getArchiveJobState();
+		final long now = System.currentTimeMillis();
+		final Date cutoff = new Date(now - 50000);
+		final String created = createJobInStage(Job.CREATED,
+				new Date(now - 100000));
+		final String started = createJobInStage(Job.STARTED,
+				new Date(now - 99000));
+		final String complete = createJobInStage(Job.COMPLETE,
+				new Date(now - 98000));
+		final String error = createJobInStage(Job.ERROR,
+				new Date(now - 97000));
+		final String canceled = createJobInStage(Job.CANCELED,
+				new Date(now - 96000));
+		final String completeNew = createJobInStage(Job.COMPLETE,
+				new Date(now));
+		js.shareJob("purge", canceled, Arrays.asList("foo"));
+		
+		assertThat("incorrect count", ajs.archiveJobs(cutoff, 2), is(2));
+		assertThat("incorrect count", ajs.archiveJobs(cutoff, 2), is(1));
+		assertThat("incorrect count", ajs.archiveJobs(cutoff, 2), is(0));
+		assertThat("incorrect jobs", getJobIDs(), is((Set<String>)
+				new HashSet<String>(Arrays.asList(created, started,
+						completeNew))));
+		assertThat("incorrect archived jobs", getArchivedJobIDs(),
+				is((Set<String>) new HashSet<String>(Arrays.asList(complete,
+						error, canceled))));
+		
+		// archived documents only keep non null fields needed for the job
+		final Document d = archcol.find(
+				new Document("_id", new ObjectId(complete))).first();
+		assertThat("incorrect fields", d.keySet(), is((Set<String>)
+				new HashSet<String>(Arrays.asList("_id", "user", "service",
+						"desc", "progtype", "prog", "status", "started",
+						"updated", "complete", "error", "stage", "authstrat",
+						"authparam", "meta"))));
+		
+		checkJob(ajs.getJob("purge", complete), complete, Job.COMPLETE, null,
+				"purge", null, "done", "serv", "desc", "none", null, null,
+				true, false, null, null, new ArrayList<String>(),
+				UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				UJSAuthorizer.DEFAULT_AUTH_PARAM,
+				new HashMap<String, String>());
+		checkJob(ajs.getJob("purge", error), error, Job.ERROR, null,
+				"purge", null, "done", "serv", "desc", "none", null, null,
+				true, true, "err", null, new ArrayList<String>(),
+				UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				UJSAuthorizer.DEFAULT_AUTH_PARAM,
+				new HashMap<String, String>());
+		checkJob(ajs.getJob("foo", canceled), canceled, Job.CANCELED, null,
+				"purge", "purge", "cancel", "serv", "desc", "none", null,
+				null, true, false, null, null, Arrays.asList("foo"),
+				UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				UJSAuthorizer.DEFAULT_AUTH_PARAM,
+				new HashMap<String, String>());
+		// without an archive, archived jobs can't be found
+		failGetJob("purge", complete, new NoSuchJobException(String.format(
+				"There is no job %s viewable by user %s", complete, "purge")));
+		try {
+			js.archiveJobs(cutoff, 1);
+			fail("archived jobs without an archive");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalStateException(
+					"No job archive is configured"));
+		}
+	}
+	
+	@Test
+	public void listArchivedJobs() throws Exception {
+		final JobState ajs = getArchiveJobState();
+		final long now = System.currentTimeMillis();
+		final String c1 = createJobInStage(Job.COMPLETE, new Date(now - 100000));
+		final String s1 = createJobInStage(Job.STARTED, new Date(now - 90000));
+		final String c2 = createJobInStage(Job.COMPLETE, new Date(now - 80000));
+		final String c3 = createJobInStage(Job.COMPLETE, new Date(now - 70000));
+		final String s2 = createJobInStage(Job.STARTED, new Date(now - 60000));
+		assertThat("incorrect count",
+				ajs.archiveJobs(new Date(now - 75000), 10), is(2));
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final AuthorizationStrategy strat = UJSAuthorizer.DEFAULT_AUTH_STRAT;
+		final List<String> params =
+				Arrays.asList(UJSAuthorizer.DEFAULT_AUTH_PARAM);
+		
+		// the archive is only listed on request
+		assertThat("incorrect jobs", toIDs(ajs.listJobs("purge", null, false,
+				false, false, false, false, auth, strat, params, 0, true, null)
+				.getJobs()), is(Arrays.asList(s1, c3, s2)));
+		assertThat("incorrect jobs", toIDs(ajs.listJobs("purge", null, false,
+				false, false, false, false, auth, strat, params, 0, true, null,
+				true).getJobs()), is(Arrays.asList(c1, s1, c2, c3, s2)));
+		assertThat("incorrect jobs", toIDs(ajs.listJobs("purge", null, false,
+				true, false, false, false, auth, strat, params, 0, false,
+				null, true).getJobs()), is(Arrays.asList(c3, c2, c1)));
+		final Set<String> unsorted = new HashSet<String>(toIDs(ajs.listJobs(
+				"purge", null, false, false, false, false, false, auth, strat,
+				params, 0, null, null, true).getJobs()));
+		assertThat("incorrect jobs", unsorted, is((Set<String>)
+				new HashSet<String>(Arrays.asList(c1, s1, c2, c3, s2))));
+		
+		// paging merges the job collection and the archive
+		JobListing<Job> jl = ajs.listJobs("purge", null, false, false, false,
+				false, false, auth, strat, params, 2, false, null, true);
+		assertThat("incorrect jobs", toIDs(jl.getJobs()),
+				is(Arrays.asList(s2, c3)));
+		jl = ajs.listJobs("purge", null, false, false, false, false, false,
+				auth, strat, params, 2, false, jl.getNext(), true);
+		assertThat("incorrect jobs", toIDs(jl.getJobs()),
+				is(Arrays.asList(c2, s1)));
+		jl = ajs.listJobs("purge", null, false, false, false, false, false,
+				auth, strat, params, 2, false, jl.getNext(), true);
+		assertThat("incorrect jobs", toIDs(jl.getJobs()),
+				is(Arrays.asList(c1)));
+		assertThat("incorrect next", jl.getNext(), is((String) null));
+		
+		final JobListing<JobSummary> sl = ajs.listJobSummaries("purge", null,
+				false, false, false, false, false, auth, strat, params, 3,
+				true, null, true);
+		assertThat("incorrect jobs", toIDs(sl.getJobs()),
+				is(Arrays.asList(c1, s1, c2)));
+		
+		final List<String> streamed = new LinkedList<String>();
+		try (final JobStream<Job> jobs = ajs.streamJobs("purge", null, false,
+				false, false, false, false, auth, strat, params, 4, false,
+				null, true)) {
+			while (jobs.hasNext()) {
+				streamed.add(jobs.next().getID());
+			}
+		}
+		assertThat("incorrect jobs", streamed,
+				is(Arrays.asList(s2, c3, c2, s1)));
+		
+		// a job caught while being archived is in both collections
+		jobcol.insertOne(archcol.find(new Document("_id", new ObjectId(c2)))
+				.first());
+		assertThat("incorrect jobs", toIDs(ajs.listJobs("purge", null, false,
+				false, false, false, false, auth, strat, params, 0, true, null,
+				true).getJobs()), is(Arrays.asList(c1, s1, c2, c3, s2)));
+		assertThat("incorrect jobs", toIDs(ajs.listJobs("purge", null, false,
+				false, false, false, false, auth, strat, params, 3, false,
+				null, true).getJobs()), is(Arrays.asList(s2, c3, c2)));
+		jobcol.deleteOne(new Document("_id", new ObjectId(c2)));
+		
+		// archiving has no effect on a job state without an archive
+		assertThat("incorrect jobs", toIDs(js.listJobs("purge", null, false,
+				false, false, false, false, auth, strat, params, 0, true, null,
+				true).getJobs()), is(Arrays.asList(s1, c3, s2)));
+	}
+	
+	@Test
+	public void modifyArchivedJobs() throws Exception {
+		final JobState ajs = getArchiveJobState();
+		final Date old = new Date(System.currentTimeMillis() - 100000);
+		final String complete = createJobInStage(Job.COMPLETE, old);
+		final String error = createJobInStage(Job.ERROR, old);
+		final String canceled = createJobInStage(Job.CANCELED, old);
+		assertThat("incorrect count", ajs.archiveJobs(new Date(), 10), is(3));
+		
+		ajs.shareJob("purge", complete, Arrays.asList("foo", "bar"));
+		assertThat("incorrect shared", ajs.getJob("bar", complete).getShared(),
+				is(Arrays.asList("foo", "bar")));
+		ajs.unshareJob("bar", complete, Arrays.asList("bar"));
+		assertThat("incorrect shared", ajs.getJob("foo", complete).getShared(),
+				is(Arrays.asList("foo")));
+		
+		ajs.deleteJob("purge", complete);
+		try {
+			ajs.getJob("purge", complete);
+			fail("got deleted job");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NoSuchJobException(String.format(
+					"There is no job %s viewable by user %s", complete,
+					"purge")));
+		}
+		
+		// archived jobs are purged once the job collection has been purged
+		createJobInStage(Job.ERROR, old);
+		assertThat("incorrect count", ajs.purgeJobs(Job.ERROR, new Date(), 10),
+				is(2));
+		assertThat("incorrect archived jobs", getArchivedJobIDs(),
+				is((Set<String>) new HashSet<String>(Arrays.asList(canceled))));
+		assertThat("incorrect jobs", getJobIDs(),
+				is((Set<String>) new HashSet<String>()));
+		failGetJob("purge", error, new NoSuchJobException(String.format(
+				"There is no job %s viewable by user %s", error, "purge")));
+	}
+	
+	@Test
+	public void archiver() throws Exception {
+		final JobState ajs = getArchiveJobState();
+		final long day = 24 * 60 * 60 * 1000L;
+		final Date old = new Date(System.currentTimeMillis() - 3 * day);
+		final String c1 = createJobInStage(Job.COMPLETE, old);
+		final String c2 = createJobInStage(Job.COMPLETE, old);
+		final String e1 = createJobInStage(Job.ERROR, old);
+		final String s1 = createJobInStage(Job.STARTED, old);
+		final String c3 = createJobInStage(Job.COMPLETE,
+				new Date(System.currentTimeMillis() - day));
+		
+		final JobArchiver a = new JobArchiver(ajs, 2, 2, 0);
+		assertThat("incorrect last run", a.getLastRun(), is((Date) null));
+		assertThat("incorrect days", a.getAfterDays(), is(2));
+		assertThat("incorrect count", a.archive(), is(3L));
+		assertThat("incorrect jobs", getJobIDs(), is((Set<String>)
+				new HashSet<String>(Arrays.asList(s1, c3))));
+		assertThat("incorrect archived jobs", getArchivedJobIDs(),
+				is((Set<String>) new HashSet<String>(Arrays.asList(c1, c2,
+						e1))));
+		assertThat("incorrect archived", a.getArchivedCount(), is(3L));
+		assertThat("incorrect last run archived",
+				a.getLastRunArchivedCount(), is(3L));
+		assertTrue("incorrect last run", a.getLastRun() != null);
+		assertThat("incorrect running", a.isRunning(), is(false));
+		
+		assertThat("incorrect count", a.archive(), is(0L));
+		assertThat("incorrect archived", a.getArchivedCount(), is(3L));
+		assertThat("incorrect last run archived",
+				a.getLastRunArchivedCount(), is(0L));
+		a.close();
+	}
+	
+	@Test
+	public void archiveBadArgs() throws Exception {
+		final JobState ajs = getArchiveJobState();
+		failArchiveJobs(ajs, null, 1, new NullPointerException("before"));
+		failArchiveJobs(ajs, new Date(), 0, new IllegalArgumentException(
+				"limit must be at least 1"));
+		
+		failCreateArchiver(null, 1, 1, 0, new NullPointerException("js"));
+		failCreateArchiver(js, 1, 1, 0, new IllegalArgumentException(
+				"The job state instance has no archive"));
+		failCreateArchiver(ajs, 0, 1, 0, new IllegalArgumentException(
+				"afterDays must be at least 1"));
+		failCreateArchiver(ajs, 1, 0, 0, new IllegalArgumentException(
+				"batchSize must be at least 1"));
+		failCreateArchiver(ajs, 1, 1, -1, new IllegalArgumentException(
+				"batchPauseMS cannot be negative"));
+		
+		final JobArchiver a = new JobArchiver(ajs, 1, 1, 0);
+		try {
+			a.start(0);
+			fail("started archiver with bad interval");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					"intervalMS must be at least 1"));
+		}
+		a.start(100000);
+		try {
+			a.start(100000);
+			fail("started archiver twice");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalStateException(
+					"The archiver is already started"));
+		}
+		a.close();
+	}
+	
+	private void failArchiveJobs(
+			final JobState js,
+			final Date before,
+			final int limit,
+			final Exception e) {
+		try {
+			js.archiveJobs(before, limit);
+			fail("archived jobs but expected fail");
+		} catch (Exception exp) {
+			assertExceptionCorrect(exp, e);
+		}
+	}
+	
+	private void failCreateArchiver(
+			final JobState js,
+			final int afterDays,
+			final int batchSize,
+			final long batchPauseMS,
+			final Exception e) {
+		try {
+			new JobArchiver(js, afterDays, batchSize, batchPauseMS);
+			fail("created archiver but expected fail");
+		} catch (Exception exp) {
+			assertExceptionCorrect(exp, e);
+		}
+	}
+	
+	private JobState getPayloadJobState() throws Exception {
+		return JobState.getBuilder(jobcol, new SchemaManager(schemacol))
+				.withUpdateNotifier(new JobUpdateNotifier(1))
+				.withArchive(archcol).withPayloadCollection(payloadcol)
+				.build();
+	}
+	
+	private Document getPayloadDoc(final String jobid) {
+		return payloadcol.find(new Document("_id", new ObjectId(jobid)))
+				.first();
+	}
+	
+	private JobResults makePayloadResults(final int count) {
+		final List<JobResult> jrs = new LinkedList<JobResult>();
+		for (int i = 0; i < count; i++) {
+			jrs.add(new JobResult("s" + i, "url" + i, "id" + i, "desc" + i));
+		}
+		return new JobResults(jrs, "ws url", Arrays.asList("ws id"),
+				"shock url", Arrays.asList("node"));
+	}
+	
+	private JobResults subResults(
+			final JobResults res,
+			final int start,
+			final int end) {
+		return new JobResults(res.getResults().subList(start, end),
+				res.getWorkspaceurl(), res.getWorkspaceids(),
+				res.getShockurl(), res.getShocknodes());
+	}
+	
+	// the results stored in the job document when there's a payload
+	private JobResults summary(final JobResults res) {
+		return new JobResults(null, res.getWorkspaceurl(),
+				res.getWorkspaceids(), res.getShockurl(), res.getShocknodes());
+	}
+	
+	@Test
+	public void payloadCollection() throws Exception {
+		final JobState pjs = getPayloadJobState();
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final JobResults res = makePayloadResults(3);
+		final String err = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		pjs.completeJob("pay", err, "serv", "st2", "some error", res);
+		final String comp = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		pjs.completeJob("pay", comp, "serv", "st2", null, res);
+		final String empty = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		pjs.completeJob("pay", empty, "serv", "st2", null, null);
+		
+		// the error and result list are only in the payload collection
+		for (final String id: Arrays.asList(err, comp, empty)) {
+			final Document d = getJobDoc(id);
+			assertThat("incorrect error", d.get("errormsg"), is((Object) null));
+		}
+		for (final String id: Arrays.asList(err, comp)) {
+			assertThat("incorrect results", getJobDoc(id).get("results",
+					Document.class).keySet(),
+					is((Set<String>) new HashSet<String>(Arrays.asList(
+							"workspaceurl", "workspaceids", "shockurl",
+							"shocknodes"))));
+		}
+		assertThat("incorrect results", getJobDoc(empty).get("results"),
+				is((Object) null));
+		assertThat("incorrect payload", getPayloadDoc(err).keySet(),
+				is((Set<String>) new HashSet<String>(Arrays.asList(
+						"_id", "errormsg", "results"))));
+		assertThat("incorrect payload", getPayloadDoc(comp)
+				.get("errormsg"), is((Object) null));
+		assertThat("incorrect payload", getPayloadDoc(empty),
+				is((Document) null));
+		
+		// jobs only include a summary of the results
+		checkJob(pjs.getJob("pay", err), err, Job.ERROR, null, "pay", null,
+				"st2", "serv", "d", "none", null, null, true, true, null,
+				summary(res));
+		checkJob(pjs.getJob("pay", empty), empty, Job.COMPLETE, null, "pay",
+				null, "st2", "serv", "d", "none", null, null, true, false,
+				null, null);
+		final List<Job> listed = pjs.listJobs("pay", null, false, false,
+				false, false, false, auth, UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				Arrays.asList(UJSAuthorizer.DEFAULT_AUTH_PARAM), 0, true, null)
+				.getJobs();
+		assertThat("incorrect jobs", toIDs(listed),
+				is(Arrays.asList(err, comp, empty)));
+		assertThat("incorrect results", listed.get(1).getResults(),
+				is(summary(res)));
+		assertThat("incorrect results", listed.get(2).getResults(),
+				is((JobResults) null));
+		try (final JobStream<Job> jobs = pjs.streamJobs("pay", null, false,
+				false, false, false, false, auth,
+				UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				Arrays.asList(UJSAuthorizer.DEFAULT_AUTH_PARAM), 0, false,
+				null)) {
+			assertThat("incorrect job", jobs.next().getResults(),
+					is((JobResults) null));
+			assertThat("incorrect job", jobs.next().getResults(),
+					is(summary(res)));
+			assertThat("incorrect job", jobs.next().getResults(),
+					is(summary(res)));
+			assertThat("incorrect next", jobs.hasNext(), is(false));
+		}
+		
+		// ranges of the error and results
+		assertThat("incorrect error", pjs.getDetailedError("pay", err, auth,
+				0, 0), is("some error"));
+		assertThat("incorrect error", pjs.getDetailedError("pay", err, auth,
+				0, 4), is("some"));
+		assertThat("incorrect error", pjs.getDetailedError("pay", err, auth,
+				5, 0), is("error"));
+		assertThat("incorrect error", pjs.getDetailedError("pay", err, auth,
+				5, 100), is("error"));
+		assertThat("incorrect error", pjs.getDetailedError("pay", err, auth,
+				20, 1), is(""));
+		assertThat("incorrect error", pjs.getDetailedError("pay", comp, auth,
+				0, 0), is((String) null));
+		assertThat("incorrect results", pjs.getResults("pay", comp, auth,
+				0, 0), is(res));
+		assertThat("incorrect results", pjs.getResults("pay", comp, auth,
+				1, 1), is(subResults(res, 1, 2)));
+		assertThat("incorrect results", pjs.getResults("pay", err, auth,
+				1, 0), is(subResults(res, 1, 3)));
+		assertThat("incorrect results", pjs.getResults("pay", err, auth,
+				5, 2), is(subResults(res, 3, 3)));
+		assertThat("incorrect results", pjs.getResults("pay", empty, auth,
+				0, 0), is((JobResults) null));
+		
+		// a failed completion doesn't change the payload
+		try {
+			pjs.completeJob("pay", comp, "serv", "st3", "other error", null);
+			fail("completed job twice");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NoSuchJobException(String.format(
+					"There is no uncompleted job %s for user pay started by service serv",
+					comp)));
+		}
+		assertThat("incorrect results", pjs.getResults("pay", comp, auth,
+				0, 0), is(res));
+		
+		// the payload is deleted with the job
+		pjs.deleteJob("pay", comp);
+		assertThat("incorrect payload", getPayloadDoc(comp),
+				is((Document) null));
+		jobcol.updateOne(new Document("_id", new ObjectId(err)),
+				new Document("$set", new Document("updated",
+						new Date(System.currentTimeMillis() - 100000))));
+		assertThat("incorrect count", pjs.purgeJobs(Job.ERROR,
+				new Date(System.currentTimeMillis() - 50000), 10), is(1));
+		assertThat("incorrect payload", getPayloadDoc(err),
+				is((Document) null));
+	}
+	
+	@Test
+	public void payloadWrittenBeforeCompletion() throws Exception {
+		final JobState pjs = getPayloadJobState();
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final JobResults res = makePayloadResults(3);
+		final String id = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		// simulate a completion that failed after writing the payload
+		payloadcol.insertOne(new Document("_id", new ObjectId(id))
+				.append("errormsg", "stale error")
+				.append("results", new Document("shockurl", "stale url")));
+		checkJob(pjs.getJob("pay", id), id, "started", null, "pay", null,
+				"st", "serv", "d", "none", null, null, false, false, null,
+				null);
+		assertThat("incorrect results", pjs.getResults("pay", id, auth,
+				0, 0), is((JobResults) null));
+		assertThat("incorrect error", pjs.getDetailedError("pay", id, auth,
+				0, 0), is((String) null));
+		
+		// the retried completion replaces the payload
+		pjs.completeJob("pay", id, "serv", "st2", "some error", res);
+		assertThat("incorrect results", pjs.getResults("pay", id, auth,
+				0, 0), is(res));
+		assertThat("incorrect error", pjs.getDetailedError("pay", id, auth,
+				0, 0), is("some error"));
+		
+		// a retried completion without a payload removes the payload
+		final String empty = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		payloadcol.insertOne(new Document("_id", new ObjectId(empty))
+				.append("errormsg", "stale error"));
+		pjs.completeJob("pay", empty, "serv", "st2", null, null);
+		assertThat("incorrect payload", getPayloadDoc(empty),
+				is((Document) null));
+		assertThat("incorrect results", pjs.getResults("pay", empty, auth,
+				0, 0), is((JobResults) null));
+		
+		// completions of other users' jobs don't write a payload
+		final String other = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		try {
+			pjs.completeJob("pay1", other, "serv", "st2", "some error", res);
+			fail("completed another user's job");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NoSuchJobException(String.format(
+					"There is no uncompleted job %s for user pay1 started by service serv",
+					other)));
+		}
+		assertThat("incorrect payload", getPayloadDoc(other),
+				is((Document) null));
+	}
+	
+	@Test
+	public void payloadInJobDocument() throws Exception {
+		// jobs completed without a payload collection are still readable
+		final JobState pjs = getPayloadJobState();
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final JobResults res = makePayloadResults(3);
+		final String id = js.createAndStartJob("pay", "serv", "st", "d", null);
+		js.completeJob("pay", id, "serv", "st2", "some error", res);
+		assertThat("incorrect payload", getPayloadDoc(id),
+				is((Document) null));
+		
+		checkJob(pjs.getJob("pay", id), id, Job.ERROR, null, "pay", null,
+				"st2", "serv", "d", "none", null, null, true, true,
+				"some error", res);
+		assertThat("incorrect error", pjs.getDetailedError("pay", id, auth,
+				0, 0), is("some error"));
+		assertThat("incorrect error", pjs.getDetailedError("pay", id, auth,
+				2, 3), is("me "));
+		assertThat("incorrect results", pjs.getResults("pay", id, auth,
+				0, 0), is(res));
+		assertThat("incorrect results", pjs.getResults("pay", id, auth,
+				2, 5), is(subResults(res, 2, 3)));
+		
+		// canceled jobs have no error or results
+		final String canceled = pjs.createAndStartJob("pay", "serv", "st",
+				"d", null);
+		pjs.cancelJob("pay", canceled, "cancel");
+		assertThat("incorrect error", pjs.getDetailedError("pay", canceled,
+				auth, 0, 0), is((String) null));
+		assertThat("incorrect results", pjs.getResults("pay", canceled, auth,
+				0, 0), is((JobResults) null));
+	}
+	
+	@Test
+	public void payloadCompression() throws Exception {
+		final JobState pjs = getPayloadJobState();
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			sb.append("error \u2d5e" + i + "\n");
+		}
+		final String bigerr = sb.toString();
+		final JobResults res = makePayloadResults(200);
+		final String id = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		pjs.completeJob("pay", id, "serv", "st2", bigerr, res);
+		
+		// large errors and results are stored compressed
+		final Document d = getPayloadDoc(id);
+		assertThat("incorrect error", d.get("errormsg", Document.class)
+				.keySet(), is((Set<String>) new HashSet<String>(
+						Arrays.asList("deflated"))));
+		assertThat("incorrect results", d.get("results", Document.class)
+				.keySet(), is((Set<String>) new HashSet<String>(
+						Arrays.asList("deflated"))));
+		
+		checkJob(pjs.getJob("pay", id), id, Job.ERROR, null, "pay", null,
+				"st2", "serv", "d", "none", null, null, true, true, null,
+				summary(res));
+		final List<Job> listed = pjs.listJobs("pay", null, false, false,
+				false, false, false, auth, UJSAuthorizer.DEFAULT_AUTH_STRAT,
+				Arrays.asList(UJSAuthorizer.DEFAULT_AUTH_PARAM), 0, true, null)
+				.getJobs();
+		assertThat("incorrect results", listed.get(0).getResults(),
+				is(summary(res)));
+		assertThat("incorrect error", pjs.getDetailedError("pay", id, auth,
+				0, 0), is(bigerr));
+		assertThat("incorrect error", pjs.getDetailedError("pay", id, auth,
+				6, 4), is("\u2d5e0\ne"));
+		assertThat("incorrect results", pjs.getResults("pay", id, auth,
+				0, 0), is(res));
+		assertThat("incorrect results", pjs.getResults("pay", id, auth,
+				10, 5), is(subResults(res, 10, 15)));
+		assertThat("incorrect results", pjs.getResults("pay", id, auth,
+				190, 0), is(subResults(res, 190, 200)));
+		
+		// large payloads from before compression was added
+		payloadcol.updateOne(new Document("_id", new ObjectId(id)),
+				new Document("$set", new Document("errormsg", bigerr)));
+		assertThat("incorrect error", pjs.getDetailedError("pay", id, auth,
+				0, 0), is(bigerr));
+		
+		// small payloads are not compressed, see payloadCollection()
+		final String small = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		pjs.completeJob("pay", small, "serv", "st2", "some error",
+				makePayloadResults(1));
+		assertThat("incorrect error", getPayloadDoc(small).get("errormsg"),
+				is((Object) "some error"));
+		assertThat("incorrect results", getPayloadDoc(small).get("results",
+				Document.class).containsKey("deflated"), is(false));
+	}
+	
+	@Test
+	public void payloadBadArgs() throws Exception {
+		final JobState pjs = getPayloadJobState();
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		final String id = pjs.createAndStartJob("pay", "serv", "st", "d",
+				null);
+		pjs.completeJob("pay", id, "serv", "st2", "some error", null);
+		
+		failGetPayload(pjs, "pay", id, -1, 0, new IllegalArgumentException(
+				"offset cannot be negative"));
+		failGetPayload(pjs, "pay", id, 0, -1, new IllegalArgumentException(
+				"length cannot be negative"));
+		failGetPayload(pjs, "pay", "foo", 0, 0, new IllegalArgumentException(
+				"Job ID foo is not a legal ID"));
+		failGetPayload(pjs, "other", id, 0, 0, new NoSuchJobException(
+				String.format("There is no job %s viewable by user other",
+						id)));
+		assertThat("incorrect error", pjs.getDetailedError("pay", id, auth,
+				0, 0), is("some error"));
+	}
+	
+	private void failGetPayload(
+			final JobState js,
+			final String user,
+			final String id,
+			final int offset,
+			final int length,
+			final Exception e) {
+		final UJSAuthorizer auth = new DefaultUJSAuthorizer();
+		try {
+			js.getDetailedError(user, id, auth, offset, length);
+			fail("got error but expected fail");
+		} catch (Exception exp) {
+			assertExceptionCorrect(exp, e);
+		}
+		try {
+			js.getResults(user, id, auth, offset, length);
+			fail("got results but expected fail");
+		} catch (Exception exp) {
+			assertExceptionCorrect(exp, e);
+		}
+	}
 }
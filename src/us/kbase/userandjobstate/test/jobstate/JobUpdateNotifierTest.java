@@ -0,0 +1,152 @@
+package us.kbase.userandjobstate.test.jobstate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import us.kbase.userandjobstate.jobstate.JobUpdateNotifier;
+import us.kbase.userandjobstate.jobstate.JobUpdateNotifier.Waiter;
+
+public class JobUpdateNotifierTest {
+
+	@Test
+	public void notifyBeforeAwait() throws Exception {
+		final JobUpdateNotifier n = new JobUpdateNotifier(2);
+		final Waiter w = n.register("job1");
+		assertThat("incorrect job id", w.getJobID(), is("job1"));
+		assertThat("incorrect waiter count", n.getWaiterCount(), is(1));
+		n.notifyUpdated("job2");
+		n.notifyUpdated("job1");
+		// the update happened after registration, so isn't missed
+		assertThat("incorrect await result", n.await(w, 0), is(true));
+		assertThat("incorrect waiter count", n.getWaiterCount(), is(0));
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		final JobUpdateNotifier n = new JobUpdateNotifier(2);
+		final Waiter w = n.register("job1");
+		n.notifyUpdated("job2");
+		final long start = System.currentTimeMillis();
+		assertThat("incorrect await result", n.await(w, 100), is(false));
+		assertThat("returned before timeout",
+				System.currentTimeMillis() - start >= 100, is(true));
+		assertThat("incorrect waiter count", n.getWaiterCount(), is(0));
+
+		// a new registration after the timeout still works
+		final Waiter w2 = n.register("job1");
+		n.notifyUpdated("job1");
+		assertThat("incorrect await result", n.await(w2, 0), is(true));
+	}
+
+	@Test
+	public void notifyMultipleWaiters() throws Exception {
+		final JobUpdateNotifier n = new JobUpdateNotifier(3);
+		final CountDownLatch registered = new CountDownLatch(2);
+		final CountDownLatch done = new CountDownLatch(2);
+		final AtomicBoolean allWoken = new AtomicBoolean(true);
+		for (int i = 0; i < 2; i++) {
+			new Thread(() -> {
+				final Waiter w = n.register("job1");
+				registered.countDown();
+				try {
+					if (!n.await(w, 10000)) {
+						allWoken.set(false);
+					}
+				} catch (InterruptedException e) {
+					allWoken.set(false);
+				}
+				done.countDown();
+			}).start();
+		}
+		registered.await();
+		// a waiter on another job is unaffected
+		final Waiter other = n.register("job2");
+		n.notifyUpdated("job1");
+		assertThat("waiters not woken", done.await(5, TimeUnit.SECONDS),
+				is(true));
+		assertThat("waiter timed out", allWoken.get(), is(true));
+		assertThat("incorrect waiter count", n.getWaiterCount(), is(1));
+		assertThat("incorrect await result", n.await(other, 1), is(false));
+		assertThat("incorrect waiter count", n.getWaiterCount(), is(0));
+	}
+
+	@Test
+	public void maxWaiters() throws Exception {
+		final JobUpdateNotifier n = new JobUpdateNotifier(2);
+		assertThat("incorrect max", n.getMaxWaiters(), is(2));
+		final Waiter w1 = n.register("job1");
+		final Waiter w2 = n.register("job2");
+		assertThat("expected no waiter", n.register("job3"), nullValue());
+		assertThat("incorrect waiter count", n.getWaiterCount(), is(2));
+
+		n.release(w1);
+		n.release(w1); // no effect
+		assertThat("incorrect waiter count", n.getWaiterCount(), is(1));
+		final Waiter w3 = n.register("job3");
+		assertThat("incorrect job id", w3.getJobID(), is("job3"));
+		n.release(w2);
+		n.release(w3);
+		n.release(null);
+		assertThat("incorrect waiter count", n.getWaiterCount(), is(0));
+
+		assertThat("expected no waiter",
+				new JobUpdateNotifier(0).register("job1"), nullValue());
+	}
+
+	@Test
+	public void releaseKeepsOtherWaiters() throws Exception {
+		final JobUpdateNotifier n = new JobUpdateNotifier(2);
+		final Waiter w1 = n.register("job1");
+		final Waiter w2 = n.register("job1");
+		n.release(w1);
+		n.notifyUpdated("job1");
+		assertThat("incorrect await result", n.await(w2, 0), is(true));
+	}
+
+	@Test
+	public void failAwaitReleased() throws Exception {
+		final JobUpdateNotifier n = new JobUpdateNotifier(1);
+		final Waiter w = n.register("job1");
+		n.release(w);
+		try {
+			n.await(w, 1);
+			fail("awaited released waiter");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalStateException(
+					"Waiter was already released"));
+		}
+		try {
+			n.await(null, 1);
+			fail("awaited null waiter");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NullPointerException("waiter"));
+		}
+	}
+
+	@Test
+	public void failConstruct() throws Exception {
+		try {
+			new JobUpdateNotifier(-1);
+			fail("created notifier with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalArgumentException(
+					"maxWaiters cannot be negative"));
+		}
+		try {
+			new JobUpdateNotifier(1).register(null);
+			fail("registered with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NullPointerException("jobID"));
+		}
+	}
+}
@@ -4,11 +4,16 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -17,6 +22,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -35,6 +43,9 @@ import us.kbase.common.test.controllers.mongo.MongoController;
 import us.kbase.test.auth2.authcontroller.AuthController;
 import us.kbase.userandjobstate.CreateJobParams;
 import us.kbase.userandjobstate.InitProgress;
+import us.kbase.userandjobstate.JobProgressUpdate;
+import us.kbase.userandjobstate.JobUpdateResult;
+import us.kbase.userandjobstate.ListJobsParams;
 import us.kbase.userandjobstate.Result;
 import us.kbase.userandjobstate.Results;
 import us.kbase.userandjobstate.UserAndJobStateClient;
@@ -198,6 +209,224 @@ public class JSONRPCLayerTest extends JSONRPCLayerTestUtils {
 		failGetHasState(CLIENT1, USER2, "akey1", 1L);
 	}
 	
+	@Test
+	public void getSetStates() throws Exception {
+		final Map<String, UObject> states = new HashMap<String, UObject>();
+		states.put("key1", new UObject(Arrays.asList(1, 2)));
+		states.put("key2", new UObject("foo"));
+		CLIENT1.setStates("serv1", states);
+		CLIENT1.setStatesAuth(TOKEN2, Collections.singletonMap(
+				"key1", new UObject("auth")));
+		
+		final Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("key1", Arrays.asList(1, 2));
+		expected.put("key2", "foo");
+		assertThat("incorrect states", toObjects(CLIENT1.getStates("serv1",
+				Arrays.asList("key1", "key2", "key3"), 0L)), is(expected));
+		assertThat("incorrect states", toObjects(CLIENT1.getStates(USER2,
+				Arrays.asList("key1", "key2"), 1L)),
+				is(Collections.singletonMap("key1", (Object) "auth")));
+		assertThat("incorrect states", toObjects(CLIENT2.getStates("serv1",
+				Arrays.asList("key1", "key2"), 0L)),
+				is(Collections.<String, Object>emptyMap()));
+		succeedGetHasState(CLIENT1, "serv1", "key2", 0L, "foo");
+		
+		try {
+			CLIENT1.getStates("serv1", new ArrayList<String>(), 0L);
+			fail("got states with no keys");
+		} catch (ServerException se) {
+			assertThat("correct exception", se.getLocalizedMessage(),
+					is("No keys provided"));
+		}
+		try {
+			CLIENT1.setStates("serv1", new HashMap<String, UObject>());
+			fail("set states with no states");
+		} catch (ServerException se) {
+			assertThat("correct exception", se.getLocalizedMessage(),
+					is("No states provided"));
+		}
+	}
+	
+	@Test
+	public void batch() throws Exception {
+		CLIENT1.setState("serv1", "key1", new UObject("val1"));
+		final List<Object> calls = Arrays.asList(
+				rpcCall("1", "get_state", Arrays.asList("serv1", "key1", 0)),
+				"not a call",
+				rpcCall("3", "get_state", Arrays.asList("serv1", "key2", 0)),
+				rpcCall("4", "ver", new ArrayList<Object>()),
+				rpcCall("5", "wait_for_job_update", Arrays.asList(
+						"57ec06aee4b0b05cf8996b89", null, 1)));
+		Tuple2<Integer, Object> res = postBatch(TOKEN1, calls);
+		assertThat("incorrect status", res.getE1(), is(200));
+		@SuppressWarnings("unchecked")
+		final List<Map<String, Object>> results =
+				(List<Map<String, Object>>) res.getE2();
+		assertThat("incorrect result count", results.size(), is(5));
+		assertThat("incorrect id", results.get(0).get("id"), is((Object) "1"));
+		assertThat("incorrect result", results.get(0).get("result"),
+				is((Object) Arrays.asList("val1")));
+		checkBatchError(results.get(1), null, -32600,
+				"Invalid request: a call must be a JSON object");
+		checkBatchError(results.get(2), "3", -32500,
+				"There is no key key2 for the unauthorized service serv1");
+		assertThat("incorrect id", results.get(3).get("id"), is((Object) "4"));
+		assertThat("incorrect result", results.get(3).get("result"),
+				is((Object) Arrays.asList("0.2.3")));
+		checkBatchError(results.get(4), "5", -32600,
+				"Invalid request: UserAndJobState.wait_for_job_update may " +
+				"not be called in a batch");
+		
+		res = postBatch(TOKEN1, new ArrayList<Object>());
+		assertThat("incorrect status", res.getE1(), is(500));
+		checkBatchError(res.getE2(), null, -32600,
+				"Invalid request: a batch must contain at least one call");
+		
+		res = postBatch(TOKEN2 + "a", calls);
+		assertThat("incorrect status", res.getE1(), is(500));
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> err = (Map<String, Object>)
+				((Map<String, Object>) res.getE2()).get("error");
+		assertThat("incorrect code", err.get("code"), is((Object) (-32400)));
+		assertThat("incorrect message", ((String) err.get("message"))
+				.startsWith("Token validation failed: "), is(true));
+	}
+	
+	@Test
+	public void compression() throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("a large and repetitive value ");
+		}
+		final String big = sb.toString();
+		
+		// gzipped request body
+		final ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		try (final GZIPOutputStream os = new GZIPOutputStream(gz)) {
+			UObject.getMapper().writeValue(os, rpcCall("1", "set_state",
+					Arrays.asList("serv1", "big", big)));
+		}
+		HttpURLConnection conn = post(TOKEN1, gz.toByteArray(), "gzip", null);
+		assertThat("incorrect status", conn.getResponseCode(), is(200));
+		assertThat("incorrect value", CLIENT1.getState("serv1", "big", 0L)
+				.asClassInstance(Object.class), is((Object) big));
+		
+		// large gzipped response
+		final byte[] getBig = UObject.getMapper().writeValueAsBytes(rpcCall(
+				"2", "get_state", Arrays.asList("serv1", "big", 0)));
+		conn = post(TOKEN1, getBig, null, "deflate;q=0.5, gzip");
+		assertThat("incorrect status", conn.getResponseCode(), is(200));
+		assertThat("incorrect encoding", conn.getHeaderField(
+				"Content-Encoding"), is("gzip"));
+		try (final InputStream is = new GZIPInputStream(
+				conn.getInputStream())) {
+			assertThat("incorrect result", UObject.getMapper().readValue(
+					is, Map.class).get("result"),
+					is((Object) Arrays.asList(big)));
+		}
+		
+		// deflate only
+		conn = post(TOKEN1, getBig, null, "deflate");
+		assertThat("incorrect encoding", conn.getHeaderField(
+				"Content-Encoding"), is("deflate"));
+		try (final InputStream is = new InflaterInputStream(
+				conn.getInputStream())) {
+			assertThat("incorrect result", UObject.getMapper().readValue(
+					is, Map.class).get("result"),
+					is((Object) Arrays.asList(big)));
+		}
+		
+		// gzip refused
+		conn = post(TOKEN1, getBig, null, "gzip;q=0");
+		assertThat("incorrect encoding", conn.getHeaderField(
+				"Content-Encoding"), is((String) null));
+		
+		// small response
+		conn = post(TOKEN1, UObject.getMapper().writeValueAsBytes(
+				rpcCall("3", "ver", new ArrayList<Object>())), null, "gzip");
+		assertThat("incorrect status", conn.getResponseCode(), is(200));
+		assertThat("incorrect encoding", conn.getHeaderField(
+				"Content-Encoding"), is((String) null));
+		assertThat("incorrect result", UObject.getMapper().readValue(
+				conn.getInputStream(), Map.class).get("result"),
+				is((Object) Arrays.asList("0.2.3")));
+		
+		conn = post(TOKEN1, getBig, "br", null);
+		assertThat("incorrect status", conn.getResponseCode(), is(415));
+	}
+	
+	private HttpURLConnection post(
+			final String token,
+			final byte[] body,
+			final String contentEncoding,
+			final String acceptEncoding)
+			throws Exception {
+		final HttpURLConnection conn = (HttpURLConnection) new URL(
+				"http://localhost:" + SERVER.getServerPort()).openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setRequestProperty("Authorization", token);
+		if (contentEncoding != null) {
+			conn.setRequestProperty("Content-Encoding", contentEncoding);
+		}
+		if (acceptEncoding != null) {
+			conn.setRequestProperty("Accept-Encoding", acceptEncoding);
+		}
+		try (final OutputStream os = conn.getOutputStream()) {
+			os.write(body);
+		}
+		return conn;
+	}
+	
+	private Map<String, Object> rpcCall(
+			final String id,
+			final String method,
+			final List<Object> params) {
+		final Map<String, Object> call = new HashMap<String, Object>();
+		call.put("version", "1.1");
+		call.put("id", id);
+		call.put("method", "UserAndJobState." + method);
+		call.put("params", params);
+		return call;
+	}
+	
+	private Tuple2<Integer, Object> postBatch(
+			final String token,
+			final Object calls)
+			throws Exception {
+		final HttpURLConnection conn = post(token,
+				UObject.getMapper().writeValueAsBytes(calls), null, null);
+		final int status = conn.getResponseCode();
+		try (final InputStream is = status == 200 ?
+				conn.getInputStream() : conn.getErrorStream()) {
+			return new Tuple2<Integer, Object>().withE1(status)
+					.withE2(UObject.getMapper().readValue(is, Object.class));
+		}
+	}
+	
+	private void checkBatchError(
+			final Object result,
+			final String id,
+			final int code,
+			final String message) {
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> res = (Map<String, Object>) result;
+		assertThat("incorrect id", res.get("id"), is((Object) id));
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> err = (Map<String, Object>) res.get("error");
+		assertThat("incorrect code", err.get("code"), is((Object) code));
+		assertThat("incorrect message", err.get("message"),
+				is((Object) message));
+	}
+	
+	private Map<String, Object> toObjects(final Map<String, UObject> states) {
+		final Map<String, Object> ret = new HashMap<String, Object>();
+		for (final Map.Entry<String, UObject> e: states.entrySet()) {
+			ret.put(e.getKey(), e.getValue().asClassInstance(Object.class));
+		}
+		return ret;
+	}
+	
 	private void failGetHasState(UserAndJobStateClient client, String service,
 			String key, long auth) throws Exception {
 		String exp = String.format("There is no key %s for the %sauthorized service %s",
@@ -623,6 +852,83 @@ public class JSONRPCLayerTest extends JSONRPCLayerTestUtils {
 				jobid, USER1));
 	}
 
+	@Test
+	public void updateJobsProgress() throws Exception {
+		String[] nearfuture = getNearbyTimes();
+		String jobid1 = CLIENT1.createAndStartJob(TOKEN2, "mu stat",
+				"mu desc", new InitProgress().withPtype("task").withMax(42L),
+				null);
+		String jobid2 = CLIENT1.createAndStartJob(TOKEN2, "mu2 stat",
+				"mu2 desc", new InitProgress().withPtype("none"), null);
+		List<JobUpdateResult> res = CLIENT1.updateJobsProgress(TOKEN2,
+				Arrays.asList(
+						new JobProgressUpdate().withJob(jobid1)
+								.withStatus("mu stat2").withProg(30L)
+								.withEstComplete(nearfuture[0]),
+						new JobProgressUpdate().withJob(jobid2)
+								.withStatus("mu2 stat2"),
+						new JobProgressUpdate().withJob(jobid2)
+								.withStatus("mu2 stat2")
+								.withEstComplete("foo"),
+						new JobProgressUpdate().withJob(jobid2)
+								.withStatus("mu2 stat2")
+								.withProg((long) Integer.MAX_VALUE + 1),
+						new JobProgressUpdate().withJob("foo")
+								.withStatus("mu2 stat2")));
+		assertThat("incorrect result count", res.size(), is(5));
+		checkJobUpdateResult(res.get(0), jobid1, 1L, null);
+		checkJobUpdateResult(res.get(1), jobid2, 1L, null);
+		checkJobUpdateResult(res.get(2), jobid2, 0L,
+				"Unparseable date: Invalid format: \"foo\"");
+		checkJobUpdateResult(res.get(3), jobid2, 0L,
+				"Max progress can be no greater than " + Integer.MAX_VALUE);
+		checkJobUpdateResult(res.get(4), "foo", 0L,
+				"Job ID foo is not a legal ID");
+		checkJob(CLIENT1, jobid1, USER1, null, "started", "mu stat2", USER2,
+				"mu desc", "task", 30L, 42L, nearfuture[1], 0L, 0L, null,
+				null, DEF, DEF, MTMAP);
+		checkJob(CLIENT1, jobid2, USER1, null, "started", "mu2 stat2", USER2,
+				"mu2 desc", "none", null, null, null, 0L, 0L, null, null, DEF,
+				DEF, MTMAP);
+		
+		// the updating service must have started the jobs
+		res = CLIENT1.updateJobsProgress(TOKEN1, Arrays.asList(
+				new JobProgressUpdate().withJob(jobid1).withStatus("s")));
+		checkJobUpdateResult(res.get(0), jobid1, 0L, String.format(
+				"There is no uncompleted job %s for user %s started by service %s",
+				jobid1, USER1, USER1));
+		
+		failUpdateJobsProgress(null, Arrays.asList(
+				new JobProgressUpdate().withJob(jobid1).withStatus("s")),
+				"Service token cannot be null or the empty string");
+		failUpdateJobsProgress(TOKEN2, new LinkedList<JobProgressUpdate>(),
+				"No job updates provided");
+	}
+	
+	private void checkJobUpdateResult(
+			final JobUpdateResult res,
+			final String job,
+			final Long updated,
+			final String error) {
+		assertThat("incorrect job", res.getJob(), is(job));
+		assertThat("incorrect updated", res.getUpdated(), is(updated));
+		assertThat("incorrect error", res.getError(), is(error));
+	}
+	
+	private void failUpdateJobsProgress(
+			final String token,
+			final List<JobProgressUpdate> updates,
+			final String exception)
+			throws Exception {
+		try {
+			CLIENT1.updateJobsProgress(token, updates);
+			fail("updated with bad args");
+		} catch (ServerException se) {
+			assertThat("correct exception", se.getLocalizedMessage(),
+					is(exception));
+		}
+	}
+	
 	private void updateJobBadArgs(String jobid, String token, String status,
 			Long prog, String estCompl, String exception) throws Exception {
 		try {
@@ -1187,6 +1493,13 @@ public class JSONRPCLayerTest extends JSONRPCLayerTestUtils {
 				"workspace service");
 		failListJobs2(CLIENT2, USER1, "foo", Arrays.asList("1"),
 				"Invalid authorization strategy: foo");
+		try {
+			CLIENT2.listJobs2(new ListJobsParams().withSummary(1L));
+			fail("listed job summaries with list_jobs2");
+		} catch (ServerException se) {
+			assertThat("correct exception", se.getLocalizedMessage(),
+					is("Job summaries are only supported by list_jobs3"));
+		}
 	}
 	
 	@Test
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -27,9 +28,11 @@ import us.kbase.common.service.Tuple2;
 import us.kbase.common.service.Tuple3;
 import us.kbase.common.service.Tuple5;
 import us.kbase.common.service.Tuple7;
+import us.kbase.common.service.Tuple8;
 import us.kbase.common.test.TestCommon;
 import us.kbase.userandjobstate.CreateJobParams;
 import us.kbase.userandjobstate.ListJobsParams;
+import us.kbase.userandjobstate.ListJobsResults;
 import us.kbase.userandjobstate.Result;
 import us.kbase.userandjobstate.Results;
 import us.kbase.userandjobstate.UserAndJobStateClient;
@@ -87,6 +90,8 @@ public class JSONRPCLayerTestUtils {
 		ws.add("globus-url", authURL + "/api/legacy/globus/");
 		if (wsurl != null) {
 			ws.add("workspace-url", wsurl);
+			// tests change workspace permissions and expect immediate effect
+			ws.add("workspace-permission-cache-size", "0");
 		}
 		ini.store(iniFile);
 		
@@ -175,7 +180,7 @@ public class JSONRPCLayerTestUtils {
 		
 		assertThat("job meta ok" + s, ret.getE11(), is(meta));
 		assertThat("job desc ok" + s, ret.getE12(), is(desc));
-		checkResults(ret.getE13(), results);
+		checkResults(ret.getE13(), summarize(results));
 		
 		checkJob(cli, id, stage, status, service, desc, progtype, prog,
 				maxprog, estCompl, complete, error, errormsg, results);
@@ -207,7 +212,7 @@ public class JSONRPCLayerTestUtils {
 		assertThat("job complete ok" + s, ret.getE11(), is(complete));
 		assertThat("job error ok" + s, ret.getE12(), is(error));
 		assertThat("job desc ok" + s, ret.getE13(), is(desc));
-		checkResults(ret.getE14(), results);
+		checkResults(ret.getE14(), summarize(results));
 		
 		Tuple5<String, String, Long, String, String> jobdesc =
 				cli.getJobDescription(id);
@@ -235,6 +240,17 @@ public class JSONRPCLayerTestUtils {
 				is(errormsg));
 	}
 	
+	// job info only includes the result list via get_results
+	private Results summarize(Results results) {
+		if (results == null) {
+			return null;
+		}
+		return new Results().withShocknodes(results.getShocknodes())
+				.withShockurl(results.getShockurl())
+				.withWorkspaceids(results.getWorkspaceids())
+				.withWorkspaceurl(results.getWorkspaceurl());
+	}
+	
 	private void checkResults(Results got, Results expected) throws Exception {
 		if (got == null & expected == null) {
 			return;
@@ -386,6 +402,86 @@ public class JSONRPCLayerTestUtils {
 			got.add(new FakeJob(j));
 		}
 		assertThat("got the correct jobs", got, is(expected));
+		
+		final ListJobsResults res = cli.listJobs3(new ListJobsParams()
+				.withAuthstrat(authStrat)
+				.withAuthparams(authparams)
+				.withServices(Arrays.asList(service))
+				.withFilter(filter));
+		got = new HashSet<FakeJob>();
+		for (Tuple13<String, Tuple2<String, String>, String, String, String,
+				Tuple3<String, String, String>, Tuple3<Long, Long, String>,
+				Long, Long, Tuple2<String, String>, Map<String, String>,
+				String, Results> j: res.getJobs()) {
+			got.add(new FakeJob(j));
+		}
+		assertThat("got the correct jobs", got, is(expected));
+		assertThat("incorrect next token", res.getNext(), is((String) null));
+		assertThat("got summaries", res.getSummaries() == null, is(true));
+		
+		final ListJobsResults sumres = cli.listJobs3(new ListJobsParams()
+				.withAuthstrat(authStrat)
+				.withAuthparams(authparams)
+				.withServices(Arrays.asList(service))
+				.withFilter(filter)
+				.withSummary(1L));
+		assertThat("got jobs", sumres.getJobs() == null, is(true));
+		assertThat("incorrect next token", sumres.getNext(),
+				is((String) null));
+		final Map<String, Tuple13<String, Tuple2<String, String>, String,
+				String, String, Tuple3<String, String, String>,
+				Tuple3<Long, Long, String>, Long, Long, Tuple2<String, String>,
+				Map<String, String>, String, Results>> jobs =
+				new HashMap<String, Tuple13<String, Tuple2<String, String>,
+						String, String, String, Tuple3<String, String, String>,
+						Tuple3<Long, Long, String>, Long, Long,
+						Tuple2<String, String>, Map<String, String>, String,
+						Results>>();
+		for (Tuple13<String, Tuple2<String, String>, String, String, String,
+				Tuple3<String, String, String>, Tuple3<Long, Long, String>,
+				Long, Long, Tuple2<String, String>, Map<String, String>,
+				String, Results> j: res.getJobs()) {
+			jobs.put(j.getE1(), j);
+		}
+		assertThat("incorrect summary count", sumres.getSummaries().size(),
+				is(jobs.size()));
+		for (Tuple8<String, Tuple2<String, String>, String, String, String,
+				Tuple3<String, String, String>, Tuple3<Long, Long, String>,
+				String> sum: sumres.getSummaries()) {
+			checkJobSummary(sum, jobs.get(sum.getE1()));
+		}
+	}
+	
+	private void checkJobSummary(
+			Tuple8<String, Tuple2<String, String>, String, String, String,
+				Tuple3<String, String, String>, Tuple3<Long, Long, String>,
+				String> sum,
+			Tuple13<String, Tuple2<String, String>, String, String, String,
+				Tuple3<String, String, String>, Tuple3<Long, Long, String>,
+				Long, Long, Tuple2<String, String>, Map<String, String>,
+				String, Results> job) {
+		assertThat("no matching job for summary " + sum.getE1(),
+				job == null, is(false));
+		assertThat("incorrect owner", sum.getE2().getE1(),
+				is(job.getE2().getE1()));
+		assertThat("incorrect canceledby", sum.getE2().getE2(),
+				is(job.getE2().getE2()));
+		assertThat("incorrect service", sum.getE3(), is(job.getE3()));
+		assertThat("incorrect stage", sum.getE4(), is(job.getE4()));
+		assertThat("incorrect status", sum.getE5(), is(job.getE5()));
+		assertThat("incorrect started", sum.getE6().getE1(),
+				is(job.getE6().getE1()));
+		assertThat("incorrect updated", sum.getE6().getE2(),
+				is(job.getE6().getE2()));
+		assertThat("incorrect est complete", sum.getE6().getE3(),
+				is(job.getE6().getE3()));
+		assertThat("incorrect prog", sum.getE7().getE1(),
+				is(job.getE7().getE1()));
+		assertThat("incorrect max prog", sum.getE7().getE2(),
+				is(job.getE7().getE2()));
+		assertThat("incorrect prog type", sum.getE7().getE3(),
+				is(job.getE7().getE3()));
+		assertThat("incorrect desc", sum.getE8(), is(job.getE12()));
 	}
 
 	@SuppressWarnings("deprecation")
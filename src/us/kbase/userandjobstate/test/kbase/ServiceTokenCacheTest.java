@@ -0,0 +1,165 @@
+package us.kbase.userandjobstate.test.kbase;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import us.kbase.auth.AuthException;
+import us.kbase.userandjobstate.kbase.ServiceTokenCache;
+import us.kbase.userandjobstate.kbase.ServiceTokenCache.TokenValidator;
+
+public class ServiceTokenCacheTest {
+
+	private static class CountingValidator implements TokenValidator {
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public String validate(final String token)
+				throws AuthException, IOException {
+			calls.incrementAndGet();
+			if (token.startsWith("bad")) {
+				throw new AuthException("Invalid token: " + token);
+			}
+			if (token.startsWith("io")) {
+				throw new IOException("Connection refused");
+			}
+			return "user_" + token;
+		}
+	}
+
+	@Test
+	public void cacheHitsAndMisses() throws Exception {
+		final CountingValidator v = new CountingValidator();
+		final ServiceTokenCache c = new ServiceTokenCache(v, 10, 300);
+		assertThat("incorrect user", c.getUserName("tok1"), is("user_tok1"));
+		assertThat("incorrect user", c.getUserName("tok1"), is("user_tok1"));
+		assertThat("incorrect user", c.getUserName("tok2"), is("user_tok2"));
+		assertThat("incorrect user", c.getUserName("tok1"), is("user_tok1"));
+		assertThat("incorrect call count", v.calls.get(), is(2));
+		assertThat("incorrect hits", c.getHitCount(), is(2L));
+		assertThat("incorrect misses", c.getMissCount(), is(2L));
+		assertThat("incorrect size", c.size(), is(2L));
+	}
+
+	@Test
+	public void invalidTokensNotCached() throws Exception {
+		final CountingValidator v = new CountingValidator();
+		final ServiceTokenCache c = new ServiceTokenCache(v, 10, 300);
+		failGetUserName(c, "badtok", new AuthException("Invalid token: badtok"));
+		failGetUserName(c, "badtok", new AuthException("Invalid token: badtok"));
+		failGetUserName(c, "iotok", new IOException("Connection refused"));
+		failGetUserName(c, null, new IllegalArgumentException(
+				"token cannot be null or the empty string"));
+		failGetUserName(c, "", new IllegalArgumentException(
+				"token cannot be null or the empty string"));
+		assertThat("incorrect call count", v.calls.get(), is(3));
+		assertThat("incorrect size", c.size(), is(0L));
+	}
+
+	@Test
+	public void expiration() throws Exception {
+		final CountingValidator v = new CountingValidator();
+		final ServiceTokenCache c = new ServiceTokenCache(v, 10, 1);
+		c.getUserName("tok1");
+		c.getUserName("tok1");
+		assertThat("incorrect call count", v.calls.get(), is(1));
+		Thread.sleep(1100);
+		c.getUserName("tok1");
+		assertThat("incorrect call count", v.calls.get(), is(2));
+	}
+
+	@Test
+	public void disabled() throws Exception {
+		final CountingValidator v = new CountingValidator();
+		final ServiceTokenCache c = new ServiceTokenCache(v, 0, 300);
+		c.getUserName("tok1");
+		c.getUserName("tok1");
+		assertThat("incorrect call count", v.calls.get(), is(2));
+	}
+
+	@Test
+	public void coalesceConcurrentValidations() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final ServiceTokenCache c = new ServiceTokenCache(t -> {
+			calls.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return "user_" + t;
+		}, 10, 300);
+		final ExecutorService exe = Executors.newFixedThreadPool(5);
+		try {
+			final List<Future<String>> res = new LinkedList<Future<String>>();
+			final Callable<String> get = () -> c.getUserName("tok1");
+			res.add(exe.submit(get));
+			started.await();
+			for (int i = 0; i < 4; i++) {
+				res.add(exe.submit(get));
+			}
+			// give the other threads a chance to block on the validation
+			Thread.sleep(200);
+			release.countDown();
+			for (final Future<String> f: res) {
+				assertThat("incorrect user", f.get(), is("user_tok1"));
+			}
+		} finally {
+			exe.shutdownNow();
+		}
+		assertThat("incorrect call count", calls.get(), is(1));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		final CountingValidator v = new CountingValidator();
+		failConstruct(null, 1, 1, new NullPointerException("validator"));
+		failConstruct(v, -1, 1, new IllegalArgumentException(
+				"maxSize cannot be negative"));
+		failConstruct(v, 1, 0, new IllegalArgumentException(
+				"expirationSec must be at least 1"));
+	}
+
+	private void failConstruct(
+			final TokenValidator v,
+			final int size,
+			final int exp,
+			final Exception expected) {
+		try {
+			new ServiceTokenCache(v, size, exp);
+			fail("constructed bad cache");
+		} catch (Exception got) {
+			assertExceptionCorrect(got, expected);
+		}
+	}
+
+	private void failGetUserName(
+			final ServiceTokenCache c,
+			final String token,
+			final Exception expected) {
+		try {
+			c.getUserName(token);
+			fail("got user name for bad token");
+		} catch (Exception got) {
+			assertExceptionCorrect(got, expected);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package us.kbase.userandjobstate.test.kbase;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.kbase.userandjobstate.kbase.StreamingList;
+import us.kbase.userandjobstate.kbase.StreamingList.StreamingResponse;
+
+public class StreamingListTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static class Source implements Closeable {
+
+		private boolean closed = false;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	// a response that writes its body to the given stream
+	private static HttpServletResponse getResponse(
+			final ByteArrayOutputStream body) {
+		final ServletOutputStream out = new ServletOutputStream() {
+
+			@Override
+			public void write(final int b) {
+				body.write(b);
+			}
+		};
+		return (HttpServletResponse) Proxy.newProxyInstance(
+				StreamingListTest.class.getClassLoader(),
+				new Class<?>[] {HttpServletResponse.class},
+				(proxy, method, args) ->
+						method.getName().equals("getOutputStream") ?
+								out : null);
+	}
+
+	// an iterator that fails after returning the given items
+	private static Iterator<Integer> failAfter(final Integer... items) {
+		final Iterator<Integer> it = Arrays.asList(items).iterator();
+		return new Iterator<Integer>() {
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Integer next() {
+				if (it.hasNext()) {
+					return it.next();
+				}
+				throw new IllegalStateException("the source failed");
+			}
+		};
+	}
+
+	@Test
+	public void serialize() throws Exception {
+		final Source src = new Source();
+		final List<String> l = new StreamingList<String>(
+				Arrays.asList(1, 2, 3).iterator(), i -> "s" + i, src);
+		assertThat("incorrect json",
+				MAPPER.writeValueAsString(Collections.singletonMap("r", l)),
+				is("{\"r\":[\"s1\",\"s2\",\"s3\"]}"));
+		assertThat("source not closed", src.closed, is(true));
+	}
+
+	@Test
+	public void unsupportedOperations() throws Exception {
+		final List<String> l = new StreamingList<String>(
+				Arrays.asList(1).iterator(), i -> "s" + i, new Source());
+		assertThat("incorrect toString", l.toString(),
+				is("StreamingList [used=false]"));
+		failOperation(() -> l.size(), new UnsupportedOperationException(
+				"A streaming list does not know its size"));
+		failOperation(() -> l.get(0), new UnsupportedOperationException(
+				"A streaming list does not support random access"));
+		l.iterator();
+		failOperation(() -> l.iterator(), new IllegalStateException(
+				"A streaming list may only be iterated once"));
+	}
+
+	private void failOperation(final Runnable op, final Exception expected) {
+		try {
+			op.run();
+			fail("expected exception");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, expected);
+		}
+	}
+
+	@Test
+	public void abortOnFailure() throws Exception {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final Source src = new Source();
+		final StreamingResponse res =
+				new StreamingResponse(getResponse(body));
+		try {
+			final List<String> l = new StreamingList<String>(
+					failAfter(1, 2), i -> "s" + i, src);
+			final ServletOutputStream out = res.getOutputStream();
+			out.write("{\"r\":".getBytes(StandardCharsets.UTF_8));
+			try {
+				MAPPER.writeValue(out, l);
+				fail("serialized failing list");
+			} catch (JsonProcessingException e) {
+				// expected
+			}
+			// the error written by the JSON-RPC server is discarded
+			out.write("{\"error\": \"oops\"}".getBytes(
+					StandardCharsets.UTF_8));
+			out.close();
+		} finally {
+			res.close();
+		}
+		assertExceptionCorrect(res.getAbortCause(),
+				new IllegalStateException("the source failed"));
+		assertThat("source not closed", src.closed, is(true));
+		final String written = new String(
+				body.toByteArray(), StandardCharsets.UTF_8);
+		assertThat("incomplete listing not truncated",
+				written.startsWith("{\"r\":"), is(true));
+		assertThat("incomplete listing was closed",
+				written.contains("]"), is(false));
+		assertThat("error was written", written.contains("error"), is(false));
+	}
+
+	@Test
+	public void closeUnserialized() throws Exception {
+		final Source src = new Source();
+		final StreamingResponse res = new StreamingResponse(
+				getResponse(new ByteArrayOutputStream()));
+		new StreamingList<String>(
+				Arrays.asList(1).iterator(), i -> "s" + i, src);
+		assertThat("source closed", src.closed, is(false));
+		res.close();
+		assertThat("source not closed", src.closed, is(true));
+		assertThat("response aborted", res.getAbortCause(),
+				is((Exception) null));
+	}
+}
@@ -12,6 +12,7 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 
+import org.bson.Document;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -19,8 +20,8 @@ import org.junit.Test;
 
 import com.google.common.collect.ImmutableMap;
 import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
 
 import us.kbase.auth.AuthToken;
 import us.kbase.common.exceptions.UnimplementedException;
@@ -56,7 +57,7 @@ public class WorkspaceAuthTest {
 	public static WorkspaceController WS;
 	public static WorkspaceClient WSC1;
 	public static WorkspaceClient WSC2;
-	private static DBCollection JOBCOL;
+	private static MongoCollection<Document> JOBCOL;
 	private static JobState JS;
 	
 	private static AuthController AUTHC;
@@ -106,10 +107,11 @@ public class WorkspaceAuthTest {
 		WSC2 = new WorkspaceClient(new URL("http://localhost:" + port), TOKEN2);
 		WSC1.setIsInsecureHttpConnectionAllowed(true);
 		WSC2.setIsInsecureHttpConnectionAllowed(true);
-		final DB db = new MongoClient("localhost:" + MONGO.getServerPort()).getDB(JOB_DB_NAME);
-		JOBCOL = db.getCollection("jobstate");
-		final DBCollection schemacol = db.getCollection("schema");
-		JS = new JobState(JOBCOL, new SchemaManager(schemacol));
+		final MongoClient mc = new MongoClient("localhost:" + MONGO.getServerPort());
+		JOBCOL = mc.getDatabase(JOB_DB_NAME).getCollection("jobstate");
+		final MongoCollection<Document> schemacol =
+				mc.getDatabase(JOB_DB_NAME).getCollection("schema");
+		JS = JobState.getBuilder(JOBCOL, new SchemaManager(schemacol)).build();
 	}
 	
 	@AfterClass
@@ -0,0 +1,181 @@
+package us.kbase.userandjobstate.test.kbase;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import us.kbase.userandjobstate.authorization.exceptions.UJSAuthorizationException;
+import us.kbase.userandjobstate.kbase.WorkspacePermissionCache;
+import us.kbase.userandjobstate.kbase.WorkspacePermissionCache.PermissionsFetcher;
+
+public class WorkspacePermissionCacheTest {
+
+	/* A fake workspace that returns the permissions stored in perms and
+	 * records the workspace IDs requested in each call.
+	 */
+	private static class FakeWorkspace implements PermissionsFetcher {
+
+		private final Map<Long, Map<String, String>> perms =
+				new HashMap<Long, Map<String, String>>();
+		private final List<List<Long>> calls = new LinkedList<List<Long>>();
+
+		private void setPerm(final long wsid, final String user,
+				final String perm) {
+			if (!perms.containsKey(wsid)) {
+				perms.put(wsid, new HashMap<String, String>());
+			}
+			perms.get(wsid).put(user, perm);
+		}
+
+		@Override
+		public List<Map<String, String>> fetch(final List<Long> wsids)
+				throws UJSAuthorizationException {
+			calls.add(wsids);
+			final List<Map<String, String>> ret =
+					new LinkedList<Map<String, String>>();
+			for (final Long id: wsids) {
+				if (!perms.containsKey(id)) {
+					throw new UJSAuthorizationException(
+							"No workspace with id " + id + " exists");
+				}
+				ret.add(new HashMap<String, String>(perms.get(id)));
+			}
+			return ret;
+		}
+	}
+
+	private static Map<String, String> perm(final String... userPerms) {
+		final Map<String, String> ret = new HashMap<String, String>();
+		for (int i = 0; i < userPerms.length; i += 2) {
+			ret.put(userPerms[i], userPerms[i + 1]);
+		}
+		return ret;
+	}
+
+	@Test
+	public void cacheAndFetchMissing() throws Exception {
+		final FakeWorkspace ws = new FakeWorkspace();
+		ws.setPerm(1, "u1", "a");
+		ws.setPerm(1, "u2", "r");
+		ws.setPerm(2, "u1", "w");
+		ws.setPerm(2, "*", "r");
+		ws.setPerm(3, "u2", "w");
+		final WorkspacePermissionCache c = new WorkspacePermissionCache(100, 300);
+
+		assertThat("incorrect perms", c.getPermissions("u1", Arrays.asList(1L), ws),
+				is(Arrays.asList(perm("u1", "a"))));
+		assertThat("incorrect perms", c.getPermissions("u1",
+				Arrays.asList(2L, 1L, 3L, 2L), ws),
+				is(Arrays.asList(perm("u1", "w", "*", "r"), perm("u1", "a"),
+						perm(), perm("u1", "w", "*", "r"))));
+		// permissions are cached per user
+		assertThat("incorrect perms", c.getPermissions("u2", Arrays.asList(1L), ws),
+				is(Arrays.asList(perm("u2", "r"))));
+
+		// denials are cached as well as grants
+		ws.setPerm(3, "u1", "a");
+		ws.setPerm(1, "u1", "n");
+		assertThat("incorrect perms", c.getPermissions("u1",
+				Arrays.asList(1L, 2L, 3L), ws),
+				is(Arrays.asList(perm("u1", "a"), perm("u1", "w", "*", "r"),
+						perm())));
+
+		assertThat("incorrect fetches", ws.calls, is(Arrays.asList(
+				Arrays.asList(1L), Arrays.asList(2L, 3L), Arrays.asList(1L))));
+		assertThat("incorrect hits", c.getHitCount(), is(4L));
+		assertThat("incorrect misses", c.getMissCount(), is(5L));
+		assertThat("incorrect size", c.size(), is(4L));
+	}
+
+	@Test
+	public void expiration() throws Exception {
+		final FakeWorkspace ws = new FakeWorkspace();
+		ws.setPerm(1, "u1", "r");
+		final WorkspacePermissionCache c = new WorkspacePermissionCache(100, 1);
+		c.getPermissions("u1", Arrays.asList(1L), ws);
+		ws.setPerm(1, "u1", "n");
+		assertThat("incorrect perms", c.getPermissions("u1", Arrays.asList(1L), ws),
+				is(Arrays.asList(perm("u1", "r"))));
+		Thread.sleep(1100);
+		assertThat("incorrect perms", c.getPermissions("u1", Arrays.asList(1L), ws),
+				is(Arrays.asList(perm("u1", "n"))));
+		assertThat("incorrect fetch count", ws.calls.size(), is(2));
+	}
+
+	@Test
+	public void disabled() throws Exception {
+		final FakeWorkspace ws = new FakeWorkspace();
+		ws.setPerm(1, "u1", "r");
+		final WorkspacePermissionCache c = new WorkspacePermissionCache(0, 1);
+		c.getPermissions("u1", Arrays.asList(1L), ws);
+		c.getPermissions("u1", Arrays.asList(1L), ws);
+		assertThat("incorrect fetch count", ws.calls.size(), is(2));
+	}
+
+	@Test
+	public void errorsNotCached() throws Exception {
+		final FakeWorkspace ws = new FakeWorkspace();
+		ws.setPerm(1, "u1", "r");
+		final WorkspacePermissionCache c = new WorkspacePermissionCache(100, 300);
+		failGetPerms(c, "u1", Arrays.asList(1L, 2L), ws,
+				new UJSAuthorizationException("No workspace with id 2 exists"));
+		ws.setPerm(2, "u1", "w");
+		assertThat("incorrect perms", c.getPermissions("u1",
+				Arrays.asList(1L, 2L), ws),
+				is(Arrays.asList(perm("u1", "r"), perm("u1", "w"))));
+		assertThat("incorrect fetch count", ws.calls.size(), is(2));
+	}
+
+	@Test
+	public void badArgs() throws Exception {
+		final FakeWorkspace ws = new FakeWorkspace();
+		final WorkspacePermissionCache c = new WorkspacePermissionCache(100, 300);
+		final List<Long> ids = Collections.emptyList();
+		failGetPerms(c, null, ids, ws, new IllegalArgumentException(
+				"user cannot be null or the empty string"));
+		failGetPerms(c, "", ids, ws, new IllegalArgumentException(
+				"user cannot be null or the empty string"));
+		failGetPerms(c, "u1", null, ws, new NullPointerException("wsids"));
+		failGetPerms(c, "u1", ids, null, new NullPointerException("fetcher"));
+
+		try {
+			new WorkspacePermissionCache(-1, 1);
+			fail("constructed bad cache");
+		} catch (Exception got) {
+			assertExceptionCorrect(got, new IllegalArgumentException(
+					"maxSize cannot be negative"));
+		}
+		try {
+			new WorkspacePermissionCache(1, 0);
+			fail("constructed bad cache");
+		} catch (Exception got) {
+			assertExceptionCorrect(got, new IllegalArgumentException(
+					"expirationSec must be at least 1"));
+		}
+	}
+
+	private void failGetPerms(
+			final WorkspacePermissionCache c,
+			final String user,
+			final List<Long> wsids,
+			final PermissionsFetcher fetcher,
+			final Exception expected) {
+		try {
+			c.getPermissions(user, wsids, fetcher);
+			fail("got perms with bad args");
+		} catch (Exception got) {
+			assertExceptionCorrect(got, expected);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package us.kbase.userandjobstate.test.kbase;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.ServerException;
+import us.kbase.userandjobstate.kbase.WorkspacePermissionsClient;
+
+public class WorkspacePermissionsClientTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final AuthToken TOKEN = new AuthToken("tok", "user");
+
+	/* A fake workspace that records the last request and returns the
+	 * response set by the test.
+	 */
+	private static HttpServer SERVER;
+	private static URL WS_URL;
+	private static volatile int code = 200;
+	private static volatile String response = null;
+	private static volatile JsonNode request = null;
+	private static volatile String token = null;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		SERVER = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		SERVER.createContext("/", ex -> {
+			request = MAPPER.readTree(ex.getRequestBody());
+			token = ex.getRequestHeaders().getFirst("Authorization");
+			final byte[] body = response.getBytes(StandardCharsets.UTF_8);
+			ex.sendResponseHeaders(code, body.length);
+			try (final OutputStream os = ex.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		SERVER.start();
+		WS_URL = new URL("http://localhost:" + SERVER.getAddress().getPort());
+	}
+
+	@AfterClass
+	public static void tearDownClass() throws Exception {
+		if (SERVER != null) {
+			SERVER.stop(0);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		code = 200;
+		response = null;
+		request = null;
+		token = null;
+	}
+
+	private static Map<String, String> perm(final String... userPerms) {
+		final Map<String, String> ret = new HashMap<String, String>();
+		for (int i = 0; i < userPerms.length; i += 2) {
+			ret.put(userPerms[i], userPerms[i + 1]);
+		}
+		return ret;
+	}
+
+	@Test
+	public void getPermissions() throws Exception {
+		response = "{\"version\": \"1.1\", \"id\": \"1\", \"result\": [" +
+				"{\"perms\": [{\"user\": \"a\", \"*\": \"r\"}, {}]}]}";
+		try (final WorkspacePermissionsClient c =
+				new WorkspacePermissionsClient(WS_URL)) {
+			assertThat("incorrect url", c.getURL(), is(WS_URL));
+			final List<Map<String, String>> perms =
+					c.getPermissions(TOKEN, Arrays.asList(4L, 7L));
+			assertThat("incorrect perms", perms, is(Arrays.asList(
+					perm("user", "a", "*", "r"), perm())));
+
+			// connections are reused between calls
+			c.getPermissions(TOKEN, Arrays.asList(4L, 7L));
+		}
+		assertThat("incorrect token", token, is("tok"));
+		assertThat("incorrect method", request.get("method").asText(),
+				is("Workspace.get_permissions_mass"));
+		assertThat("incorrect version", request.get("version").asText(),
+				is("1.1"));
+		assertThat("incorrect params", request.get("params"),
+				is(MAPPER.readTree("[{\"workspaces\": [{\"id\": 4}, " +
+						"{\"id\": 7}]}]")));
+	}
+
+	@Test
+	public void failConstruct() throws Exception {
+		try {
+			new WorkspacePermissionsClient(null);
+			fail("created client with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new NullPointerException("workspaceURL"));
+		}
+	}
+
+	@Test
+	public void failGetPermissionsBadArgs() throws Exception {
+		try (final WorkspacePermissionsClient c =
+				new WorkspacePermissionsClient(WS_URL)) {
+			failGetPermissions(c, null, Arrays.asList(1L),
+					new NullPointerException("token"));
+			failGetPermissions(c, TOKEN, null,
+					new NullPointerException("wsids"));
+		}
+	}
+
+	@Test
+	public void failGetPermissionsServerError() throws Exception {
+		code = 500;
+		response = "{\"version\": \"1.1\", \"id\": \"1\", \"error\": " +
+				"{\"name\": \"JSONRPCError\", \"code\": -32500, " +
+				"\"message\": \"No workspace with id 4 exists\", " +
+				"\"error\": \"trace\"}}";
+		failGetPermissions(Arrays.asList(4L), new ServerException(
+				"No workspace with id 4 exists", -32500, "JSONRPCError",
+				"trace"));
+	}
+
+	@Test
+	public void failGetPermissionsBadResponse() throws Exception {
+		code = 502;
+		response = "<html>bad gateway</html>";
+		failGetPermissions(Arrays.asList(4L), new JsonClientException(
+				"Unparseable response from the workspace, HTTP code 502: " +
+				"<html>bad gateway</html>"));
+
+		code = 200;
+		response = "[]";
+		failGetPermissions(Arrays.asList(4L), new JsonClientException(
+				"Invalid response from the workspace, HTTP code 200"));
+
+		response = "{\"version\": \"1.1\", \"id\": \"1\", \"result\": []}";
+		failGetPermissions(Arrays.asList(4L), new JsonClientException(
+				"The workspace returned no result, HTTP code 200"));
+
+		response = "{\"version\": \"1.1\", \"id\": \"1\", \"result\": [" +
+				"{\"perms\": [{\"user\": \"a\"}]}]}";
+		failGetPermissions(Arrays.asList(4L, 5L), new JsonClientException(
+				"Invalid permissions returned from the workspace"));
+
+		response = "{\"version\": \"1.1\", \"id\": \"1\", \"result\": [{}]}";
+		failGetPermissions(Arrays.asList(4L), new JsonClientException(
+				"Invalid permissions returned from the workspace"));
+	}
+
+	private void failGetPermissions(
+			final List<Long> wsids,
+			final Exception expected)
+			throws Exception {
+		try (final WorkspacePermissionsClient c =
+				new WorkspacePermissionsClient(WS_URL)) {
+			failGetPermissions(c, TOKEN, wsids, expected);
+		}
+	}
+
+	private void failGetPermissions(
+			final WorkspacePermissionsClient client,
+			final AuthToken token,
+			final List<Long> wsids,
+			final Exception expected)
+			throws Exception {
+		try {
+			client.getPermissions(token, wsids);
+			fail("got permissions with bad args");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, expected);
+		}
+	}
+
+	@Test
+	public void failClosed() throws Exception {
+		response = "{\"version\": \"1.1\", \"id\": \"1\", \"result\": [" +
+				"{\"perms\": [{}]}]}";
+		final WorkspacePermissionsClient c =
+				new WorkspacePermissionsClient(WS_URL);
+		c.getPermissions(TOKEN, Arrays.asList(4L));
+		c.close();
+		try {
+			c.getPermissions(TOKEN, Arrays.asList(4L));
+			fail("got permissions with a closed client");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, new IllegalStateException(
+					"Connection pool shut down"));
+		}
+	}
+}
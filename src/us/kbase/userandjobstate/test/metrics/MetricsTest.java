@@ -0,0 +1,173 @@
+package us.kbase.userandjobstate.test.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.common.test.TestCommon.assertExceptionCorrect;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import us.kbase.userandjobstate.metrics.LatencyHistogram;
+import us.kbase.userandjobstate.metrics.Metrics;
+
+public class MetricsTest {
+
+	private static final long MS = 1000000;
+
+	@Test
+	public void histogram() throws Exception {
+		final LatencyHistogram h = new LatencyHistogram();
+		LatencyHistogram.Snapshot s = h.snapshot();
+		assertThat("incorrect count", s.getCount(), is(0L));
+		assertThat("incorrect mean", s.getMeanSeconds(), is(0.0));
+		assertThat("incorrect quantile", s.getQuantileSeconds(0.5), is(0.0));
+
+		h.record(-1); // 0
+		h.record(100000); // exactly on the first bound
+		h.record(100001);
+		h.record(3 * MS);
+		h.record(120000 * MS); // larger than the last bound
+		s = h.snapshot();
+		assertThat("incorrect count", s.getCount(), is(5L));
+		assertThat("incorrect sum", s.getSumSeconds(), is(120.003200001));
+		assertThat("incorrect cumulative", s.getCumulativeCount(0), is(2L));
+		assertThat("incorrect cumulative", s.getCumulativeCount(1), is(3L));
+		assertThat("incorrect cumulative", s.getCumulativeCount(4), is(3L));
+		assertThat("incorrect cumulative", s.getCumulativeCount(5), is(4L));
+		assertThat("incorrect cumulative", s.getCumulativeCount(17), is(4L));
+		assertThat("incorrect cumulative", s.getCumulativeCount(18), is(5L));
+		assertThat("incorrect quantile", s.getQuantileSeconds(0), is(0.0001));
+		assertThat("incorrect quantile", s.getQuantileSeconds(0.4),
+				is(0.0001));
+		assertThat("incorrect quantile", s.getQuantileSeconds(0.6),
+				is(0.00025));
+		assertThat("incorrect quantile", s.getQuantileSeconds(0.8),
+				is(0.005));
+		assertThat("incorrect quantile", s.getQuantileSeconds(1), is(60.0));
+
+		// the snapshot doesn't change
+		h.record(1);
+		assertThat("incorrect count", s.getCount(), is(5L));
+		assertThat("incorrect count", h.snapshot().getCount(), is(6L));
+
+		final List<Double> bounds = LatencyHistogram.getBucketBoundsSeconds();
+		assertThat("incorrect bound count", bounds.size(), is(18));
+		assertThat("incorrect first bound", bounds.get(0), is(0.0001));
+		assertThat("incorrect last bound", bounds.get(17), is(60.0));
+
+		for (final double q: Arrays.asList(-0.1, 1.1)) {
+			try {
+				s.getQuantileSeconds(q);
+				fail("got bad quantile");
+			} catch (Exception e) {
+				assertExceptionCorrect(e, new IllegalArgumentException(
+						"quantile must be between 0 and 1"));
+			}
+		}
+	}
+
+	@Test
+	public void summary() throws Exception {
+		final Metrics m = new Metrics();
+		m.rpcStarted();
+		m.rpcStarted();
+		m.rpcFinished("get_job_info", 2 * MS, false);
+		m.rpcFinished("get_job_info", 4 * MS, true);
+		m.rpcStarted();
+		m.recordCall(Metrics.MONGO, "find", MS, false);
+		m.recordCall(Metrics.AUTH, "validate_token", 20 * MS, true);
+
+		final Map<String, Object> expected = new LinkedHashMap<String, Object>();
+		expected.put("rpcs_in_flight", 1);
+		expected.put("rpcs", Collections.singletonMap("get_job_info",
+				summary(2, 1, 3.0, 2.5, 5.0, 5.0)));
+		final Map<String, Object> calls = new HashMap<String, Object>();
+		calls.put("auth.validate_token", summary(1, 1, 20.0, 25.0, 25.0, 25.0));
+		calls.put("mongo.find", summary(1, 0, 1.0, 1.0, 1.0, 1.0));
+		expected.put("calls", calls);
+		assertThat("incorrect summary", m.getSummary(), is(expected));
+		assertThat("incorrect in flight", m.getRPCsInFlight(), is(1));
+	}
+
+	private Map<String, Object> summary(
+			final long count,
+			final long errors,
+			final double mean,
+			final double p50,
+			final double p95,
+			final double p99) {
+		final Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put("count", count);
+		ret.put("errors", errors);
+		ret.put("mean_ms", mean);
+		ret.put("p50_ms", p50);
+		ret.put("p95_ms", p95);
+		ret.put("p99_ms", p99);
+		return ret;
+	}
+
+	@Test
+	public void prometheus() throws Exception {
+		final Metrics m = new Metrics();
+		m.rpcStarted();
+		m.rpcFinished("status", 3 * MS, false);
+		m.recordCall(Metrics.WORKSPACE, "say \"hi\"", 30 * MS, true);
+		final StringBuilder sb = new StringBuilder();
+		m.writePrometheus(sb);
+		final List<String> lines = Arrays.asList(sb.toString().split("\n"));
+
+		final List<String> expected = new LinkedList<String>();
+		expected.add("# HELP ujs_rpc_duration_seconds Duration of JSON-RPC " +
+				"method calls.");
+		expected.add("# TYPE ujs_rpc_duration_seconds histogram");
+		expected.addAll(buckets("ujs_rpc_duration_seconds",
+				"method=\"status\"", 5));
+		expected.add("ujs_rpc_duration_seconds_sum{method=\"status\"} 0.003");
+		expected.add("ujs_rpc_duration_seconds_count{method=\"status\"} 1");
+		expected.add("# HELP ujs_rpc_errors_total Number of JSON-RPC method " +
+				"calls that failed.");
+		expected.add("# TYPE ujs_rpc_errors_total counter");
+		expected.add("ujs_rpc_errors_total{method=\"status\"} 0");
+		expected.add("# HELP ujs_rpc_in_flight Number of JSON-RPC method " +
+				"calls in progress.");
+		expected.add("# TYPE ujs_rpc_in_flight gauge");
+		expected.add("ujs_rpc_in_flight 0");
+		expected.add("# HELP ujs_call_duration_seconds Duration of calls to " +
+				"MongoDB and other services.");
+		expected.add("# TYPE ujs_call_duration_seconds histogram");
+		final String labels =
+				"system=\"workspace\",operation=\"say \\\"hi\\\"\"";
+		expected.addAll(buckets("ujs_call_duration_seconds", labels, 8));
+		expected.add("ujs_call_duration_seconds_sum{" + labels + "} 0.03");
+		expected.add("ujs_call_duration_seconds_count{" + labels + "} 1");
+		expected.add("# HELP ujs_call_errors_total Number of calls to " +
+				"MongoDB and other services that failed.");
+		expected.add("# TYPE ujs_call_errors_total counter");
+		expected.add("ujs_call_errors_total{" + labels + "} 1");
+		assertThat("incorrect metrics", lines, is(expected));
+	}
+
+	// a single latency in the given bucket
+	private List<String> buckets(
+			final String name,
+			final String labels,
+			final int bucket) {
+		final List<String> ret = new LinkedList<String>();
+		final List<Double> bounds = LatencyHistogram.getBucketBoundsSeconds();
+		for (int i = 0; i < bounds.size(); i++) {
+			ret.add(String.format("%s_bucket{%s,le=\"%s\"} %s", name, labels,
+					bounds.get(i), i < bucket ? 0 : 1));
+		}
+		ret.add(String.format("%s_bucket{%s,le=\"+Inf\"} 1", name, labels));
+		return ret;
+	}
+}
@@ -3,17 +3,24 @@ package us.kbase.userandjobstate.test.userstate;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static us.kbase.userandjobstate.compression.FieldCompression.THRESHOLD;
 
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
 
+import org.bson.Document;
+import org.bson.types.Binary;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -25,12 +32,13 @@ import us.kbase.common.test.TestCommon;
 import us.kbase.common.test.controllers.mongo.MongoController;
 import us.kbase.userandjobstate.userstate.UserState;
 import us.kbase.userandjobstate.userstate.UserState.KeyState;
+import us.kbase.userandjobstate.userstate.UserStateCache;
 import us.kbase.userandjobstate.userstate.exceptions.NoSuchKeyException;
 
-import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
 
 public class UserStateTests {
 	
@@ -38,8 +46,8 @@ public class UserStateTests {
 
 	private static MongoController mongo;
 	
-	private static DBCollection usercol;
-	private static DBCollection schemacol;
+	private static MongoCollection<Document> usercol;
+	private static MongoCollection<Document> schemacol;
 	private static UserState us;
 	
 	@BeforeClass
@@ -50,7 +58,8 @@ public class UserStateTests {
 				Paths.get(TestCommon.getTempDir()));
 		System.out.println("Using Mongo temp dir " + mongo.getTempDir());
 		
-		final DB db = new MongoClient("localhost:" + mongo.getServerPort()).getDB(DB_NAME);
+		final MongoDatabase db = new MongoClient(
+				"localhost:" + mongo.getServerPort()).getDatabase(DB_NAME);
 		usercol = db.getCollection("userstate");
 		schemacol = db.getCollection("schema");
 		us = new UserState(usercol, new SchemaManager(schemacol));
@@ -176,6 +185,21 @@ public class UserStateTests {
 			assertThat("correct exception", iae.getLocalizedMessage(),
 					is(exception));
 		}
+		try {
+			us.setStates(user, service, auth,
+					Collections.singletonMap(key, data));
+			fail("set states w/ bad args");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception", iae.getLocalizedMessage(),
+					is(exception));
+		}
+		try {
+			us.getStates(user, service, auth, Arrays.asList(key));
+			fail("get states w/ bad args");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception", iae.getLocalizedMessage(),
+					is(exception));
+		}
 	}
 	
 	@Test
@@ -283,7 +307,7 @@ public class UserStateTests {
 	private void succeedGetHasState(String user, String service, boolean auth,
 			String key, Map<String, Object> data)
 			throws Exception {
-		Object d = data == null ? null : (Object) new BasicDBObject(data);
+		Object d = data;
 		assertThat("got correct data back",
 				us.getState(user, service, auth, key), is(d));
 		KeyState ks = us.getState(user, service, auth, key, true);
@@ -310,6 +334,434 @@ public class UserStateTests {
 				is(expc));
 	}
 	
+	@Test
+	public void getSetStates() throws Exception {
+		checkGetSetStates(us);
+	}
+	
+	@Test
+	public void getSetStatesCached() throws Exception {
+		final UserStateCache c = new UserStateCache(1000000, 0);
+		checkGetSetStates(new UserState(
+				usercol, new SchemaManager(schemacol), c));
+		// the two unchanged unauthed values and the final get_state are
+		// served from the cache. Missing keys count as misses.
+		assertThat("incorrect hits", c.getHitCount(), is(3L));
+		assertThat("incorrect misses", c.getMissCount(), is(14L));
+	}
+	
+	private void checkGetSetStates(final UserState us) throws Exception {
+		final Map<String, Object> data = new HashMap<String, Object>();
+		data.put("bar", "baz");
+		final Map<String, Object> states = new HashMap<String, Object>();
+		states.put("key1", data);
+		states.put("key2", "foo");
+		states.put("key3", null);
+		us.setStates("foo", "serv", false, states);
+		us.setStates("foo", "serv", true, Collections.singletonMap(
+				"key1", (Object) "auth"));
+		us.setState("foo", "serv", false, "key4", Arrays.asList(1, 2));
+		
+		final Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("key1", data);
+		expected.put("key2", "foo");
+		expected.put("key3", null);
+		expected.put("key4", Arrays.asList(1, 2));
+		final List<String> keys = Arrays.asList(
+				"key1", "key2", "key3", "key4", "key5", "key1");
+		assertThat("incorrect states", getStates(us, "foo", "serv", false, keys),
+				is(expected));
+		
+		// overwrite an existing key
+		states.clear();
+		states.put("key2", "bar");
+		states.put("key5", 42);
+		us.setStates("foo", "serv", false, states);
+		us.removeState("foo", "serv", false, "key4");
+		expected.put("key2", "bar");
+		expected.remove("key4");
+		expected.put("key5", 42);
+		assertThat("incorrect states", getStates(us, "foo", "serv", false, keys),
+				is(expected));
+		assertThat("incorrect states", getStates(us, "foo", "serv", true, keys),
+				is(Collections.singletonMap("key1", (Object) "auth")));
+		assertThat("incorrect states", getStates(us, "foo", "serv", true,
+				Arrays.asList("key2")), is(Collections.<String, Object>emptyMap()));
+		assertThat("incorrect state", us.getState("foo", "serv", false, "key2"),
+				is((Object) "bar"));
+	}
+	
+	private Map<String, Object> getStates(
+			final UserState us,
+			final String user,
+			final String service,
+			final boolean auth,
+			final List<String> keys)
+			throws Exception {
+		final Map<String, Object> ret = new HashMap<String, Object>();
+		for (final Entry<String, KeyState> e:
+				us.getStates(user, service, auth, keys).entrySet()) {
+			assertThat("key doesn't exist", e.getValue().exists(), is(true));
+			ret.put(e.getKey(), e.getValue().getValue());
+		}
+		return ret;
+	}
+	
+	@Test
+	public void getSetStatesBadArgs() throws Exception {
+		final Map<String, Object> many = new HashMap<String, Object>();
+		final List<String> manyKeys = new ArrayList<String>();
+		for (int i = 0; i < 1001; i++) {
+			many.put("key" + i, i);
+			manyKeys.add("key" + i);
+		}
+		failSetStates(null, new IllegalArgumentException("No states provided"));
+		failSetStates(new HashMap<String, Object>(),
+				new IllegalArgumentException("No states provided"));
+		failSetStates(many, new IllegalArgumentException(
+				"No more than 1000 states may be set at once"));
+		final Map<Integer, String> big = new HashMap<Integer, String>();
+		for (int i = 0; i < 10000; i++) {
+			big.put(i, BIG_STR);
+		}
+		final Map<String, Object> states = new HashMap<String, Object>();
+		states.put("key1", "foo");
+		states.put("key2", big);
+		failSetStates(states, new IllegalArgumentException(
+				"Value cannot be > 1000000 bytes when serialized"));
+		assertThat("set a state", us.getStates("foo", "serv", false,
+				Arrays.asList("key1")), is(Collections.<String, KeyState>emptyMap()));
+		
+		failGetStates(null, new IllegalArgumentException("No keys provided"));
+		failGetStates(new ArrayList<String>(),
+				new IllegalArgumentException("No keys provided"));
+		failGetStates(manyKeys, new IllegalArgumentException(
+				"No more than 1000 keys may be requested at once"));
+	}
+	
+	private void failSetStates(
+			final Map<String, Object> states,
+			final Exception expected) {
+		try {
+			us.setStates("foo", "serv", false, states);
+			fail("set bad states");
+		} catch (Exception e) {
+			TestCommon.assertExceptionCorrect(e, expected);
+		}
+	}
+	
+	private void failGetStates(
+			final List<String> keys,
+			final Exception expected) {
+		try {
+			us.getStates("foo", "serv", false, keys);
+			fail("got bad states");
+		} catch (Exception e) {
+			TestCommon.assertExceptionCorrect(e, expected);
+		}
+	}
+	
+	@Test
+	public void cache() throws Exception {
+		final UserStateCache c = new UserStateCache(1000000, 0);
+		final UserState cus = new UserState(
+				usercol, new SchemaManager(schemacol), c);
+		assertThat("incorrect cache", cus.getCache(), is(c));
+		final Map<String, Object> data = new HashMap<String, Object>();
+		data.put("bar", Arrays.asList("baz", 1));
+		final Object d = data;
+		cus.setState("foo", "serv", false, "key", data);
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "key"),
+				is(d));
+		checkCacheCounts(c, 0, 1, 1);
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "key"),
+				is(d));
+		checkCacheCounts(c, 1, 1, 1);
+		
+		// changes by another server are seen via the version
+		final Map<String, Object> data2 = new HashMap<String, Object>();
+		data2.put("bar", "whoo");
+		us.setState("foo", "serv", false, "key", data2);
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "key"),
+				is((Object) data2));
+		checkCacheCounts(c, 1, 2, 1);
+		
+		// as is a remove and recreate, which resets the version
+		us.removeState("foo", "serv", false, "key");
+		us.setState("foo", "serv", false, "key", data);
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "key"),
+				is(d));
+		checkCacheCounts(c, 1, 3, 1);
+		
+		// and a remove
+		us.removeState("foo", "serv", false, "key");
+		final KeyState ks = cus.getState("foo", "serv", false, "key", false);
+		assertThat("incorrect exists", ks.exists(), is(false));
+		assertThat("incorrect value", ks.getValue(), is((Object) null));
+		checkCacheCounts(c, 1, 3, 0);
+		
+		// local changes invalidate the cache
+		cus.setState("foo", "serv", true, "key", null);
+		assertThat("incorrect state", cus.getState("foo", "serv", true, "key"),
+				is((Object) null));
+		assertThat("incorrect state", cus.getState("foo", "serv", true, "key"),
+				is((Object) null));
+		checkCacheCounts(c, 2, 4, 1);
+		cus.removeState("foo", "serv", true, "key");
+		checkCacheCounts(c, 2, 4, 0);
+		try {
+			cus.getState("foo", "serv", true, "key");
+			fail("got removed state");
+		} catch (NoSuchKeyException nske) {
+			assertThat("correct exception", nske.getLocalizedMessage(),
+					is("There is no key key for the authorized service serv"));
+		}
+		assertThat("incorrect has state", cus.hasState(
+				"foo", "serv", true, "key"), is(false));
+		checkCacheCounts(c, 2, 5, 0);
+		
+		// documents from before versioning
+		usercol.insertOne(new Document("user", "foo")
+				.append("service", "serv").append("auth", false)
+				.append("key", "old").append("value", "oldval"));
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "old"),
+				is((Object) "oldval"));
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "old"),
+				is((Object) "oldval"));
+		checkCacheCounts(c, 3, 6, 1);
+		us.setState("foo", "serv", false, "old", "newval");
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "old"),
+				is((Object) "newval"));
+		checkCacheCounts(c, 3, 7, 1);
+		
+		// key lists are not cached without a trust period
+		checkListState(cus, "foo", "serv", false, Arrays.asList("old"));
+		us.setState("foo", "serv", false, "new", "val");
+		checkListState(cus, "foo", "serv", false, Arrays.asList("old", "new"));
+		checkCacheCounts(c, 3, 7, 1);
+	}
+	
+	@Test
+	public void cacheTrusted() throws Exception {
+		final UserStateCache c = new UserStateCache(1000000, 100000);
+		final UserState cus = new UserState(
+				usercol, new SchemaManager(schemacol), c);
+		cus.setState("foo", "serv", false, "key", "val");
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "key"),
+				is((Object) "val"));
+		checkListState(cus, "foo", "serv", false, Arrays.asList("key"));
+		checkCacheCounts(c, 0, 1, 2);
+		
+		// changes by other servers aren't seen in the trust period
+		us.setState("foo", "serv", false, "key", "val2");
+		us.setState("foo", "serv", false, "key2", "val2");
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "key"),
+				is((Object) "val"));
+		assertThat("incorrect has state", cus.hasState(
+				"foo", "serv", false, "key"), is(true));
+		checkListState(cus, "foo", "serv", false, Arrays.asList("key"));
+		checkCacheCounts(c, 2, 1, 2);
+		
+		// but local changes are
+		cus.setState("foo", "serv", false, "key3", "val3");
+		assertThat("incorrect state", cus.getState("foo", "serv", false, "key"),
+				is((Object) "val"));
+		checkListState(cus, "foo", "serv", false,
+				Arrays.asList("key", "key2", "key3"));
+		cus.removeState("foo", "serv", false, "key");
+		assertThat("incorrect has state", cus.hasState(
+				"foo", "serv", false, "key"), is(false));
+		checkListState(cus, "foo", "serv", false, Arrays.asList("key2", "key3"));
+		checkCacheCounts(c, 3, 1, 1);
+		
+		// entries are evicted when the cache is full. Large values are
+		// cached compressed, so the value must compress poorly
+		final UserStateCache small = new UserStateCache(20000, 100000);
+		final UserState sus = new UserState(
+				usercol, new SchemaManager(schemacol), small);
+		final String sb = randomString(30000);
+		sus.setState("foo", "serv", false, "big1", sb);
+		sus.setState("foo", "serv", false, "big2", sb);
+		sus.getState("foo", "serv", false, "big1");
+		sus.getState("foo", "serv", false, "big2");
+		assertThat("incorrect cache size", small.size() < 2, is(true));
+	}
+	
+	@Test
+	public void cacheBadArgs() throws Exception {
+		failCreateCache(0, 0, new IllegalArgumentException(
+				"maxBytes must be at least 1"));
+		failCreateCache(1, -1, new IllegalArgumentException(
+				"trustMS cannot be negative"));
+		final UserStateCache c = new UserStateCache(1, 0);
+		assertThat("incorrect max", c.getMaxBytes(), is(1L));
+		assertThat("incorrect trust", c.getTrustMS(), is(0L));
+		assertThat("incorrect cache", us.getCache(), is((UserStateCache) null));
+	}
+	
+	private void failCreateCache(
+			final long maxBytes,
+			final int trustMS,
+			final Exception expected) {
+		try {
+			new UserStateCache(maxBytes, trustMS);
+			fail("created bad cache");
+		} catch (Exception e) {
+			TestCommon.assertExceptionCorrect(e, expected);
+		}
+	}
+	
+	private void checkCacheCounts(
+			final UserStateCache c,
+			final long hits,
+			final long misses,
+			final long size) {
+		assertThat("incorrect hits", c.getHitCount(), is(hits));
+		assertThat("incorrect misses", c.getMissCount(), is(misses));
+		assertThat("incorrect size", c.size(), is(size));
+	}
+	
+	private void checkListState(UserState us, String user, String service,
+			boolean auth, List<String> expected) throws Exception {
+		Set<String> expc = new HashSet<String>(expected);
+		assertThat("get correct keys", us.listState(user, service, auth),
+				is(expc));
+	}
+	
+	@Test
+	public void storedJSON() throws Exception {
+		final Map<String, Object> data = new HashMap<String, Object>();
+		data.put("bar", Arrays.asList("baz", 1));
+		us.setState("foo", "serv", false, "key", data);
+		final Document doc = usercol.find(new Document("key", "key")).first();
+		assertThat("incorrect json", new String(doc.get("json", Binary.class)
+				.getData(), StandardCharsets.UTF_8),
+				is("{\"bar\":[\"baz\",1]}"));
+		assertThat("value present", doc.containsKey("value"), is(false));
+		
+		KeyState ks = us.getState("foo", "serv", false, "key", true);
+		assertThat("incorrect json", new String(ks.getJSON(),
+				StandardCharsets.UTF_8), is("{\"bar\":[\"baz\",1]}"));
+		assertThat("incorrect value", ks.getValue(), is((Object) data));
+		
+		ks = us.getState("foo", "serv", false, "nokey", false);
+		assertThat("incorrect json", ks.getJSON(), is((byte[]) null));
+		
+		// documents from before values were stored as JSON
+		usercol.insertOne(new Document("user", "foo")
+				.append("service", "serv").append("auth", false)
+				.append("key", "old").append("value", new Document(data)));
+		ks = us.getState("foo", "serv", false, "old", true);
+		assertThat("incorrect json", new String(ks.getJSON(),
+				StandardCharsets.UTF_8), is("{\"bar\":[\"baz\",1]}"));
+		assertThat("incorrect value", ks.getValue(),
+				is((Object) new Document(data)));
+		
+		// setting the value converts the document
+		us.setState("foo", "serv", false, "old", "new");
+		final Document doc2 = usercol.find(new Document("key", "old")).first();
+		assertThat("incorrect json", new String(doc2.get("json", Binary.class)
+				.getData(), StandardCharsets.UTF_8), is("\"new\""));
+		assertThat("value present", doc2.containsKey("value"), is(false));
+		assertThat("incorrect value", us.getState("foo", "serv", false, "old"),
+				is((Object) "new"));
+	}
+	
+	private static String randomString(final int length) {
+		final Random r = new Random(42);
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('a' + r.nextInt(26)));
+		}
+		return sb.toString();
+	}
+	
+	@Test
+	public void compressedValues() throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("abcdefghij");
+		}
+		final String big = sb.toString();
+		final byte[] json = ("\"" + big + "\"").getBytes(StandardCharsets.UTF_8);
+		us.setState("foo", "serv", false, "big", big);
+		final Document doc = usercol.find(new Document("key", "big")).first();
+		final byte[] deflated = ((Document) doc.get("json"))
+				.get("deflated", Binary.class).getData();
+		assertThat("value not compressed", deflated.length < json.length / 10,
+				is(true));
+		
+		KeyState ks = us.getState("foo", "serv", false, "big", true);
+		assertThat("incorrect json", ks.getJSON(), is(json));
+		assertThat("incorrect value", ks.getValue(), is((Object) big));
+		assertThat("incorrect value", us.getState("foo", "serv", false, "big"),
+				is((Object) big));
+		
+		// small values are not compressed, see storedJSON()
+		us.setState("foo", "serv", false, "small", "val");
+		final Map<String, KeyState> states = us.getStates("foo", "serv", false,
+				Arrays.asList("big", "small"));
+		assertThat("incorrect value", states.get("big").getValue(),
+				is((Object) big));
+		assertThat("incorrect value", states.get("small").getValue(),
+				is((Object) "val"));
+		
+		// values are cached compressed and decompressed when read
+		final UserStateCache c = new UserStateCache(1000000, 0);
+		final UserState cus = new UserState(
+				usercol, new SchemaManager(schemacol), c);
+		for (int i = 0; i < 2; i++) {
+			ks = cus.getState("foo", "serv", false, "big", true);
+			assertThat("incorrect json", ks.getJSON(), is(json));
+			assertThat("incorrect value", cus.getStates("foo", "serv", false,
+					Arrays.asList("big")).get("big").getValue(),
+					is((Object) big));
+		}
+		checkCacheCounts(c, 3, 1, 1);
+		
+		// large documents from before compression was added
+		usercol.insertOne(new Document("user", "foo")
+				.append("service", "serv").append("auth", false)
+				.append("key", "old").append("json", json));
+		ks = us.getState("foo", "serv", false, "old", true);
+		assertThat("incorrect json", ks.getJSON(), is(json));
+		assertThat("incorrect value", ks.getValue(), is((Object) big));
+		
+		// values below the threshold are stored as is
+		final String under = big.substring(0, THRESHOLD - 3);
+		us.setState("foo", "serv", false, "under", under);
+		final Document doc2 = usercol.find(new Document("key", "under"))
+				.first();
+		assertThat("incorrect json", new String(doc2.get("json", Binary.class)
+				.getData(), StandardCharsets.UTF_8), is("\"" + under + "\""));
+		us.setState("foo", "serv", false, "at", under + "a");
+		final Document doc3 = usercol.find(new Document("key", "at")).first();
+		assertThat("value not compressed", doc3.get("json") instanceof Document,
+				is(true));
+		assertThat("incorrect value", us.getState("foo", "serv", false, "at"),
+				is((Object) (under + "a")));
+	}
+	
+	@Test
+	public void multibyteSize() throws Exception {
+		// 333332 3 byte characters plus the quotes is 999998 bytes
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 333332; i++) {
+			sb.append('\u2d5e');
+		}
+		us.setState("foo", "serv", false, "key", sb.toString());
+		assertThat("incorrect value", us.getState("foo", "serv", false, "key"),
+				is((Object) sb.toString()));
+		sb.append('\u2d5e');
+		try {
+			us.setState("foo", "serv", false, "key", sb.toString());
+			fail("set state with too many bytes");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception", iae.getLocalizedMessage(),
+					is("Value cannot be > 1000000 bytes when serialized"));
+		}
+	}
+	
 	@Test
 	public void setUnserializable() throws Exception {
 		try {
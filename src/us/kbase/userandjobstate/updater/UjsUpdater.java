@@ -6,16 +6,24 @@ import static us.kbase.userandjobstate.UserAndJobStateServer.USER;
 import static us.kbase.userandjobstate.UserAndJobStateServer.PWD;
 import static us.kbase.userandjobstate.UserAndJobStateServer.USER_COLLECTION;
 import static us.kbase.userandjobstate.UserAndJobStateServer.JOB_COLLECTION;
+import static us.kbase.userandjobstate.UserAndJobStateServer.JOB_PAYLOAD_COLLECTION;
 import static us.kbase.userandjobstate.UserAndJobStateServer.SCHEMA_VERS_COLLECTION;
+import static us.kbase.userandjobstate.compression.FieldCompression.DEFLATED;
+import static us.kbase.userandjobstate.compression.FieldCompression.deflate;
+import static us.kbase.userandjobstate.compression.FieldCompression.getDeflated;
 
 
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
+import org.bson.BasicBSONEncoder;
 import org.ini4j.Ini;
 
 import us.kbase.common.mongo.GetMongoDB;
@@ -25,6 +33,7 @@ import us.kbase.common.schemamanager.SchemaManager;
 import us.kbase.common.schemamanager.exceptions.InvalidSchemaRecordException;
 import us.kbase.common.schemamanager.exceptions.SchemaManagerCommunicationException;
 import us.kbase.userandjobstate.authorization.UJSAuthorizer;
+import us.kbase.userandjobstate.jobstate.Job;
 import us.kbase.userandjobstate.jobstate.JobState;
 import us.kbase.userandjobstate.userstate.UserState;
 
@@ -37,6 +46,7 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
 import com.mongodb.MongoException;
 import com.mongodb.MongoTimeoutException;
 import com.mongodb.WriteResult;
@@ -49,6 +59,23 @@ public class UjsUpdater {
 	
 	private static final String UJS = "UserAndJobState";
 	
+	private static final int BATCH_SIZE = 10000;
+	
+	// job fields as stored prior to version 3 of the jobs database
+	private static final String MONGO_ID = "_id";
+	private static final String USER_FIELD = "user";
+	private static final String SHARED = "shared";
+	private static final String SERVICE = "service";
+	private static final String COMPLETE = "complete";
+	private static final String ERROR = "error";
+	private static final String CANCELEDBY = "canceledby";
+	
+	// fields of user state and job payload documents that may be compressed
+	private static final String USER_JSON = "json";
+	private static final String USER_VER = "ver";
+	private static final String ERROR_MSG = "errormsg";
+	private static final String RESULTS = "results";
+	
 	private final UpdateArgs ua;
 	
 	public static void main(String[] args) {
@@ -83,7 +110,10 @@ public class UjsUpdater {
 		
 		final SchemaManager sm;
 		try {
-			sm = new SchemaManager(db.getCollection(SCHEMA_VERS_COLLECTION));
+			// the schema manager uses the current driver API
+			sm = new SchemaManager(((MongoClient) db.getMongo())
+					.getDatabase(db.getName())
+					.getCollection(SCHEMA_VERS_COLLECTION));
 		} catch (InvalidSchemaRecordException e) {
 			throw showError(e);
 		}
@@ -99,6 +129,25 @@ public class UjsUpdater {
 		} catch (Exception e) {
 			throw showError(e);
 		}
+		if (ua.compress) {
+			System.out.println("Compressing large user state values");
+			try {
+				final int num = compressUserState(
+						db.getCollection(USER_COLLECTION));
+				System.out.println("Compressed " + num + " values.");
+			} catch (Exception e) {
+				throw showError(e);
+			}
+			System.out.println(
+					"Compressing large job error messages and results");
+			try {
+				final int num = compressJobPayloads(
+						db.getCollection(JOB_PAYLOAD_COLLECTION));
+				System.out.println("Compressed " + num + " payloads.");
+			} catch (Exception e) {
+				throw showError(e);
+			}
+		}
 	}
 	
 	private void updateJobStateDB(final DBCollection jobs,
@@ -106,17 +155,25 @@ public class UjsUpdater {
 					throws SchemaManagerCommunicationException {
 		//don't check upgrade state since upgrade could've halted partway
 		//through
-		final int ver = sm.getDBVersion(JobState.SCHEMA_TYPE);
+		int ver = sm.getDBVersion(JobState.SCHEMA_TYPE);
+		if (ver == JobState.SCHEMA_VER) {
+			System.out.println("No upgrade needed.");
+			return;
+		}
 		if (ver == -1) {
 			System.out.println("Upgrading jobs database to version 2.");
 			final int num = upgradeJobsTo2(jobs, sm);
 			System.out.println("Upgraded " + num + " documents.");
-		} else if (ver != JobState.SCHEMA_VER) {
+			ver = 2;
+		}
+		if (ver == 2) {
+			System.out.println("Upgrading jobs database to version 3.");
+			final int num = upgradeJobsTo3(jobs, sm);
+			System.out.println("Upgraded " + num + " documents.");
+		} else {
 			throw new IllegalStateException(String.format(
 					"There is no upgrade path from %s DB version %s to %s",
 					JobState.SCHEMA_TYPE, ver, JobState.SCHEMA_VER));
-		} else {
-			System.out.println("No upgrade needed.");
 		}
 	}
 
@@ -131,9 +188,75 @@ public class UjsUpdater {
 		sm.setRecord(JobState.SCHEMA_TYPE, -1, true);
 		WriteResult wr = jobs.update(new BasicDBObject(),
 				new BasicDBObject("$set", update), false, true);
-		sm.setRecord(JobState.SCHEMA_TYPE, JobState.SCHEMA_VER, false);
+		sm.setRecord(JobState.SCHEMA_TYPE, 2, false);
 		return wr.getN();
 	}
+	
+	private int upgradeJobsTo3(final DBCollection jobs,
+			final SchemaManager sm)
+					throws SchemaManagerCommunicationException {
+		sm.setRecord(JobState.SCHEMA_TYPE, -1, true);
+		final DBObject exists = new BasicDBObject("$exists", true);
+		final DBObject notExists = new BasicDBObject("$exists", false);
+		/* order matters - a job may be canceled before it's started, and
+		 * so canceled jobs must be processed before created jobs.
+		 */
+		int count = backfillStage(jobs, Job.CANCELED,
+				new BasicDBObject(CANCELEDBY, exists));
+		count += backfillStage(jobs, Job.CREATED,
+				new BasicDBObject(SERVICE, null));
+		count += backfillStage(jobs, Job.STARTED,
+				new BasicDBObject(COMPLETE, false));
+		count += backfillStage(jobs, Job.COMPLETE,
+				new BasicDBObject(COMPLETE, true).append(ERROR, false)
+						.append(CANCELEDBY, notExists));
+		count += backfillStage(jobs, Job.ERROR,
+				new BasicDBObject(ERROR, true));
+		for (final String userField: Arrays.asList(USER_FIELD, SHARED)) {
+			// the (user, service, complete) indexes are replaced by
+			// (user, stage, service, updated) indexes in version 3
+			final DBObject oldidx = new BasicDBObject(userField, 1);
+			oldidx.put(SERVICE, 1);
+			oldidx.put(COMPLETE, 1);
+			try {
+				jobs.dropIndex(oldidx);
+			} catch (MongoException e) {
+				// index doesn't exist, nothing to do
+			}
+		}
+		sm.setRecord(JobState.SCHEMA_TYPE, 3, false);
+		return count;
+	}
+
+	/* Sets the stage field on the jobs matching the query in batches so
+	 * that a huge jobs collection doesn't require a huge single update.
+	 */
+	private int backfillStage(
+			final DBCollection jobs,
+			final String stage,
+			final BasicDBObject query) {
+		query.append(JobState.STAGE, new BasicDBObject("$exists", false));
+		final DBObject idonly = new BasicDBObject(MONGO_ID, 1);
+		int count = 0;
+		while (true) {
+			final List<Object> ids = new LinkedList<Object>();
+			for (final DBObject o: jobs.find(query, idonly).limit(BATCH_SIZE)) {
+				ids.add(o.get(MONGO_ID));
+			}
+			if (ids.isEmpty()) {
+				break;
+			}
+			final WriteResult wr = jobs.update(
+					new BasicDBObject(MONGO_ID, new BasicDBObject("$in", ids)),
+					new BasicDBObject("$set",
+							new BasicDBObject(JobState.STAGE, stage)),
+					false, true);
+			count += wr.getN();
+			System.out.println(String.format("Set stage %s on %s jobs",
+					stage, count));
+		}
+		return count;
+	}
 
 	private void updateUserStateDB(final DBCollection user,
 			final SchemaManager sm)
@@ -155,6 +278,100 @@ public class UjsUpdater {
 		}
 	}
 
+	/* Compresses user state values written before compression was added.
+	 * Documents are read in batches in ID order, and a value is only
+	 * replaced if its version hasn't changed since it was read, so the
+	 * server may keep running while the values are compressed.
+	 */
+	private int compressUserState(final DBCollection user) {
+		final BasicDBObject query = new BasicDBObject(USER_JSON,
+				new BasicDBObject("$type", 5)); // uncompressed binary JSON
+		final DBObject fields = new BasicDBObject(USER_JSON, 1);
+		fields.put(USER_VER, 1);
+		int checked = 0;
+		int count = 0;
+		Object last = null;
+		while (true) {
+			if (last != null) {
+				query.put(MONGO_ID, new BasicDBObject("$gt", last));
+			}
+			final List<DBObject> batch = user.find(query, fields)
+					.sort(new BasicDBObject(MONGO_ID, 1)).limit(BATCH_SIZE)
+					.toArray();
+			if (batch.isEmpty()) {
+				break;
+			}
+			checked += batch.size();
+			for (final DBObject o: batch) {
+				last = o.get(MONGO_ID);
+				final byte[] deflated = deflate((byte[]) o.get(USER_JSON));
+				if (deflated != null) {
+					final DBObject q = new BasicDBObject(MONGO_ID, last);
+					q.put(USER_VER, o.get(USER_VER)); // null matches missing
+					count += user.update(q, new BasicDBObject("$set",
+							new BasicDBObject(USER_JSON,
+									new BasicDBObject(DEFLATED, deflated))))
+							.getN();
+				}
+			}
+			System.out.println(String.format(
+					"Checked %s values, compressed %s", checked, count));
+		}
+		return count;
+	}
+	
+	/* Compresses job error messages and results written before compression
+	 * was added. Payloads are never changed once written, so they can be
+	 * compressed while the server is running.
+	 */
+	private int compressJobPayloads(final DBCollection payloads) {
+		final BasicDBObject query = new BasicDBObject();
+		final DBObject fields = new BasicDBObject(ERROR_MSG, 1);
+		fields.put(RESULTS, 1);
+		int checked = 0;
+		int count = 0;
+		Object last = null;
+		while (true) {
+			if (last != null) {
+				query.put(MONGO_ID, new BasicDBObject("$gt", last));
+			}
+			final List<DBObject> batch = payloads.find(query, fields)
+					.sort(new BasicDBObject(MONGO_ID, 1)).limit(BATCH_SIZE)
+					.toArray();
+			if (batch.isEmpty()) {
+				break;
+			}
+			checked += batch.size();
+			for (final DBObject o: batch) {
+				last = o.get(MONGO_ID);
+				final DBObject set = new BasicDBObject();
+				final Object err = o.get(ERROR_MSG);
+				if (err instanceof String) {
+					final byte[] deflated = deflate(
+							((String) err).getBytes(StandardCharsets.UTF_8));
+					if (deflated != null) {
+						set.put(ERROR_MSG, new BasicDBObject(DEFLATED, deflated));
+					}
+				}
+				final Object res = o.get(RESULTS);
+				if (res instanceof DBObject && getDeflated(res) == null) {
+					final byte[] deflated = deflate(
+							new BasicBSONEncoder().encode((DBObject) res));
+					if (deflated != null) {
+						set.put(RESULTS, new BasicDBObject(DEFLATED, deflated));
+					}
+				}
+				if (!set.keySet().isEmpty()) {
+					count += payloads.update(new BasicDBObject(MONGO_ID, last),
+							new BasicDBObject("$set", set)).getN();
+				}
+			}
+			System.out.println(String.format(
+					"Checked %s payloads, compressed %s", checked, count));
+		}
+		return count;
+	}
+
 	//TODO ZZLATER generalize these methods with the method in the server class
 	private DB getDatabase(Map<String, String> config) {
 		if (!config.containsKey(HOST)) {
@@ -258,5 +475,11 @@ public class UjsUpdater {
 		@Parameter(names={"-v","--verbose"},
 				description="Print error stacktraces.")
 		boolean verbose = false;
+		
+		@Parameter(names={"-c","--compress"},
+				description="Compress large user state values and job " +
+				"error messages and results written by older versions. " +
+				"The server may be running while values are compressed.")
+		boolean compress = false;
 	}
 }
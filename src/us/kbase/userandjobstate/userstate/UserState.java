@@ -1,24 +1,43 @@
 package us.kbase.userandjobstate.userstate;
 
 import static us.kbase.common.utils.StringUtils.checkString;
+import static us.kbase.userandjobstate.compression.FieldCompression.DEFLATED;
+import static us.kbase.userandjobstate.compression.FieldCompression.deflate;
+import static us.kbase.userandjobstate.compression.FieldCompression.getDeflated;
+import static us.kbase.userandjobstate.compression.FieldCompression.inflate;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.bson.Document;
+import org.bson.types.Binary;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.mongodb.BasicDBObject;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.DBObject;
 import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 
 import us.kbase.common.schemamanager.SchemaManager;
 import us.kbase.common.schemamanager.exceptions.SchemaException;
 import us.kbase.userandjobstate.exceptions.CommunicationException;
+import us.kbase.userandjobstate.userstate.UserStateCache.CachedState;
 import us.kbase.userandjobstate.userstate.exceptions.NoSuchKeyException;
 
 public class UserState {
@@ -27,43 +46,74 @@ public class UserState {
 	private final static int MAX_LEN_USER = 100;
 	private final static int MAX_LEN_SERVICE = 100;
 	private final static int MAX_LEN_KEY = 100;
+	private final static int MAX_KEYS = 1000;
 	
 	private final static String SERVICE = "service";
 	private final static String USER = "user";
 	private final static String KEY = "key";
 	private final static String AUTH = "auth";
+	// the value as serialized JSON, compressed if large. Documents written by
+	// older versions have the value as a BSON document in the VALUE field
+	// instead.
+	private final static String JSON = "json";
 	private final static String VALUE = "value";
-	
-	private final static String IDX_UNIQ = "unique";
+	// incremented on every set, so cached values can be checked cheaply.
+	// Missing from documents written by older versions, which is equivalent
+	// to 0.
+	private final static String VER = "ver";
 	
 	public static final String SCHEMA_TYPE = "userstate";
 	public static final int SCHEMA_VER = 1;
 	
-	private final DBCollection uscol;
+	private final MongoCollection<Document> uscol;
+	private final UserStateCache cache;
 	
 	private final static ObjectMapper MAPPER = new ObjectMapper();
 	private final static Pattern INVALID_SERV_NAMES = 
 			Pattern.compile("[^\\w]");
 	
-	public UserState(final DBCollection usercol, final SchemaManager sm)
+	public UserState(
+			final MongoCollection<Document> usercol,
+			final SchemaManager sm)
+			throws SchemaException {
+		this(usercol, sm, null);
+	}
+	
+	/** Create the user state manager.
+	 * @param usercol the collection in which to store user state.
+	 * @param sm the schema manager.
+	 * @param cache a cache for user state values, or null to always read
+	 * from the database.
+	 * @throws SchemaException if the database schema is incompatible.
+	 */
+	public UserState(
+			final MongoCollection<Document> usercol,
+			final SchemaManager sm,
+			final UserStateCache cache)
 			throws SchemaException {
 		if (usercol == null) {
 			throw new NullPointerException("usercol");
 		}
 		uscol = usercol;
+		this.cache = cache;
 		ensureIndexes();
 		sm.checkSchema(SCHEMA_TYPE, SCHEMA_VER);
 	}
 
+	/** Get the cache for user state values.
+	 * @return the cache, or null if there is no cache.
+	 */
+	public UserStateCache getCache() {
+		return cache;
+	}
+
 	private void ensureIndexes() {
-		final DBObject idx = new BasicDBObject();
+		final Document idx = new Document();
 		idx.put(USER, 1);
 		idx.put(SERVICE, 1);
 		idx.put(AUTH, 1);
 		idx.put(KEY, 1);
-		final DBObject unique = new BasicDBObject();
-		unique.put(IDX_UNIQ, 1);
-		uscol.createIndex(idx, unique);
+		uscol.createIndex(idx, new IndexOptions().unique(true));
 	}
 
 	private static final String VAL_ERR = String.format(
@@ -72,38 +122,144 @@ public class UserState {
 	public void setState(final String user, final String service,
 			final boolean auth, final String key, final Object value)
 			throws CommunicationException {
-		if (value != null) {
-			final String valueStr;
-			try {
-				valueStr = MAPPER.writeValueAsString(value);
-			} catch (JsonProcessingException jpe) {
-				throw new IllegalArgumentException(
-						"Unable to serialize value", jpe);
-			}
-			//strictly speaking, should convert to bytes as UTF-8, but hardly worth the trouble
-			if (valueStr.length() > MAX_LEN_VALUE) {
-				throw new IllegalArgumentException(VAL_ERR);
-			}
+		final byte[] json = serialize(value);
+		final Document query = generateQuery(user, service, auth, key);
+		try {
+			uscol.updateOne(query, generateUpdate(json),
+					new UpdateOptions().upsert(true));
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
+		} finally {
+			invalidate(user, service, auth, key);
+		}
+	}
+	
+	/** Set the state of multiple keys for a service in one unordered bulk
+	 * write. All the keys and values are checked before any are written.
+	 * @param user the user to whom the keys belong.
+	 * @param service the service to which the keys belong.
+	 * @param auth whether the service was authenticated.
+	 * @param states the keys and their values.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public void setStates(final String user, final String service,
+			final boolean auth, final Map<String, Object> states)
+			throws CommunicationException {
+		checkString(user, "user", MAX_LEN_USER);
+		checkServiceName(service);
+		if (states == null || states.isEmpty()) {
+			throw new IllegalArgumentException("No states provided");
+		}
+		if (states.size() > MAX_KEYS) {
+			throw new IllegalArgumentException(String.format(
+					"No more than %s states may be set at once", MAX_KEYS));
+		}
+		final Map<String, byte[]> json = new HashMap<String, byte[]>();
+		for (final Entry<String, Object> e: states.entrySet()) {
+			checkString(e.getKey(), "key", MAX_LEN_KEY);
+			json.put(e.getKey(), serialize(e.getValue()));
+		}
+		final List<WriteModel<Document>> bulk =
+				new LinkedList<WriteModel<Document>>();
+		for (final Entry<String, byte[]> e: json.entrySet()) {
+			bulk.add(new UpdateOneModel<Document>(
+					generateQuery(user, service, auth, e.getKey()),
+					generateUpdate(e.getValue()),
+					new UpdateOptions().upsert(true)));
 		}
-		final DBObject query = generateQuery(user, service, auth, key);
-		final DBObject set = new BasicDBObject();
-		final DBObject val = new BasicDBObject();
-		val.put(VALUE, value);
-		set.put("$set", val);
 		try {
-			uscol.update(query, set, true, false);
+			uscol.bulkWrite(bulk, new BulkWriteOptions().ordered(false));
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
+		} finally {
+			for (final String key: states.keySet()) {
+				invalidate(user, service, auth, key);
+			}
+		}
+	}
+	
+	/* Serializes the value to UTF-8 JSON in one pass, stopping as soon as the
+	 * value is too large. The JSON is stored as is, so the value is never
+	 * converted to BSON.
+	 */
+	private static byte[] serialize(final Object value) {
+		final LimitedOutputStream out = new LimitedOutputStream(MAX_LEN_VALUE);
+		try {
+			MAPPER.writeValue(out, value);
+		} catch (IOException e) {
+			if (out.isOverLimit()) {
+				throw new IllegalArgumentException(VAL_ERR);
+			}
+			throw new IllegalArgumentException("Unable to serialize value", e);
+		}
+		return out.toByteArray();
+	}
+	
+	private static class LimitedOutputStream extends OutputStream {
+		
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private final int limit;
+		private boolean overLimit = false;
+		
+		private LimitedOutputStream(final int limit) {
+			this.limit = limit;
+		}
+		
+		private boolean isOverLimit() {
+			return overLimit;
+		}
+		
+		private byte[] toByteArray() {
+			return out.toByteArray();
+		}
+		
+		private void checkLimit(final int len) throws IOException {
+			if (out.size() + len > limit) {
+				overLimit = true;
+				throw new IOException(VAL_ERR);
+			}
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			checkLimit(1);
+			out.write(b);
+		}
+		
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			checkLimit(len);
+			out.write(b, off, len);
+		}
+	}
+	
+	private Document generateUpdate(final byte[] json) {
+		final byte[] deflated = deflate(json);
+		final Document set = new Document();
+		set.put("$set", new Document(JSON, deflated == null ? json :
+				new Document(DEFLATED, deflated)));
+		set.put("$unset", new Document(VALUE, ""));
+		set.put("$inc", new Document(VER, 1));
+		return set;
+	}
+	
+	private void invalidate(final String user, final String service,
+			final boolean auth, final String key) {
+		if (cache != null) {
+			cache.invalidate(user, service, auth, key);
 		}
 	}
 
-	private DBObject generateQuery(final String user, final String service,
+	private Document generateQuery(final String user, final String service,
 			final boolean auth, final String key) {
 		checkString(user, "user", MAX_LEN_USER);
 		checkServiceName(service);
 		checkString(key, "key", MAX_LEN_KEY);
-		final DBObject query = new BasicDBObject();
+		final Document query = new Document();
 		query.put(USER, user);
 		query.put(SERVICE, service);
 		query.put(AUTH, auth);
@@ -129,41 +285,260 @@ public class UserState {
 	public KeyState getState(final String user, final String service, 
 			final boolean auth, final String key, final boolean exceptOnNoKey)
 			throws CommunicationException, NoSuchKeyException {
-		final DBObject query = generateQuery(user, service, auth, key);
-		final DBObject projection = new BasicDBObject(VALUE, 1);
-		final DBObject mret;
+		final Document query = generateQuery(user, service, auth, key);
+		if (cache != null) {
+			final CachedState cs = cache.get(user, service, auth, key);
+			if (cs != null) {
+				if (cs.isTrusted()) {
+					cache.hit();
+					return toKeyState(cs);
+				}
+				// much cheaper than fetching a large value
+				final Document ver = findOne(query, new Document(VER, 1));
+				if (ver == null) {
+					cache.invalidate(user, service, auth, key);
+					return noKey(service, auth, key, exceptOnNoKey);
+				}
+				if (cs.isVersion(ver.get("_id"), getVersion(ver))) {
+					cache.hit();
+					return toKeyState(cs);
+				}
+			}
+			cache.miss();
+		}
+		final Document projection = new Document(JSON, 1);
+		projection.put(VALUE, 1);
+		projection.put(VER, 1);
+		final Document mret = findOne(query, projection);
+		if (mret == null) {
+			return noKey(service, auth, key, exceptOnNoKey);
+		}
+		final KeyState ks = toKeyState(mret);
+		if (cache != null) {
+			cacheState(user, service, auth, key, mret, ks);
+		}
+		return ks;
+	}
+	
+	private static KeyState toKeyState(final Document o) {
+		final Object json = o.get(JSON);
+		final byte[] deflated = getDeflated(json);
+		if (deflated != null) {
+			return new KeyState(null, deflated, null);
+		}
+		return new KeyState(json == null ? null : ((Binary) json).getData(),
+				null, o.get(VALUE));
+	}
+	
+	private static KeyState toKeyState(final CachedState cs) {
+		return cs.isDeflated() ? new KeyState(null, cs.getData(), null) :
+				new KeyState(cs.getData(), null, null);
+	}
+	
+	// the value is cached as stored, so compressed values stay compressed
+	private void cacheState(final String user, final String service,
+			final boolean auth, final String key, final Document o,
+			final KeyState ks) {
+		final boolean deflated = ks.deflated != null;
+		cache.put(user, service, auth, key, o.getObjectId("_id"),
+				getVersion(o), deflated ? ks.deflated : ks.getJSON(), deflated);
+	}
+
+	/** Get the state of multiple keys for a service with one query, or two
+	 * if some of the keys are cached and must be checked for changes.
+	 * @param user the user to whom the keys belong.
+	 * @param service the service to which the keys belong.
+	 * @param auth whether the keys were set by an authenticated service.
+	 * @param keys the keys to get.
+	 * @return a mapping of key to state. Keys that don't exist are omitted.
+	 * @throws CommunicationException if a problem occurs contacting the
+	 * database.
+	 */
+	public Map<String, KeyState> getStates(final String user,
+			final String service, final boolean auth, final List<String> keys)
+			throws CommunicationException {
+		checkString(user, "user", MAX_LEN_USER);
+		checkServiceName(service);
+		if (keys == null || keys.isEmpty()) {
+			throw new IllegalArgumentException("No keys provided");
+		}
+		if (keys.size() > MAX_KEYS) {
+			throw new IllegalArgumentException(String.format(
+					"No more than %s keys may be requested at once",
+					MAX_KEYS));
+		}
+		final Set<String> fetch = new HashSet<String>();
+		for (final String key: keys) {
+			checkString(key, "key", MAX_LEN_KEY);
+			fetch.add(key);
+		}
+		final Map<String, KeyState> ret = new HashMap<String, KeyState>();
+		if (cache != null) {
+			final Map<String, CachedState> check =
+					new HashMap<String, CachedState>();
+			for (final String key: fetch) {
+				final CachedState cs = cache.get(user, service, auth, key);
+				if (cs != null && cs.isTrusted()) {
+					cache.hit();
+					ret.put(key, toKeyState(cs));
+				} else if (cs != null) {
+					check.put(key, cs);
+				}
+			}
+			fetch.removeAll(ret.keySet());
+			if (!check.isEmpty()) {
+				final Document projection = new Document(KEY, 1);
+				projection.put(VER, 1);
+				final Set<String> found = new HashSet<String>();
+				for (final Document o: find(generateQuery(
+						user, service, auth, check.keySet()), projection)) {
+					final String key = o.getString(KEY);
+					found.add(key);
+					final CachedState cs = check.get(key);
+					if (cs.isVersion(o.get("_id"), getVersion(o))) {
+						cache.hit();
+						ret.put(key, toKeyState(cs));
+						fetch.remove(key);
+					}
+				}
+				for (final String key: check.keySet()) {
+					if (!found.contains(key)) {
+						cache.invalidate(user, service, auth, key);
+						fetch.remove(key);
+					}
+				}
+			}
+			for (int i = 0; i < fetch.size(); i++) {
+				cache.miss();
+			}
+		}
+		if (!fetch.isEmpty()) {
+			final Document projection = new Document(KEY, 1);
+			projection.put(JSON, 1);
+			projection.put(VALUE, 1);
+			projection.put(VER, 1);
+			for (final Document o: find(generateQuery(
+					user, service, auth, fetch), projection)) {
+				final String key = o.getString(KEY);
+				final KeyState ks = toKeyState(o);
+				ret.put(key, ks);
+				if (cache != null) {
+					cacheState(user, service, auth, key, o, ks);
+				}
+			}
+		}
+		return ret;
+	}
+	
+	// keys are expected to be checked
+	private Document generateQuery(final String user, final String service,
+			final boolean auth, final Collection<String> keys) {
+		final Document query = new Document();
+		query.put(USER, user);
+		query.put(SERVICE, service);
+		query.put(AUTH, auth);
+		query.put(KEY, new Document("$in", new ArrayList<String>(keys)));
+		return query;
+	}
+	
+	private List<Document> find(final Document query, final Document projection)
+			throws CommunicationException {
 		try {
-			mret = uscol.findOne(query, projection);
+			return uscol.find(query).projection(projection)
+					.into(new LinkedList<Document>());
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
-		if (mret == null) {
-			if (exceptOnNoKey) {
-				throw new NoSuchKeyException(String.format(
-						"There is no key %s for the %sauthorized service %s",
-						key, auth ? "" : "un", service));
-			} else {
-				return new KeyState(false, null);
-			}
+	}
+
+	private KeyState noKey(final String service, final boolean auth,
+			final String key, final boolean exceptOnNoKey)
+			throws NoSuchKeyException {
+		if (exceptOnNoKey) {
+			throw new NoSuchKeyException(String.format(
+					"There is no key %s for the %sauthorized service %s",
+					key, auth ? "" : "un", service));
+		} else {
+			return new KeyState();
+		}
+	}
+
+	private static long getVersion(final Document o) {
+		final Number ver = (Number) o.get(VER);
+		return ver == null ? 0 : ver.longValue();
+	}
+
+	private Document findOne(final Document query, final Document projection)
+			throws CommunicationException {
+		try {
+			return uscol.find(query).projection(projection).first();
+		} catch (MongoException me) {
+			throw new CommunicationException(
+					"There was a problem communicating with the database", me);
 		}
-		//might make sense to run through this and switch all DBObjects to 
-		//Maps, but doesn't really matter for the application, so pass
-		return new KeyState(true, mret.get(VALUE));
 	}
 	
+	/** The state of a key. The value is held as the JSON stored in the
+	 * database, and is only decompressed and deserialized if requested.
+	 */
 	public static class KeyState {
-		private final Object value;
 		private final boolean exists;
+		// set on the first request if the value is compressed
+		private byte[] json;
+		private final byte[] deflated;
+		// only for values written by older versions
+		private final Object value;
+		
+		private KeyState() {
+			exists = false;
+			json = null;
+			deflated = null;
+			value = null;
+		}
 		
-		private KeyState(final boolean exists, final Object value) {
-			super();
-			this.exists = exists;
+		private KeyState(
+				final byte[] json,
+				final byte[] deflated,
+				final Object value) {
+			this.exists = true;
+			this.json = json;
+			this.deflated = deflated;
 			this.value = value;
 		}
 
+		/** Get the value of the key.
+		 * @return the value, or null if the key doesn't exist.
+		 */
 		public Object getValue() {
-			return value;
+			if (json == null && deflated == null) {
+				return value;
+			}
+			try {
+				return MAPPER.readValue(getJSON(), Object.class);
+			} catch (IOException e) {
+				throw new RuntimeException(
+						"Unable to deserialize a stored value", e);
+			}
+		}
+		
+		/** Get the value of the key as UTF-8 encoded JSON. The returned array
+		 * must not be modified.
+		 * @return the value, or null if the key doesn't exist.
+		 */
+		public byte[] getJSON() {
+			if (json == null && deflated != null) {
+				json = inflate(deflated);
+			}
+			if (!exists || json != null) {
+				return json;
+			}
+			try {
+				return MAPPER.writeValueAsBytes(value);
+			} catch (JsonProcessingException e) {
+				throw new RuntimeException(
+						"Unable to serialize a stored value", e);
+			}
 		}
 
 		public boolean exists() {
@@ -174,10 +549,17 @@ public class UserState {
 	public boolean hasState(final String user, final String service, 
 			final boolean auth, final String key)
 			throws CommunicationException, NoSuchKeyException {
-		final DBObject query = generateQuery(user, service, auth, key);
+		final Document query = generateQuery(user, service, auth, key);
+		if (cache != null) {
+			final CachedState cs = cache.get(user, service, auth, key);
+			if (cs != null && cs.isTrusted()) {
+				cache.hit();
+				return true;
+			}
+		}
 		final long count;
 		try {
-			count = uscol.count(query);
+			count = uscol.countDocuments(query);
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
@@ -188,12 +570,14 @@ public class UserState {
 	public void removeState(final String user, final String service, 
 			final boolean auth, final String key)
 			throws CommunicationException {
-		final DBObject query = generateQuery(user, service, auth, key);
+		final Document query = generateQuery(user, service, auth, key);
 		try {
-			uscol.remove(query);
+			uscol.deleteMany(query);
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
+		} finally {
+			invalidate(user, service, auth, key);
 		}
 	}
 
@@ -202,35 +586,41 @@ public class UserState {
 			throws CommunicationException, NoSuchKeyException {
 		checkString(user, "user");
 		checkServiceName(service);
-		final DBObject query = new BasicDBObject();
+		if (cache != null) {
+			final Set<String> keys = cache.getKeys(user, service, auth);
+			if (keys != null) {
+				return new HashSet<String>(keys);
+			}
+		}
+		final Document query = new Document();
 		query.put(USER, user);
 		query.put(SERVICE, service);
 		query.put(AUTH, auth);
-		final DBObject projection = new BasicDBObject();
+		final Document projection = new Document();
 		projection.put(KEY, 1);
 		final Set<String> keys = new HashSet<String>();
 		try {
-			final DBCursor mret = uscol.find(query, projection);
-			for (DBObject o: mret) {
-				keys.add((String) o.get(KEY));
+			for (final Document o: uscol.find(query).projection(projection)) {
+				keys.add(o.getString(KEY));
 			}
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
 		}
+		if (cache != null) {
+			cache.putKeys(user, service, auth, keys);
+		}
 		return keys;
 	}
 	
 	public Set<String> listServices(final String user, final boolean auth)
 			throws CommunicationException {
 		checkString(user, "user");
-		final DBObject mfields = new BasicDBObject(USER, user);
+		final Document mfields = new Document(USER, user);
 		mfields.put(AUTH, auth);
 		final Set<String> services = new HashSet<String>();
 		try {
-			@SuppressWarnings("unchecked")
-			final List<String> servs = uscol.distinct(SERVICE, mfields);
-			services.addAll(servs);
+			uscol.distinct(SERVICE, mfields, String.class).into(services);
 		} catch (MongoException me) {
 			throw new CommunicationException(
 					"There was a problem communicating with the database", me);
@@ -0,0 +1,322 @@
+package us.kbase.userandjobstate.userstate;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.types.ObjectId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/** A node local, size bounded cache of user state values, used by
+ * {@link UserState} to avoid refetching large values from the database.
+ *
+ * Values are held as the serialized JSON bytes stored in the database, which
+ * are far more compact than the equivalent object graph and present the
+ * garbage collector with a single object per entry. Large values are held
+ * compressed, as they are stored, and are only decompressed when used. The cache is bounded by
+ * the approximate number of bytes held rather than the number of entries,
+ * and the least recently used entries are evicted first.
+ *
+ * Each cached value is tagged with the ID and version of the database
+ * document it was read from. Local changes invalidate the cache directly,
+ * but other server instances may change the database at any time, and so a
+ * cached value is only returned after confirming the version in the
+ * database matches, which is a much cheaper query than fetching the value.
+ * Optionally, entries may be trusted without confirming the version for a
+ * short time after they're fetched, in which case changes made by other
+ * servers may take up to that time to be seen. Lists of keys are only cached
+ * when such a trust period is set.
+ */
+public class UserStateCache {
+
+	// approximate memory used by an entry in addition to the value
+	private static final int ENTRY_OVERHEAD = 200;
+
+	private static class Key {
+
+		private final String user;
+		private final String service;
+		private final boolean auth;
+		private final String key; // null for a list of keys
+
+		private Key(
+				final String user,
+				final String service,
+				final boolean auth,
+				final String key) {
+			this.user = user;
+			this.service = service;
+			this.auth = auth;
+			this.key = key;
+		}
+
+		private int size() {
+			return 2 * (user.length() + service.length() +
+					(key == null ? 0 : key.length()));
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + user.hashCode();
+			result = prime * result + service.hashCode();
+			result = prime * result + (auth ? 1231 : 1237);
+			result = prime * result + (key == null ? 0 : key.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return auth == other.auth && user.equals(other.user) &&
+					service.equals(other.service) &&
+					(key == null ? other.key == null : key.equals(other.key));
+		}
+	}
+
+	private abstract class Entry {
+
+		private final long fetched = System.nanoTime();
+
+		/** Returns true if the entry may be used without checking the
+		 * database.
+		 */
+		boolean isTrusted() {
+			return trustNS > 0 && System.nanoTime() - fetched < trustNS;
+		}
+
+		abstract int size();
+	}
+
+	/** A cached value. */
+	class CachedState extends Entry {
+
+		private final ObjectId id;
+		private final long version;
+		private final byte[] value;
+		private final boolean deflated;
+
+		private CachedState(
+				final ObjectId id,
+				final long version,
+				final byte[] value,
+				final boolean deflated) {
+			this.id = id;
+			this.version = version;
+			this.value = value;
+			this.deflated = deflated;
+		}
+
+		/** Returns true if this entry was read from the given version of the
+		 * given document.
+		 */
+		boolean isVersion(final Object id, final long version) {
+			return this.id.equals(id) && this.version == version;
+		}
+
+		/** Get the value as UTF-8 encoded JSON, compressed if
+		 * {@link #isDeflated()} is true.
+		 */
+		byte[] getData() {
+			return value;
+		}
+
+		/** Returns true if the value is compressed. */
+		boolean isDeflated() {
+			return deflated;
+		}
+
+		@Override
+		int size() {
+			return value.length;
+		}
+	}
+
+	private class CachedKeys extends Entry {
+
+		private final Set<String> keys;
+		private final int size;
+
+		private CachedKeys(final Set<String> keys) {
+			this.keys = Collections.unmodifiableSet(new HashSet<String>(keys));
+			int s = 0;
+			for (final String k: keys) {
+				s += 2 * k.length() + 40;
+			}
+			size = s;
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+	}
+
+	private final Cache<Key, Entry> cache;
+	private final long maxBytes;
+	private final long trustNS;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/** Create the cache.
+	 * @param maxBytes the approximate maximum number of bytes to hold in the
+	 * cache.
+	 * @param trustMS the number of milliseconds after an entry is fetched
+	 * from the database that it is used without checking its version. 0 means
+	 * always check the version.
+	 */
+	public UserStateCache(final long maxBytes, final int trustMS) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException(
+					"maxBytes must be at least 1");
+		}
+		if (trustMS < 0) {
+			throw new IllegalArgumentException(
+					"trustMS cannot be negative");
+		}
+		this.maxBytes = maxBytes;
+		trustNS = TimeUnit.MILLISECONDS.toNanos(trustMS);
+		cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher(new Weigher<Key, Entry>() {
+
+					@Override
+					public int weigh(final Key key, final Entry value) {
+						return ENTRY_OVERHEAD + key.size() + value.size();
+					}
+				})
+				.build();
+	}
+
+	/** Get a cached value.
+	 * @return the value, or null if the value is not cached.
+	 */
+	CachedState get(
+			final String user,
+			final String service,
+			final boolean auth,
+			final String key) {
+		final Entry e = cache.getIfPresent(new Key(user, service, auth, key));
+		return e == null ? null : (CachedState) e;
+	}
+
+	/** Cache a value.
+	 * @param id the ID of the document containing the value.
+	 * @param version the version of the document.
+	 * @param data the value as UTF-8 encoded JSON, possibly compressed.
+	 * @param deflated true if the value is compressed.
+	 */
+	void put(
+			final String user,
+			final String service,
+			final boolean auth,
+			final String key,
+			final ObjectId id,
+			final long version,
+			final byte[] data,
+			final boolean deflated) {
+		cache.put(new Key(user, service, auth, key),
+				new CachedState(id, version, data, deflated));
+	}
+
+	/** Get a list of keys if it is cached and within the trust period.
+	 * @return the keys, or null.
+	 */
+	Set<String> getKeys(
+			final String user,
+			final String service,
+			final boolean auth) {
+		final Entry e = cache.getIfPresent(
+				new Key(user, service, auth, null));
+		if (e == null || !e.isTrusted()) {
+			return null;
+		}
+		return ((CachedKeys) e).keys;
+	}
+
+	/** Cache a list of keys. Does nothing if there is no trust period, since
+	 * the list could never be used.
+	 */
+	void putKeys(
+			final String user,
+			final String service,
+			final boolean auth,
+			final Set<String> keys) {
+		if (trustNS > 0) {
+			cache.put(new Key(user, service, auth, null),
+					new CachedKeys(keys));
+		}
+	}
+
+	/** Remove a value, and the list of keys that may contain it, from the
+	 * cache.
+	 */
+	void invalidate(
+			final String user,
+			final String service,
+			final boolean auth,
+			final String key) {
+		cache.invalidate(new Key(user, service, auth, key));
+		cache.invalidate(new Key(user, service, auth, null));
+	}
+
+	/** Record that a lookup was served from the cache. */
+	void hit() {
+		hits.increment();
+	}
+
+	/** Record that a lookup required fetching from the database. */
+	void miss() {
+		misses.increment();
+	}
+
+	/** Get the number of lookups that were served from the cache.
+	 * @return the number of cache hits.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/** Get the number of lookups that required fetching the value from the
+	 * database, either because the value was not cached or because the cached
+	 * value was out of date.
+	 * @return the number of cache misses.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/** Get the approximate number of entries in the cache.
+	 * @return the cache size.
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	/** Get the approximate maximum number of bytes held in the cache.
+	 * @return the maximum size in bytes.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/** Get the time after an entry is fetched that it is used without
+	 * checking its version.
+	 * @return the trust period in milliseconds.
+	 */
+	public long getTrustMS() {
+		return TimeUnit.NANOSECONDS.toMillis(trustNS);
+	}
+}
@@ -35,8 +35,8 @@ Asysnc:
 UI calls service function which returns with job id
 service call [spawns thread/subprocess to run job that] periodically updates
 	the job status of the job id on the job status server
-meanwhile, the UI periodically polls the job status server to get progress
-	updates
+meanwhile, the UI periodically polls the job status server, or waits with
+	wait_for_job_update, to get progress updates
 service call finishes, completes job
 UI pulls pointers to results from the job status server
 
@@ -45,8 +45,8 @@ UI creates job, gets job id
 UI starts thread that calls service, providing job id
 service call runs, periodically updating the job status of the job id on the
 	job status server
-meanwhile, the UI periodically polls the job status server to get progress
-	updates
+meanwhile, the UI periodically polls the job status server, or waits with
+	wait_for_job_update, to get progress updates
 service call finishes, completes job, returns results
 UI thread joins
 
@@ -108,6 +108,20 @@ module UserAndJobState {
 	/* Set the state of a key for a service with service authentication. */
 	funcdef set_state_auth(service_token token, string key,
 		UnspecifiedObject value) returns();
+	
+	/* Set the state of multiple keys for a service without service
+		authentication. No more than 1000 keys may be set at once. If any key
+		or value is invalid, no keys are set.
+	*/
+	funcdef set_states(service_name service,
+		mapping<string, UnspecifiedObject> states) returns();
+	
+	/* Set the state of multiple keys for a service with service
+		authentication. No more than 1000 keys may be set at once. If any key
+		or value is invalid, no keys are set.
+	*/
+	funcdef set_states_auth(service_token token,
+		mapping<string, UnspecifiedObject> states) returns();
 		
 	/* Get the state of a key for a service. */
 	funcdef get_state(service_name service, string key, authed auth)
@@ -123,6 +137,13 @@ module UserAndJobState {
 	funcdef get_has_state(service_name service, string key, authed auth)
 		returns(boolean has_key, UnspecifiedObject value);
 	
+	/* Get the state of multiple keys for a service. No more than 1000 keys
+		may be requested at once. Keys that don't exist are omitted from the
+		returned mapping.
+	*/
+	funcdef get_states(service_name service, list<string> keys, authed auth)
+		returns(mapping<string, UnspecifiedObject> states);
+	
 	/* Remove a key value pair without service authentication. */
 	funcdef remove_state(service_name service, string key) returns ();
 	
@@ -225,7 +246,8 @@ module UserAndJobState {
 			was saved.  No more than 1000 characters.
 		list<Result> - a set of job results. This format allows for specifying
 			results at multiple server locations and providing a free text
-			description of the result.
+			description of the result. Only returned by get_results and
+			get_results2; omitted from job information and listings.
 	*/
 	typedef structure {
 		list<string> shocknodes;
@@ -277,6 +299,35 @@ module UserAndJobState {
 	/* Create a new job status report. */
 	funcdef create_job2(CreateJobParams params) returns (job_id job);
 	
+	/*
+		Parameters for the create_jobs2 method.
+		
+		Required parameters:
+		int count - the number of jobs to create. No more than 1000 jobs may be
+			created at once.
+		
+		Optional parameters:
+		auth_strategy authstrat - the authorization strategy to use for the
+			jobs. Omit to use the standard UJS authorization. If an
+			authorization strategy is supplied, in most cases an authparam must
+			be supplied as well.
+		auth_param - a parameter for the authorization strategy.
+		usermeta meta - metadata for the jobs.
+	*/
+	typedef structure {
+		int count;
+		auth_strategy authstrat;
+		auth_param authparam;
+		usermeta meta;
+	} CreateJobsParams;
+	
+	/* Create multiple job status reports with the same authorization and
+		metadata. The jobs are authorized once and created in a single
+		database write. Returns the job ids in the order the jobs were
+		created.
+	*/
+	funcdef create_jobs2(CreateJobsParams params) returns (list<job_id> jobs);
+	
 	/* Create a new job status report.
 		@deprecated create_job2
 	 */
@@ -300,6 +351,47 @@ module UserAndJobState {
 	funcdef update_job(job_id job, service_token token, job_status status,
 		timestamp est_complete) returns();
 	
+	/*
+		An update to the status and progress of a job.
+		
+		job_id job - the job to update.
+		job_status status - the new status of the job.
+		
+		Optional parameters:
+		progress prog - the amount of progress the job has made since the last
+			update.
+		timestamp est_complete - the estimated time of completion of the job.
+	*/
+	typedef structure {
+		job_id job;
+		job_status status;
+		progress prog;
+		timestamp est_complete;
+	} JobProgressUpdate;
+	
+	/*
+		The result of an update to a job.
+		
+		job_id job - the job that was to be updated.
+		boolean updated - whether the update succeeded.
+		string error - the reason the update failed, or null if it succeeded.
+	*/
+	typedef structure {
+		job_id job;
+		boolean updated;
+		string error;
+	} JobUpdateResult;
+	
+	/*
+		Update the status and progress for multiple jobs at once. The jobs
+		must all have been started by the service that the token identifies.
+		No more than 1000 updates may be submitted at once. The failure of one
+		update does not affect the others - the results are returned in the
+		same order as the updates.
+	*/
+	funcdef update_jobs_progress(service_token token,
+		list<JobProgressUpdate> updates) returns(list<JobUpdateResult> results);
+	
 	/* Get the description of a job. */
 	funcdef get_job_description(job_id job) returns(service_name service,
 		progress_type ptype, max_progress max, job_description desc,
@@ -326,6 +418,30 @@ module UserAndJobState {
 	/* Get the detailed error message, if any */
 	funcdef get_detailed_error(job_id job) returns(detailed_err error);
 	
+	/* Parameters for the get_results2 and get_detailed_error2 methods.
+		
+		job_id job - the job.
+		int offset - for get_results2, the number of entries in the results list
+			to skip. For get_detailed_error2, the number of characters of the
+			error message to skip. Defaults to 0.
+		int length - the maximum number of entries or characters to return. Omit
+			or set to 0 to return everything after the offset.
+	*/
+	typedef structure {
+		job_id job;
+		int offset;
+		int length;
+	} JobRangeParams;
+	
+	/* Get the job results, or a range of the entries in the results list. */
+	funcdef get_results2(JobRangeParams params) returns(Results res);
+	
+	/* Get the detailed error message, if any, or part of the message. Large
+		messages may be retrieved in pieces.
+	*/
+	funcdef get_detailed_error2(JobRangeParams params)
+		returns(detailed_err error);
+	
 	/* Who owns a job and who canceled a job (null if not canceled). */
 	typedef tuple<username owner, username canceledby> user_info;
 	
@@ -347,6 +463,13 @@ module UserAndJobState {
 		auth_info auth, usermeta meta, job_description desc, Results res>
 		job_info2;
 	
+	/* Summary information about a job. Omits the job's authorization
+		information, metadata, and results.
+	*/
+	typedef tuple<job_id job, user_info users, service_name service,
+		job_stage stage, job_status status, time_info times,
+		progress_info progress, job_description desc> job_summary;
+	
 	/* Information about a job.
 		@deprecated job_info2
 	 */
@@ -363,6 +486,25 @@ module UserAndJobState {
 		@deprecated get_job_info2
 	 */
 	funcdef get_job_info(job_id job) returns(job_info info);
+	
+	/* Wait for a job to be updated, rather than repeatedly polling the job
+		status.
+		
+		job_id job - the job to wait for.
+		timestamp last_update - the last update time of the job seen by the
+			caller, as returned by get_job_status or get_job_info2.
+		int timeout - the maximum time to wait in seconds, no more than 60.
+		
+		Returns as soon as the job's last update time is later than
+		last_update, the job is deleted (in which case an error is thrown), or
+		the timeout expires. Returns immediately if the job is already
+		complete, or if the server is at its limit of waiting requests. In all
+		cases the current job information is returned, and so the caller
+		should compare the returned last update time to last_update to
+		determine whether the job changed.
+	*/
+	funcdef wait_for_job_update(job_id job, timestamp last_update,
+		int timeout) returns(job_info2 info);
 
 	/* A string-based filter for listing jobs.
 	
@@ -396,17 +538,59 @@ module UserAndJobState {
 			authorization parameter must be supplied and there is an upper
 			limit to the number of paramters allowed. In the case of the
 			kbaseworkspace strategy, these limits are 1 and 10, respectively.
+		int limit - the maximum number of jobs to return, no more than 10000.
+			For list_jobs2, omit or set to 0 to return all jobs. For
+			list_jobs3, defaults to 1000.
+		string sort - sort the jobs by the time of their last update. Either
+			'asc' (oldest first) or 'desc' (newest first). Defaults to 'desc'
+			if a limit or resume token is provided, otherwise the jobs are not
+			sorted.
+		string resume - an opaque token returned by list_jobs3 that resumes
+			the listing after the last job returned by that call. The sort
+			order and the other parameters should be the same as in that call.
+		boolean summary - list_jobs3 only. If true, return job summaries
+			rather than the full job information. Summaries are much cheaper
+			to retrieve, and should be preferred when the job results and
+			metadata are not needed.
+		boolean include_archive - if true, also list jobs that have been
+			moved to the archive. Completed, canceled, and errored jobs may be
+			moved to the archive some time after they finish, depending on
+			the server configuration. Archived jobs are always available via
+			the methods that take a job ID.
 	*/
 	typedef structure {
 		list<service_name> services;
 		job_filter filter;
 		auth_strategy authstrat;
 		list<auth_param> authparams;
+		int limit;
+		string sort;
+		string resume;
+		boolean summary;
+		boolean include_archive;
 	} ListJobsParams;
 	
 	/* List jobs. */
 	funcdef list_jobs2(ListJobsParams params) returns(list<job_info2> jobs);
 	
+	/*
+		Results of the list_jobs3 method.
+		
+		list<job_info2> jobs - the jobs. Null if job summaries were
+			requested.
+		list<job_summary> summaries - the job summaries, if requested.
+		string next - a token to pass as the resume parameter to get the next
+			page of jobs, or null if there are no more jobs.
+	*/
+	typedef structure {
+		list<job_info2> jobs;
+		list<job_summary> summaries;
+		string next;
+	} ListJobsResults;
+	
+	/* List jobs one page at a time. */
+	funcdef list_jobs3(ListJobsParams params) returns(ListJobsResults results);
+	
 	/* List jobs. Leave 'services' empty or null to list jobs from all
 		services.
 		